@@ -0,0 +1,65 @@
+package fr.inria.jfbaget.nanoparse.benchmarks;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.inria.jfbaget.nanoparse.IMatch;
+import fr.inria.jfbaget.nanoparse.Parser;
+import fr.inria.jfbaget.nanoparse.basetypes.BaseTypes;
+import fr.inria.jfbaget.nanoparse.readers.StringReader;
+
+/**
+ * Reads a typical token of each of the {@link BaseTypes}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BaseTypeBenchmark {
+
+    private static final Map<String, String> TOKENS = Map.of(
+            "BASETYPE", "-12.5e3",
+            "BOOL", "false",
+            "FLOAT", "3.14159",
+            "STRICTFLOAT", "3.14159",
+            "ID", "ancestor_of",
+            "INT", "1234567",
+            "NUMBER", "-12.5e3",
+            "STRING", "\"a \\\"quoted\\\" string\"");
+
+    @Param({"BASETYPE", "BOOL", "FLOAT", "STRICTFLOAT", "ID", "INT", "NUMBER", "STRING"})
+    public String type;
+
+    private Parser parser;
+
+    private String token;
+
+    @Setup
+    public void setup() {
+        this.parser = new Parser(List.of(new StringReader("unused", "unused", false)));
+        this.token = TOKENS.get(this.type);
+        if (!this.parser.read(this.token, 0, this.type).success()) {
+            throw new IllegalStateException(this.type + " does not read " + this.token);
+        }
+    }
+
+    @Benchmark
+    public IMatch read() {
+        return this.parser.read(this.token, 0, this.type);
+    }
+}
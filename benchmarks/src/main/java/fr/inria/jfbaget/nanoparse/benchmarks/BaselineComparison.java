@@ -0,0 +1,158 @@
+package fr.inria.jfbaget.nanoparse.benchmarks;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Compares a run of the benchmarks to a recorded baseline, both written by
+ * JMH with {@code -rf json}, and reports the regressions.
+ * <p>
+ * A benchmark regresses when its score is worse than the baseline by more
+ * than the threshold, in percent (10 by default): lower when the score is
+ * a throughput, higher when it is a time. It also regresses when it
+ * allocates more per operation ({@code gc.alloc.rate.norm}) by more than the
+ * threshold and by more than {@value #ALLOCATION_NOISE} bytes, below which
+ * the measure is noise. Benchmarks that are in only one of the files are
+ * listed, but do not fail the comparison.
+ * <p>
+ * Usage: {@code BaselineComparison <baseline.json> <current.json> [threshold]}.
+ * The exit status is 0 without regressions, 1 with regressions and 2 when
+ * the arguments are wrong.
+ */
+public final class BaselineComparison {
+
+    /** The default threshold, in percent. */
+    static final double THRESHOLD = 10;
+
+    /** Allocation differences of at most this many bytes per operation are ignored. */
+    static final double ALLOCATION_NOISE = 16;
+
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+
+    private BaselineComparison() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: BaselineComparison <baseline.json> <current.json> [threshold]");
+            System.exit(2);
+        }
+        double threshold = THRESHOLD;
+        if (args.length == 3) {
+            try {
+                threshold = Double.parseDouble(args[2]);
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid threshold " + args[2]);
+                System.exit(2);
+            }
+        }
+        int regressions = compare(read(Paths.get(args[0])), read(Paths.get(args[1])), threshold, System.out);
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+
+    /**
+     * Prints the comparison of {@code current} to {@code baseline} and
+     * returns the number of regressions.
+     *
+     * @param threshold the tolerated change, in percent
+     */
+    static int compare(Map<String, Result> baseline, Map<String, Result> current, double threshold,
+                       PrintStream out) {
+        int regressions = 0;
+        List<String> missing = new ArrayList<>();
+        out.printf("%-60s %14s %14s %8s %12s %12s %8s%n",
+                "Benchmark", "Baseline", "Current", "Change", "Alloc base", "Alloc now", "Change");
+        for (Map.Entry<String, Result> entry : baseline.entrySet()) {
+            Result before = entry.getValue();
+            Result after = current.get(entry.getKey());
+            if (after == null) {
+                missing.add(entry.getKey());
+                continue;
+            }
+            double change = percent(before.score, after.score);
+            boolean slower = (before.higherIsBetter ? -change : change) > threshold;
+            double allocationChange = percent(before.allocation, after.allocation);
+            boolean allocates = allocationChange > threshold
+                    && after.allocation - before.allocation > ALLOCATION_NOISE;
+            String verdict = "";
+            if (slower || allocates) {
+                verdict = "  REGRESSION" + (slower ? " score" : "") + (allocates ? " allocation" : "");
+                regressions++;
+            }
+            out.printf("%-60s %14.3f %14.3f %+7.1f%% %12.0f %12.0f %+7.1f%%%s%n",
+                    entry.getKey(), before.score, after.score, change,
+                    before.allocation, after.allocation, allocationChange, verdict);
+        }
+        for (String name : missing) {
+            out.println("Not run: " + name);
+        }
+        for (String name : current.keySet()) {
+            if (!baseline.containsKey(name)) out.println("No baseline: " + name);
+        }
+        out.printf("%d regression(s) beyond %.1f%%%n", regressions, threshold);
+        return regressions;
+    }
+
+    /**
+     * Reads the results of a JMH run, by benchmark name followed by its
+     * parameters.
+     */
+    static Map<String, Result> read(Path path) throws IOException {
+        JSONArray runs = new JSONArray(Files.readString(path, StandardCharsets.UTF_8));
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (int i = 0; i < runs.length(); i++) {
+            JSONObject run = runs.getJSONObject(i);
+            String benchmark = run.getString("benchmark");
+            // the class and method, without the package
+            int dot = benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1);
+            StringBuilder name = new StringBuilder(benchmark.substring(dot + 1));
+            JSONObject params = run.optJSONObject("params");
+            if (params != null) {
+                // sorted, so that the names do not depend on the order of the keys
+                Map<String, Object> sorted = new TreeMap<>(params.toMap());
+                name.append(sorted.toString().replace('{', '(').replace('}', ')'));
+            }
+            double score = run.getJSONObject("primaryMetric").getDouble("score");
+            JSONObject secondary = run.optJSONObject("secondaryMetrics");
+            double allocation = Double.NaN;
+            if (secondary != null && secondary.has(ALLOCATION)) {
+                allocation = secondary.getJSONObject(ALLOCATION).getDouble("score");
+            }
+            results.put(name.toString(), new Result(score, "thrpt".equals(run.getString("mode")), allocation));
+        }
+        return results;
+    }
+
+    /** Returns the change from {@code before} to {@code after}, in percent. */
+    private static double percent(double before, double after) {
+        if (before == after) return 0;
+        if (before == 0) return Double.POSITIVE_INFINITY;
+        return (after - before) / before * 100;
+    }
+
+    /** The scores of a benchmark with given parameters. */
+    static final class Result {
+        final double score;
+        /** Whether the score is a throughput, rather than a time. */
+        final boolean higherIsBetter;
+        /** The bytes allocated per operation, or {@code NaN} if not measured. */
+        final double allocation;
+
+        Result(double score, boolean higherIsBetter, double allocation) {
+            this.score = score;
+            this.higherIsBetter = higherIsBetter;
+            this.allocation = allocation;
+        }
+    }
+}
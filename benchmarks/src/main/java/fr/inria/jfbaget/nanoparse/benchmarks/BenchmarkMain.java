@@ -0,0 +1,28 @@
+package fr.inria.jfbaget.nanoparse.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks selected on the command line, as the JMH main class
+ * does, with the GC profiler always on: each benchmark then reports its
+ * throughput and its allocations per operation ({@code gc.alloc.rate.norm}).
+ * <p>
+ * For instance {@code java -jar target/benchmarks.jar Sequence -f 1} runs
+ * the benchmarks of {@link SequenceBenchmark} in one fork.
+ */
+public final class BenchmarkMain {
+
+    private BenchmarkMain() {}
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
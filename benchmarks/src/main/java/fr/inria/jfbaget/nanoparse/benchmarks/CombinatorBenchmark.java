@@ -0,0 +1,87 @@
+package fr.inria.jfbaget.nanoparse.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.inria.jfbaget.nanoparse.IMatch;
+import fr.inria.jfbaget.nanoparse.Parser;
+import fr.inria.jfbaget.nanoparse.readers.ChoiceReader;
+import fr.inria.jfbaget.nanoparse.readers.OptionalReader;
+import fr.inria.jfbaget.nanoparse.readers.RepetitionReader;
+import fr.inria.jfbaget.nanoparse.readers.SequenceReader;
+import fr.inria.jfbaget.nanoparse.readers.StringReader;
+
+/**
+ * Reads choices, repetitions and optional rules.
+ * <p>
+ * The choice is between rules that are not literals, so that it is not
+ * merged into a keyword set, and its alternatives start alike, so that it
+ * tries them in order. The repetitions read 100 identifiers, with or
+ * without a separator.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CombinatorBenchmark {
+
+    private static final String LIST = "x0 x1 x2 x3 x4 x5 x6 x7 x8 x9 ".repeat(10);
+
+    private static final String SEPARATED = "x0, x1, x2, x3, x4, x5, x6, x7, x8, x9, ".repeat(10) + "x";
+
+    private final Parser parser = new Parser(List.of(
+            new ChoiceReader("choice", List.of("call", "index", "field", "ID"), true),
+            new SequenceReader("call", List.of("ID", "open"), true),
+            new SequenceReader("index", List.of("ID", "bracket"), true),
+            new SequenceReader("field", List.of("ID", "dot"), true),
+            new RepetitionReader("list", "ID", null, 0, Integer.MAX_VALUE, true),
+            new RepetitionReader("separated", "ID", "comma", 0, Integer.MAX_VALUE, true),
+            new OptionalReader("optional", "open", true),
+            new StringReader("open", "(", true),
+            new StringReader("bracket", "[", true),
+            new StringReader("dot", ".", true),
+            new StringReader("comma", ",", true)
+    ));
+
+    @Benchmark
+    public IMatch choiceFirst() {
+        return this.parser.read("name(", 0, "choice");
+    }
+
+    @Benchmark
+    public IMatch choiceLast() {
+        return this.parser.read("name", 0, "choice");
+    }
+
+    @Benchmark
+    public IMatch repetition() {
+        return this.parser.read(LIST, 0, "list");
+    }
+
+    @Benchmark
+    public IMatch repetitionWithSeparator() {
+        return this.parser.read(SEPARATED, 0, "separated");
+    }
+
+    @Benchmark
+    public IMatch optionalPresent() {
+        return this.parser.read(" (", 0, "optional");
+    }
+
+    @Benchmark
+    public IMatch optionalAbsent() {
+        return this.parser.read(" )", 0, "optional");
+    }
+}
@@ -0,0 +1,290 @@
+package fr.inria.jfbaget.nanoparse.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Random;
+
+import fr.inria.jfbaget.nanoparse.ByteInput;
+
+/**
+ * Generated inputs of the {@link Grammars reference grammars}, of a given
+ * size.
+ * <p>
+ * The inputs are generated from a fixed seed, so that every run and every
+ * machine reads the same text, and written once to the directory named by
+ * the {@code nanoparse.corpora} system property ({@code target/corpora} by
+ * default), where later runs find them. Inputs of up to
+ * {@link #IN_MEMORY} bytes are loaded as strings; larger ones are mapped
+ * as {@link ByteInput bytes}, so that a gigabyte of text does not need two
+ * gigabytes of heap.
+ */
+final class Corpora {
+
+    /** The size of the largest inputs loaded as strings. */
+    static final long IN_MEMORY = 256L << 20;
+
+    private static final long SEED = 20240521L;
+
+    private Corpora() {}
+
+    /**
+     * Returns the input of {@code grammar} of about {@code size} bytes,
+     * generating it first if needed.
+     *
+     * @param grammar the name of a grammar of {@link Grammars}
+     * @param size    a size such as {@code 1KB}, {@code 1MB}, {@code 100MB} or {@code 1GB}
+     */
+    static CharSequence load(String grammar, String size) throws IOException {
+        long bytes = bytes(size);
+        Path path = directory().resolve(grammar + "-" + size + ".txt");
+        if (!Files.exists(path)) generate(grammar, bytes, path);
+        if (Files.size(path) > IN_MEMORY) return ByteInput.map(path);
+        return Files.readString(path, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns the number of bytes of {@code size}, a number followed by
+     * {@code B}, {@code KB}, {@code MB} or {@code GB}.
+     *
+     * @throws IllegalArgumentException if {@code size} is not such a size
+     */
+    static long bytes(String size) {
+        String text = size.trim().toUpperCase(Locale.ROOT);
+        long unit = 1;
+        if (text.endsWith("KB")) unit = 1L << 10;
+        else if (text.endsWith("MB")) unit = 1L << 20;
+        else if (text.endsWith("GB")) unit = 1L << 30;
+        else if (!text.endsWith("B")) throw new IllegalArgumentException("Invalid size " + size);
+        String number = text.substring(0, text.length() - (unit == 1 ? 1 : 2));
+        try {
+            return Long.parseLong(number) * unit;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid size " + size, e);
+        }
+    }
+
+    private static Path directory() {
+        return Paths.get(System.getProperty("nanoparse.corpora", "target/corpora"));
+    }
+
+    /**
+     * Writes items of {@code grammar} to {@code path} until it has at least
+     * {@code bytes} bytes. The file is written aside and then moved, so that
+     * an interrupted generation is not mistaken for a corpus.
+     */
+    private static void generate(String grammar, long bytes, Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        Path partial = path.resolveSibling(path.getFileName() + ".partial");
+        Random random = new Random(SEED);
+        try (CountingWriter out = new CountingWriter(Files.newBufferedWriter(partial, StandardCharsets.US_ASCII))) {
+            while (out.count < bytes) {
+                switch (grammar) {
+                    case "rules":
+                        rule(random, out);
+                        break;
+                    case "json":
+                        out.write("{\"id\": " + out.count + ", \"item\": ");
+                        json(random, out, 0);
+                        out.write("}\n");
+                        break;
+                    case "csv":
+                        record(random, out);
+                        break;
+                    case "arithmetic":
+                        expression(random, out, 0);
+                        out.write(";\n");
+                        break;
+                    case "datalog":
+                        clause(random, out);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown grammar " + grammar);
+                }
+            }
+        }
+        Files.move(partial, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** {@code p12 :- q3, r45.} or {@code p12.} */
+    private static void rule(Random random, Writer out) throws IOException {
+        out.write(identifier(random, "p"));
+        int body = random.nextInt(4);
+        if (body > 0) {
+            out.write(" :- ");
+            for (int i = 0; i < body; i++) {
+                if (i > 0) out.write(", ");
+                out.write(identifier(random, "q"));
+            }
+        }
+        out.write(".\n");
+    }
+
+    /** An object, array or scalar, nested at most 4 levels deep. */
+    private static void json(Random random, Writer out, int depth) throws IOException {
+        int kind = depth >= 4 ? 2 + random.nextInt(5) : random.nextInt(7);
+        switch (kind) {
+            case 0:
+                out.write('{');
+                for (int i = 0, n = random.nextInt(5); i < n; i++) {
+                    if (i > 0) out.write(", ");
+                    out.write(quoted(random));
+                    out.write(": ");
+                    json(random, out, depth + 1);
+                }
+                out.write('}');
+                break;
+            case 1:
+                out.write('[');
+                for (int i = 0, n = random.nextInt(5); i < n; i++) {
+                    if (i > 0) out.write(", ");
+                    json(random, out, depth + 1);
+                }
+                out.write(']');
+                break;
+            case 2:
+                out.write(quoted(random));
+                break;
+            case 3:
+                out.write(Integer.toString(random.nextInt(2_000_000) - 1_000_000));
+                break;
+            case 4:
+                out.write(Double.toString(random.nextInt(100_000) / 100.0));
+                break;
+            case 5:
+                out.write(random.nextBoolean() ? "true" : "false");
+                break;
+            default:
+                out.write("null");
+        }
+    }
+
+    /** A line of 8 fields, some quoted with escaped quotes and commas, some empty. */
+    private static void record(Random random, Writer out) throws IOException {
+        for (int i = 0; i < 8; i++) {
+            if (i > 0) out.write(',');
+            switch (random.nextInt(4)) {
+                case 0:
+                    out.write("\"" + word(random) + ", \"\"" + word(random) + "\"\"\"");
+                    break;
+                case 1:
+                    out.write(Integer.toString(random.nextInt(100_000)));
+                    break;
+                case 2:
+                    break;
+                default:
+                    out.write(word(random) + " " + word(random));
+            }
+        }
+        out.write('\n');
+    }
+
+    /** Numbers and variables combined by the four operators, and parenthesized. */
+    private static void expression(Random random, Writer out, int depth) throws IOException {
+        for (int i = 0, n = 1 + random.nextInt(4); i < n; i++) {
+            if (i > 0) out.write(" " + "+-*/".charAt(random.nextInt(4)) + " ");
+            int kind = random.nextInt(depth >= 3 ? 2 : 3);
+            if (kind == 0) {
+                out.write(Integer.toString(random.nextInt(1000)));
+            } else if (kind == 1) {
+                out.write(identifier(random, "x"));
+            } else {
+                out.write('(');
+                expression(random, out, depth + 1);
+                out.write(')');
+            }
+        }
+    }
+
+    /** {@code p(X, "a", 1).} or {@code p(X) :- q(X, Y), !r(Y).} */
+    private static void clause(Random random, Writer out) throws IOException {
+        atom(random, out);
+        int body = random.nextInt(4);
+        if (body > 0) {
+            out.write(" :- ");
+            for (int i = 0; i < body; i++) {
+                if (i > 0) out.write(", ");
+                if (random.nextInt(5) == 0) out.write('!');
+                atom(random, out);
+            }
+        }
+        out.write(".\n");
+    }
+
+    private static void atom(Random random, Writer out) throws IOException {
+        out.write(identifier(random, "p"));
+        out.write('(');
+        for (int i = 0, n = 1 + random.nextInt(3); i < n; i++) {
+            if (i > 0) out.write(", ");
+            switch (random.nextInt(3)) {
+                case 0:
+                    out.write(identifier(random, "X"));
+                    break;
+                case 1:
+                    out.write(quoted(random));
+                    break;
+                default:
+                    out.write(Integer.toString(random.nextInt(1000)));
+            }
+        }
+        out.write(')');
+    }
+
+    private static String identifier(Random random, String prefix) {
+        return prefix + random.nextInt(100);
+    }
+
+    private static String quoted(Random random) {
+        return "\"" + word(random) + "\"";
+    }
+
+    private static String word(Random random) {
+        char[] letters = new char[3 + random.nextInt(6)];
+        for (int i = 0; i < letters.length; i++) letters[i] = (char) ('a' + random.nextInt(26));
+        return new String(letters);
+    }
+
+    /** A writer that counts the characters written, all of which are ASCII. */
+    private static final class CountingWriter extends Writer {
+        private final BufferedWriter out;
+        private long count;
+
+        CountingWriter(BufferedWriter out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            this.out.write(chars, offset, length);
+            this.count += length;
+        }
+
+        @Override
+        public void write(String text) throws IOException {
+            this.out.write(text);
+            this.count += text.length();
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            this.out.write(c);
+            this.count++;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.out.close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package fr.inria.jfbaget.nanoparse.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.inria.jfbaget.nanoparse.FrozenParser;
+import fr.inria.jfbaget.nanoparse.IMatch;
+
+/**
+ * Reads whole generated documents with the {@link Grammars reference
+ * grammars}: {@link #read() building} or only {@link #recognize()
+ * recognizing} them.
+ * <p>
+ * The default sizes keep a run short; larger documents are selected on the
+ * command line, as in {@code -p size=100MB,1GB}. The time is per document,
+ * so that the throughput in bytes per second is the size divided by the
+ * score. Building the tree of the largest documents needs a large heap
+ * ({@code -jvmArgs -Xmx16g}).
+ * <p>
+ * The setup checks that the whole document, but its trailing blanks, is
+ * read, so that a grammar that stopped matching its corpus does not show
+ * up as an improvement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GrammarBenchmark {
+
+    @Param({"rules", "json", "csv", "arithmetic", "datalog"})
+    public String grammar;
+
+    @Param({"1KB", "1MB"})
+    public String size;
+
+    private FrozenParser parser;
+
+    private CharSequence input;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.parser = Grammars.create(this.grammar).freeze();
+        this.input = Corpora.load(this.grammar, this.size);
+        int end = this.parser.recognize(this.input, 0, "main");
+        int length = this.input.length();
+        while (length > 0 && Character.isWhitespace(this.input.charAt(length - 1))) length--;
+        if (end < length) {
+            throw new IllegalStateException("The " + this.grammar + " grammar stops at " + end
+                    + " of " + length + " in its corpus");
+        }
+    }
+
+    @Benchmark
+    public IMatch read() {
+        return this.parser.read(this.input, 0, "main");
+    }
+
+    @Benchmark
+    public int recognize() {
+        return this.parser.recognize(this.input, 0, "main");
+    }
+}
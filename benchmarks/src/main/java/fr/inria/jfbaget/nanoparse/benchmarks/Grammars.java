@@ -0,0 +1,142 @@
+package fr.inria.jfbaget.nanoparse.benchmarks;
+
+import java.util.List;
+import java.util.Map;
+
+import fr.inria.jfbaget.nanoparse.Parser;
+import fr.inria.jfbaget.nanoparse.readers.ChoiceReader;
+import fr.inria.jfbaget.nanoparse.readers.RegexReader;
+import fr.inria.jfbaget.nanoparse.readers.RepetitionReader;
+import fr.inria.jfbaget.nanoparse.readers.SequenceReader;
+import fr.inria.jfbaget.nanoparse.readers.StringReader;
+
+/**
+ * The reference grammars of the end-to-end benchmarks, whose entry rule is
+ * {@code "main"}, a repetition of top-level items.
+ */
+final class Grammars {
+
+    /** The names of the grammars, as accepted by {@link #create(String)}. */
+    static final List<String> NAMES = List.of("rules", "json", "csv", "arithmetic", "datalog");
+
+    private Grammars() {}
+
+    /**
+     * Returns a new parser for the grammar called {@code name}.
+     *
+     * @throws IllegalArgumentException if there is no such grammar
+     */
+    static Parser create(String name) {
+        switch (name) {
+            case "rules":
+                return rules();
+            case "json":
+                return json();
+            case "csv":
+                return csv();
+            case "arithmetic":
+                return arithmetic();
+            case "datalog":
+                return datalog();
+            default:
+                throw new IllegalArgumentException("Unknown grammar " + name);
+        }
+    }
+
+    /** The grammar of the {@code BasicRulesParser} example: {@code a :- b, c. d.} */
+    static Parser rules() {
+        return new Parser(List.of(
+                new RepetitionReader("main", "item", null, 0, Integer.MAX_VALUE, false),
+                new ChoiceReader("item", List.of("fact", "rule"), false),
+                new SequenceReader("fact", List.of("ID", "dot"), true, 0),
+                new StringReader("dot", ".", true),
+                new SequenceReader("rule", List.of("ID", "rulesep", "list", "dot"), true, Map.of(0, "head", 2, "body")),
+                new StringReader("rulesep", ":-", true),
+                new RepetitionReader("list", "ID", "comma", 0, Integer.MAX_VALUE, false),
+                new StringReader("comma", ",", true)
+        ));
+    }
+
+    /** A sequence of JSON values, objects becoming lists of key-value objects. */
+    static Parser json() {
+        return new Parser(List.of(
+                new RepetitionReader("main", "value", null, 0, Integer.MAX_VALUE, false),
+                new ChoiceReader("value", List.of("object", "array", "STRING", "NUMBER", "true", "false", "null"), false),
+                new SequenceReader("object", List.of("lbrace", "members", "rbrace"), true, 1),
+                new RepetitionReader("members", "member", "comma", 0, Integer.MAX_VALUE, false, false, false),
+                new SequenceReader("member", List.of("STRING", "colon", "value"), true, Map.of(0, "key", 2, "value")),
+                new SequenceReader("array", List.of("lbracket", "elements", "rbracket"), true, 1),
+                new RepetitionReader("elements", "value", "comma", 0, Integer.MAX_VALUE, false, false, false),
+                new StringReader("lbrace", "{", true),
+                new StringReader("rbrace", "}", true),
+                new StringReader("lbracket", "[", true),
+                new StringReader("rbracket", "]", true),
+                new StringReader("colon", ":", true),
+                new StringReader("comma", ",", true),
+                new StringReader("true", "true", true),
+                new StringReader("false", "false", true),
+                new StringReader("null", "null", true)
+        ));
+    }
+
+    /** Comma-separated values, one record per line, fields quoted or not. */
+    static Parser csv() {
+        return new Parser(List.of(
+                new RepetitionReader("main", "record", "newline", 0, Integer.MAX_VALUE, false, false, false),
+                new RepetitionReader("record", "field", "comma", 1, Integer.MAX_VALUE, false, false, false),
+                new ChoiceReader("field", List.of("quoted", "bare"), false),
+                new RegexReader("quoted", "\"(?:[^\"]|\"\")*\"", false),
+                new RegexReader("bare", "[^,\"\\r\\n]*", false),
+                new StringReader("comma", ",", false),
+                new RegexReader("newline", "\\r?\\n", false)
+        ));
+    }
+
+    /**
+     * Arithmetic statements, such as {@code 1 + 2 * (3 - x);}, whose left
+     * recursive rules are memoized.
+     */
+    static Parser arithmetic() {
+        return new Parser(List.of(
+                new RepetitionReader("main", "statement", null, 0, Integer.MAX_VALUE, false),
+                new SequenceReader("statement", List.of("expr", "semicolon"), false, 0),
+                new ChoiceReader("expr", List.of("sum", "term"), false),
+                new SequenceReader("sum", List.of("expr", "additive", "term"), false),
+                new ChoiceReader("additive", List.of("plus", "minus"), false),
+                new ChoiceReader("term", List.of("product", "factor"), false),
+                new SequenceReader("product", List.of("term", "multiplicative", "factor"), false),
+                new ChoiceReader("multiplicative", List.of("times", "divide"), false),
+                new ChoiceReader("factor", List.of("NUMBER", "ID", "group"), false),
+                new SequenceReader("group", List.of("lparen", "expr", "rparen"), false, 1),
+                new StringReader("plus", "+", true),
+                new StringReader("minus", "-", true),
+                new StringReader("times", "*", true),
+                new StringReader("divide", "/", true),
+                new StringReader("lparen", "(", true),
+                new StringReader("rparen", ")", true),
+                new StringReader("semicolon", ";", true)
+        ));
+    }
+
+    /** Datalog facts and rules with negation: {@code p(X, "a") :- q(X, 1), !r(X).} */
+    static Parser datalog() {
+        return new Parser(List.of(
+                new RepetitionReader("main", "clause", null, 0, Integer.MAX_VALUE, false),
+                new ChoiceReader("clause", List.of("rule", "fact"), false),
+                new SequenceReader("fact", List.of("atom", "dot"), false, 0),
+                new SequenceReader("rule", List.of("atom", "implies", "body", "dot"), false, Map.of(0, "head", 2, "body")),
+                new RepetitionReader("body", "literal", "comma", 1, Integer.MAX_VALUE, false),
+                new ChoiceReader("literal", List.of("negated", "atom"), false),
+                new SequenceReader("negated", List.of("not", "atom"), false, 1),
+                new SequenceReader("atom", List.of("ID", "lparen", "terms", "rparen"), false, Map.of(0, "predicate", 2, "terms")),
+                new RepetitionReader("terms", "term", "comma", 0, Integer.MAX_VALUE, false, false, false),
+                new ChoiceReader("term", List.of("ID", "STRING", "NUMBER"), false),
+                new StringReader("implies", ":-", true),
+                new StringReader("not", "!", true),
+                new StringReader("lparen", "(", true),
+                new StringReader("rparen", ")", true),
+                new StringReader("comma", ",", true),
+                new StringReader("dot", ".", true)
+        ));
+    }
+}
@@ -0,0 +1,73 @@
+package fr.inria.jfbaget.nanoparse.benchmarks;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.inria.jfbaget.nanoparse.IMatch;
+import fr.inria.jfbaget.nanoparse.Parser;
+import fr.inria.jfbaget.nanoparse.readers.SequenceReader;
+import fr.inria.jfbaget.nanoparse.readers.StringReader;
+
+/**
+ * Reads {@code ID "(" INT ")"} with a {@link SequenceReader} of each of its
+ * four pattern types: all the sub-matches, one, some, or an object.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SequenceBenchmark {
+
+    private static final List<String> ITEMS = List.of("ID", "open", "INT", "close");
+
+    private static final String INPUT = "arity ( 42 )";
+
+    @Param({"all", "one", "some", "object"})
+    public String pattern;
+
+    private Parser parser;
+
+    @Setup
+    public void setup() {
+        SequenceReader sequence;
+        switch (this.pattern) {
+            case "all":
+                sequence = new SequenceReader("main", ITEMS, true);
+                break;
+            case "one":
+                sequence = new SequenceReader("main", ITEMS, true, 2);
+                break;
+            case "some":
+                sequence = new SequenceReader("main", ITEMS, true, List.of(0, 2));
+                break;
+            default:
+                sequence = new SequenceReader("main", ITEMS, true, Map.of(0, "name", 2, "value"));
+        }
+        this.parser = new Parser(List.of(
+                sequence,
+                new StringReader("open", "(", true),
+                new StringReader("close", ")", true)
+        ));
+        if (!this.parser.read(INPUT, 0).success()) throw new IllegalStateException(this.pattern);
+    }
+
+    @Benchmark
+    public IMatch read() {
+        return this.parser.read(INPUT, 0);
+    }
+}
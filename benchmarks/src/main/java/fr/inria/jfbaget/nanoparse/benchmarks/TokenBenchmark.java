@@ -0,0 +1,52 @@
+package fr.inria.jfbaget.nanoparse.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.inria.jfbaget.nanoparse.IMatch;
+import fr.inria.jfbaget.nanoparse.Parser;
+import fr.inria.jfbaget.nanoparse.readers.RegexReader;
+import fr.inria.jfbaget.nanoparse.readers.StringReader;
+
+/**
+ * Reads single tokens: a literal, a regular expression, and the default
+ * {@code "skip"} rule, through {@link Parser#read(CharSequence, int, String)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenBenchmark {
+
+    private final Parser parser = new Parser(List.of(
+            new StringReader("keyword", "implies", false),
+            new RegexReader("word", "[a-z]+[0-9]*", false)
+    ));
+
+    @Benchmark
+    public IMatch stringReader() {
+        return this.parser.read("implies", 0, "keyword");
+    }
+
+    @Benchmark
+    public IMatch regexReader() {
+        return this.parser.read("variable42", 0, "word");
+    }
+
+    @Benchmark
+    public IMatch skip() {
+        return this.parser.read("  \n    \r\n  x", 0, "skip");
+    }
+}
@@ -0,0 +1,159 @@
+package fr.inria.jfbaget.nanoparse;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The matches of a batch of inputs, parsed by
+ * {@link IParser#readAll(Collection, Executor)}, and its timing.
+ * <p>
+ * The {@link #elapsed() elapsed} time runs from the submission of the
+ * batch to its last parse; the {@link #parseTime() parse time} is the time
+ * spent parsing, summed over the threads. Their ratio is the parallelism
+ * the batch actually got: batches that are too small are dominated by the
+ * cost of the fan-out, batches that are too large delay their first
+ * results.
+ */
+public final class BatchResult {
+
+	/** The number of slices per available processor. */
+	private static final int SLICES = 4;
+
+	/** The executor of virtual threads, or the common pool before Java 21. */
+	private static final Executor DEFAULT_EXECUTOR = virtualThreads();
+
+	private final List<IMatch> matches;
+
+	private final long elapsed;
+
+	private final long parseTime;
+
+	private BatchResult(List<IMatch> matches, long elapsed, long parseTime) {
+		this.matches = matches;
+		this.elapsed = elapsed;
+		this.parseTime = parseTime;
+	}
+
+	/**
+	 * Returns the matches, in the order of the inputs.
+	 *
+	 * @return an unmodifiable list of matches
+	 */
+	public List<IMatch> matches() {
+		return this.matches;
+	}
+
+	/**
+	 * Returns the match of the {@code index}th input.
+	 */
+	public IMatch get(int index) {
+		return this.matches.get(index);
+	}
+
+	/**
+	 * Returns the number of inputs of the batch.
+	 */
+	public int size() {
+		return this.matches.size();
+	}
+
+	/**
+	 * Returns the number of inputs whose match failed.
+	 */
+	public int failures() {
+		int failures = 0;
+		for (IMatch match : this.matches) {
+			if (!match.success()) failures++;
+		}
+		return failures;
+	}
+
+	/**
+	 * Returns the wall-clock time from the submission of the batch to the
+	 * end of its last parse.
+	 */
+	public Duration elapsed() {
+		return Duration.ofNanos(this.elapsed);
+	}
+
+	/**
+	 * Returns the time spent parsing, summed over the slices of the batch.
+	 */
+	public Duration parseTime() {
+		return Duration.ofNanos(this.parseTime);
+	}
+
+	/**
+	 * Returns the executor {@link IParser#readAll(Collection)} uses.
+	 */
+	static Executor defaultExecutor() {
+		return DEFAULT_EXECUTOR;
+	}
+
+	/**
+	 * Starts parsing {@code inputs} with the default reader of
+	 * {@code parser}, by slices run on {@code executor}.
+	 */
+	static CompletableFuture<BatchResult> start(IParser parser, Collection<? extends CharSequence> inputs,
+	                                            Executor executor) {
+		long started = System.nanoTime();
+		CharSequence[] texts = inputs.toArray(new CharSequence[0]);
+		IMatch[] matches = new IMatch[texts.length];
+		int slices = Math.min(texts.length, SLICES * Runtime.getRuntime().availableProcessors());
+		long[] times = new long[slices];
+		CompletableFuture<?>[] tasks = new CompletableFuture<?>[slices];
+		for (int s = 0; s < slices; s++) {
+			int slice = s;
+			int from = (int) ((long) texts.length * s / slices);
+			int to = (int) ((long) texts.length * (s + 1) / slices);
+			tasks[s] = CompletableFuture.runAsync(() -> {
+				long begin = System.nanoTime();
+				for (int i = from; i < to; i++) {
+					matches[i] = parser.read(texts[i], 0);
+				}
+				times[slice] = System.nanoTime() - begin;
+			}, executor);
+		}
+		// completing the tasks publishes what they wrote
+		return CompletableFuture.allOf(tasks).thenApply(done -> {
+			long parseTime = 0;
+			for (long time : times) parseTime += time;
+			return new BatchResult(List.of(matches), System.nanoTime() - started, parseTime);
+		});
+	}
+
+	/**
+	 * Waits for {@code batch}, throwing the exception of a failed parse as
+	 * it was thrown.
+	 */
+	static BatchResult join(CompletableFuture<BatchResult> batch) {
+		try {
+			return batch.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error) throw (Error) e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns an executor starting a virtual thread per task, if the JDK
+	 * has them, which is looked up reflectively since this library targets
+	 * Java 17; or the common pool.
+	 */
+	private static Executor virtualThreads() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (Executor) factory.invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return ForkJoinPool.commonPool();
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package fr.inria.jfbaget.nanoparse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * UTF-8 bytes to be parsed as they are, without decoding them first: the
+ * index of a {@link CharSequence} position is the offset of a byte, and
+ * {@link #charAt(int)} returns that byte, from {@code '\u0000'} to
+ * {@code 'ÿ'}.
+ * <p>
+ * Since UTF-8 encodes ASCII characters as themselves and never uses ASCII
+ * bytes within the encoding of other characters, readers that compare ASCII
+ * characters work on the bytes as on the decoded text:
+ * <ul>
+ *   <li>literals ({@link fr.inria.jfbaget.nanoparse.readers.StringReader})
+ *       are compared byte by byte, and so must be ASCII to match;</li>
+ *   <li>the scanners of the base types and the default {@code "skip"} rule
+ *       only look for ASCII characters, and step over the bytes of other
+ *       characters as a whole (in quoted strings for instance);</li>
+ *   <li>other regular expressions
+ *       ({@link fr.inria.jfbaget.nanoparse.readers.RegexReader}) are run on
+ *       the bytes when they cannot tell them from characters, and otherwise
+ *       on the {@linkplain #decoded() decoded view} of the input, from which
+ *       the end of the match is mapped back to a byte offset.</li>
+ * </ul>
+ * The start and end of every match are byte offsets. Values are decoded
+ * only when accessed: {@link #subSequence(int, int)} returns the decoded
+ * text of a range of bytes, which is what the token matches
+ * ({@link fr.inria.jfbaget.nanoparse.matches.SpanStringMatch}) return as
+ * their result.
+ * <p>
+ * Instances can be read by several threads. The bytes must not change
+ * while they are read.
+ */
+public final class ByteInput implements CharSequence {
+
+    private final ByteBuffer buffer;
+    /** The bytes, if {@link #buffer} wraps an array, from index {@link #base}. */
+    private final byte[] array;
+    private final int base;
+    private final int length;
+
+    /** The decoded view, built when first needed. */
+    private volatile MappedInput decoded;
+
+    private ByteInput(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.length = buffer.limit();
+        this.array = buffer.hasArray() ? buffer.array() : null;
+        this.base = buffer.hasArray() ? buffer.arrayOffset() : 0;
+    }
+
+    /**
+     * Returns the input of the UTF-8 bytes of {@code bytes}, that are not
+     * copied.
+     */
+    public static ByteInput of(byte[] bytes) {
+        return new ByteInput(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Returns the input of the UTF-8 bytes of {@code buffer}, from its
+     * position to its limit, that are not copied. The position and limit
+     * of {@code buffer} are left unchanged.
+     */
+    public static ByteInput of(ByteBuffer buffer) {
+        return new ByteInput(buffer.slice());
+    }
+
+    /**
+     * Maps the file at {@code path}, read-only.
+     *
+     * @param path a UTF-8 or ASCII file
+     * @return the bytes of the file
+     * @throws IOException if the file cannot be mapped
+     * @throws IllegalArgumentException if the file has more than
+     *         {@link Integer#MAX_VALUE} bytes (see {@link MappedInput} for
+     *         larger files)
+     */
+    public static ByteInput map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("The file has more than " + Integer.MAX_VALUE + " bytes");
+            }
+            return new ByteInput(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /** Returns the number of bytes. */
+    @Override
+    public int length() {
+        return this.length;
+    }
+
+    /** Returns the byte at offset {@code index}, as an unsigned value. */
+    @Override
+    public char charAt(int index) {
+        if (this.array != null) {
+            if (index < 0 || index >= this.length) {
+                throw new IndexOutOfBoundsException("index " + index + ", length " + this.length);
+            }
+            return (char) (this.array[this.base + index] & 0xFF);
+        }
+        return (char) (this.buffer.get(index) & 0xFF);
+    }
+
+    /**
+     * Returns the decoded text of the bytes from offset {@code start} to
+     * offset {@code end}, unlike other {@code CharSequence}s whose
+     * subsequences hold the chars given by {@link #charAt(int)}. Malformed
+     * bytes are decoded as U+FFFD.
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > this.length || start > end) {
+            throw new IndexOutOfBoundsException("[" + start + ", " + end + "), length " + this.length);
+        }
+        if (this.array != null) return new String(this.array, this.base + start, end - start, StandardCharsets.UTF_8);
+        byte[] bytes = new byte[end - start];
+        this.buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Decodes all the bytes into a {@code String}. */
+    @Override
+    public String toString() {
+        return this.subSequence(0, this.length).toString();
+    }
+
+    /**
+     * Returns the decoded characters of the input, indexed as a
+     * {@code String} of the whole text. See {@link #index(int)} and
+     * {@link #offset(int)} to map positions from one to the other.
+     */
+    public CharSequence decoded() {
+        return this.view();
+    }
+
+    /**
+     * Returns the index, in {@link #decoded()}, of the character whose
+     * encoding holds the byte at {@code offset}, or the length of the
+     * decoded text if {@code offset} is the number of bytes.
+     */
+    public int index(int offset) {
+        return this.view().index(offset);
+    }
+
+    /**
+     * Returns the offset of the first byte of the character at
+     * {@code index} in {@link #decoded()}, or the number of bytes if
+     * {@code index} is the length of the decoded text.
+     */
+    public int offset(int index) {
+        return (int) this.view().offset(index);
+    }
+
+    private MappedInput view() {
+        MappedInput decoded = this.decoded;
+        if (decoded == null) {
+            // concurrent threads may each build one, all equivalent
+            decoded = MappedInput.of(this.buffer);
+            this.decoded = decoded;
+        }
+        return decoded;
+    }
+}
@@ -0,0 +1,89 @@
+package fr.inria.jfbaget.nanoparse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Function;
+
+import fr.inria.jfbaget.nanoparse.exceptions.InvalidIdentifierException;
+import fr.inria.jfbaget.nanoparse.readers.GrammarCompiler;
+import fr.inria.jfbaget.nanoparse.readers.ParseSession;
+import fr.inria.jfbaget.nanoparse.readers.ParsingMachine;
+
+/**
+ * An {@link IParser} running a grammar translated by another engine than
+ * the reader interpreter: {@link GrammarCompiler} or {@link ParsingMachine}.
+ * <p>
+ * Obtained through {@link Parser#compile()} or {@link Parser#toMachine()}.
+ * It exposes the same readers and returns the same {@link IMatch} trees as
+ * the {@link Parser} it was translated from, but runs the translated
+ * grammar instead of interpreting the reader graph. Its default reader is initially that of the source parser,
+ * and can be changed independently.
+ */
+final class CompiledParser implements IParser {
+
+	private final Parser source;
+
+	private final GrammarCompiler.Rules rules;
+
+	private final HashMap<String, Integer> indices = new HashMap<>();
+
+	private String defaultReaderName;
+
+	/**
+	 * Translates all the readers of {@code source}.
+	 *
+	 * @param source  a parser whose readers are linked and final
+	 * @param backend translates the list of readers into indexed rules
+	 */
+	CompiledParser(Parser source, Function<List<IReader>, GrammarCompiler.Rules> backend) {
+		this.source = source;
+		List<IReader> readers = new ArrayList<>();
+		for (String name : source.getReaderNames()) {
+			this.indices.put(name, readers.size());
+			readers.add(source.getReader(name));
+		}
+		this.rules = backend.apply(readers);
+		this.defaultReaderName = source.getDefaultReaderName();
+	}
+
+	@Override
+	public IMatch read(CharSequence input, int start, String readerName) {
+		Integer index = this.indices.get(readerName);
+		if (index == null)
+			throw new InvalidIdentifierException(readerName);
+		ParseSession session = ParseSession.open(input);
+		try {
+			return this.rules.read(index, input, start);
+		} finally {
+			session.close();
+		}
+	}
+
+	@Override
+	public IMatch read(CharSequence input, int start) {
+		return this.read(input, start, this.defaultReaderName);
+	}
+
+	@Override
+	public List<String> getReaderNames() {
+		return this.source.getReaderNames();
+	}
+
+	@Override
+	public IReader getReader(String readerName) {
+		return this.source.getReader(readerName);
+	}
+
+	@Override
+	public void setDefaultReaderName(String readerName) {
+		if (!this.indices.containsKey(readerName))
+			throw new InvalidIdentifierException(readerName);
+		this.defaultReaderName = readerName;
+	}
+
+	@Override
+	public String getDefaultReaderName() {
+		return this.defaultReaderName;
+	}
+}
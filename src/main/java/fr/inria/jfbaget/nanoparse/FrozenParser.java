@@ -0,0 +1,170 @@
+package fr.inria.jfbaget.nanoparse;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import fr.inria.jfbaget.nanoparse.exceptions.InvalidIdentifierException;
+import fr.inria.jfbaget.nanoparse.matches.FlatTree;
+import fr.inria.jfbaget.nanoparse.readers.IncrementalParse;
+import fr.inria.jfbaget.nanoparse.readers.ParseSession;
+
+/**
+ * An immutable {@link Parser}, returned by {@link Parser#freeze()}, that
+ * any number of threads may read with at once.
+ * <p>
+ * Its readers are {@link IReader#freeze() frozen}, and reached through
+ * final fields only, so that a frozen parser is safely published to other
+ * threads however it is handed over: they see its readers fully linked.
+ * Reading then writes nothing to the grammar: what a parse writes lives in
+ * the {@link ParseSession} opened by each call, and in the matches built.
+ * Reads are therefore as cheap as on the {@link Parser}, on platform or
+ * virtual threads.
+ * <p>
+ * The default reader is the one of the parser when it was frozen, and
+ * cannot be changed.
+ */
+public final class FrozenParser implements IParser {
+
+	private final Parser parser;
+
+	private final List<String> readerNames;
+
+	private final String defaultReaderName;
+
+	/**
+	 * Wraps {@code parser}, whose readers are frozen.
+	 */
+	FrozenParser(Parser parser) {
+		this.parser = parser;
+		this.readerNames = List.copyOf(parser.getReaderNames());
+		this.defaultReaderName = parser.getDefaultReaderName();
+	}
+
+	/**
+	 * Parses the input starting at {@code start} using the reader
+	 * identified by {@code readerName} as entry point, see
+	 * {@link Parser#read(CharSequence, int, String)}.
+	 *
+	 * @throws InvalidIdentifierException if no reader with the given name exists
+	 */
+	@Override
+	public IMatch read(CharSequence input, int start, String readerName) {
+		return this.parser.read(input, start, readerName);
+	}
+
+	/**
+	 * Parses the input in {@code session}, see
+	 * {@link Parser#read(CharSequence, int, String, ParseSession)}. Each
+	 * thread must use its own sessions.
+	 *
+	 * @throws InvalidIdentifierException if no reader with the given name exists
+	 * @throws IllegalStateException if {@code session} is open
+	 */
+	public IMatch read(CharSequence input, int start, String readerName, ParseSession session) {
+		return this.parser.read(input, start, readerName, session);
+	}
+
+	/**
+	 * Parses the input starting at {@code start} using the default reader
+	 * as entry point.
+	 */
+	@Override
+	public IMatch read(CharSequence input, int start) {
+		return this.parser.read(input, start, this.defaultReaderName);
+	}
+
+	/**
+	 * Recognizes the input without building the parse tree, see
+	 * {@link Parser#recognize(CharSequence, int, String)}.
+	 *
+	 * @throws InvalidIdentifierException if no reader with the given name exists
+	 */
+	@Override
+	public int recognize(CharSequence input, int start, String readerName) {
+		return this.parser.recognize(input, start, readerName);
+	}
+
+	/**
+	 * Parses the input into a {@link FlatTree}, see
+	 * {@link Parser#readTree(CharSequence, int, String)}.
+	 *
+	 * @throws InvalidIdentifierException if no reader with the given name exists
+	 */
+	public FlatTree readTree(CharSequence input, int start, String readerName) {
+		return this.parser.readTree(input, start, readerName);
+	}
+
+	/**
+	 * Parses the input, reporting its structure to {@code listener}, see
+	 * {@link Parser#parse(CharSequence, int, String, IParseListener)}.
+	 *
+	 * @throws InvalidIdentifierException if no reader with the given name exists
+	 */
+	@Override
+	public int parse(CharSequence input, int start, String readerName, IParseListener listener) {
+		return this.parser.parse(input, start, readerName, listener);
+	}
+
+	/**
+	 * Parses a repetition by chunks read in parallel, see
+	 * {@link Parser#readParallel(CharSequence, int, String, IReader, int, Executor)}.
+	 *
+	 * @throws InvalidIdentifierException if no reader with the given name exists
+	 * @throws IllegalArgumentException if the reader is not a repetition
+	 */
+	public IMatch readParallel(CharSequence input, int start, String readerName, IReader boundary, int chunks,
+	                           Executor executor) {
+		return this.parser.readParallel(input, start, readerName, boundary, chunks, executor);
+	}
+
+	/**
+	 * Parses the input so that it can be updated after edits, see
+	 * {@link Parser#readIncremental(CharSequence, int, String)}. The
+	 * returned parse must not be shared between threads.
+	 *
+	 * @throws InvalidIdentifierException if no reader with the given name exists
+	 */
+	public IncrementalParse readIncremental(CharSequence input, int start, String readerName) {
+		return this.parser.readIncremental(input, start, readerName);
+	}
+
+	/**
+	 * Returns the names of all readers known to this parser.
+	 *
+	 * @return an unmodifiable list of all reader names
+	 */
+	@Override
+	public List<String> getReaderNames() {
+		return this.readerNames;
+	}
+
+	/**
+	 * Returns the frozen reader associated with the given name.
+	 *
+	 * @throws InvalidIdentifierException if no reader with the given name exists
+	 */
+	@Override
+	public IReader getReader(String readerName) {
+		return this.parser.getReader(readerName);
+	}
+
+	/**
+	 * Always throws, since a frozen parser cannot be changed: the default
+	 * reader must be set on the {@link Parser} before freezing it.
+	 *
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public void setDefaultReaderName(String readerName) {
+		throw new UnsupportedOperationException("A frozen parser cannot be changed");
+	}
+
+	/**
+	 * Returns the name of the default reader, fixed when this parser was
+	 * frozen.
+	 */
+	@Override
+	public String getDefaultReaderName() {
+		return this.defaultReaderName;
+	}
+}
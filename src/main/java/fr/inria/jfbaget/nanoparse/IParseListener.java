@@ -0,0 +1,92 @@
+package fr.inria.jfbaget.nanoparse;
+
+import java.util.List;
+import java.util.Map;
+
+import fr.inria.jfbaget.nanoparse.matches.ListMatch;
+import fr.inria.jfbaget.nanoparse.matches.ObjectMatch;
+
+/**
+ * Receives the structure of a parse as a stream of events, instead of an
+ * {@link IMatch} tree (see
+ * {@link IParser#parse(CharSequence, int, String, IParseListener)}).
+ * <p>
+ * Events follow the matches {@link IParser#read(CharSequence, int, String)}
+ * would return, in preorder:
+ * <ul>
+ *   <li>a {@link ListMatch} or an {@link ObjectMatch} is reported by
+ *       {@link #enterRule}, the events of its elements or fields, then
+ *       {@link #exitRule}; each field of an object is preceded by
+ *       {@link #field};</li>
+ *   <li>any other match is reported by {@link #token}, with its result.</li>
+ * </ul>
+ * Only committed structure is reported: the work of alternatives that are
+ * later abandoned is never seen. All methods do nothing by default.
+ */
+public interface IParseListener {
+
+	/**
+	 * Called when a list or an object of the rule {@code rule} starts.
+	 *
+	 * @param rule  the name of the rule
+	 * @param start the start index of its match
+	 */
+	default void enterRule(String rule, int start) {}
+
+	/**
+	 * Called before the events of the field {@code name} of the innermost
+	 * object.
+	 *
+	 * @param name the name of the field
+	 */
+	default void field(String name) {}
+
+	/**
+	 * Called for a match without sub-matches.
+	 *
+	 * @param rule  the name of the rule
+	 * @param start the start index of the match
+	 * @param end   the end index of the match
+	 * @param value the result of the match: a {@code String}, an
+	 *              {@code Integer}, a {@code Float}, a {@code Boolean}, or
+	 *              {@code null} for an empty match
+	 */
+	default void token(String rule, int start, int end, Object value) {}
+
+	/**
+	 * Called when the list or object entered last ends.
+	 *
+	 * @param rule  the name of the rule
+	 * @param start the start index of its match
+	 * @param end   the end index of its match
+	 */
+	default void exitRule(String rule, int start, int end) {}
+
+	/**
+	 * Reports the successful match {@code match} to {@code listener}.
+	 *
+	 * @param match    a successful match
+	 * @param listener the listener to notify
+	 */
+	@SuppressWarnings("unchecked")
+	static void replay(IMatch match, IParseListener listener) {
+		String rule = match.reader().getName();
+		if (match instanceof ListMatch) {
+			listener.enterRule(rule, match.start());
+			List<IMatch> elements = (List<IMatch>) match.result();
+			if (elements != null) {
+				for (IMatch element : elements) replay(element, listener);
+			}
+			listener.exitRule(rule, match.start(), match.end());
+		} else if (match instanceof ObjectMatch) {
+			listener.enterRule(rule, match.start());
+			for (Map.Entry<String, IMatch> field : ((Map<String, IMatch>) match.result()).entrySet()) {
+				listener.field(field.getKey());
+				replay(field.getValue(), listener);
+			}
+			listener.exitRule(rule, match.start(), match.end());
+		} else {
+			listener.token(rule, match.start(), match.end(), match.result());
+		}
+	}
+}
@@ -1,6 +1,9 @@
 package fr.inria.jfbaget.nanoparse;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 
 
 /**
@@ -65,6 +68,100 @@ public interface IParser {
 	 */
 	public IMatch read(CharSequence input, int start);
 
+	/**
+	 * Tells whether the rule identified by {@code readerName} matches
+	 * {@code input} at {@code start}, without building the parse tree.
+	 * <p>
+	 * This is meant for validation and lookahead, where only the extent of
+	 * the match matters. The default implementation calls
+	 * {@link #read(CharSequence, int, String)}.
+	 *
+	 * @param input      the character sequence to parse
+	 * @param start      zero-based index of the first character to read
+	 * @param readerName the name of the rule (reader) to use as entry point
+	 * @return the end of the successful match, or {@code -1} if the rule
+	 *         does not match at {@code start}
+	 * @throws fr.inria.jfbaget.nanoparse.exceptions.InvalidIdentifierException
+	 *         if no reader with the given name exists
+	 */
+	public default int recognize(CharSequence input, int start, String readerName) {
+		IMatch match = this.read(input, start, readerName);
+		return match.success() ? match.end() : -1;
+	}
+
+	/**
+	 * Parses {@code input} at {@code start} with the rule identified by
+	 * {@code readerName}, reporting the structure of the match to
+	 * {@code listener} instead of returning it. Nothing is reported if the
+	 * rule does not match.
+	 * <p>
+	 * The default implementation reads the match, then replays it (see
+	 * {@link IParseListener#replay(IMatch, IParseListener)}).
+	 *
+	 * @param input      the character sequence to parse
+	 * @param start      zero-based index of the first character to read
+	 * @param readerName the name of the rule (reader) to use as entry point
+	 * @param listener   the listener to notify
+	 * @return the end of the successful match, or {@code -1}
+	 * @throws fr.inria.jfbaget.nanoparse.exceptions.InvalidIdentifierException
+	 *         if no reader with the given name exists
+	 */
+	public default int parse(CharSequence input, int start, String readerName, IParseListener listener) {
+		IMatch match = this.read(input, start, readerName);
+		if (!match.success()) return -1;
+		IParseListener.replay(match, listener);
+		return match.end();
+	}
+
+	/**
+	 * Parses each of {@code inputs} from its first character with the
+	 * default reader, fanning them out over {@code executor}, and waits
+	 * for all of them.
+	 * <p>
+	 * The inputs are split into a few slices of consecutive inputs, each
+	 * read by one task, so that small inputs do not cost a task each. This
+	 * parser is read from several threads at once: it must not be modified
+	 * during the batch, which a {@link FrozenParser} guarantees.
+	 *
+	 * @param inputs   the inputs to parse
+	 * @param executor runs the slices
+	 * @return the matches, in the order of {@code inputs}, and the timing
+	 *         of the batch
+	 * @throws RuntimeException the first exception thrown by a parse
+	 */
+	public default BatchResult readAll(Collection<? extends CharSequence> inputs, Executor executor) {
+		return BatchResult.join(BatchResult.start(this, inputs, executor));
+	}
+
+	/**
+	 * Same as {@link #readAll(Collection, Executor)}, on the default
+	 * executor of batches: virtual threads when the JDK provides them
+	 * (Java 21 and later), the common
+	 * {@link java.util.concurrent.ForkJoinPool} otherwise.
+	 *
+	 * @param inputs the inputs to parse
+	 * @return the matches, in the order of {@code inputs}, and the timing
+	 *         of the batch
+	 * @throws RuntimeException the first exception thrown by a parse
+	 */
+	public default BatchResult readAll(Collection<? extends CharSequence> inputs) {
+		return this.readAll(inputs, BatchResult.defaultExecutor());
+	}
+
+	/**
+	 * Same as {@link #readAll(Collection, Executor)}, without waiting: the
+	 * returned stage completes with the batch once every input is parsed,
+	 * or exceptionally with the first exception thrown by a parse.
+	 *
+	 * @param inputs   the inputs to parse
+	 * @param executor runs the slices
+	 * @return the stage of the batch
+	 */
+	public default CompletionStage<BatchResult> readAllAsync(Collection<? extends CharSequence> inputs,
+	                                                        Executor executor) {
+		return BatchResult.start(this, inputs, executor);
+	}
+
 	/**
 	 * Returns the names of all readers (grammar rules) known to this parser.
 	 *
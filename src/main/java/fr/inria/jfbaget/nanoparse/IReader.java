@@ -46,6 +46,23 @@ public interface IReader {
      */
     public IMatch read(CharSequence input, int start);
 
+    /**
+     * Tells whether this rule matches {@code input} at position
+     * {@code start}, without building the match.
+     * <p>
+     * The default implementation calls {@link #read(CharSequence, int)};
+     * readers that can recognize their rule more cheaply override it.
+     *
+     * @param input the character sequence to parse
+     * @param start the index at which to start matching
+     * @return the {@code end()} of the successful match, or {@code -1} if
+     *         {@link #read(CharSequence, int)} would fail
+     */
+    public default int recognize(CharSequence input, int start) {
+        IMatch match = this.read(input, start);
+        return match.success() ? match.end() : -1;
+    }
+
     /**
      * Returns the name of this rule.
      * <p>
@@ -91,4 +108,55 @@ public interface IReader {
      */
     public void link(IParser parser);
     
+    /**
+     * Indicates whether this reader memoizes its matches per input position
+     * (packrat parsing).
+     * <p>
+     * The default implementation returns {@code false}.
+     *
+     * @return {@code true} if this reader is memoized
+     */
+    public default boolean isMemoized() {
+        return false;
+    }
+
+    /**
+     * Enables or disables packrat memoization for this reader.
+     * <p>
+     * A memoized reader is evaluated at most once per input position during
+     * a single parse: subsequent attempts at the same position, typically
+     * caused by backtracking in a choice, return the recorded match. This
+     * trades memory for a guarantee of linear-time parsing.
+     * <p>
+     * The default implementation does not support memoization and ignores
+     * the request.
+     *
+     * @param memoized {@code true} to memoize this reader
+     */
+    public default void setMemoized(boolean memoized) {}
+
+    /**
+     * Makes this linked reader immutable, so that it can be read by any
+     * number of threads at once: its lists become unmodifiable, and
+     * {@link #link(IParser)} and {@link #setMemoized(boolean)} throw an
+     * {@link IllegalStateException}.
+     * <p>
+     * The default implementation does nothing, which suits readers without
+     * mutable state.
+     *
+     * @see Parser#freeze()
+     */
+    public default void freeze() {}
+
+    /**
+     * Indicates whether {@link #freeze()} was called on this reader.
+     * <p>
+     * The default implementation returns {@code false}.
+     *
+     * @return {@code true} if this reader is frozen
+     */
+    public default boolean isFrozen() {
+        return false;
+    }
+
 }
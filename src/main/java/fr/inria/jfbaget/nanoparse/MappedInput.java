@@ -0,0 +1,292 @@
+package fr.inria.jfbaget.nanoparse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A {@link CharSequence} over a memory-mapped UTF-8 (or ASCII) file, to be
+ * parsed without decoding it into a heap {@code String} first.
+ * <p>
+ * The file is mapped in chunks of at most 1 GiB, so files over 2 GiB are
+ * supported as long as they hold less than {@link Integer#MAX_VALUE}
+ * characters. {@link #open(Path)} scans the file once to count its
+ * characters:
+ * <ul>
+ *   <li>if all bytes are ASCII, character {@code i} is byte {@code i};</li>
+ *   <li>otherwise, the byte offset of every {@value #STRIDE}th character is
+ *       recorded, and {@link #charAt(int)} decodes from the closest one, or
+ *       from the last character read, which makes sequential reads as
+ *       fast as in the ASCII case.</li>
+ * </ul>
+ * Characters outside the Basic Multilingual Plane are two chars (a
+ * surrogate pair), as in a {@code String}; malformed bytes are read as
+ * U+FFFD, one per byte, and encoded surrogates as a single U+FFFD, as
+ * {@code String} decodes them.
+ * <p>
+ * Instances can be read by several threads. The file must not change while
+ * it is mapped.
+ * <p>
+ * {@link ByteInput} uses the same decoding over any buffer, through
+ * {@link #of(ByteBuffer)}, to map its byte offsets to char indices.
+ */
+public final class MappedInput implements CharSequence {
+
+    /** The number of characters between two recorded byte offsets. */
+    public static final int STRIDE = 1 << 12;
+
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+    private static final int OFFSET_BITS = 33;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    private final ByteBuffer[] chunks;
+    private final long bytes;
+    private final int length;
+    private final boolean ascii;
+
+    /** Index and byte offset of the characters at multiples of {@link #STRIDE}, or just after. */
+    private final int[] checkIndex;
+    private final long[] checkOffset;
+
+    /**
+     * The code point read last, as its first char index ({@code << 33})
+     * and its byte offset, packed so that threads never see one without
+     * the other.
+     */
+    private volatile long cursor = 0;
+
+    private MappedInput(ByteBuffer[] chunks, long bytes) {
+        this.chunks = chunks;
+        this.bytes = bytes;
+
+        int[] checkIndex = new int[16];
+        long[] checkOffset = new long[16];
+        int checks = 0;
+        long index = 0;
+        boolean ascii = true;
+        for (long offset = 0; offset < bytes; ) {
+            if (index >= (long) checks * STRIDE) {
+                if (checks == checkIndex.length) {
+                    checkIndex = Arrays.copyOf(checkIndex, 2 * checks);
+                    checkOffset = Arrays.copyOf(checkOffset, 2 * checks);
+                }
+                checkIndex[checks] = (int) index;
+                checkOffset[checks] = offset;
+                checks++;
+            }
+            int lead = this.byteAt(offset);
+            if (lead < 0x80) {
+                offset++;
+                index++;
+                continue;
+            }
+            ascii = false;
+            int width = this.width(lead, offset);
+            offset += width;
+            index += width == 4 ? 2 : 1;
+            if (index > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("The file has more than " + Integer.MAX_VALUE + " characters");
+            }
+        }
+        this.length = (int) index;
+        this.ascii = ascii;
+        this.checkIndex = ascii ? null : Arrays.copyOf(checkIndex, checks);
+        this.checkOffset = ascii ? null : Arrays.copyOf(checkOffset, checks);
+    }
+
+    /**
+     * Maps the file at {@code path}, read-only.
+     *
+     * @param path a UTF-8 or ASCII file
+     * @return the characters of the file
+     * @throws IOException if the file cannot be mapped
+     * @throws IllegalArgumentException if the file has more than
+     *         {@link Integer#MAX_VALUE} characters
+     */
+    public static MappedInput open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i << CHUNK_BITS;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_MASK + 1, size - start));
+            }
+            // the mapping stays valid once the channel is closed
+            return new MappedInput(chunks, size);
+        }
+    }
+
+    /**
+     * Returns the characters of the UTF-8 bytes of {@code buffer}, from
+     * index 0 to its limit, which must not change while they are read.
+     */
+    static MappedInput of(ByteBuffer buffer) {
+        int size = buffer.limit();
+        ByteBuffer[] chunks = new ByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_BITS)];
+        for (int i = 0; i < chunks.length; i++) {
+            int start = i << CHUNK_BITS;
+            chunks[i] = buffer.slice(start, (int) Math.min(CHUNK_MASK + 1, size - start));
+        }
+        return new MappedInput(chunks, size);
+    }
+
+    /** Returns whether the file only holds ASCII characters. */
+    public boolean isAscii() {
+        return this.ascii;
+    }
+
+    @Override
+    public int length() {
+        return this.length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= this.length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + this.length);
+        }
+        if (this.ascii) return (char) this.byteAt(index);
+        long cursor = this.locate(index);
+        int current = (int) (cursor >>> OFFSET_BITS);
+        long offset = cursor & OFFSET_MASK;
+        int lead = this.byteAt(offset);
+        return this.decode(lead, offset, lead < 0x80 ? 1 : this.width(lead, offset), index - current);
+    }
+
+    /**
+     * Returns the byte offset of the code point holding the char at
+     * {@code index}, or the number of bytes if {@code index} is the length.
+     */
+    long offset(int index) {
+        if (index < 0 || index > this.length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + this.length);
+        }
+        if (this.ascii) return index;
+        if (index == this.length) return this.bytes;
+        return this.locate(index) & OFFSET_MASK;
+    }
+
+    /**
+     * Returns the index of the first char of the code point holding the
+     * byte at {@code offset}, or the length if {@code offset} is the number
+     * of bytes.
+     */
+    int index(long offset) {
+        if (offset < 0 || offset > this.bytes) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", size " + this.bytes);
+        }
+        if (this.ascii) return (int) offset;
+        long cursor = this.cursor;
+        int current = (int) (cursor >>> OFFSET_BITS);
+        long from = cursor & OFFSET_MASK;
+        if (offset < from || offset - from > 4L * STRIDE) {
+            int check = Arrays.binarySearch(this.checkOffset, offset);
+            if (check < 0) check = -check - 2;
+            current = this.checkIndex[check];
+            from = this.checkOffset[check];
+        }
+        while (from < this.bytes) {
+            int lead = this.byteAt(from);
+            int width = lead < 0x80 ? 1 : this.width(lead, from);
+            if (offset < from + width) break;
+            current += width == 4 ? 2 : 1;
+            from += width;
+        }
+        if (from < this.bytes) this.cursor = ((long) current << OFFSET_BITS) | from;
+        return current;
+    }
+
+    /**
+     * Returns the code point holding the char at {@code index}, as its
+     * first char index ({@code << 33}) and its byte offset, starting from
+     * the last one located, or from the closest recorded offset.
+     */
+    private long locate(int index) {
+        long cursor = this.cursor;
+        int current = (int) (cursor >>> OFFSET_BITS);
+        long offset = cursor & OFFSET_MASK;
+        if (index < current || index - current > STRIDE) {
+            int check = index / STRIDE;
+            if (check >= this.checkIndex.length || this.checkIndex[check] > index) check--;
+            current = this.checkIndex[check];
+            offset = this.checkOffset[check];
+        }
+        while (true) {
+            int lead = this.byteAt(offset);
+            int width = lead < 0x80 ? 1 : this.width(lead, offset);
+            int chars = width == 4 ? 2 : 1;
+            if (index < current + chars) {
+                cursor = ((long) current << OFFSET_BITS) | offset;
+                this.cursor = cursor;
+                return cursor;
+            }
+            current += chars;
+            offset += width;
+        }
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > this.length || start > end) {
+            throw new IndexOutOfBoundsException("[" + start + ", " + end + "), length " + this.length);
+        }
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; i++) chars[i - start] = this.charAt(i);
+        return new String(chars);
+    }
+
+    /** Decodes the whole file into a {@code String}. */
+    @Override
+    public String toString() {
+        return this.subSequence(0, this.length).toString();
+    }
+
+    private int byteAt(long offset) {
+        return this.chunks[(int) (offset >>> CHUNK_BITS)].get((int) (offset & CHUNK_MASK)) & 0xFF;
+    }
+
+    /**
+     * Returns the number of bytes of the non-ASCII code point at
+     * {@code offset}: 2, 3 or 4 if {@code lead} starts a well-formed
+     * sequence, 1 otherwise. Overlong forms are malformed, as for the
+     * decoder of {@code String}.
+     */
+    private int width(int lead, long offset) {
+        int width = lead >= 0xC2 && lead <= 0xDF ? 2 : lead >= 0xE0 && lead <= 0xEF ? 3 : lead >= 0xF0 && lead <= 0xF4 ? 4 : 1;
+        if (width == 1 || offset + width > this.bytes) return 1;
+        for (int i = 1; i < width; i++) {
+            if ((this.byteAt(offset + i) & 0xC0) != 0x80) return 1;
+        }
+        // the second bytes the decoder of String accepts: no overlong forms,
+        // code points up to U+10FFFF only; it reads a surrogate as one U+FFFD
+        int second = this.byteAt(offset + 1);
+        if (lead == 0xE0 && second < 0xA0 || lead == 0xF0 && second < 0x90 || lead == 0xF4 && second > 0x8F) {
+            return 1;
+        }
+        return width;
+    }
+
+    /** Returns the char at {@code position} (0, or 1 for a low surrogate) of the code point at {@code offset}. */
+    private char decode(int lead, long offset, int width, int position) {
+        switch (width) {
+            case 2:
+                return (char) ((lead & 0x1F) << 6 | this.byteAt(offset + 1) & 0x3F);
+            case 3: {
+                char c = (char) ((lead & 0x0F) << 12 | (this.byteAt(offset + 1) & 0x3F) << 6 | this.byteAt(offset + 2) & 0x3F);
+                return Character.isSurrogate(c) ? '\uFFFD' : c;
+            }
+            case 4: {
+                int codePoint = (lead & 0x07) << 18 | (this.byteAt(offset + 1) & 0x3F) << 12
+                        | (this.byteAt(offset + 2) & 0x3F) << 6 | this.byteAt(offset + 3) & 0x3F;
+                return position == 0 ? Character.highSurrogate(codePoint) : Character.lowSurrogate(codePoint);
+            }
+            default:
+                return lead < 0x80 ? (char) lead : '\uFFFD';
+        }
+    }
+}
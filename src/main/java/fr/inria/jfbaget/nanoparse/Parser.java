@@ -1,13 +1,34 @@
 package fr.inria.jfbaget.nanoparse;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 
 import fr.inria.jfbaget.nanoparse.basetypes.BaseTypes;
+import fr.inria.jfbaget.nanoparse.events.ParseEvent;
 import fr.inria.jfbaget.nanoparse.exceptions.InvalidIdentifierException;
+import fr.inria.jfbaget.nanoparse.matches.FlatTree;
+import fr.inria.jfbaget.nanoparse.readers.ChunkedRepetition;
+import fr.inria.jfbaget.nanoparse.readers.GrammarAnalysis;
+import fr.inria.jfbaget.nanoparse.readers.GrammarCompiler;
+import fr.inria.jfbaget.nanoparse.readers.IncrementalParse;
+import fr.inria.jfbaget.nanoparse.readers.MemoTable;
+import fr.inria.jfbaget.nanoparse.readers.ParseSession;
+import fr.inria.jfbaget.nanoparse.readers.ParsingMachine;
 import fr.inria.jfbaget.nanoparse.readers.RegexReader;
+import fr.inria.jfbaget.nanoparse.readers.RepetitionReader;
+import fr.inria.jfbaget.nanoparse.readers.RuleMonitor;
+import fr.inria.jfbaget.nanoparse.readers.RuleProfiler;
+import fr.inria.jfbaget.nanoparse.readers.StringReader;
+import fr.inria.jfbaget.nanoparse.readers.TreeBuilder;
 
 
 /**
@@ -41,18 +62,42 @@ import fr.inria.jfbaget.nanoparse.readers.RegexReader;
  * The default reader can later be changed via
  * {@link #setDefaultReaderName(String)}.
  * <p>
+ * Packrat memoization can be enabled for individual rules with
+ * {@link IReader#setMemoized(boolean)}, or for the whole grammar with
+ * {@link #setMemoized(boolean)}. Each call to {@link #read} opens a
+ * {@link ParseSession}, which holds the state of the parse, such as the
+ * {@link MemoTable}, and is closed when the call returns.
+ * <p>
+ * Left-recursive rules (such as {@code expr ::= expr "-" INT | INT}) are
+ * detected when the parser is built and are always memoized, which lets the
+ * {@link MemoTable} grow their matches instead of recursing forever.
+ * <p>
+ * A parser built with a {@link RuleMonitor} reports each rule invocation to
+ * it, for instance to a {@link RuleProfiler} that records what each rule
+ * costs, see {@link #Parser(List, RuleMonitor)}.
+ * <p>
  * A {@code Parser} instance can be reused for multiple {@link #read}
  * calls in sequence, but it is not guaranteed to be thread-safe and
  * should not be shared between threads without external synchronization.
+ * Once configured, it can be turned by {@link #freeze()} into a
+ * {@link FrozenParser}, which any number of threads may read with.
  */
 public class Parser implements IParser{
+
+	/** The minimum length of the chunks of {@link #readParallel(CharSequence, int, String, String)}. */
+	public static final int CHUNK = 1 << 16;
+
+	private final HashMap<String, IReader> readers = new HashMap<>();
 	
-	private HashMap<String, IReader> readers = new HashMap<>();
-	
-	private List<String> readerNames = new ArrayList<>();
+	private final List<String> readerNames = new ArrayList<>();
 	
 	private String defaultReaderName = "main";
 
+	private final Set<IReader> leftRecursive;
+
+	/** The wrappers of the readers by name, if this parser is monitored, {@code null} otherwise. */
+	private final HashMap<String, IReader> monitored;
+
 	/**
 	 * Creates a new parser from the given list of user-defined readers.
 	 * <p>
@@ -75,6 +120,10 @@ public class Parser implements IParser{
 	 *       whitespace-matching {@link RegexReader} if needed.</li>
 	 *   <li>Calls {@link IReader#link(IParser)} on all readers so they can
 	 *       resolve references to other rules in the grammar.</li>
+	 *   <li>Memoizes the left-recursive readers, as found by
+	 *       {@link GrammarAnalysis#leftRecursiveReaders}.</li>
+	 *   <li>Builds the first-character dispatch tables of the choices,
+	 *       see {@link GrammarAnalysis#indexChoices}.</li>
 	 * </ol>
 	 *
 	 * @param readers the user-defined readers forming the grammar
@@ -84,6 +133,31 @@ public class Parser implements IParser{
 	 *         base type name or with another reader name
 	 */
 	public Parser(List<IReader> readers) {
+		this(readers, null);
+	}
+
+	/**
+	 * Creates a new parser from the given list of user-defined readers,
+	 * whose rule invocations are reported to {@code monitor} if it is not
+	 * {@code null}.
+	 * <p>
+	 * Each reader, base types and {@code "skip"} included, is
+	 * {@link RuleMonitor#wrap(IReader) wrapped} before the readers are
+	 * linked, so that rules call each other through their wrappers, and
+	 * {@link #getReader(String)} returns the wrappers. The matches are the
+	 * ones of the parser without monitoring. Compiled parsers
+	 * ({@link #compile()}, {@link #toMachine()}) call the wrappers as
+	 * opaque rules, and therefore run as the interpreter does.
+	 *
+	 * @param readers  the user-defined readers forming the grammar
+	 * @param monitor  observes the invocations of the rules, or {@code null}
+	 * @throws IllegalArgumentException if {@code readers} is {@code null}
+	 *         or empty
+	 * @throws InvalidIdentifierException if a reader name clashes with a
+	 *         base type name or with another reader name
+	 * @see #Parser(List)
+	 */
+	public Parser(List<IReader> readers, RuleMonitor monitor) {
 
 		if (readers == null || readers.isEmpty()) {
 			throw new IllegalArgumentException("Parser requires at least one reader");
@@ -107,14 +181,37 @@ public class Parser implements IParser{
 		if (!this.readers.containsKey("skip")) {
 			this.addReader(new RegexReader("skip", "[\s\r\n]*", false));
 		}
+		Collection<IReader> grammar = this.readers.values();
+		if (monitor == null) {
+			this.monitored = null;
+		} else {
+			this.monitored = new HashMap<>();
+			for (IReader reader : this.readers.values()) {
+				this.monitored.put(reader.getName(), monitor.wrap(reader));
+			}
+			grammar = new ArrayList<>(this.readers.values());
+			grammar.addAll(this.monitored.values());
+		}
 		for (IReader reader : this.readers.values()) {
 			reader.link(this);
 		}
+		// the wrappers only pass the calls on, the readers they wrap are memoized
+		this.leftRecursive = new HashSet<>(GrammarAnalysis.leftRecursiveReaders(grammar));
+		this.leftRecursive.retainAll(this.readers.values());
+		for (IReader reader : this.leftRecursive) {
+			reader.setMemoized(true);
+		}
+		GrammarAnalysis.indexChoices(grammar);
 	}
 
 	/**
 	 * Parses the input starting at {@code start} using the reader
 	 * identified by {@code readerName} as entry point.
+	 * <p>
+	 * A new {@link ParseSession} is opened for the duration of the call, so
+	 * memoized readers share their results within this parse only. Each
+	 * call records a {@link ParseEvent} when a JDK Flight Recorder recording
+	 * enables it.
 	 *
 	 * @param input      the character sequence to parse
 	 * @param start      zero-based index of the first character to read
@@ -124,7 +221,285 @@ public class Parser implements IParser{
 	 */
 	@Override
 	public IMatch read(CharSequence input, int start, String readerName) {
-		return this.readers.get(readerName).read(input, start);
+		return this.read(input, start, readerName, ParseSession.spare());
+	}
+
+	/**
+	 * Same as {@link #read(CharSequence, int, String)}, in {@code session}
+	 * instead of a new session. A session can thus be reused parse after
+	 * parse, keeping what it allocated, and its values can be read once the
+	 * parse returns.
+	 *
+	 * @param input      the character sequence to parse
+	 * @param start      zero-based index of the first character to read
+	 * @param readerName the name of the rule to use as entry point
+	 * @param session    a closed session, opened for the duration of the call
+	 * @return an {@link IMatch} describing a successful or failed match
+	 * @throws InvalidIdentifierException if no reader with the given name exists
+	 * @throws IllegalStateException if {@code session} is open
+	 */
+	public IMatch read(CharSequence input, int start, String readerName, ParseSession session) {
+		IReader reader = this.getReader(readerName);
+		ParseEvent event = null;
+		if (ParseEvent.enabled()) {
+			event = new ParseEvent();
+			event.begin();
+		}
+		session.reopen(input);
+		IMatch match;
+		try {
+			match = reader.read(input, start);
+		} finally {
+			session.close();
+		}
+		if (event != null) event.record(readerName, input, start, match);
+		return match;
+	}
+
+	/**
+	 * Recognizes the input starting at {@code start} with the reader
+	 * identified by {@code readerName}, without building the parse tree.
+	 * <p>
+	 * The readers of the grammar only compute positions, except memoized
+	 * readers, whose matches are recorded in the {@link MemoTable} of the
+	 * session opened for the duration of the call, and readers of other types, which are
+	 * read.
+	 *
+	 * @param input      the character sequence to parse
+	 * @param start      zero-based index of the first character to read
+	 * @param readerName the name of the rule to use as entry point
+	 * @return the end of the successful match, or {@code -1}
+	 * @throws InvalidIdentifierException if no reader with the given name exists
+	 */
+	@Override
+	public int recognize(CharSequence input, int start, String readerName) {
+		IReader reader = this.getReader(readerName);
+		ParseSession session = ParseSession.open(input);
+		try {
+			return reader.recognize(input, start);
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Parses the input starting at {@code start} with the reader identified
+	 * by {@code readerName} into a {@link FlatTree}, whose nodes are stored
+	 * in a few primitive arrays instead of one {@link IMatch} object each.
+	 * <p>
+	 * The readers of the grammar append their nodes directly, except
+	 * memoized readers and readers of other types, which are read and
+	 * whose matches are then copied into the tree. The matches of the tree
+	 * are the ones {@link #read(CharSequence, int, String)} returns.
+	 *
+	 * @param input      the character sequence to parse
+	 * @param start      zero-based index of the first character to read
+	 * @param readerName the name of the rule to use as entry point
+	 * @return the tree of the successful match, or a failed tree holding the
+	 *         failed match
+	 * @throws InvalidIdentifierException if no reader with the given name exists
+	 */
+	public FlatTree readTree(CharSequence input, int start, String readerName) {
+		IReader reader = this.getReader(readerName);
+		ParseSession session = ParseSession.open(input);
+		try {
+			return TreeBuilder.read(reader, input, start);
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Parses the input starting at {@code start} with the reader identified
+	 * by {@code readerName}, reporting the structure of the match to
+	 * {@code listener} without building a tree.
+	 * <p>
+	 * The readers of the grammar record their nodes in primitive arrays,
+	 * which are reported and dropped as soon as no backtracking can remove
+	 * them: the elements of a repetition are reported as they are read once
+	 * it has reached its minimum, if the rules enclosing it cannot fail
+	 * anymore either, which is the case of a top-level repetition. Other
+	 * nodes are reported when the parse succeeds, so that listeners only
+	 * see committed structure. Memoized readers and readers of other types
+	 * are read, and their matches replayed.
+	 *
+	 * @param input      the character sequence to parse
+	 * @param start      zero-based index of the first character to read
+	 * @param readerName the name of the rule to use as entry point
+	 * @param listener   the listener to notify
+	 * @return the end of the successful match, or {@code -1}
+	 * @throws InvalidIdentifierException if no reader with the given name exists
+	 */
+	@Override
+	public int parse(CharSequence input, int start, String readerName, IParseListener listener) {
+		IReader reader = this.getReader(readerName);
+		ParseSession session = ParseSession.open(input);
+		try {
+			return TreeBuilder.parse(reader, input, start, listener);
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Parses {@code input} with the {@link RepetitionReader} identified by
+	 * {@code readerName}, handing each element to {@code items} as soon as
+	 * it is read, instead of building the list of the repetition.
+	 * <p>
+	 * Each element, preceded by its separator if any, is parsed on a
+	 * window of {@code input} (see {@link StreamInput}), in its own
+	 * {@link ParseSession}; the input before its end is then released. Memory
+	 * therefore stays proportional to the largest element, not to the size
+	 * of the input. The separators are not handed over.
+	 * <p>
+	 * If this parser is monitored, the invocations of the elements and
+	 * separators are reported, but not the repetition itself, which is
+	 * never read as a whole.
+	 *
+	 * @param input      the input to parse from its first character
+	 * @param readerName the name of a repetition rule
+	 * @param items      receives the match of each element, in order
+	 * @return the end of the repetition, or {@code -1} if it has less than
+	 *         {@link RepetitionReader#min} elements, which have nevertheless
+	 *         been handed over
+	 * @throws InvalidIdentifierException if no reader with the given name exists
+	 * @throws IllegalArgumentException if the reader is not a repetition
+	 */
+	public int stream(StreamInput input, String readerName, Consumer<IMatch> items) {
+		IReader reader = RuleMonitor.unwrap(this.getReader(readerName));
+		if (!(reader instanceof RepetitionReader)) {
+			throw new IllegalArgumentException("Rule " + readerName + " is not a repetition");
+		}
+		RepetitionReader repetition = (RepetitionReader) reader;
+		IReader skip = this.getReader("skip");
+		int guard = this.guard();
+
+		int position = 0;
+		if (repetition.requiresSkip()) {
+			position = streamed(input, position, guard, (window, p) -> {
+				int end = skip.recognize(window, p);
+				return end < 0 ? p : end;
+			});
+		}
+		int count = 0;
+		while (count < repetition.max) {
+			IMatch item = streamed(input, position, guard, count == 0
+					? (window, p) -> repetition.getReader().read(window, p)
+					: (window, p) -> {
+						int from = p;
+						if (repetition.getSeparator() != null) {
+							from = repetition.getSeparator().recognize(window, p);
+							if (from < 0) return null;
+						}
+						return repetition.getReader().read(window, from);
+					});
+			if (item == null || !item.success()) break;
+			items.accept(item);
+			count++;
+			position = item.end();
+			input.release(position);
+		}
+		return count >= repetition.min ? position : -1;
+	}
+
+	/**
+	 * Parses {@code input} with the {@link RepetitionReader} identified by
+	 * {@code readerName}, by chunks read in parallel on the common
+	 * {@link ForkJoinPool}. Chunks start after an occurrence of
+	 * {@code delimiter}, such as the {@code "."} ending each item, and are
+	 * at least {@value #CHUNK} characters long.
+	 *
+	 * @param input      the character sequence to parse
+	 * @param start      zero-based index of the first character to read
+	 * @param readerName the name of a repetition rule
+	 * @param delimiter  the text after which chunks may start
+	 * @return the match {@link #read(CharSequence, int, String)} returns
+	 * @throws InvalidIdentifierException if no reader with the given name exists
+	 * @throws IllegalArgumentException if the reader is not a repetition
+	 * @see #readParallel(CharSequence, int, String, IReader, int, Executor)
+	 */
+	public IMatch readParallel(CharSequence input, int start, String readerName, String delimiter) {
+		int chunks = Math.min(4 * ForkJoinPool.getCommonPoolParallelism(), (input.length() - start) / CHUNK);
+		return this.readParallel(input, start, readerName, new StringReader("delimiter", delimiter, false),
+				chunks, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Parses {@code input} with the {@link RepetitionReader} identified by
+	 * {@code readerName}, by {@code chunks} chunks read in parallel on
+	 * {@code executor}, and returns the match
+	 * {@link #read(CharSequence, int, String)} returns.
+	 * <p>
+	 * Chunks start where a match of {@code boundary} ends, which should be
+	 * where an element of the repetition may end. Chunks whose boundary
+	 * turns out not to be the end of an element are read again where they
+	 * differ from the sequential parse (see {@link ChunkedRepetition}): the
+	 * result does not depend on the boundaries, only the speedup does. If
+	 * this parser is monitored, the read is reported as one invocation of
+	 * the repetition.
+	 *
+	 * @param input      the character sequence to parse
+	 * @param start      zero-based index of the first character to read
+	 * @param readerName the name of a repetition rule
+	 * @param boundary   the rule whose matches end where chunks may start
+	 * @param chunks     the number of chunks to cut the input into
+	 * @param executor   runs the chunks
+	 * @return the match {@link #read(CharSequence, int, String)} returns
+	 * @throws InvalidIdentifierException if no reader with the given name exists
+	 * @throws IllegalArgumentException if the reader is not a repetition
+	 */
+	public IMatch readParallel(CharSequence input, int start, String readerName, IReader boundary, int chunks,
+	                           Executor executor) {
+		return ChunkedRepetition.read(this.getReader(readerName), input, start, boundary, chunks, executor);
+	}
+
+	/**
+	 * Returns the number of characters a reader may compare with the
+	 * length of the input before reading them, plus one: the literals are
+	 * the only tokens compared with the length before being read.
+	 */
+	private int guard() {
+		int guard = 2;
+		for (IReader r : this.readers.values()) {
+			if (r instanceof StringReader) guard = Math.max(guard, ((StringReader) r).pattern.length() + 1);
+		}
+		return guard;
+	}
+
+	/**
+	 * Parses the input starting at {@code start} with the reader identified
+	 * by {@code readerName}, recording what each match depends on, so that
+	 * the parse can be updated after an edit of the input by
+	 * {@link IncrementalParse#edit(int, int, CharSequence)}, which only
+	 * re-reads the damaged region.
+	 *
+	 * @param input      the character sequence to parse
+	 * @param start      zero-based index of the first character to read
+	 * @param readerName the name of the rule to use as entry point
+	 * @return the parse, whose {@link IncrementalParse#match()} is the match
+	 *         {@link #read(CharSequence, int, String)} returns
+	 * @throws InvalidIdentifierException if no reader with the given name exists
+	 */
+	public IncrementalParse readIncremental(CharSequence input, int start, String readerName) {
+		return IncrementalParse.read(this.getReader(readerName), input, start, this.guard());
+	}
+
+	/**
+	 * Runs {@code step} at {@code position} on windows of {@code input},
+	 * doubling their size until the result does not depend on their end.
+	 */
+	private static <T> T streamed(StreamInput input, int position, int guard, BiFunction<CharSequence, Integer, T> step) {
+		for (int lookahead = input.lookahead(); ; lookahead = lookahead > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : 2 * lookahead) {
+			CharSequence window = input.window(position, lookahead);
+			T result;
+			ParseSession session = ParseSession.open(window);
+			try {
+				result = step.apply(window, position);
+			} finally {
+				session.close();
+			}
+			if (input.complete(window, guard)) return result;
+		}
 	}
 
 	/**
@@ -154,7 +529,8 @@ public class Parser implements IParser{
 	}
 
 	/**
-	 * Returns the reader associated with the given name.
+	 * Returns the reader associated with the given name, which is the
+	 * wrapper of the reader if this parser is monitored.
 	 *
 	 * @param readerName the name of the reader to look up
 	 * @return the corresponding {@link IReader}
@@ -162,7 +538,7 @@ public class Parser implements IParser{
 	 */
 	@Override
 	public IReader getReader(String readerName) {
-		IReader reader = this.readers.get(readerName);
+		IReader reader = (this.monitored == null ? this.readers : this.monitored).get(readerName);
 		if (reader == null)
 			throw new InvalidIdentifierException(readerName);
 		return reader;
@@ -194,6 +570,75 @@ public class Parser implements IParser{
 		return this.defaultReaderName;
 	}
 
+	/**
+	 * Enables or disables packrat memoization for every reader of this
+	 * parser, base types and {@code "skip"} included.
+	 * <p>
+	 * This is a shortcut for calling {@link IReader#setMemoized(boolean)}
+	 * on each reader; individual rules can still be toggled afterwards.
+	 * Left-recursive readers stay memoized, since they cannot be parsed
+	 * otherwise.
+	 *
+	 * @param memoized {@code true} to memoize all readers
+	 * @throws IllegalStateException if this parser was frozen
+	 */
+	public void setMemoized(boolean memoized) {
+		for (IReader reader : this.readers.values()) {
+			reader.setMemoized(memoized || this.leftRecursive.contains(reader));
+		}
+	}
+
+	/**
+	 * Freezes the readers of this parser, and returns an immutable parser
+	 * for this grammar that can be shared between threads.
+	 * <p>
+	 * Every reader is {@link IReader#freeze() frozen}: its lists become
+	 * unmodifiable, and memoization can no longer be changed, on this parser
+	 * as on the readers themselves. The returned parser keeps the current
+	 * default reader. This parser can still read, from one thread at a time.
+	 *
+	 * @return a thread-safe parser for this grammar
+	 * @see FrozenParser
+	 */
+	public FrozenParser freeze() {
+		for (IReader reader : (this.monitored == null ? this.readers : this.monitored).values()) {
+			reader.freeze();
+		}
+		return new FrozenParser(this);
+	}
+
+	/**
+	 * Compiles this grammar into generated code.
+	 * <p>
+	 * The returned parser shares the readers of this one and returns the
+	 * same {@link IMatch} trees, but each rule runs as a static method of a
+	 * class generated for this grammar, which lets the JIT inline across
+	 * rules (see {@link GrammarCompiler}). The grammar must not be modified
+	 * after compilation.
+	 *
+	 * @return a compiled parser for this grammar
+	 * @throws IllegalStateException if the grammar cannot be compiled, for
+	 *         instance when running without a JDK
+	 */
+	public IParser compile() {
+		return new CompiledParser(this, GrammarCompiler::compile);
+	}
+
+	/**
+	 * Lowers this grammar into instructions for a parsing machine.
+	 * <p>
+	 * The returned parser shares the readers of this one and returns the
+	 * same {@link IMatch} trees, but runs the grammar as a flat instruction
+	 * array with an explicit backtrack stack (see {@link ParsingMachine}),
+	 * which does not use the Java stack for nested rules. The grammar must
+	 * not be modified after lowering.
+	 *
+	 * @return a parser running this grammar on a parsing machine
+	 */
+	public IParser toMachine() {
+		return new CompiledParser(this, ParsingMachine::lower);
+	}
+
 	/** Registers a reader under its name. Assumes name uniqueness was checked. */
 	private void addReader(IReader reader) {
 		String name = reader.getName();
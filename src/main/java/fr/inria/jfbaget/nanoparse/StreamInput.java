@@ -0,0 +1,209 @@
+package fr.inria.jfbaget.nanoparse;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Input read from a {@link Reader} into a bounded sliding buffer, to be
+ * parsed item by item by
+ * {@link Parser#stream(StreamInput, String, java.util.function.Consumer)}.
+ * <p>
+ * Each item is parsed on a window of the buffer: an immutable
+ * {@link CharSequence} indexed as the whole input, whose length is the end
+ * of the characters read so far. The window of an item extends at least
+ * {@link #lookahead()} characters past its start, or to the end of the
+ * input. If parsing the item reads close to the end of the window (see
+ * {@link #complete(CharSequence, int)}), it is parsed again on a window
+ * twice as large.
+ * <h3>Releasing</h3>
+ * Once an item has been parsed and handed over, the characters before its
+ * end are {@linkplain #release(int) released}: they are never read again,
+ * and the buffer drops them the next time it needs room. The buffer
+ * therefore holds the current item and the lookahead, whatever the size of
+ * the input. The matches of an item keep the window they were parsed on,
+ * and so the characters of that window, as long as they are referenced.
+ */
+public final class StreamInput {
+
+    /** The default {@link #lookahead()}. */
+    public static final int DEFAULT_LOOKAHEAD = 1 << 16;
+
+    private final Reader source;
+    private final int lookahead;
+
+    /** The buffered characters, from index {@link #offset} of the input. */
+    private char[] buffer;
+    private int offset = 0;
+    private int count = 0;
+    private boolean eof = false;
+    /** The index before which characters are released. */
+    private int released = 0;
+
+    /**
+     * Creates an input reading from {@code source}, with the default
+     * lookahead.
+     *
+     * @param source the characters to parse
+     */
+    public StreamInput(Reader source) {
+        this(source, DEFAULT_LOOKAHEAD);
+    }
+
+    /**
+     * Creates an input reading from {@code source}.
+     *
+     * @param source    the characters to parse
+     * @param lookahead the number of characters an item may read past its
+     *                  start before it is parsed again on a larger window
+     */
+    public StreamInput(Reader source, int lookahead) {
+        if (lookahead <= 0) throw new IllegalArgumentException("lookahead must be positive: " + lookahead);
+        this.source = source;
+        this.lookahead = lookahead;
+        this.buffer = new char[2 * lookahead];
+    }
+
+    /**
+     * Creates an input decoding the bytes of {@code channel}.
+     *
+     * @param channel   the bytes to parse
+     * @param charset   the encoding of the bytes
+     * @param lookahead see {@link #StreamInput(Reader, int)}
+     */
+    public StreamInput(ReadableByteChannel channel, Charset charset, int lookahead) {
+        this(Channels.newReader(channel, charset.newDecoder(), -1), lookahead);
+    }
+
+    /** Returns the number of characters an item is first parsed with. */
+    public int lookahead() {
+        return this.lookahead;
+    }
+
+    /** Returns the current size of the buffer, in characters. */
+    public int capacity() {
+        return this.buffer.length;
+    }
+
+    /**
+     * Returns a window of the input from {@code start}, extending at least
+     * {@code lookahead} characters further, or to the end of the input.
+     *
+     * @throws IllegalStateException if {@code start} was released
+     */
+    public CharSequence window(int start, int lookahead) {
+        if (start < this.released) throw new IllegalStateException("position " + start + " was released");
+        this.fill(start + Math.min(lookahead, Integer.MAX_VALUE - start));
+        return new Window(this.buffer, this.offset, this.offset + this.count, this.eof);
+    }
+
+    /**
+     * Tells whether what was parsed on {@code window} does not depend on
+     * its end: either it ends the input, or no character was read within
+     * {@code guard} characters of its end. The guard must exceed the
+     * length of the literals of the grammar, that readers compare with the
+     * length of the input before reading them.
+     *
+     * @param window a window returned by {@link #window(int, int)}
+     * @param guard  the number of characters at the end of the window that
+     *               must not have been read
+     */
+    public boolean complete(CharSequence window, int guard) {
+        Window w = (Window) window;
+        return w.eof || w.reached + guard < w.end;
+    }
+
+    /**
+     * Releases the characters before {@code position}, that must not be
+     * read again.
+     */
+    public void release(int position) {
+        this.released = Math.max(this.released, position);
+    }
+
+    /** Reads characters until index {@code end} is buffered, or the input ends. */
+    private void fill(int end) {
+        try {
+            while (!this.eof && this.offset + this.count < end) {
+                if (this.count == this.buffer.length) this.makeRoom(end);
+                int read = this.source.read(this.buffer, this.count, this.buffer.length - this.count);
+                if (read < 0) this.eof = true;
+                else this.count += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Moves the unreleased characters to a new buffer, large enough to
+     * read up to {@code end}. Windows keep the previous buffer, whose
+     * characters are never overwritten.
+     */
+    private void makeRoom(int end) {
+        int kept = this.offset + this.count - this.released;
+        int size = Math.max(this.buffer.length, 2 * Math.max(kept, end - this.released));
+        char[] buffer = new char[size];
+        System.arraycopy(this.buffer, this.released - this.offset, buffer, 0, kept);
+        this.buffer = buffer;
+        this.offset = this.released;
+        this.count = kept;
+    }
+
+    /**
+     * A view of the buffer, indexed as the whole input, that records the
+     * furthest character read.
+     */
+    private static final class Window implements CharSequence {
+        private final char[] chars;
+        private final int offset;
+        private final int end;
+        private final boolean eof;
+        private int reached = -1;
+
+        Window(char[] chars, int offset, int end, boolean eof) {
+            this.chars = chars;
+            this.offset = offset;
+            this.end = end;
+            this.eof = eof;
+        }
+
+        @Override
+        public int length() {
+            return this.end;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < this.offset || index >= this.end) {
+                throw new IndexOutOfBoundsException("index " + index + " is not in [" + this.offset + ", " + this.end + ")");
+            }
+            if (index > this.reached) this.reached = index;
+            return this.chars[index - this.offset];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < this.offset || end > this.end || start > end) {
+                throw new IndexOutOfBoundsException("[" + start + ", " + end + ") is not in [" + this.offset + ", " + this.end + ")");
+            }
+            if (end > this.reached + 1) this.reached = end - 1;
+            return new String(this.chars, start - this.offset, end - start);
+        }
+
+        /** Returns the buffered characters only. */
+        @Override
+        public String toString() {
+            return new String(this.chars, 0, this.end - this.offset);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StreamInput[" + this.offset + ", " + (this.offset + this.count) + (this.eof ? "] (end)" : ")")
+                + " released before " + this.released + ", buffer " + this.buffer.length;
+    }
+}
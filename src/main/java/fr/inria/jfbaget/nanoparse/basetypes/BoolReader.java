@@ -1,6 +1,7 @@
 package fr.inria.jfbaget.nanoparse.basetypes;
 
 
+import fr.inria.jfbaget.nanoparse.IMatch;
 import fr.inria.jfbaget.nanoparse.matches.BoolMatch;
 import fr.inria.jfbaget.nanoparse.readers.RegexReader;
 
@@ -33,4 +34,32 @@ public class BoolReader extends RegexReader {
     	return new BoolMatch(this, start, end, success, result);
     }
 
+	/**
+	 * Scans {@code (true)|(false)} at {@code start}.
+	 */
+	@Override
+	protected IMatch scan(CharSequence input, int start) {
+		int end = this.scanEnd(input, start);
+		if (end < 0) return null;
+		return new BoolMatch(this, start, end, true, end - start == 4);
+	}
+
+	/**
+	 * Runs the scanner of {@link #scan(CharSequence, int)}, without building the match.
+	 */
+	@Override
+	protected int scanEnd(CharSequence input, int start) {
+		if (matches(input, start, "true")) return start + 4;
+		if (matches(input, start, "false")) return start + 5;
+		return -1;
+	}
+
+	private static boolean matches(CharSequence input, int start, String literal) {
+		if (input.length() - start < literal.length()) return false;
+		for (int i = 0; i < literal.length(); i++) {
+			if (input.charAt(start + i) != literal.charAt(i)) return false;
+		}
+		return true;
+	}
+
 }
@@ -1,5 +1,6 @@
 package fr.inria.jfbaget.nanoparse.basetypes;
 
+import fr.inria.jfbaget.nanoparse.IMatch;
 import fr.inria.jfbaget.nanoparse.matches.FloatMatch;
 import fr.inria.jfbaget.nanoparse.readers.RegexReader;
 
@@ -55,4 +56,33 @@ public class FloatReader extends RegexReader {
     	return new FloatMatch(this, start, end, success, result);
     }
 
-}
\ No newline at end of file
+	/**
+	 * Scans {@code [-+]?(?:\d+(?:\.\d*)?|\.\d+)(?:[eE][-+]?\d+)?} at
+	 * {@code start}, then computes its value without building a string.
+	 */
+	@Override
+	protected IMatch scan(CharSequence input, int start) {
+		int end = this.scanEnd(input, start);
+		if (end < 0) return null;
+		return new FloatMatch(this, start, end, true, Scanners.floatValue(input, start, end));
+	}
+
+	/**
+	 * Runs the scanner of {@link #scan(CharSequence, int)}, without building the match.
+	 */
+	@Override
+	protected int scanEnd(CharSequence input, int start) {
+		int position = start;
+		if (Scanners.sign(input, position)) position++;
+		int end = Scanners.digits(input, position);
+		if (end > position) {
+			if (Scanners.at(input, end, '.')) end = Scanners.digits(input, end + 1);
+		} else {
+			if (!Scanners.at(input, position, '.')) return -1;
+			end = Scanners.digits(input, position + 1);
+			if (end == position + 1) return -1;
+		}
+		return Scanners.exponent(input, end);
+	}
+
+}
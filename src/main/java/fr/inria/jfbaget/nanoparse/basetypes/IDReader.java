@@ -1,5 +1,6 @@
 package fr.inria.jfbaget.nanoparse.basetypes;
 
+import fr.inria.jfbaget.nanoparse.IMatch;
 import fr.inria.jfbaget.nanoparse.readers.RegexReader;
 
 /**
@@ -32,4 +33,30 @@ public class IDReader extends RegexReader {
 		super("ID", "[a-zA-Z_$][a-zA-Z0-9_$]*", true);
 	}
 
+	/**
+	 * Scans {@code [a-zA-Z_$][a-zA-Z0-9_$]*} at {@code start}.
+	 */
+	@Override
+	protected IMatch scan(CharSequence input, int start) {
+		int end = this.scanEnd(input, start);
+		if (end < 0) return null;
+		return this.makeMatch(input, start, end);
+	}
+
+	/**
+	 * Runs the scanner of {@link #scan(CharSequence, int)}, without building the match.
+	 */
+	@Override
+	protected int scanEnd(CharSequence input, int start) {
+		int length = input.length();
+		if (start >= length || !isIdentifierPart(input.charAt(start)) || Scanners.isDigit(input.charAt(start))) return -1;
+		int end = start + 1;
+		while (end < length && isIdentifierPart(input.charAt(end))) end++;
+		return end;
+	}
+
+	private static boolean isIdentifierPart(char c) {
+		return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || Scanners.isDigit(c) || c == '_' || c == '$';
+	}
+
 }
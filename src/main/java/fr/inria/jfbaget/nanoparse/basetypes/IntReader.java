@@ -1,5 +1,6 @@
 package fr.inria.jfbaget.nanoparse.basetypes;
 
+import fr.inria.jfbaget.nanoparse.IMatch;
 import fr.inria.jfbaget.nanoparse.matches.IntMatch;
 import fr.inria.jfbaget.nanoparse.readers.RegexReader;
 
@@ -39,4 +40,45 @@ public class IntReader extends RegexReader {
     	return new IntMatch(this, start, end, success, result);
     }
 
+	/**
+	 * Scans {@code [+-]?[0-9]+} at {@code start}, computing the value on the
+	 * fly, as {@link Integer#parseInt(String)} would.
+	 *
+	 * @throws NumberFormatException if the literal does not fit in an {@code int}
+	 */
+	@Override
+	protected IMatch scan(CharSequence input, int start) {
+		int position = start;
+		boolean negative = Scanners.at(input, position, '-');
+		if (Scanners.sign(input, position)) position++;
+		int digits = position;
+		int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+		int value = 0;
+		boolean overflow = false;
+		int length = input.length();
+		for (; position < length && Scanners.isDigit(input.charAt(position)); position++) {
+			// accumulated negatively, as Integer.parseInt does
+			int digit = input.charAt(position) - '0';
+			if (value < limit / 10 || 10 * value < limit + digit) overflow = true;
+			else value = 10 * value - digit;
+		}
+		if (position == digits) return null;
+		if (overflow) {
+			throw new NumberFormatException("For input string: \"" + input.subSequence(start, position) + "\"");
+		}
+		return new IntMatch(this, start, position, true, negative ? value : -value);
+	}
+
+	/**
+	 * Finds the end of the literal without computing its value.
+	 */
+	@Override
+	protected int scanEnd(CharSequence input, int start) {
+		int digits = Scanners.sign(input, start) ? start + 1 : start;
+		int end = Scanners.digits(input, digits);
+		if (end == digits) return -1;
+		// a literal of ten digits or more may overflow, which scan reports
+		return end - digits < 10 ? end : this.scan(input, start).end();
+	}
+
 }
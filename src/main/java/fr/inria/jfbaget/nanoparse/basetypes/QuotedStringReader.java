@@ -1,5 +1,7 @@
 package fr.inria.jfbaget.nanoparse.basetypes;
 
+import fr.inria.jfbaget.nanoparse.ByteInput;
+import fr.inria.jfbaget.nanoparse.IMatch;
 import fr.inria.jfbaget.nanoparse.readers.RegexReader;
 
 /**
@@ -43,4 +45,63 @@ public class QuotedStringReader  extends RegexReader {
 		super("STRING", "\"([^\"\\\\]|\\\\.)*\"", true);
 	}
 
+	/**
+	 * Scans {@code "([^"\\]|\\.)*"} at {@code start}: the string ends at the
+	 * first unescaped quote, and a backslash escapes any character but a
+	 * line terminator (which {@code .} does not match). On a
+	 * {@link ByteInput}, the backslash is followed by the first byte of the
+	 * escaped character, the others being stepped over as any character.
+	 */
+	@Override
+	protected IMatch scan(CharSequence input, int start) {
+		int end = this.scanEnd(input, start);
+		if (end < 0) return null;
+		return this.makeMatch(input, start, end);
+	}
+
+	/**
+	 * Runs the scanner of {@link #scan(CharSequence, int)}, without building the match.
+	 */
+	@Override
+	protected int scanEnd(CharSequence input, int start) {
+		if (!Scanners.at(input, start, '"')) return -1;
+		int length = input.length();
+		int position = start + 1;
+		while (position < length) {
+			char c = input.charAt(position);
+			if (c == '"') return position + 1;
+			if (c == '\\') {
+				if (position + 1 == length || isLineTerminator(input, position + 1)) return -1;
+				position += 2;
+			} else {
+				position++;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Whether a line terminator starts at {@code position}; in the bytes of a
+	 * {@link ByteInput}, {@code U+0085}, {@code U+2028} and {@code U+2029}
+	 * are {@code C2 85}, {@code E2 80 A8} and {@code E2 80 A9}.
+	 */
+	private static boolean isLineTerminator(CharSequence input, int position) {
+		char c = input.charAt(position);
+		if (!(input instanceof ByteInput)) {
+			return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+		}
+		switch (c) {
+			case '\n':
+			case '\r':
+				return true;
+			case '\u00C2':
+				return Scanners.at(input, position + 1, '\u0085');
+			case '\u00E2':
+				return Scanners.at(input, position + 1, '\u0080')
+						&& (Scanners.at(input, position + 2, '\u00A8') || Scanners.at(input, position + 2, '\u00A9'));
+			default:
+				return false;
+		}
+	}
+
 }
@@ -0,0 +1,107 @@
+package fr.inria.jfbaget.nanoparse.basetypes;
+
+/**
+ * Character-level helpers shared by the hand-written scanners of the base
+ * types.
+ * <p>
+ * Each base type keeps its regular expression as the definition of its
+ * language (used by the grammar analyses), but matches the input with a
+ * scanner working directly on the {@link CharSequence}: no
+ * {@link java.util.regex.Matcher} and, for numbers and booleans, no
+ * intermediate {@link String}. Those scanners mirror the behaviour of
+ * {@link java.util.regex.Matcher#lookingAt()} on the pattern, backtracking
+ * included.
+ */
+final class Scanners {
+
+    /** Exact powers of ten as floats. */
+    private static final float[] POWERS = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    private Scanners() {}
+
+    /** Whether {@code c} matches {@code \d} (and {@code [0-9]}). */
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /** Whether there is a character {@code c} at {@code position}. */
+    static boolean at(CharSequence input, int position, char c) {
+        return position < input.length() && input.charAt(position) == c;
+    }
+
+    /** Whether there is a sign ({@code [-+]}) at {@code position}. */
+    static boolean sign(CharSequence input, int position) {
+        return at(input, position, '-') || at(input, position, '+');
+    }
+
+    /** Returns the end of the (possibly empty) run of digits starting at {@code position}. */
+    static int digits(CharSequence input, int position) {
+        int length = input.length();
+        while (position < length && isDigit(input.charAt(position))) position++;
+        return position;
+    }
+
+    /**
+     * Returns the end of the exponent {@code [eE][-+]?\d+} starting at
+     * {@code position}, or {@code position} if there is none.
+     */
+    static int exponent(CharSequence input, int position) {
+        if (!at(input, position, 'e') && !at(input, position, 'E')) return position;
+        int digits = position + 1;
+        if (sign(input, digits)) digits++;
+        int end = digits(input, digits);
+        return end > digits ? end : position;
+    }
+
+    /**
+     * Computes the value of the float literal {@code input[start, end)},
+     * as {@link Float#parseFloat(String)} does.
+     * <p>
+     * The value is computed exactly when the significand fits in a float
+     * and the decimal exponent is small (Clinger's fast path), which is the
+     * case of most literals; otherwise the literal is handed over to
+     * {@link Float#parseFloat(String)}.
+     */
+    static float floatValue(CharSequence input, int start, int end) {
+        int position = start;
+        boolean negative = input.charAt(position) == '-';
+        if (sign(input, position)) position++;
+        long significand = 0;
+        int scale = 0;
+        boolean point = false;
+        boolean exact = true;
+        for (; position < end; position++) {
+            char c = input.charAt(position);
+            if (c == '.') {
+                point = true;
+                continue;
+            }
+            if (!isDigit(c)) break;
+            if (significand < (1L << 24)) {
+                significand = 10 * significand + (c - '0');
+                if (point) scale--;
+            } else {
+                exact = false;
+                break;
+            }
+        }
+        if (exact && position < end) {
+            // exponent
+            position++;
+            boolean negativeExponent = input.charAt(position) == '-';
+            if (sign(input, position)) position++;
+            int exponent = 0;
+            for (; position < end && exponent < 100; position++) {
+                exponent = 10 * exponent + (input.charAt(position) - '0');
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (exact && significand == 0) return negative ? -0f : 0f;
+        if (exact && significand < (1L << 24) && scale >= -10 && scale <= 10) {
+            float value = significand;
+            value = scale >= 0 ? value * POWERS[scale] : value / POWERS[-scale];
+            return negative ? -value : value;
+        }
+        return Float.parseFloat(input.subSequence(start, end).toString());
+    }
+}
@@ -1,5 +1,6 @@
 package fr.inria.jfbaget.nanoparse.basetypes;
 
+import fr.inria.jfbaget.nanoparse.IMatch;
 import fr.inria.jfbaget.nanoparse.matches.FloatMatch;
 import fr.inria.jfbaget.nanoparse.readers.RegexReader;
 
@@ -50,4 +51,45 @@ public class StrictFloatReader extends RegexReader {
     	return new FloatMatch(this, start, end, success, result);
     }
 
-}
\ No newline at end of file
+	/**
+	 * Scans the pattern at {@code start}, trying its three alternatives in
+	 * order as the regular expression does, then computes the value without
+	 * building a string.
+	 */
+	@Override
+	protected IMatch scan(CharSequence input, int start) {
+		int end = this.scanEnd(input, start);
+		if (end < 0) return null;
+		return new FloatMatch(this, start, end, true, Scanners.floatValue(input, start, end));
+	}
+
+	/**
+	 * Runs the scanner of {@link #scan(CharSequence, int)}, without building the match.
+	 */
+	@Override
+	protected int scanEnd(CharSequence input, int start) {
+		int end = scanScientific(input, start);
+		if (end < 0 && Scanners.at(input, start, '.')) {
+			// \.\d+([eE][+-]?\d+)?
+			end = Scanners.digits(input, start + 1);
+			end = end > start + 1 ? Scanners.exponent(input, end) : -1;
+		}
+		if (end < 0) {
+			// \d+\.\d*([eE][+-]?\d+)?
+			end = Scanners.digits(input, start);
+			end = end > start && Scanners.at(input, end, '.') ? Scanners.exponent(input, Scanners.digits(input, end + 1)) : -1;
+		}
+		return end;
+	}
+
+	/** Scans {@code [-+]?\d+[eE][-+]?\d+}, returning its end or {@code -1}. */
+	private static int scanScientific(CharSequence input, int start) {
+		int position = start;
+		if (Scanners.sign(input, position)) position++;
+		int end = Scanners.digits(input, position);
+		if (end == position) return -1;
+		int exponent = Scanners.exponent(input, end);
+		return exponent > end ? exponent : -1;
+	}
+
+}
@@ -36,6 +36,11 @@
  *       generic base type rule combining several of the above.</li>
  * </ul>
  * <p>
+ * The regular-expression base types are defined by their pattern, but match
+ * the input with hand-written scanners that accept exactly the same language
+ * (see {@link fr.inria.jfbaget.nanoparse.readers.RegexReader#scan}). Numbers
+ * and booleans are converted while scanning, without building a string.
+ * <p>
  * These base readers are intended to cover the most common lexical needs.
  * Users can still define their own {@link fr.inria.jfbaget.nanoparse.readers.RegexReader}
  * or other custom readers for specialised token types.
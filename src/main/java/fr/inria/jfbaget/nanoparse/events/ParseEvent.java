@@ -0,0 +1,109 @@
+package fr.inria.jfbaget.nanoparse.events;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+import fr.inria.jfbaget.nanoparse.IMatch;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A parse, from the call of
+ * {@link fr.inria.jfbaget.nanoparse.Parser#read(CharSequence, int, String)}
+ * to its return.
+ * <p>
+ * No event is created unless a recording enables it (see
+ * {@link #enabled()}). The number of nodes of the match is only counted
+ * when the event is committed, that is when a recording is running and
+ * the parse lasted longer than the threshold of the event, none by
+ * default.
+ */
+@Name("fr.inria.jfbaget.nanoparse.Parse")
+@Label("Parse")
+@Category("NanoParse")
+@Description("A call of Parser.read")
+public final class ParseEvent extends Event {
+
+	/** Asked whether the event is enabled, which does not depend on the instance. */
+	private static final ParseEvent PROBE = new ParseEvent();
+
+	@Label("Rule")
+	@Description("The entry rule of the parse")
+	public String rule;
+
+	@Label("Input Length")
+	@Description("The number of characters of the input")
+	public int inputLength;
+
+	@Label("Position")
+	@Description("The position the parse started at")
+	public int position;
+
+	@Label("Success")
+	public boolean success;
+
+	@Label("End Position")
+	@Description("The end of the match, or of the failure")
+	public int endPosition;
+
+	@Label("Nodes")
+	@Description("The number of matches in the parse tree, the root included")
+	public int nodes;
+
+	/**
+	 * Tells whether a running recording enables the event: otherwise,
+	 * parses create none.
+	 */
+	public static boolean enabled() {
+		return PROBE.isEnabled();
+	}
+
+	/**
+	 * Ends this event, begun before the parse, and commits it with the
+	 * parse of {@code input} at {@code position} with {@code rule}, whose
+	 * match is {@code match}, if it should be.
+	 */
+	public void record(String rule, CharSequence input, int position, IMatch match) {
+		this.end();
+		if (this.shouldCommit()) {
+			this.rule = rule;
+			this.inputLength = input.length();
+			this.position = position;
+			this.success = match.success();
+			this.endPosition = match.end();
+			this.nodes = nodes(match);
+			this.commit();
+		}
+	}
+
+	/**
+	 * Returns the number of matches in the tree of {@code match}, counted
+	 * without recursion, since trees may be deep.
+	 */
+	@SuppressWarnings("unchecked")
+	static int nodes(IMatch match) {
+		int nodes = 0;
+		Deque<IMatch> pending = new ArrayDeque<>();
+		pending.push(match);
+		while (!pending.isEmpty()) {
+			IMatch node = pending.pop();
+			nodes++;
+			Object result = node.result();
+			if (result instanceof List) {
+				for (Object child : (List<Object>) result) {
+					if (child instanceof IMatch) pending.push((IMatch) child);
+				}
+			} else if (result instanceof Map) {
+				for (Object child : ((Map<String, Object>) result).values()) {
+					if (child instanceof IMatch) pending.push((IMatch) child);
+				}
+			}
+		}
+		return nodes;
+	}
+}
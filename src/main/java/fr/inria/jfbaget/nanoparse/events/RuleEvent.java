@@ -0,0 +1,55 @@
+package fr.inria.jfbaget.nanoparse.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A rule invocation that lasted longer than the threshold of the event,
+ * 10 ms by default, in a grammar monitored by a
+ * {@link fr.inria.jfbaget.nanoparse.readers.FlightRecorderMonitor}.
+ * <p>
+ * The threshold is a setting of the recording, for instance
+ * {@code recording.enable(RuleEvent.class).withThreshold(Duration.ofMillis(1))},
+ * or {@code fr.inria.jfbaget.nanoparse.Rule#threshold=1 ms} in a
+ * {@code .jfc} file. The invocations of a rule include those of the rules
+ * it calls, which may be recorded too. No stack trace is recorded, the
+ * enclosing invocations being events of their own.
+ */
+@Name("fr.inria.jfbaget.nanoparse.Rule")
+@Label("Rule Invocation")
+@Category("NanoParse")
+@Description("A slow rule invocation")
+@Threshold("10 ms")
+@StackTrace(false)
+public final class RuleEvent extends Event {
+
+	/** Asked whether the event is enabled, which does not depend on the instance. */
+	private static final RuleEvent PROBE = new RuleEvent();
+
+	@Label("Rule")
+	public String rule;
+
+	@Label("Position")
+	@Description("The position the rule was invoked at")
+	public int position;
+
+	@Label("Success")
+	public boolean success;
+
+	@Label("End Position")
+	@Description("The end of the match, or -1 if the rule failed")
+	public int endPosition;
+
+	/**
+	 * Tells whether a running recording enables the event: otherwise,
+	 * invocations create none.
+	 */
+	public static boolean enabled() {
+		return PROBE.isEnabled();
+	}
+}
@@ -0,0 +1,13 @@
+/**
+ * JDK Flight Recorder events of NanoParse.
+ * <p>
+ * A {@link fr.inria.jfbaget.nanoparse.events.ParseEvent} is recorded by each
+ * call of {@link fr.inria.jfbaget.nanoparse.Parser#read(CharSequence, int, String)},
+ * and a {@link fr.inria.jfbaget.nanoparse.events.RuleEvent} by each rule
+ * invocation that lasts longer than its threshold, in grammars monitored by
+ * a {@link fr.inria.jfbaget.nanoparse.readers.FlightRecorderMonitor}. The
+ * events are in the {@code NanoParse} category, next to the GC and
+ * allocation events of the JDK in JDK Mission Control, and cost nothing
+ * when no recording is running.
+ */
+package fr.inria.jfbaget.nanoparse.events;
@@ -32,6 +32,20 @@ public class BoolMatch extends Match<Boolean> {
 		super(reader, start, end, success, Boolean.parseBoolean(result));
 	}
 
+	/**
+	 * Creates a {@code BoolMatch} from an already computed value, for readers
+	 * that compute it while scanning the input.
+	 *
+	 * @param reader  the reader that produced this match
+	 * @param start   the start index in the input
+	 * @param end     the end index in the input
+	 * @param success whether the match succeeded
+	 * @param value   the boolean value of the match
+	 */
+	public BoolMatch(IReader reader, int start, int end, boolean success, boolean value) {
+		super(reader, start, end, success, value);
+	}
+
 	/**
 	 * Internal constructor used by {@link #copyWith(int, int, boolean)}.
 	 */
@@ -0,0 +1,408 @@
+package fr.inria.jfbaget.nanoparse.matches;
+
+import java.nio.CharBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+import fr.inria.jfbaget.nanoparse.ByteInput;
+import fr.inria.jfbaget.nanoparse.IMatch;
+import fr.inria.jfbaget.nanoparse.IReader;
+
+/**
+ * A parse tree stored in parallel primitive arrays.
+ * <p>
+ * A {@code FlatTree} holds the same information as the {@link IMatch} tree
+ * returned by {@link fr.inria.jfbaget.nanoparse.IParser#read(CharSequence, int, String)},
+ * but each match is a <em>node</em>, an index into arrays giving its rule,
+ * kind, span, first child, next sibling and value. Nodes are laid out in
+ * preorder, so walking the tree reads the arrays sequentially, and a tree
+ * costs a few dozen bytes per node instead of several objects per match.
+ * <p>
+ * The tree can be used in two ways:
+ * <ul>
+ *   <li>as a cursor, through the accessors taking a node index, starting
+ *       from {@link #root()}: {@link #firstChild(int)} and
+ *       {@link #nextSibling(int)} ({@code -1} when there is none),
+ *       {@link #reader(int)}, {@link #start(int)}, {@link #end(int)}, and the
+ *       typed values {@link #intValue(int)}, {@link #floatValue(int)},
+ *       {@link #booleanValue(int)} and {@link #text(int)};</li>
+ *   <li>through lightweight {@link IMatch} views of the nodes, returned by
+ *       {@link #match(int)}, whose results are views as well.</li>
+ * </ul>
+ * {@link #toMatch(int)} converts a subtree back into the match objects
+ * {@code read} would have built.
+ * <p>
+ * The value of a node depends on its {@link #kind(int) kind}, which tells
+ * which kind of match it stands for:
+ * <ul>
+ *   <li>{@link #MATCH}: a {@link Match}, whose result is an object, or
+ *       {@code null};</li>
+ *   <li>{@link #STRING}: a {@link SpanStringMatch} whose text is its own
+ *       span, kept as offsets into the input, or a {@link StringMatch} whose
+ *       result is stored as an object;</li>
+ *   <li>{@link #INT}, {@link #FLOAT}, {@link #BOOL}: an {@link IntMatch},
+ *       {@link FloatMatch} or {@link BoolMatch}, whose value is stored in the
+ *       node itself;</li>
+ *   <li>{@link #LIST}: a {@link ListMatch}, whose elements are the children
+ *       of the node (its result is {@code null} if its value is 0);</li>
+ *   <li>{@link #OBJECT}: an {@link ObjectMatch}, whose fields are the
+ *       children of the node, named by {@link #key(int, int)};</li>
+ *   <li>{@link #OTHER}: any other {@link IMatch}, stored as is.</li>
+ * </ul>
+ * A {@code FlatTree} is immutable. Trees are built by the readers, see
+ * {@link fr.inria.jfbaget.nanoparse.Parser#readTree(CharSequence, int, String)}.
+ */
+public final class FlatTree {
+
+    /** Kind of a node standing for a {@link Match}. */
+    public static final byte MATCH = 0;
+    /** Kind of a node standing for a {@link StringMatch}. */
+    public static final byte STRING = 1;
+    /** Kind of a node standing for an {@link IntMatch}. */
+    public static final byte INT = 2;
+    /** Kind of a node standing for a {@link FloatMatch}. */
+    public static final byte FLOAT = 3;
+    /** Kind of a node standing for a {@link BoolMatch}. */
+    public static final byte BOOL = 4;
+    /** Kind of a node standing for a {@link ListMatch}. */
+    public static final byte LIST = 5;
+    /** Kind of a node standing for an {@link ObjectMatch}. */
+    public static final byte OBJECT = 6;
+    /** Kind of a node standing for another {@link IMatch}, stored as is. */
+    public static final byte OTHER = 7;
+
+    /** Value of a {@link #STRING} node standing for a {@link SpanStringMatch} over its own span. */
+    public static final int SPAN = -1;
+
+    private final CharSequence input;
+    private final IMatch failure;
+    private final IReader[] rules;
+    private final int size;
+    private final int[] rule;
+    private final byte[] kind;
+    private final int[] start;
+    private final int[] end;
+    private final int[] firstChild;
+    private final int[] nextSibling;
+    private final int[] value;
+    private final Object[] objects;
+
+    /**
+     * Creates a tree from its arrays, which are not copied. Nodes must be
+     * in preorder, the root being node 0. Intended for the readers; see
+     * the class documentation for the meaning of the arrays.
+     *
+     * @param input       the parsed input
+     * @param rules       the readers, indexed by rule identifier
+     * @param size        the number of nodes
+     * @param rule        the rule identifier of each node
+     * @param kind        the kind of each node
+     * @param start       the start of each node
+     * @param end         the end of each node
+     * @param firstChild  the first child of each node, or {@code -1}
+     * @param nextSibling the next sibling of each node, or {@code -1}
+     * @param value       the value of each node
+     * @param objects     the objects referred to by the values
+     */
+    public FlatTree(CharSequence input, IReader[] rules, int size, int[] rule, byte[] kind, int[] start, int[] end,
+            int[] firstChild, int[] nextSibling, int[] value, Object[] objects) {
+        this(input, null, rules, size, rule, kind, start, end, firstChild, nextSibling, value, objects);
+    }
+
+    private FlatTree(CharSequence input, IMatch failure, IReader[] rules, int size, int[] rule, byte[] kind,
+            int[] start, int[] end, int[] firstChild, int[] nextSibling, int[] value, Object[] objects) {
+        this.input = input;
+        this.failure = failure;
+        this.rules = rules;
+        this.size = size;
+        this.rule = rule;
+        this.kind = kind;
+        this.start = start;
+        this.end = end;
+        this.firstChild = firstChild;
+        this.nextSibling = nextSibling;
+        this.value = value;
+        this.objects = objects;
+    }
+
+    /**
+     * Returns the tree of a failed parse.
+     *
+     * @param input   the parsed input
+     * @param failure the failed match, as returned by {@code read}
+     * @return an empty tree whose {@link #match()} is {@code failure}
+     */
+    public static FlatTree failed(CharSequence input, IMatch failure) {
+        int[] none = new int[0];
+        return new FlatTree(input, failure, new IReader[0], 0, none, new byte[0], none, none, none, none, none, new Object[0]);
+    }
+
+    /** Returns whether the parse succeeded, i.e. whether there is a root node. */
+    public boolean success() {
+        return this.size > 0;
+    }
+
+    /** Returns the root node, or {@code -1} if the parse failed. */
+    public int root() {
+        return this.size > 0 ? 0 : -1;
+    }
+
+    /** Returns the number of nodes. */
+    public int size() {
+        return this.size;
+    }
+
+    /** Returns the parsed input. */
+    public CharSequence input() {
+        return this.input;
+    }
+
+    /** Returns the reader that produced {@code node}. */
+    public IReader reader(int node) {
+        return this.rules[this.rule[node]];
+    }
+
+    /**
+     * Returns the identifier of the rule of {@code node}: nodes produced by
+     * the same reader have the same identifier, between 0 and the number
+     * of distinct readers in the tree.
+     */
+    public int rule(int node) {
+        return this.rule[node];
+    }
+
+    /** Returns the kind of {@code node}, one of the constants of this class. */
+    public byte kind(int node) {
+        return this.kind[node];
+    }
+
+    /** Returns the start of {@code node} in the input. */
+    public int start(int node) {
+        return this.start[node];
+    }
+
+    /** Returns the end of {@code node} in the input. */
+    public int end(int node) {
+        return this.end[node];
+    }
+
+    /** Returns the first child of {@code node}, or {@code -1}. */
+    public int firstChild(int node) {
+        return this.firstChild[node];
+    }
+
+    /** Returns the next sibling of {@code node}, or {@code -1}. */
+    public int nextSibling(int node) {
+        return this.nextSibling[node];
+    }
+
+    /** Returns the number of children of {@code node}. */
+    public int childCount(int node) {
+        int count = 0;
+        for (int child = this.firstChild[node]; child >= 0; child = this.nextSibling[child]) count++;
+        return count;
+    }
+
+    /** Returns the value of an {@link #INT} node. */
+    public int intValue(int node) {
+        return this.value[node];
+    }
+
+    /** Returns the value of a {@link #FLOAT} node. */
+    public float floatValue(int node) {
+        return Float.intBitsToFloat(this.value[node]);
+    }
+
+    /** Returns the value of a {@link #BOOL} node. */
+    public boolean booleanValue(int node) {
+        return this.value[node] != 0;
+    }
+
+    /**
+     * Returns the result of a {@link #STRING} node, without copying it if
+     * it is the text of its span (unless the input is a {@link ByteInput},
+     * whose text is decoded).
+     */
+    public CharSequence text(int node) {
+        int value = this.value[node];
+        if (value == SPAN) {
+            if (this.input instanceof ByteInput) return this.input.subSequence(this.start[node], this.end[node]);
+            return CharBuffer.wrap(this.input, this.start[node], this.end[node]);
+        }
+        return (CharSequence) this.objects[value];
+    }
+
+    /**
+     * Returns the name of a field of an {@link #OBJECT} node.
+     *
+     * @param node  an {@link #OBJECT} node
+     * @param index the index of the field, i.e. of the child standing for it
+     */
+    public String key(int node, int index) {
+        return ((String[]) this.objects[this.value[node]])[index];
+    }
+
+    /**
+     * Returns the result that the match of {@code node} would have: a
+     * boxed value, or views for {@link #LIST} and {@link #OBJECT} nodes.
+     */
+    public Object result(int node) {
+        int value = this.value[node];
+        switch (this.kind[node]) {
+            case STRING:
+                return value == SPAN ? this.input.subSequence(this.start[node], this.end[node]).toString() : this.objects[value];
+            case INT:
+                return value;
+            case FLOAT:
+                return Float.intBitsToFloat(value);
+            case BOOL:
+                return value != 0;
+            case LIST:
+                return value == 0 ? null : new Children(node);
+            case OBJECT: {
+                Map<String, IMatch> fields = new LinkedHashMap<>();
+                int index = 0;
+                for (int child = this.firstChild[node]; child >= 0; child = this.nextSibling[child]) {
+                    fields.put(this.key(node, index++), this.match(child));
+                }
+                return fields;
+            }
+            case OTHER:
+                return ((IMatch) this.objects[value]).result();
+            default:
+                return value < 0 ? null : this.objects[value];
+        }
+    }
+
+    /**
+     * Returns a view of the whole tree as an {@link IMatch}, or the failed
+     * match if the parse failed.
+     */
+    public IMatch match() {
+        return this.size > 0 ? this.match(0) : this.failure;
+    }
+
+    /**
+     * Returns a view of {@code node} as an {@link IMatch}. Views only hold
+     * the tree and the node index; nodes of kind {@link #OTHER} are
+     * returned as is.
+     */
+    public IMatch match(int node) {
+        if (this.kind[node] == OTHER) return (IMatch) this.objects[this.value[node]];
+        return new View(node);
+    }
+
+    /**
+     * Converts {@code node} and its descendants into the match objects
+     * that {@code read} builds.
+     */
+    public IMatch toMatch(int node) {
+        IReader reader = this.reader(node);
+        int start = this.start[node];
+        int end = this.end[node];
+        int value = this.value[node];
+        switch (this.kind[node]) {
+            case STRING:
+                if (value == SPAN) return new SpanStringMatch(reader, start, end, this.input);
+                return new StringMatch(reader, start, end, true, (String) this.objects[value]);
+            case INT:
+                return new IntMatch(reader, start, end, true, value);
+            case FLOAT:
+                return new FloatMatch(reader, start, end, true, Float.intBitsToFloat(value));
+            case BOOL:
+                return new BoolMatch(reader, start, end, true, value != 0);
+            case LIST: {
+                if (value == 0) return new ListMatch(reader, start, end, true, null);
+                List<IMatch> elements = new ArrayList<>();
+                for (int child = this.firstChild[node]; child >= 0; child = this.nextSibling[child]) {
+                    elements.add(this.toMatch(child));
+                }
+                return new ListMatch(reader, start, end, true, elements);
+            }
+            case OBJECT: {
+                Map<String, IMatch> fields = new LinkedHashMap<>();
+                int index = 0;
+                for (int child = this.firstChild[node]; child >= 0; child = this.nextSibling[child]) {
+                    fields.put(this.key(node, index++), this.toMatch(child));
+                }
+                return new ObjectMatch(reader, start, end, true, fields);
+            }
+            case OTHER:
+                return (IMatch) this.objects[value];
+            default:
+                return new Match<>(reader, start, end, true, value < 0 ? null : this.objects[value]);
+        }
+    }
+
+    /** A node seen as an {@link IMatch}. */
+    private final class View implements IMatch {
+        private final int node;
+
+        View(int node) {
+            this.node = node;
+        }
+
+        @Override
+        public boolean success() {
+            return true;
+        }
+
+        @Override
+        public IReader reader() {
+            return FlatTree.this.reader(this.node);
+        }
+
+        @Override
+        public int start() {
+            return FlatTree.this.start[this.node];
+        }
+
+        @Override
+        public int end() {
+            return FlatTree.this.end[this.node];
+        }
+
+        @Override
+        public IMatch copyWith(int start, int end, boolean success) {
+            return FlatTree.this.toMatch(this.node).copyWith(start, end, success);
+        }
+
+        @Override
+        public Object result() {
+            return FlatTree.this.result(this.node);
+        }
+
+        @Override
+        public JSONObject toJSON() {
+            return FlatTree.this.toMatch(this.node).toJSON();
+        }
+    }
+
+    /** The children of a {@link #LIST} node, as views. */
+    private final class Children extends AbstractList<IMatch> {
+        private final int[] nodes;
+
+        Children(int node) {
+            this.nodes = new int[FlatTree.this.childCount(node)];
+            int index = 0;
+            for (int child = FlatTree.this.firstChild[node]; child >= 0; child = FlatTree.this.nextSibling[child]) {
+                this.nodes[index++] = child;
+            }
+        }
+
+        @Override
+        public IMatch get(int index) {
+            return FlatTree.this.match(this.nodes[index]);
+        }
+
+        @Override
+        public int size() {
+            return this.nodes.length;
+        }
+    }
+}
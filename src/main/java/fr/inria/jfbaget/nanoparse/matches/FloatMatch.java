@@ -32,6 +32,20 @@ public class FloatMatch extends Match<Float> {
 		super(reader, start, end, success, Float.parseFloat(result));
 	}
 
+	/**
+	 * Creates a {@code FloatMatch} from an already computed value, for readers
+	 * that compute it while scanning the input.
+	 *
+	 * @param reader  the reader that produced this match
+	 * @param start   the start index in the input
+	 * @param end     the end index in the input
+	 * @param success whether the match succeeded
+	 * @param value   the float value of the match
+	 */
+	public FloatMatch(IReader reader, int start, int end, boolean success, float value) {
+		super(reader, start, end, success, value);
+	}
+
 	/**
 	 * Internal constructor used to create modified copies of this match
 	 * (for example by {@link #copyWith(int, int, boolean)}), when the
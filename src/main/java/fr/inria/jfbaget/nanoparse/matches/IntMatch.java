@@ -33,6 +33,20 @@ public class IntMatch extends Match<Integer> {
 		super(reader, start, end, success, Integer.parseInt(result));
 	}
 
+	/**
+	 * Creates an {@code IntMatch} from an already computed value, for readers
+	 * that compute it while scanning the input.
+	 *
+	 * @param reader  the reader that produced this match
+	 * @param start   the start index in the input
+	 * @param end     the end index in the input
+	 * @param success whether the match succeeded
+	 * @param value   the integer value of the match
+	 */
+	public IntMatch(IReader reader, int start, int end, boolean success, int value) {
+		super(reader, start, end, success, value);
+	}
+
 	/**
 	 * Internal constructor used to create modified copies of this match
 	 * (for example by {@link #copyWith(int, int, boolean)}), when the
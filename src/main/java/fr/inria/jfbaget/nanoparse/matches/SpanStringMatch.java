@@ -0,0 +1,107 @@
+package fr.inria.jfbaget.nanoparse.matches;
+
+import java.nio.CharBuffer;
+
+import fr.inria.jfbaget.nanoparse.ByteInput;
+import fr.inria.jfbaget.nanoparse.IReader;
+
+/**
+ * A {@link StringMatch} whose result is the text of a span of the input,
+ * only copied into a {@link String} when {@link #result()} is first called.
+ * <p>
+ * Token rules build this match instead of extracting their text eagerly:
+ * most tokens of a parse are never read, and {@link #text()} gives access to
+ * the text without copying it. The text span is kept apart from the span
+ * of the match, which {@link #copyWith(int, int, boolean)} may change.
+ * <p>
+ * The match keeps a reference to the input, which must not change while
+ * the match is in use.
+ */
+public class SpanStringMatch extends StringMatch {
+
+	private final CharSequence input;
+	private final int textStart;
+	private final int textEnd;
+	/** The text, once copied; racing threads may each copy it. */
+	private String text;
+
+	/**
+	 * Creates a successful match whose text is its own span of {@code input}.
+	 *
+	 * @param reader the reader that produced this match
+	 * @param start  the start index in the input
+	 * @param end    the end index in the input
+	 * @param input  the parsed input
+	 */
+	public SpanStringMatch(IReader reader, int start, int end, CharSequence input) {
+		this(reader, start, end, true, input, start, end);
+	}
+
+	/**
+	 * Creates a match whose text is the span of {@code input} between
+	 * {@code textStart} and {@code textEnd}.
+	 *
+	 * @param reader    the reader that produced this match
+	 * @param start     the start index in the input
+	 * @param end       the end index in the input
+	 * @param success   whether the match succeeded
+	 * @param input     the parsed input
+	 * @param textStart the start index of the text in the input
+	 * @param textEnd   the end index of the text in the input
+	 */
+	public SpanStringMatch(IReader reader, int start, int end, boolean success, CharSequence input, int textStart, int textEnd) {
+		super(reader, start, end, success, null);
+		this.input = input;
+		this.textStart = textStart;
+		this.textEnd = textEnd;
+	}
+
+	/** Returns the input the text is a span of. */
+	public CharSequence input() {
+		return this.input;
+	}
+
+	/** Returns the start index of the text in the input. */
+	public int textStart() {
+		return this.textStart;
+	}
+
+	/** Returns the end index of the text in the input. */
+	public int textEnd() {
+		return this.textEnd;
+	}
+
+	/**
+	 * Returns the text, copied from the input on the first call.
+	 */
+	@Override
+	public String result() {
+		String text = this.text;
+		if (text == null) {
+			text = this.input.subSequence(this.textStart, this.textEnd).toString();
+			this.text = text;
+		}
+		return text;
+	}
+
+	/**
+	 * Returns a read-only view of the text over the input, or the text if
+	 * it was already copied. The text of a {@link ByteInput} is decoded.
+	 */
+	@Override
+	public CharSequence text() {
+		String text = this.text;
+		if (text != null) return text;
+		if (this.input instanceof ByteInput) return this.result();
+		return CharBuffer.wrap(this.input, this.textStart, this.textEnd);
+	}
+
+	/**
+	 * Returns a new {@code SpanStringMatch} with the specified span and
+	 * success flag, over the same text.
+	 */
+	@Override
+	public SpanStringMatch copyWith(int start, int end, boolean success) {
+		return new SpanStringMatch(this.reader(), start, end, success, this.input, this.textStart, this.textEnd);
+	}
+}
@@ -15,6 +15,9 @@ import fr.inria.jfbaget.nanoparse.IReader;
  * span or success flag while preserving the semantic result value, use
  * {@link #copyWith(int, int, boolean)}, which returns a new
  * {@code StringMatch} instance.
+ * <p>
+ * Token rules of the grammar usually build a {@link SpanStringMatch},
+ * whose text is only copied from the input when it is asked for.
  */
 public class StringMatch extends Match<String> {
 
@@ -31,6 +34,14 @@ public class StringMatch extends Match<String> {
 		super(reader, start, end, success, result);
 	}
 
+	/**
+	 * Returns the result as a {@link CharSequence}, which subclasses may
+	 * return without building a {@link String}.
+	 */
+	public CharSequence text() {
+		return this.result();
+	}
+
 	/**
 	 * Returns a new {@code StringMatch} with the specified span and success flag.
 	 * The semantic string result is preserved.
@@ -1,5 +1,9 @@
 package fr.inria.jfbaget.nanoparse.readers;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
 import fr.inria.jfbaget.nanoparse.IMatch;
 import fr.inria.jfbaget.nanoparse.IParser;
 import fr.inria.jfbaget.nanoparse.IReader;
@@ -18,7 +22,9 @@ import fr.inria.jfbaget.nanoparse.matches.Match;
  *       {@link #link(IParser)},</li>
  *   <li>a final {@link #read(CharSequence, int)} implementation that applies
  *       {@code skip} if requested, then delegates to
- *       {@link #simpleread(CharSequence, int)}.</li>
+ *       {@link #simpleread(CharSequence, int)},</li>
+ *   <li>optional packrat memoization of that result (see
+ *       {@link #setMemoized(boolean)}).</li>
  * </ul>
  * Subclasses only need to:
  * <ul>
@@ -27,12 +33,32 @@ import fr.inria.jfbaget.nanoparse.matches.Match;
  *   <li>implement {@link #simpleLink(IParser)} to resolve references to
  *       other rules in the grammar.</li>
  * </ul>
+ * <h3>Failures</h3>
+ * Most attempts of a parse fail, and the failed match of a sub-rule is only
+ * ever tested for {@link IMatch#success()} by its parent. Inside the engine,
+ * readers therefore fail with a shared instance, built once per reader by
+ * {@link #makeFailure(int)} and carrying no position ({@code start() == end() == -1}),
+ * and call each other through {@link #attempt(IReader, CharSequence, int)}.
+ * {@link #read(CharSequence, int)} replaces such a shared failure by a
+ * positioned one, so that clients still see a failure spanning the empty
+ * range at the start position (after skip).
  */
 abstract class AbstractReader implements IReader{
 
     private final String name;
     private final boolean skip;
     private IReader skipReader;
+    private boolean memoized = false;
+    /** Whether a subclass overrides {@link #read}, which the engine must then call. */
+    private final boolean readOverridden;
+    /** Whether {@link #simplerecognize} agrees with the {@link #simpleread} in use. */
+    private final boolean recognizable;
+    /** Whether {@link #simplebuild} agrees with the {@link #simpleread} in use. */
+    private final boolean buildable;
+    /** The shared failure of this reader, created on first use. */
+    private IMatch failure;
+    /** Whether {@link #freeze()} was called. */
+    private boolean frozen = false;
 
     /**
      * Creates a new reader with the given name and skip behaviour.
@@ -44,6 +70,12 @@ abstract class AbstractReader implements IReader{
     public AbstractReader(String name, boolean skip) {
         this.name = name;
         this.skip = skip;
+        this.readOverridden = GrammarAnalysis.declaringClass(this.getClass(), "read") != AbstractReader.class;
+        this.recognizable = GrammarAnalysis.declaringClass(this.getClass(), "simpleread")
+                == GrammarAnalysis.declaringClass(this.getClass(), "simplerecognize");
+        this.buildable = GrammarAnalysis.declaringClass(this.getClass(), "simpleread")
+                == GrammarAnalysis.declaringClass(this.getClass(), "simplebuild",
+                        CharSequence.class, int.class, TreeBuilder.class);
     }
 
     /**
@@ -63,6 +95,65 @@ abstract class AbstractReader implements IReader{
     	return this.skip;
     }
 
+    /**
+     * Returns the {@code "skip"} reader resolved at link time.
+     */
+    IReader skipReader() {
+        return this.skipReader;
+    }
+
+    /**
+     * Returns whether this reader memoizes its matches.
+     */
+    @Override
+    public boolean isMemoized() {
+        return this.memoized;
+    }
+
+    /**
+     * Enables or disables packrat memoization for this reader.
+     * <p>
+     * A memoized reader evaluates itself at most once per input position
+     * during a parse started by {@link Parser#read(CharSequence, int, String)}:
+     * later attempts at the same position return the recorded {@link IMatch}
+     * from the {@link MemoTable} of its {@link ParseSession}. Calls made outside such a parse
+     * are evaluated normally.
+     *
+     * @param memoized {@code true} to memoize this reader
+     * @throws IllegalStateException if this reader is frozen
+     */
+    @Override
+    public void setMemoized(boolean memoized) {
+        this.checkNotFrozen();
+        this.memoized = memoized;
+    }
+
+    /**
+     * Makes this reader immutable. Subclasses make their lists unmodifiable
+     * and call this method. The shared failure is built now, so that reads
+     * write nothing to the reader.
+     */
+    @Override
+    public void freeze() {
+        this.failure();
+        this.frozen = true;
+    }
+
+    /**
+     * Returns whether {@link #freeze()} was called.
+     */
+    @Override
+    public boolean isFrozen() {
+        return this.frozen;
+    }
+
+    /**
+     * Throws an {@link IllegalStateException} if this reader is frozen.
+     */
+    final void checkNotFrozen() {
+        if (this.frozen) throw new IllegalStateException("Rule " + this.name + " is frozen");
+    }
+
     /**
      * Applies the optional {@code "skip"} rule, then delegates to
      * {@link #simpleread(CharSequence, int)}.
@@ -72,6 +163,14 @@ abstract class AbstractReader implements IReader{
      * position to the end of that match, and only then invokes
      * {@code simpleread} from that position. Otherwise, {@code simpleread}
      * is called directly with {@code start}.
+     * <p>
+     * If this reader is memoized and a {@link ParseSession} is open for
+     * {@code input}, the match recorded at {@code start} is returned when
+     * there is one; otherwise the match is computed and recorded. Memoized
+     * readers may be left-recursive (see {@link MemoTable}).
+     * <p>
+     * A failed match spans the empty range at the start position, after
+     * skip.
      *
      * @param input the character sequence to parse
      * @param start the index at which to start matching
@@ -79,18 +178,181 @@ abstract class AbstractReader implements IReader{
      */
     @Override
     public IMatch read(CharSequence input, int start) {
-    	int position = start;
-    	if (this.skip) {
-    		IMatch match = this.skipReader.read(input, start);
-    		position = match.end();
+    	return this.positioned(this.attempt(input, start), input, start);
+    }
+
+    /**
+     * Same as {@link #read(CharSequence, int)}, except that a failure may
+     * be the shared failure of this reader.
+     */
+    IMatch attempt(CharSequence input, int start) {
+    	if (input instanceof IncrementalParse.Input) return ((IncrementalParse.Input) input).attempt(this, start);
+    	return this.lookup(input, start);
+    }
+
+    /**
+     * Reads this rule at {@code start} through the {@link MemoTable} of the
+     * session open for {@code input}, if it is memoized, or evaluates it.
+     */
+    IMatch lookup(CharSequence input, int start) {
+    	if (this.memoized) {
+    		ParseSession session = ParseSession.current(input);
+    		if (session != null) return session.memo().apply(this, input, start);
     	}
+    	return this.evaluate(input, start);
+    }
+
+    /**
+     * Invokes {@code reader} from inside the engine: failures may be shared
+     * instances, that callers must only test for {@link IMatch#success()}.
+     * Readers that do not extend this class, or override {@link #read},
+     * are called through {@link IReader#read(CharSequence, int)}.
+     */
+    static IMatch attempt(IReader reader, CharSequence input, int start) {
+    	if (reader instanceof AbstractReader && !((AbstractReader) reader).readOverridden) {
+    		return ((AbstractReader) reader).attempt(input, start);
+    	}
+    	return reader.read(input, start);
+    }
+
+    /**
+     * Returns {@code match}, a match of this reader at {@code start}, or a
+     * positioned copy of it if it is the shared failure of this reader.
+     */
+    IMatch positioned(IMatch match, CharSequence input, int start) {
+    	if (match.success() || match.start() >= 0) return match;
+    	return this.makeFailure(this.skip ? this.skip(input, start) : start);
+    }
+
+    /**
+     * Applies the optional {@code "skip"} rule, then calls
+     * {@link #simpleread(CharSequence, int)}, bypassing memoization.
+     */
+    IMatch evaluate(CharSequence input, int start) {
+    	int position = this.skip ? this.skip(input, start) : start;
         return this.simpleread(input, position);
     }
 
+    /**
+     * Recognizes this rule at {@code start}, applying the optional
+     * {@code "skip"} rule first, without building matches: the readers of
+     * this package only thread positions through
+     * {@link #simplerecognize(CharSequence, int)}.
+     * <p>
+     * Memoized readers, readers that override {@link #read} or
+     * {@link #simpleread} are read instead, so that the result is always
+     * the end of the match {@link #read} would return.
+     *
+     * @param input the character sequence to parse
+     * @param start the index at which to start matching
+     * @return the end of the successful match, or {@code -1}
+     */
+    @Override
+    public int recognize(CharSequence input, int start) {
+    	if (this.readOverridden) return end(this.read(input, start));
+    	if (this.memoized && ParseSession.current(input) != null) return end(this.attempt(input, start));
+    	int position = this.skip ? this.skip(input, start) : start;
+    	return this.recognizable ? this.simplerecognize(input, position) : end(this.simpleread(input, position));
+    }
+
+    /**
+     * Recognizes this rule at {@code start}, after skip. Only called if the
+     * subclass declaring this method also declares the {@link #simpleread}
+     * in use; the default reads the match.
+     *
+     * @return the end of the successful match, or {@code -1}
+     */
+    int simplerecognize(CharSequence input, int start) {
+    	return end(this.simpleread(input, start));
+    }
+
+    /**
+     * Appends the match of this rule at {@code start}, applying the optional
+     * {@code "skip"} rule first, to {@code tree}: the readers of this package
+     * append their nodes through {@link #simplebuild}, without building
+     * matches. As with {@link #recognize}, other readers are read, and their
+     * match is added to {@code tree}.
+     *
+     * @return the end of the successful match, or {@code -1}, in which case
+     *         {@code tree} is left unchanged
+     */
+    int build(CharSequence input, int start, TreeBuilder tree) {
+    	if (this.readOverridden) return tree.add(this.read(input, start));
+    	if (this.memoized && ParseSession.current(input) != null) return tree.add(this.attempt(input, start));
+    	int position = this.skip ? this.skip(input, start) : start;
+    	return this.buildable ? this.simplebuild(input, position, tree) : tree.add(this.simpleread(input, position));
+    }
+
+    /**
+     * Appends the match of {@code reader} at {@code start} to {@code tree},
+     * reading it if {@code reader} does not extend this class.
+     */
+    static int build(IReader reader, CharSequence input, int start, TreeBuilder tree) {
+    	if (reader instanceof AbstractReader) return ((AbstractReader) reader).build(input, start, tree);
+    	return tree.add(reader.read(input, start));
+    }
+
+    /**
+     * Appends the match of this rule at {@code start}, after skip, to
+     * {@code tree}. Only called if the subclass declaring this method also
+     * declares the {@link #simpleread} in use; the default reads the match.
+     *
+     * @return the end of the successful match, or {@code -1}, in which case
+     *         {@code tree} is left unchanged
+     */
+    int simplebuild(CharSequence input, int start, TreeBuilder tree) {
+    	return tree.add(this.simpleread(input, start));
+    }
+
+    /** Returns the end of {@code match} if it succeeded, {@code -1} otherwise. */
+    static int end(IMatch match) {
+    	return match.success() ? match.end() : -1;
+    }
+
+    /**
+     * Returns the position reached by the {@code "skip"} rule from
+     * {@code start}, or {@code start} if it fails. The match of skip is
+     * never used, so it is only recognized.
+     */
+    int skip(CharSequence input, int start) {
+    	int end = this.skipReader.recognize(input, start);
+    	return end >= 0 ? end : start;
+    }
+
+    /**
+     * Returns the shared failure of this reader, to be returned by
+     * {@link #simpleread(CharSequence, int)} instead of allocating a new
+     * failed match.
+     */
+    final IMatch failure() {
+    	IMatch failure = this.failure;
+    	if (failure == null) {
+    		// racing threads may each build one, they are interchangeable
+    		failure = this.makeFailure(-1);
+    		this.failure = failure;
+    	}
+    	return failure;
+    }
+
+    /**
+     * Builds the failed match of this reader at {@code position}. The
+     * default is an empty {@link Match}.
+     *
+     * @param position the start and end of the failure, {@code -1} for the
+     *                 shared failure
+     */
+    IMatch makeFailure(int position) {
+    	return new Match<>(this, position, position, false, null);
+    }
+
     /**
      * Implements the actual matching logic for this reader, starting at
      * the given index. This method is called by {@link #read} after any
      * required {@code skip} has been applied.
+     * <p>
+     * The readers of this package return their shared failure here (see
+     * <em>Failures</em> above); other implementations may return any
+     * failed match.
      *
      * @param input the character sequence to parse
      * @param start the index at which to start matching (after skip)
@@ -112,9 +374,11 @@ abstract class AbstractReader implements IReader{
      * defined by the user or because the parser injected a default one.
      *
      * @param parser the parser this reader belongs to
+     * @throws IllegalStateException if this reader is frozen
      */
     @Override
     public void link(IParser parser) {
+    	this.checkNotFrozen();
     	this.simpleLink(parser);
     	this.skipReader = parser.getReader("skip");
     	
@@ -128,4 +392,49 @@ abstract class AbstractReader implements IReader{
      * @param parser the parser this reader belongs to
      */
     protected abstract void simpleLink(IParser parser);
-}
\ No newline at end of file
+
+    /**
+     * Tells whether this reader can succeed without consuming any input,
+     * given which other readers are currently known to be nullable.
+     * Used by {@link GrammarAnalysis}; the default is {@code false}.
+     *
+     * @param nullable the readers known to be nullable so far
+     */
+    boolean isNullable(Predicate<IReader> nullable) {
+        return false;
+    }
+
+    /**
+     * Returns the readers this reader may invoke before consuming any input,
+     * i.e. at its own start position: the {@code "skip"} rule if it applies
+     * one, then the children returned by {@link #leftChildren(Predicate)}.
+     *
+     * @param nullable the readers known to be nullable
+     */
+    final List<IReader> leftCalls(Predicate<IReader> nullable) {
+        List<IReader> calls = new ArrayList<>();
+        if (this.skip) calls.add(this.skipReader);
+        calls.addAll(this.leftChildren(nullable));
+        return calls;
+    }
+
+    /**
+     * Subclass hook for {@link #leftCalls(Predicate)}: the inner readers
+     * that may be invoked at the start position. The default is none.
+     *
+     * @param nullable the readers known to be nullable
+     */
+    List<IReader> leftChildren(Predicate<IReader> nullable) {
+        return List.of();
+    }
+
+    /**
+     * Adds to {@code chars} the characters with which this reader may
+     * start a match by itself, rather than through the readers returned by
+     * {@link #leftCalls(Predicate)}. Used by {@link GrammarAnalysis}; the
+     * default adds nothing, which suits readers that only call other rules.
+     *
+     * @param chars the set to complete
+     */
+    void addLeadingChars(CharSet chars) {}
+}
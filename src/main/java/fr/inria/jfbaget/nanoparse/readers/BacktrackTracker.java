@@ -0,0 +1,328 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Finds where a grammar backtracks: how often each rule is invoked at each
+ * position of an input, and how many characters were matched and then
+ * discarded because the rule that matched them failed.
+ * <p>
+ * A grammar is tracked when its
+ * {@link fr.inria.jfbaget.nanoparse.Parser#Parser(List, RuleMonitor) parser}
+ * is given a tracker (see {@link RuleMonitor}). A PEG grammar is slow when
+ * it reads the same text again and again: a {@link ChoiceReader} tries an
+ * alternative that reads a long prefix before failing, an
+ * {@link OptionalReader} gives up on what its rule matched, and the next
+ * alternative reads it again. The tracker measures both sides of this:
+ * <ul>
+ *   <li>the <em>revisits</em> of a rule are its invocations at a position
+ *       it was already invoked at: they are what memoizing the rule would
+ *       save;</li>
+ *   <li>the <em>discarded</em> characters of a rule are the characters that
+ *       the rules it called had matched when it failed, from its start to
+ *       the furthest end of their matches: they are what reordering the
+ *       alternatives, or factoring out a common prefix, would save.</li>
+ * </ul>
+ * {@link #ranking()} sorts the rules by discarded characters then by
+ * revisits, and {@link #heatmap()} gives the number of invocations on each
+ * line of the input.
+ * <p>
+ * A tracker records the parses of one input at a time: parsing another
+ * input starts over, while the parses of the same input add up, until
+ * {@link #reset()}. It keeps an int per character of the input, and a bit
+ * per character for each rule. It is not thread-safe, and must be used by
+ * one thread at a time.
+ */
+public final class BacktrackTracker extends RuleMonitor implements RuleMonitor.Invocations {
+
+    /** The number of lines {@link #report()} shows. */
+    private static final int HOTTEST_LINES = 10;
+
+    /** The width of the bars of {@link #heatmap()}. */
+    private static final int BAR = 40;
+
+    /** The input tracked, or {@code null}. */
+    private CharSequence input;
+    /** The invocations at each position of the input, and after its end. */
+    private int[] visits = new int[0];
+    private long[] invocations = new long[0];
+    private long[] revisits = new long[0];
+    private long[] failures = new long[0];
+    private long[] discarded = new long[0];
+    /** The positions each rule was invoked at. */
+    private BitSet[] visited = new BitSet[0];
+    /** The invocations beyond the first, by rule and position, see {@link #key(int, int)}. */
+    private final Map<Long, Integer> repeated = new HashMap<>();
+    /**
+     * The furthest end of the matches of the rules called by each
+     * invocation in progress, innermost last.
+     */
+    private int[] reached = new int[64];
+    private int top;
+
+    /**
+     * Creates a tracker, to be given to a
+     * {@link fr.inria.jfbaget.nanoparse.Parser#Parser(List, RuleMonitor) parser}.
+     */
+    public BacktrackTracker() {}
+
+    @Override
+    BacktrackTracker enter(int rule, CharSequence input, int start) {
+        if (input != this.input) this.track(input);
+        if (rule >= this.invocations.length) this.grow(rule + 1);
+        this.invocations[rule]++;
+        if (start >= 0 && start < this.visits.length) {
+            this.visits[start]++;
+            BitSet visited = this.visited[rule];
+            if (visited.get(start)) {
+                this.revisits[rule]++;
+                this.repeated.merge(key(rule, start), 1, Integer::sum);
+            } else {
+                visited.set(start);
+            }
+        }
+        if (this.top == this.reached.length) this.reached = Arrays.copyOf(this.reached, 2 * this.top);
+        this.reached[this.top++] = start;
+        return this;
+    }
+
+    @Override
+    public void exit(int rule, int start, int end) {
+        int reached = this.reached[--this.top];
+        if (end >= 0) {
+            if (this.top > 0 && end > this.reached[this.top - 1]) this.reached[this.top - 1] = end;
+        } else {
+            this.failures[rule]++;
+            if (reached > start) this.discarded[rule] += reached - start;
+        }
+    }
+
+    /**
+     * Starts tracking {@code input}, forgetting the previous one. The
+     * invocations in progress are kept, for a parse nested in a reader.
+     */
+    private void track(CharSequence input) {
+        this.input = input;
+        this.visits = new int[input.length() + 1];
+        Arrays.fill(this.invocations, 0);
+        Arrays.fill(this.revisits, 0);
+        Arrays.fill(this.failures, 0);
+        Arrays.fill(this.discarded, 0);
+        for (int i = 0; i < this.visited.length; i++) this.visited[i] = new BitSet();
+        this.repeated.clear();
+    }
+
+    private void grow(int size) {
+        int old = this.invocations.length;
+        this.invocations = Arrays.copyOf(this.invocations, size);
+        this.revisits = Arrays.copyOf(this.revisits, size);
+        this.failures = Arrays.copyOf(this.failures, size);
+        this.discarded = Arrays.copyOf(this.discarded, size);
+        this.visited = Arrays.copyOf(this.visited, size);
+        for (int i = old; i < size; i++) this.visited[i] = new BitSet();
+    }
+
+    private static long key(int rule, int position) {
+        return ((long) rule << 32) | position;
+    }
+
+    /**
+     * Forgets the input tracked and every count. Must not be called during
+     * a parse.
+     */
+    public void reset() {
+        this.track("");
+        this.input = null;
+        this.visits = new int[0];
+        this.top = 0;
+    }
+
+    /**
+     * Returns the input tracked, or {@code null} if none was parsed since
+     * the tracker was created or {@link #reset()}.
+     */
+    public CharSequence input() {
+        return this.input;
+    }
+
+    /**
+     * Returns the number of rule invocations at {@code position}.
+     *
+     * @param position a position of the input tracked, or its length
+     */
+    public int visits(int position) {
+        return position >= 0 && position < this.visits.length ? this.visits[position] : 0;
+    }
+
+    /**
+     * Returns the number of invocations of the rule called {@code rule} at
+     * {@code position}.
+     *
+     * @param rule     the name of a rule
+     * @param position a position of the input tracked, or its length
+     */
+    public int visits(String rule, int position) {
+        int index = this.indexOf(rule);
+        if (index < 0 || index >= this.visited.length || position < 0 || !this.visited[index].get(position)) {
+            return 0;
+        }
+        return 1 + this.repeated.getOrDefault(key(index, position), 0);
+    }
+
+    /**
+     * Returns the counts of the rules that were invoked, by decreasing
+     * number of discarded characters, then of revisits.
+     */
+    public List<RuleWaste> ranking() {
+        List<String> names = this.names();
+        List<RuleWaste> ranking = new ArrayList<>();
+        for (int i = 0; i < Math.min(names.size(), this.invocations.length); i++) {
+            if (this.invocations[i] == 0) continue;
+            ranking.add(new RuleWaste(names.get(i), this.invocations[i], this.revisits[i], this.failures[i],
+                    this.discarded[i]));
+        }
+        ranking.sort(Comparator.comparingLong((RuleWaste rule) -> rule.discarded).reversed()
+                .thenComparing(Comparator.comparingLong((RuleWaste rule) -> rule.revisits).reversed())
+                .thenComparing(rule -> rule.name));
+        return Collections.unmodifiableList(ranking);
+    }
+
+    /**
+     * Returns the number of invocations on each line of the input, as a
+     * table of a row per line, in order, whose bars compare the invocations
+     * per character of the lines.
+     */
+    public String heatmap() {
+        List<int[]> lines = this.lines();
+        double hottest = 0;
+        for (int[] line : lines) hottest = Math.max(hottest, perCharacter(line));
+        StringBuilder heatmap = new StringBuilder(this.lineHeader());
+        for (int[] line : lines) heatmap.append(this.lineRow(line, hottest));
+        return heatmap.toString();
+    }
+
+    /**
+     * Returns the {@link #ranking()} of the rules as a table, followed by
+     * the {@value #HOTTEST_LINES} lines with the most invocations per
+     * character.
+     */
+    public String report() {
+        List<RuleWaste> ranking = this.ranking();
+        int width = "rule".length();
+        for (RuleWaste rule : ranking) width = Math.max(width, rule.name.length());
+        String format = "%-" + width + "s %12s %12s %9s %12s %14s%n";
+        StringBuilder report = new StringBuilder(String.format(Locale.ROOT, format,
+                "rule", "invocations", "revisits", "revisit %", "failures", "discarded"));
+        for (RuleWaste rule : ranking) {
+            report.append(String.format(Locale.ROOT, format, rule.name, rule.invocations, rule.revisits,
+                    String.format(Locale.ROOT, "%.1f", 100.0 * rule.revisits / rule.invocations),
+                    rule.failures, rule.discarded));
+        }
+
+        List<int[]> lines = new ArrayList<>(this.lines());
+        lines.sort(Comparator.comparingDouble(BacktrackTracker::perCharacter).reversed());
+        lines = lines.subList(0, Math.min(HOTTEST_LINES, lines.size()));
+        double hottest = lines.isEmpty() ? 0 : perCharacter(lines.get(0));
+        report.append(System.lineSeparator()).append(this.lineHeader());
+        for (int[] line : lines) report.append(this.lineRow(line, hottest));
+        return report.toString();
+    }
+
+    /** Returns the number, start, end and invocations of each line of the input. */
+    private List<int[]> lines() {
+        List<int[]> lines = new ArrayList<>();
+        if (this.input == null) return lines;
+        int length = this.input.length();
+        int start = 0;
+        int visits = 0;
+        for (int i = 0; i <= length; i++) {
+            visits += this.visits[i];
+            if (i == length || this.input.charAt(i) == '\n') {
+                lines.add(new int[] {lines.size() + 1, start, i, visits});
+                start = i + 1;
+                visits = 0;
+            }
+        }
+        return lines;
+    }
+
+    /** Returns the invocations per character of {@code line}, its line feed included. */
+    private static double perCharacter(int[] line) {
+        return (double) line[3] / (line[2] - line[1] + 1);
+    }
+
+    private String lineHeader() {
+        return String.format(Locale.ROOT, "%6s %10s %8s  %-" + BAR + "s  %s%n", "line", "visits", "per char", "", "text");
+    }
+
+    private String lineRow(int[] line, double hottest) {
+        double heat = perCharacter(line);
+        int bar = hottest == 0 ? 0 : (int) Math.round(BAR * heat / hottest);
+        String text = this.input.subSequence(line[1], Math.min(line[2], line[1] + BAR)).toString()
+                .replaceAll("\\p{Cntrl}", " ");
+        return String.format(Locale.ROOT, "%6d %10d %8.2f  %-" + BAR + "s  %s%n",
+                line[0], line[3], heat, "#".repeat(bar), text);
+    }
+
+    /**
+     * The backtracking of a rule in the input tracked.
+     */
+    public static final class RuleWaste {
+        private final String name;
+        private final long invocations;
+        private final long revisits;
+        private final long failures;
+        private final long discarded;
+
+        private RuleWaste(String name, long invocations, long revisits, long failures, long discarded) {
+            this.name = name;
+            this.invocations = invocations;
+            this.revisits = revisits;
+            this.failures = failures;
+            this.discarded = discarded;
+        }
+
+        /** Returns the name of the rule. */
+        public String name() {
+            return this.name;
+        }
+
+        /** Returns the number of invocations of the rule. */
+        public long invocations() {
+            return this.invocations;
+        }
+
+        /**
+         * Returns the number of invocations at a position the rule was
+         * already invoked at, including those answered by the memo table
+         * if the rule is memoized.
+         */
+        public long revisits() {
+            return this.revisits;
+        }
+
+        /** Returns the number of invocations that failed. */
+        public long failures() {
+            return this.failures;
+        }
+
+        /** Returns the number of characters matched by the rules it called when it failed. */
+        public long discarded() {
+            return this.discarded;
+        }
+
+        @Override
+        public String toString() {
+            return this.name + ": " + this.invocations + " invocations, " + this.revisits + " revisits, "
+                    + this.failures + " failures, " + this.discarded + " discarded";
+        }
+    }
+}
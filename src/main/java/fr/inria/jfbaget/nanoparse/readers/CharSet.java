@@ -0,0 +1,71 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+/**
+ * A set of characters, as computed by {@link GrammarAnalysis#firstChars}.
+ * <p>
+ * ASCII characters are tracked individually; all the other characters
+ * are either all in the set or all out of it, which keeps the set small
+ * and makes the analysis of regular expressions tractable.
+ */
+final class CharSet {
+
+    /** Characters below this bound are tracked individually. */
+    static final int ASCII = 128;
+
+    private long low;
+    private long high;
+    private boolean others;
+
+    /**
+     * Returns the set of all characters.
+     */
+    static CharSet all() {
+        CharSet set = new CharSet();
+        set.low = -1L;
+        set.high = -1L;
+        set.others = true;
+        return set;
+    }
+
+    boolean contains(int c) {
+        if (c >= ASCII) return this.others;
+        return c < 64 ? (this.low & (1L << c)) != 0 : (this.high & (1L << (c - 64))) != 0;
+    }
+
+    /**
+     * Tells whether this set contains at least one non-ASCII character
+     * (and therefore all of them).
+     */
+    boolean containsOthers() {
+        return this.others;
+    }
+
+    void add(int c) {
+        if (c >= ASCII) this.others = true;
+        else if (c < 64) this.low |= 1L << c;
+        else this.high |= 1L << (c - 64);
+    }
+
+    /**
+     * Adds every non-ASCII character to this set.
+     */
+    void addOthers() {
+        this.others = true;
+    }
+
+    /**
+     * Adds the characters of {@code set} to this set.
+     *
+     * @return {@code true} if this set changed
+     */
+    boolean addAll(CharSet set) {
+        long low = this.low | set.low;
+        long high = this.high | set.high;
+        boolean others = this.others || set.others;
+        boolean changed = low != this.low || high != this.high || others != this.others;
+        this.low = low;
+        this.high = high;
+        this.others = others;
+        return changed;
+    }
+}
@@ -1,7 +1,12 @@
 package fr.inria.jfbaget.nanoparse.readers;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 
 import fr.inria.jfbaget.nanoparse.IReader;
@@ -25,15 +30,36 @@ import fr.inria.jfbaget.nanoparse.IParser;
  * rule is applied before this reader is invoked (via
  * {@link AbstractReader#read(CharSequence, int)}). Each inner reader then
  * handles its own skip behaviour independently.
+ * <p>
+ * Once the grammar is linked, the {@link fr.inria.jfbaget.nanoparse.Parser}
+ * gives each choice a dispatch table computed from the FIRST sets of its
+ * alternatives (see {@link GrammarAnalysis#indexChoices}): only the
+ * alternatives that can match at the next character, or on an empty span,
+ * are then tried, and choices between literals scan them all at once (see
+ * {@link KeywordSetReader}). This does not change the result of the choice.
  */
 public class ChoiceReader extends AbstractReader{
 
-    /** Resolved inner readers. */
-    public  List<IReader> readers;
+    /** Resolved inner readers, see {@link #getReaders()}. */
+    List<IReader> readers;
 
     /** Names of the inner readers, to be resolved at link time. */
     public final List<String> readerIds;
 
+    /** Slot of the dispatch table for non-ASCII characters. */
+    private static final int OTHERS = CharSet.ASCII;
+    /** Slot of the dispatch table for the end of the input. */
+    private static final int END = CharSet.ASCII + 1;
+
+    /**
+     * The alternatives to try, by next character (ASCII characters, then
+     * {@link #OTHERS} and {@link #END}); {@code null} to try them all.
+     */
+    private List<List<IReader>> dispatch;
+
+    /** Matches all the alternatives at once when they are all literals, or {@code null}. */
+    private KeywordSetReader keywords;
+
     /**
      * Creates a new {@code ChoiceReader}.
      *
@@ -47,24 +73,93 @@ public class ChoiceReader extends AbstractReader{
         this.readerIds = readerIds;
     }
 
+    /**
+     * Returns the resolved inner readers, in order, or {@code null} before
+     * the choice is linked.
+     */
+    public List<IReader> getReaders() {
+    	return this.readers == null ? null : Collections.unmodifiableList(this.readers);
+    }
+
     /**
      * Tries each inner reader at {@code start}, in order.
      * <ul>
      *   <li>If an inner reader succeeds, its match is returned unchanged.</li>
-     *   <li>If all inner readers fail, a failed {@link Match} for this
-     *       {@code ChoiceReader} is returned, with {@code start == end}.</li>
+     *   <li>If all inner readers fail, the shared failure of this reader,
+     *       a failed {@link Match}, is returned.</li>
      * </ul>
      */
     @Override
     protected IMatch simpleread(CharSequence input, int start) {
-    	for (IReader reader : this.readers) {
-    		IMatch match = reader.read(input, start);
+    	if (this.keywords != null) {
+    		IMatch match = this.keywords.find(input, start);
+    		return match != null ? match : this.failure();
+    	}
+    	List<IReader> alternatives = this.readers;
+    	if (this.dispatch != null) {
+    		int slot = start < input.length() ? Math.min(input.charAt(start), OTHERS) : END;
+    		alternatives = this.dispatch.get(slot);
+    	}
+    	for (IReader reader : alternatives) {
+    		IMatch match = attempt(reader, input, start);
     		if (match.success()) {
     			return match;
     			//return new Match<>(this, start, match.end(), true, match);
     		}
     	}
-        return new Match<>(this, start, start, false, null);
+        return this.failure();
+    }
+
+    /**
+     * Tries the alternatives as {@link #simpleread} does, without building
+     * their matches.
+     */
+    @Override
+    int simplerecognize(CharSequence input, int start) {
+    	if (this.keywords != null) return this.keywords.simplerecognize(input, start);
+    	List<IReader> alternatives = this.readers;
+    	if (this.dispatch != null) {
+    		int slot = start < input.length() ? Math.min(input.charAt(start), OTHERS) : END;
+    		alternatives = this.dispatch.get(slot);
+    	}
+    	for (int i = 0; i < alternatives.size(); i++) {
+    		int end = alternatives.get(i).recognize(input, start);
+    		if (end >= 0) return end;
+    	}
+    	return -1;
+    }
+
+    /**
+     * Appends the node of the first alternative that succeeds, as
+     * {@link #simpleread} returns its match.
+     */
+    @Override
+    int simplebuild(CharSequence input, int start, TreeBuilder tree) {
+    	if (this.keywords != null) {
+    		IMatch match = this.keywords.find(input, start);
+    		return match != null ? tree.add(match) : -1;
+    	}
+    	List<IReader> alternatives = this.readers;
+    	if (this.dispatch != null) {
+    		int slot = start < input.length() ? Math.min(input.charAt(start), OTHERS) : END;
+    		alternatives = this.dispatch.get(slot);
+    	}
+    	for (int i = 0; i < alternatives.size(); i++) {
+    		int end = build(alternatives.get(i), input, start, tree);
+    		if (end >= 0) return end;
+    	}
+    	return -1;
+    }
+
+    /**
+     * Makes the list of alternatives unmodifiable, and freezes the keyword
+     * set this choice may delegate to.
+     */
+    @Override
+    public void freeze() {
+    	this.readers = List.copyOf(this.readers);
+    	if (this.keywords != null) this.keywords.freeze();
+    	super.freeze();
     }
 
     /**
@@ -72,11 +167,69 @@ public class ChoiceReader extends AbstractReader{
      */
     @Override
     public void simpleLink(IParser parser) {
+    	this.dispatch = null;
+    	this.keywords = null;
     	this.readers = new ArrayList<>();
     	for (String readerId : this.readerIds) {
     		this.readers.add(parser.getReader(readerId));
     		
     	}
     }
-    
+
+    /**
+     * A choice is nullable if one of its alternatives is.
+     */
+    @Override
+    boolean isNullable(Predicate<IReader> nullable) {
+        for (IReader reader : this.readers) {
+            if (nullable.test(reader)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Every alternative is tried at the start position.
+     */
+    @Override
+    List<IReader> leftChildren(Predicate<IReader> nullable) {
+        return this.readers;
+    }
+
+    /**
+     * Builds the dispatch table of this choice. An alternative is kept for
+     * a character if it is in its FIRST set, and for every character if it
+     * may match an empty span. No table is kept if it would never discard
+     * an alternative.
+     * <p>
+     * A choice between several literals is instead matched in one pass by
+     * a {@link KeywordSetReader} in ordered mode.
+     *
+     * @param always the alternatives that must always be tried
+     * @param first  the FIRST set of the other alternatives
+     */
+    void index(Predicate<IReader> always, Function<IReader, CharSet> first) {
+        if (this.readers.size() > 1 && this.readers.stream().allMatch(KeywordSetReader::isLiteral)) {
+            List<StringReader> literals = new ArrayList<>();
+            for (IReader reader : this.readers) literals.add((StringReader) reader);
+            this.keywords = KeywordSetReader.of(this, literals);
+            return;
+        }
+        List<List<IReader>> dispatch = new ArrayList<>();
+        Map<List<IReader>, List<IReader>> shared = new HashMap<>();
+        boolean useful = false;
+        for (int slot = 0; slot <= END; slot++) {
+            List<IReader> alternatives = new ArrayList<>();
+            for (IReader reader : this.readers) {
+                if (always.test(reader)
+                        || slot == OTHERS && first.apply(reader).containsOthers()
+                        || slot < OTHERS && first.apply(reader).contains(slot)) {
+                    alternatives.add(reader);
+                }
+            }
+            useful |= alternatives.size() < this.readers.size();
+            dispatch.add(shared.computeIfAbsent(alternatives, List::copyOf));
+        }
+        this.dispatch = useful ? dispatch : null;
+    }
+
 }
@@ -0,0 +1,209 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import fr.inria.jfbaget.nanoparse.IMatch;
+import fr.inria.jfbaget.nanoparse.IReader;
+import fr.inria.jfbaget.nanoparse.matches.ListMatch;
+
+/**
+ * Reads a {@link RepetitionReader} by chunks of its input, in parallel.
+ * <p>
+ * The input is cut into chunks of about the same size, each starting just
+ * after a match of a <em>boundary</em> rule, such as the {@code "."} that
+ * ends every item. Each chunk is read on an executor, in its own
+ * {@link ParseSession}, as the repetition would after an element ending at
+ * the start of the chunk: separator and element, again and again, until
+ * the chunk is passed or an element fails.
+ * <p>
+ * A boundary may fall where no element ends, in a string or a comment for
+ * instance, so the chunks are then checked in order against the sequential
+ * parse. The elements of the first chunk are the sequential ones; the
+ * elements of the next chunk are kept from the first position where both
+ * parses meet, which is the start of the chunk unless its boundary was
+ * wrong. Before that position, and where a chunk never meets the
+ * sequential parse, elements are read again sequentially. The result is
+ * the match {@link IReader#read(CharSequence, int)} returns, with the same
+ * offsets, since the match of a rule only depends on where it starts.
+ */
+public final class ChunkedRepetition {
+
+    private ChunkedRepetition() {}
+
+    /**
+     * Reads {@code rule} at {@code start}, by {@code chunks} chunks of
+     * {@code input} run on {@code executor}. Repetitions that cannot be
+     * read by chunks, whose subclasses change how they read or that read
+     * at most one element, are read sequentially, in a session of their
+     * own.
+     * <p>
+     * The rule may be the wrapper of a repetition in a monitored grammar
+     * (see {@link RuleMonitor}): the whole read is then reported as one
+     * invocation of the repetition, on the calling thread, and the rules
+     * read by the chunks as invocations on the threads of the executor.
+     *
+     * @param rule       a linked repetition, or its wrapper
+     * @param input      the character sequence to parse
+     * @param start      zero-based index of the first character to read
+     * @param boundary   the rule whose matches end where chunks may start,
+     *                   recognized at each position from the approximate
+     *                   start of a chunk until it matches
+     * @param chunks     the number of chunks to cut the input into
+     * @param executor   runs the chunks
+     * @return the match of {@code rule} at {@code start}
+     * @throws IllegalArgumentException if the rule is not a repetition
+     */
+    public static IMatch read(IReader rule, CharSequence input, int start, IReader boundary,
+                              int chunks, Executor executor) {
+        if (rule instanceof MonitoredReader) {
+            MonitoredReader monitored = (MonitoredReader) rule;
+            return monitored.invoke(input, start,
+                    () -> read(monitored.delegate(), input, start, boundary, chunks, executor));
+        }
+        if (!(rule instanceof RepetitionReader)) {
+            throw new IllegalArgumentException("Rule " + rule.getName() + " is not a repetition");
+        }
+        RepetitionReader repetition = (RepetitionReader) rule;
+        ParseSession session = ParseSession.open(input);
+        try {
+            if (!repetition.chunkable() || chunks < 2) return repetition.read(input, start);
+            int position = repetition.requiresSkip() ? repetition.skip(input, start) : start;
+            int[] cuts = cuts(input, position, boundary, chunks);
+            List<CompletableFuture<Chunk>> tasks = new ArrayList<>(cuts.length);
+            for (int i = 0; i < cuts.length; i++) {
+                int from = cuts[i];
+                int to = i + 1 < cuts.length ? cuts[i + 1] : Integer.MAX_VALUE;
+                tasks.add(CompletableFuture.supplyAsync(() -> Chunk.read(repetition, input, from, to), executor));
+            }
+
+            IMatch first = AbstractReader.attempt(repetition.reader, input, position);
+            if (!first.success()) return repetition.read(input, start);
+            List<IMatch> result = new ArrayList<>();
+            result.add(first);
+            int end = first.end();
+            boolean done = false;
+            int to = cuts.length > 0 ? cuts[0] : Integer.MAX_VALUE;
+            while (!done && end < to && result.size() < repetition.max) {
+                IMatch next = repetition.readSepAndElem(input, end);
+                if (next == null) done = true;
+                else {
+                    result.add(next);
+                    end = next.end();
+                }
+            }
+            for (int i = 0; i < cuts.length && !done && result.size() < repetition.max; i++) {
+                Chunk chunk = join(tasks.get(i));
+                to = i + 1 < cuts.length ? cuts[i + 1] : Integer.MAX_VALUE;
+                while (true) {
+                    int meet = chunk.indexOf(end);
+                    if (meet >= 0) {
+                        for (int k = meet; k < chunk.elements.size() && result.size() < repetition.max; k++) {
+                            result.add(chunk.elements.get(k));
+                        }
+                        end = chunk.ends[chunk.elements.size()];
+                        done = chunk.failed;
+                        break;
+                    }
+                    if (end >= to || result.size() >= repetition.max) break;
+                    IMatch next = repetition.readSepAndElem(input, end);
+                    if (next == null) {
+                        done = true;
+                        break;
+                    }
+                    result.add(next);
+                    end = next.end();
+                }
+            }
+            for (CompletableFuture<Chunk> task : tasks) task.cancel(false);
+
+            if (result.size() > repetition.max) result.subList(repetition.max, result.size()).clear();
+            end = result.get(result.size() - 1).end();
+            if (result.size() < repetition.min) return repetition.read(input, start);
+            if (result.size() == 1 && repetition.subReaderWhenOne) return first;
+            return new ListMatch(repetition, position, end, true, result);
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Returns the starts of the chunks after the first one, in increasing
+     * order: the end of the first match of {@code boundary} after each
+     * {@code chunks}th of the input.
+     */
+    private static int[] cuts(CharSequence input, int start, IReader boundary, int chunks) {
+        int length = input.length();
+        int[] cuts = new int[chunks - 1];
+        int count = 0;
+        int from = start;
+        for (int i = 1; i < chunks; i++) {
+            from = Math.max(from, start + (int) ((long) (length - start) * i / chunks));
+            int cut = -1;
+            for (; from < length && cut < 0; from++) {
+                int end = boundary.recognize(input, from);
+                if (end > from) cut = end;
+            }
+            if (cut < 0 || cut >= length) break;
+            cuts[count++] = cut;
+            from = cut;
+        }
+        return Arrays.copyOf(cuts, count);
+    }
+
+    private static Chunk join(CompletableFuture<Chunk> task) {
+        try {
+            return task.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw e;
+        }
+    }
+
+    /** The elements read from the start of a chunk, as if an element ended there. */
+    private static final class Chunk {
+        final List<IMatch> elements = new ArrayList<>();
+        /** The start of the chunk, then the end of each element. */
+        int[] ends = new int[16];
+        /** Whether an element failed before the end of the chunk. */
+        boolean failed = false;
+
+        /** Reads elements from {@code from} until one ends at or after {@code to}. */
+        static Chunk read(RepetitionReader repetition, CharSequence input, int from, int to) {
+            Chunk chunk = new Chunk();
+            chunk.ends[0] = from;
+            ParseSession session = ParseSession.open(input);
+            try {
+                int position = from;
+                while (position < to && chunk.elements.size() < repetition.max) {
+                    IMatch next = repetition.readSepAndElem(input, position);
+                    if (next == null) {
+                        chunk.failed = true;
+                        break;
+                    }
+                    position = next.end();
+                    chunk.elements.add(next);
+                    if (chunk.elements.size() == chunk.ends.length) chunk.ends = Arrays.copyOf(chunk.ends, 2 * chunk.ends.length);
+                    chunk.ends[chunk.elements.size()] = position;
+                }
+            } finally {
+                session.close();
+            }
+            return chunk;
+        }
+
+        /** Returns the index of the first element read at {@code position}, or -1. */
+        int indexOf(int position) {
+            int index = Arrays.binarySearch(this.ends, 0, this.elements.size() + 1, position);
+            if (index < 0) return -1;
+            // empty elements end where they start
+            while (index > 0 && this.ends[index - 1] == position) index--;
+            return index;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+import java.util.Arrays;
+import java.util.List;
+
+import fr.inria.jfbaget.nanoparse.events.RuleEvent;
+
+/**
+ * Records a {@link RuleEvent} for each rule invocation that lasts longer
+ * than the threshold of the event in the running JDK Flight Recorder
+ * recordings.
+ * <p>
+ * A grammar is monitored when its
+ * {@link fr.inria.jfbaget.nanoparse.Parser#Parser(List, RuleMonitor) parser}
+ * is given a monitor (see {@link RuleMonitor}). While no recording enables
+ * the event, each invocation only checks that it is disabled, and creates
+ * no event. The monitor
+ * keeps no state but the invocations in progress on each thread, and can
+ * be shared by any number of parsers and threads.
+ */
+public final class FlightRecorderMonitor extends RuleMonitor {
+
+    private final ThreadLocal<Events> events = ThreadLocal.withInitial(Events::new);
+
+    /**
+     * Creates a monitor, to be given to a
+     * {@link fr.inria.jfbaget.nanoparse.Parser#Parser(List, RuleMonitor) parser}.
+     */
+    public FlightRecorderMonitor() {}
+
+    @Override
+    Events enter(int rule, CharSequence input, int start) {
+        Events events = this.events.get();
+        events.enter();
+        return events;
+    }
+
+    /**
+     * The events of the invocations in progress on a thread, innermost
+     * last, {@code null} for the invocations started while the event was
+     * disabled.
+     */
+    private final class Events implements Invocations {
+        private RuleEvent[] stack = new RuleEvent[64];
+        private int top;
+
+        void enter() {
+            RuleEvent event = null;
+            if (RuleEvent.enabled()) {
+                event = new RuleEvent();
+                event.begin();
+            }
+            if (this.top == this.stack.length) this.stack = Arrays.copyOf(this.stack, 2 * this.top);
+            this.stack[this.top++] = event;
+        }
+
+        @Override
+        public void exit(int rule, int start, int end) {
+            RuleEvent event = this.stack[--this.top];
+            if (event == null) return;
+            this.stack[this.top] = null;
+            event.end();
+            if (event.shouldCommit()) {
+                event.rule = FlightRecorderMonitor.this.name(rule);
+                event.position = start;
+                event.success = end >= 0;
+                event.endPosition = end;
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import fr.inria.jfbaget.nanoparse.IReader;
+
+/**
+ * Static analyses of a linked grammar.
+ * <p>
+ * The analyses only understand the readers of this package (and their
+ * subclasses); any other {@link IReader} implementation is treated as an
+ * opaque token that never succeeds on an empty span and never calls other
+ * rules.
+ * <p>
+ * They must be run after every reader of the grammar has been linked, which
+ * is what {@link fr.inria.jfbaget.nanoparse.Parser} does at the end of its
+ * constructor.
+ */
+public final class GrammarAnalysis {
+
+    private GrammarAnalysis() {}
+
+    /**
+     * Computes the readers that can succeed without consuming any input.
+     *
+     * @param readers all the readers of a linked grammar
+     * @return the set of nullable readers
+     */
+    public static Set<IReader> nullableReaders(Collection<IReader> readers) {
+        return nullableReaders(readers, false);
+    }
+
+    /**
+     * Computes the nullable readers, treating the readers that this analysis
+     * does not understand as nullable if {@code conservative} is set.
+     */
+    private static Set<IReader> nullableReaders(Collection<IReader> readers, boolean conservative) {
+        Set<IReader> nullable = new HashSet<>();
+        if (conservative) {
+            for (IReader reader : readers) {
+                if (!isBuiltin(reader)) nullable.add(reader);
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (IReader reader : readers) {
+                if (!nullable.contains(reader) && reader instanceof AbstractReader
+                        && ((AbstractReader) reader).isNullable(nullable::contains)) {
+                    nullable.add(reader);
+                    changed = true;
+                }
+            }
+        }
+        return nullable;
+    }
+
+    /**
+     * Computes the left-recursive readers, i.e. those that may invoke
+     * themselves, directly or through other rules, at the same position.
+     * <p>
+     * These are the readers lying on a cycle of the "left-call" graph,
+     * where a reader points to every reader it may invoke before consuming
+     * any input (see {@link AbstractReader#leftCalls}).
+     *
+     * @param readers all the readers of a linked grammar
+     * @return the set of left-recursive readers
+     */
+    public static Set<IReader> leftRecursiveReaders(Collection<IReader> readers) {
+        Set<IReader> nullable = nullableReaders(readers);
+        Map<IReader, List<IReader>> calls = new HashMap<>();
+        for (IReader reader : readers) {
+            if (reader instanceof AbstractReader) {
+                calls.put(reader, ((AbstractReader) reader).leftCalls(nullable::contains));
+            } else {
+                calls.put(reader, List.of());
+            }
+        }
+        return new Cycles(calls).members();
+    }
+
+    /**
+     * Computes, for each reader, the characters that may be found at the
+     * position it is invoked at when it succeeds on a non-empty span: its
+     * FIRST set. Readers that may succeed on an empty span (see
+     * {@link #nullableReaders}) can succeed before any character.
+     * <p>
+     * Readers that are not one of the readers of this package, or that
+     * replace its matching logic (see {@link #behavesAs}) or its
+     * {@code read} (see {@link #overridesRead}), may start with any
+     * character.
+     *
+     * @param readers  all the readers of a linked grammar
+     * @param nullable the nullable readers of that grammar
+     * @return the FIRST set of every reader
+     */
+    static Map<IReader, CharSet> firstChars(Collection<IReader> readers, Set<IReader> nullable) {
+        Map<IReader, CharSet> first = new HashMap<>();
+        Map<IReader, List<IReader>> calls = new HashMap<>();
+        for (IReader reader : readers) {
+            if (isBuiltin(reader)) {
+                CharSet chars = new CharSet();
+                ((AbstractReader) reader).addLeadingChars(chars);
+                first.put(reader, chars);
+                calls.put(reader, ((AbstractReader) reader).leftCalls(nullable::contains));
+            } else {
+                first.put(reader, CharSet.all());
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<IReader, List<IReader>> entry : calls.entrySet()) {
+                CharSet chars = first.get(entry.getKey());
+                for (IReader callee : entry.getValue()) {
+                    changed |= chars.addAll(first.getOrDefault(callee, CharSet.all()));
+                }
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Builds the first-character dispatch tables of the choices of a
+     * linked grammar, so that they only try the alternatives that can
+     * match at the next character (see {@link ChoiceReader}).
+     * <p>
+     * Called by {@link fr.inria.jfbaget.nanoparse.Parser} once all the readers
+     * are linked; the grammar must not be modified afterwards.
+     *
+     * @param readers all the readers of a linked grammar
+     */
+    public static void indexChoices(Collection<IReader> readers) {
+        // readers of unknown behaviour may match the empty span
+        Set<IReader> nullable = nullableReaders(readers, true);
+        Map<IReader, CharSet> first = firstChars(readers, nullable);
+        for (IReader reader : readers) {
+            if (behavesAs(reader, ChoiceReader.class)) {
+                ((ChoiceReader) reader).index(
+                        alternative -> nullable.contains(alternative) || !first.containsKey(alternative),
+                        first::get);
+            }
+        }
+    }
+
+    /**
+     * Whether {@code reader} is one of the readers of this package, with its
+     * own matching logic and {@code read}, or the wrapper of a monitored rule.
+     */
+    private static boolean isBuiltin(IReader reader) {
+        if (overridesRead(reader)) return false;
+        return behavesAs(reader, StringReader.class)
+                || behavesAs(reader, RegexReader.class)
+                || behavesAs(reader, SequenceReader.class)
+                || behavesAs(reader, ChoiceReader.class)
+                || behavesAs(reader, OptionalReader.class)
+                || behavesAs(reader, RepetitionReader.class)
+                || reader instanceof KeywordSetReader
+                || reader instanceof MonitoredReader;
+    }
+
+    /**
+     * Tarjan's strongly connected components algorithm, keeping the readers
+     * of non-trivial components (and the ones that call themselves).
+     */
+    private static final class Cycles {
+        private final Map<IReader, List<IReader>> calls;
+        private final Map<IReader, Integer> index = new HashMap<>();
+        private final Map<IReader, Integer> lowlink = new HashMap<>();
+        private final Deque<IReader> stack = new ArrayDeque<>();
+        private final Set<IReader> onStack = new HashSet<>();
+        private final Set<IReader> members = new HashSet<>();
+
+        Cycles(Map<IReader, List<IReader>> calls) {
+            this.calls = calls;
+        }
+
+        Set<IReader> members() {
+            for (IReader reader : this.calls.keySet()) {
+                if (!this.index.containsKey(reader)) this.visit(reader);
+            }
+            return this.members;
+        }
+
+        private void visit(IReader reader) {
+            int number = this.index.size();
+            this.index.put(reader, number);
+            this.lowlink.put(reader, number);
+            this.stack.push(reader);
+            this.onStack.add(reader);
+            for (IReader callee : this.calls.getOrDefault(reader, List.of())) {
+                if (!this.index.containsKey(callee)) {
+                    this.visit(callee);
+                    this.lowlink.put(reader, Math.min(this.lowlink.get(reader), this.lowlink.get(callee)));
+                } else if (this.onStack.contains(callee)) {
+                    this.lowlink.put(reader, Math.min(this.lowlink.get(reader), this.index.get(callee)));
+                }
+            }
+            if (this.lowlink.get(reader).equals(this.index.get(reader))) {
+                Set<IReader> component = new HashSet<>();
+                IReader member;
+                do {
+                    member = this.stack.pop();
+                    this.onStack.remove(member);
+                    component.add(member);
+                } while (member != reader);
+                if (component.size() > 1 || this.calls.getOrDefault(reader, List.of()).contains(reader)) {
+                    this.members.addAll(component);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells whether {@code reader} is a {@code type} that keeps the matching
+     * logic of {@code type}, i.e. does not override {@code simpleread} (nor,
+     * for repetitions, {@code readSepAndElem}). Such readers can be executed
+     * by other engines than the reader itself, as long as they build their
+     * matches with the reader's {@code makeMatch} methods.
+     *
+     * @param reader a reader
+     * @param type   one of the readers of this package
+     */
+    static boolean behavesAs(IReader reader, Class<? extends AbstractReader> type) {
+        if (!type.isInstance(reader)) return false;
+        if (declaringClass(reader.getClass(), "simpleread") != type) return false;
+        return type != RepetitionReader.class
+                || declaringClass(reader.getClass(), "readSepAndElem") == RepetitionReader.class;
+    }
+
+    /**
+     * Tells whether {@code reader} overrides {@link AbstractReader#read}:
+     * whatever its pattern, its matches can only be known by calling it.
+     *
+     * @param reader a reader
+     */
+    static boolean overridesRead(IReader reader) {
+        return reader instanceof AbstractReader
+                && declaringClass(reader.getClass(), "read") != AbstractReader.class;
+    }
+
+    /**
+     * Returns the class that implements {@code method(CharSequence, int)}
+     * for instances of {@code type}, ignoring the bridges generated for the
+     * public methods of {@link AbstractReader}.
+     */
+    static Class<?> declaringClass(Class<?> type, String method) {
+        return declaringClass(type, method, CharSequence.class, int.class);
+    }
+
+    /**
+     * Returns the class that implements {@code method(parameters)} for
+     * instances of {@code type}, ignoring bridge methods.
+     */
+    static Class<?> declaringClass(Class<?> type, String method, Class<?>... parameters) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            try {
+                if (!c.getDeclaredMethod(method, parameters).isBridge()) return c;
+            } catch (NoSuchMethodException e) {
+                // keep looking in the superclass
+            }
+        }
+        return null;
+    }
+}
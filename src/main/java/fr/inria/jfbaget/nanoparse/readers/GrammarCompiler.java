@@ -0,0 +1,417 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.json.JSONObject;
+
+import fr.inria.jfbaget.nanoparse.IMatch;
+import fr.inria.jfbaget.nanoparse.IReader;
+
+/**
+ * Compiles a linked grammar into a single generated class.
+ * <p>
+ * Interpreting a grammar goes through {@link IReader#read(CharSequence, int)}
+ * for every rule invocation, a call site that sees every reader type of the
+ * grammar and that the JIT therefore cannot inline. The compiler instead
+ * generates one class per grammar in which:
+ * <ul>
+ *   <li>every rule is a static method calling the methods of its sub-rules
+ *       directly,</li>
+ *   <li>{@link StringReader} literals are inlined as character comparisons,</li>
+ *   <li>regular expressions and base types are called on a constant,
+ *       exactly typed receiver,</li>
+ *   <li>sequences, choices, options and repetitions are unrolled,</li>
+ *   <li>rules fail with the shared failures of their readers, positioned
+ *       only when returned by {@link Rules#read}.</li>
+ * </ul>
+ * Matches are still built by the readers themselves (through their
+ * {@code makeMatch} methods), so the compiled grammar returns exactly the
+ * same {@link IMatch} trees as the interpreter.
+ * <p>
+ * Some readers keep being interpreted: memoized readers (including the
+ * left-recursive ones, see {@link MemoTable}), readers that override
+ * {@code read} or {@code simpleread}, and readers that do not extend the readers of this
+ * package. The compiled grammar snapshots the linked reader graph: readers
+ * must not be re-configured after compilation.
+ * <p>
+ * Compilation uses the system Java compiler ({@link ToolProvider#getSystemJavaCompiler()}),
+ * which is only available when running on a JDK.
+ */
+public final class GrammarCompiler {
+
+    /**
+     * The entry point of a compiled grammar.
+     */
+    public interface Rules {
+
+        /**
+         * Invokes a compiled rule.
+         *
+         * @param rule  the index of the rule, in the list given to {@link GrammarCompiler#compile(List)}
+         * @param input the character sequence to parse
+         * @param start the index at which to start matching
+         * @return the same {@link IMatch} as {@code readers.get(rule).read(input, start)}
+         */
+        IMatch read(int rule, CharSequence input, int start);
+    }
+
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    /** Readers handed over to the static initializer of the class being loaded. */
+    private static final ThreadLocal<IReader[]> PENDING = new ThreadLocal<>();
+
+    private final List<IReader> readers;
+    private final Map<IReader, Integer> indices = new HashMap<>();
+    private final String className;
+    private final StringBuilder source = new StringBuilder();
+
+    private GrammarCompiler(List<IReader> readers) {
+        this.readers = readers;
+        for (int i = 0; i < readers.size(); i++) {
+            this.indices.put(readers.get(i), i);
+        }
+        this.className = "GeneratedGrammar" + COUNTER.incrementAndGet();
+    }
+
+    /**
+     * Compiles a linked grammar.
+     *
+     * @param readers all the readers of the grammar; every reader they refer
+     *                to (including {@code "skip"}) must be in this list
+     * @return the compiled rules, indexed as {@code readers}
+     * @throws IllegalStateException if no Java compiler is available, or if
+     *         the generated code does not compile
+     */
+    public static Rules compile(List<IReader> readers) {
+        GrammarCompiler compiler = new GrammarCompiler(readers);
+        compiler.generate();
+        byte[] bytecode = javac(compiler.className, compiler.source.toString());
+        PENDING.set(readers.toArray(new IReader[0]));
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            Class<?> generated = lookup.defineClass(bytecode);
+            return (Rules) lookup.findConstructor(generated, MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot load compiled grammar", e);
+        } finally {
+            PENDING.remove();
+        }
+    }
+
+    /**
+     * Called by the static initializer of a generated class.
+     */
+    static IReader[] pending() {
+        return PENDING.get();
+    }
+
+    // ------------------------------------------------------------------
+    // Code generation
+    // ------------------------------------------------------------------
+
+    private void generate() {
+        this.source.append("package fr.inria.jfbaget.nanoparse.readers;\n\n")
+                .append("import java.util.ArrayList;\n")
+                .append("import java.util.List;\n")
+                .append("import fr.inria.jfbaget.nanoparse.IMatch;\n")
+                .append("import fr.inria.jfbaget.nanoparse.IReader;\n")
+                .append("import fr.inria.jfbaget.nanoparse.matches.*;\n\n")
+                .append("final class ").append(this.className).append(" implements GrammarCompiler.Rules {\n\n")
+                .append("    private static final IReader[] R = GrammarCompiler.pending();\n");
+        for (int i = 0; i < this.readers.size(); i++) {
+            String type = this.fieldType(this.readers.get(i));
+            this.source.append("    private static final ").append(type).append(" R").append(i)
+                    .append(" = (").append(type).append(") R[").append(i).append("];\n");
+        }
+        this.source.append("\n    @Override\n")
+                .append("    public IMatch read(int rule, CharSequence in, int p) {\n")
+                .append("        switch (rule) {\n");
+        for (int i = 0; i < this.readers.size(); i++) {
+            // inside the grammar, failures are shared: position them on the way out
+            if (!opaque(this.readers.get(i))) {
+                this.source.append("        case ").append(i).append(": return R").append(i)
+                        .append(".positioned(r").append(i).append("(in, p), in, p);\n");
+            } else {
+                this.source.append("        case ").append(i).append(": return r").append(i).append("(in, p);\n");
+            }
+        }
+        this.source.append("        default: throw new IndexOutOfBoundsException(rule);\n")
+                .append("        }\n")
+                .append("    }\n");
+        for (int i = 0; i < this.readers.size(); i++) {
+            this.generateRule(i, this.readers.get(i));
+        }
+        this.source.append("}\n");
+    }
+
+    /** The static type under which a reader is stored in the generated class. */
+    private String fieldType(IReader reader) {
+        if (opaque(reader)) return "IReader";
+        if (this.compiles(reader, StringReader.class)) return "StringReader";
+        if (this.compiles(reader, SequenceReader.class)) return "SequenceReader";
+        if (this.compiles(reader, ChoiceReader.class)) return "ChoiceReader";
+        if (this.compiles(reader, OptionalReader.class)) return "OptionalReader";
+        if (this.compiles(reader, RepetitionReader.class)) return "RepetitionReader";
+        if (reader instanceof RegexReader) return "RegexReader";
+        return "AbstractReader";
+    }
+
+    /**
+     * Whether {@code reader} can be compiled structurally as a {@code type}.
+     */
+    private boolean compiles(IReader reader, Class<? extends AbstractReader> type) {
+        return GrammarAnalysis.behavesAs(reader, type);
+    }
+
+    /**
+     * Whether {@code reader} is only called through {@link IReader#read},
+     * because it does not extend the readers of this package or overrides
+     * their {@code read}.
+     */
+    private static boolean opaque(IReader reader) {
+        return !(reader instanceof AbstractReader) || GrammarAnalysis.overridesRead(reader);
+    }
+
+    private String call(IReader reader, String position) {
+        return "r" + this.index(reader) + "(in, " + position + ")";
+    }
+
+    private int index(IReader reader) {
+        Integer index = this.indices.get(reader);
+        if (index == null) {
+            throw new IllegalArgumentException("Reader " + reader.getName() + " is not part of the compiled grammar");
+        }
+        return index;
+    }
+
+    private void generateRule(int i, IReader reader) {
+        String r = "R" + i;
+        this.source.append("\n    /** Rule \"").append(escape(reader.getName())).append("\". */\n")
+                .append("    static IMatch r").append(i).append("(CharSequence in, int p) {\n");
+        if (opaque(reader)) {
+            this.source.append("        return ").append(r).append(".read(in, p);\n    }\n");
+            return;
+        }
+        AbstractReader abstractReader = (AbstractReader) reader;
+        this.source.append("        if (").append(r).append(".isMemoized()) return ").append(r).append(".attempt(in, p);\n");
+        if (abstractReader.requiresSkip()) {
+            // the match of skip is never used
+            this.source.append("        int skipped = R").append(this.index(abstractReader.skipReader())).append(".recognize(in, p);\n")
+                    .append("        if (skipped >= 0) p = skipped;\n");
+        }
+        switch (this.fieldType(reader)) {
+            case "StringReader":
+                this.generateString(r, (StringReader) reader);
+                break;
+            case "SequenceReader":
+                this.generateSequence(r, (SequenceReader) reader);
+                break;
+            case "ChoiceReader":
+                this.generateChoice(r, (ChoiceReader) reader);
+                break;
+            case "OptionalReader":
+                this.generateOptional(r, (OptionalReader) reader);
+                break;
+            case "RepetitionReader":
+                this.generateRepetition(i, r, (RepetitionReader) reader);
+                return;
+            default:
+                this.source.append("        return ").append(r).append(".simpleread(in, p);\n");
+        }
+        this.source.append("    }\n");
+    }
+
+    private void generateString(String r, StringReader reader) {
+        String pattern = reader.pattern;
+        this.source.append("        int e = p + ").append(pattern.length()).append(";\n")
+                .append("        if (in.length() < e) return ").append(r).append(".failure();\n");
+        if (!pattern.isEmpty()) {
+            this.source.append("        if (");
+            for (int k = 0; k < pattern.length(); k++) {
+                if (k > 0) this.source.append("\n                || ");
+                this.source.append("in.charAt(p + ").append(k).append(") != ").append((int) pattern.charAt(k));
+            }
+            this.source.append(") return ").append(r).append(".failure();\n");
+        }
+        this.source.append("        return ").append(r).append(".makeMatch(p, e, true, ").append(r).append(".pattern);\n");
+    }
+
+    private void generateSequence(String r, SequenceReader reader) {
+        this.source.append("        int s = p;\n");
+        for (int k = 0; k < reader.readers.size(); k++) {
+            this.source.append("        IMatch m").append(k).append(" = ").append(this.call(reader.readers.get(k), "p")).append(";\n")
+                    .append("        if (!m").append(k).append(".success()) return ").append(r).append(".failure();\n")
+                    .append("        p = m").append(k).append(".end();\n");
+        }
+        this.source.append("        List<IMatch> result = new ArrayList<>();\n");
+        for (int k = 0; k < reader.readers.size(); k++) {
+            this.source.append("        result.add(m").append(k).append(");\n");
+        }
+        this.source.append("        return ").append(r).append(".makeMatch(s, p, true, result);\n");
+    }
+
+    private void generateChoice(String r, ChoiceReader reader) {
+        this.source.append("        IMatch m;\n");
+        for (IReader alternative : reader.readers) {
+            this.source.append("        m = ").append(this.call(alternative, "p")).append(";\n")
+                    .append("        if (m.success()) return m;\n");
+        }
+        this.source.append("        return ").append(r).append(".failure();\n");
+    }
+
+    private void generateOptional(String r, OptionalReader reader) {
+        this.source.append("        IMatch m = ").append(this.call(reader.reader, "p")).append(";\n")
+                .append("        if (m.success()) return m;\n")
+                .append("        return new Match<>(").append(r).append(", p, p, true, null);\n");
+    }
+
+    private void generateRepetition(int i, String r, RepetitionReader reader) {
+        StringBuilder s = this.source;
+        s.append("        int start = p;\n");
+        if (reader.max == 0) {
+            s.append("        return new ListMatch(").append(r).append(", start, start, true, null);\n    }\n");
+            return;
+        }
+        s.append("        IMatch first = ").append(this.call(reader.reader, "start")).append(";\n")
+                .append("        if (!first.success()) return ")
+                .append(reader.min == 0 ? "new ListMatch(" + r + ", start, start, true, null)" : r + ".failure()").append(";\n")
+                .append("        int position = first.end();\n");
+        if (reader.max == 1 && reader.subReaderWhenOne) {
+            s.append("        return first;\n    }\n");
+            return;
+        }
+        s.append("        IMatch next = r").append(i).append("next(in, position);\n")
+                .append("        if (next == null) {\n");
+        if (reader.min > 1) {
+            s.append("            return ").append(r).append(".failure();\n");
+        } else if (reader.subReaderWhenOne) {
+            s.append("            return first;\n");
+        } else {
+            s.append("            List<IMatch> result = new ArrayList<>();\n")
+                    .append("            result.add(first);\n")
+                    .append("            return new ListMatch(").append(r).append(", start, position, true, result);\n");
+        }
+        s.append("        }\n")
+                .append("        List<IMatch> result = new ArrayList<>();\n")
+                .append("        result.add(first);\n")
+                .append("        result.add(next);\n")
+                .append("        position = next.end();\n")
+                .append("        while (result.size() < ").append(reader.max).append(") {\n")
+                .append("            next = r").append(i).append("next(in, position);\n")
+                .append("            if (next == null) break;\n")
+                .append("            position = next.end();\n")
+                .append("            result.add(next);\n")
+                .append("        }\n")
+                .append("        if (result.size() >= ").append(reader.min).append(") return new ListMatch(")
+                .append(r).append(", start, position, true, result);\n")
+                .append("        return ").append(r).append(".failure();\n")
+                .append("    }\n\n");
+        // separator + element, as RepetitionReader.readSepAndElem
+        s.append("    static IMatch r").append(i).append("next(CharSequence in, int start) {\n");
+        if (reader.separator == null) {
+            s.append("        IMatch sm = null;\n")
+                    .append("        IMatch m = ").append(this.call(reader.reader, "start")).append(";\n");
+        } else {
+            s.append("        IMatch sm = ").append(this.call(reader.separator, "start")).append(";\n")
+                    .append("        if (!sm.success()) return null;\n")
+                    .append("        IMatch m = ").append(this.call(reader.reader, "sm.end()")).append(";\n");
+        }
+        s.append("        if (!m.success()) return null;\n");
+        if (reader.storeSep) {
+            s.append("        return new ListMatch(").append(r).append(", start, m.end(), true, List.of(sm, m));\n");
+        } else {
+            s.append("        return m;\n");
+        }
+        s.append("    }\n");
+    }
+
+    private static String escape(String name) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : name.toCharArray()) {
+            if (c >= 32 && c < 127 && c != '\\' && c != '"' && c != '*') escaped.append(c);
+            else escaped.append('?');
+        }
+        return escaped.toString();
+    }
+
+    // ------------------------------------------------------------------
+    // In-memory compilation
+    // ------------------------------------------------------------------
+
+    private static byte[] javac(String className, String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("No Java compiler available: compiling a grammar requires a JDK");
+        }
+        String qualifiedName = "fr.inria.jfbaget.nanoparse.readers." + className;
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        Map<String, ByteArrayOutputStream> classes = new HashMap<>();
+        StandardJavaFileManager standard = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8);
+        JavaFileManager manager = new ForwardingJavaFileManager<>(standard) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String name, JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/') + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return classes.computeIfAbsent(name, n -> new ByteArrayOutputStream());
+                    }
+                };
+            }
+        };
+        JavaFileObject unit = new SimpleJavaFileObject(
+                URI.create("string:///" + qualifiedName.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        List<String> options = List.of("-classpath", classpath(), "-proc:none");
+        boolean compiled = compiler.getTask(null, manager, diagnostics, options, null, List.of(unit)).call();
+        if (!compiled || !classes.containsKey(qualifiedName)) {
+            throw new IllegalStateException("Cannot compile grammar: " + diagnostics.getDiagnostics());
+        }
+        return classes.get(qualifiedName).toByteArray();
+    }
+
+    /** The locations of NanoParse and of its public dependencies. */
+    private static String classpath() {
+        Set<String> entries = new LinkedHashSet<>();
+        for (Class<?> type : List.of(IMatch.class, JSONObject.class)) {
+            CodeSource codeSource = type.getProtectionDomain().getCodeSource();
+            if (codeSource == null || codeSource.getLocation() == null) continue;
+            try {
+                entries.add(Path.of(codeSource.getLocation().toURI()).toString());
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                // not a file location, rely on java.class.path
+            }
+        }
+        entries.add(System.getProperty("java.class.path"));
+        return String.join(File.pathSeparator, entries);
+    }
+}
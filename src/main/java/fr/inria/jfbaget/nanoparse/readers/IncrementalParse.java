@@ -0,0 +1,342 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.inria.jfbaget.nanoparse.IMatch;
+import fr.inria.jfbaget.nanoparse.IReader;
+import fr.inria.jfbaget.nanoparse.matches.ListMatch;
+import fr.inria.jfbaget.nanoparse.matches.ObjectMatch;
+import fr.inria.jfbaget.nanoparse.matches.SpanStringMatch;
+
+/**
+ * A parse that can be updated after an edit of its input, re-reading only
+ * the part of the input the edit damaged.
+ * <p>
+ * While parsing, the successful matches of the readers of this package,
+ * tokens aside, are recorded with their <em>reach</em>, the furthest
+ * character read to build them. After an edit replacing {@code removed}
+ * characters at {@code offset}, the input is parsed again, and a reader
+ * asked to read at a position where it had a recorded match gets that
+ * match back, without reading, if the text it depends on did not change:
+ * <ul>
+ *   <li>a match starting after the removed characters only depends on the
+ *       text after its start, which was shifted: it is reused, shifted
+ *       too;</li>
+ *   <li>a match starting before the edit is reused if its reach ends
+ *       before the edit by more than a guard, that covers the characters a
+ *       reader compares with the length of the input before reading them
+ *       (as the literals do);</li>
+ *   <li>other matches, within the edit or whose reach crosses it, are
+ *       read again.</li>
+ * </ul>
+ * Readers therefore only run over the damaged region and the matches
+ * enclosing it, such as the list of a top-level repetition. The reused
+ * matches are copied onto the new input, with their offsets shifted.
+ * <p>
+ * Only the outermost reuse is recorded for the next edit: an edit within
+ * a reused match reads that match again. The matches recorded past what a
+ * parse read, as after a syntax error, are kept for the next parse. Memoized readers are recorded,
+ * but the readers they call are neither recorded nor reused, since their
+ * matches may depend on a left recursion being grown. Readers that do not
+ * extend {@link AbstractReader} are read again.
+ * <p>
+ * Instances are immutable once built, and are not meant to be updated by
+ * several threads at once.
+ */
+public final class IncrementalParse {
+
+    private final IReader reader;
+    private final int start;
+    private final int guard;
+    private final Input input;
+    private final IMatch match;
+    /** The recorded matches, by reader and start. */
+    private final Map<IReader, Map<Integer, Entry>> entries = new HashMap<>();
+    /** The number of rule evaluations the parse took. */
+    private int evaluated = 0;
+
+    private IncrementalParse(IReader reader, String text, int start, int guard, IncrementalParse previous,
+                             int offset, int removed, int inserted) {
+        this.reader = reader;
+        this.start = start;
+        this.guard = guard;
+        this.input = new Input(text, this, previous, offset, removed, inserted);
+        ParseSession session = ParseSession.open(this.input);
+        try {
+            this.match = reader.read(this.input, start);
+        } finally {
+            session.close();
+            this.input.parsed();
+        }
+    }
+
+    /**
+     * Parses {@code input} from {@code start} with {@code reader},
+     * recording its matches for later edits.
+     *
+     * @param reader the linked reader of the entry rule
+     * @param input  the character sequence to parse
+     * @param start  zero-based index of the first character to read
+     * @param guard  the number of characters before an edit whose matches
+     *               are not reused; it must exceed the length of the
+     *               literals of the grammar
+     * @return the parse, whose {@link #match()} is the match of
+     *         {@code reader.read(input, start)}
+     */
+    public static IncrementalParse read(IReader reader, CharSequence input, int start, int guard) {
+        return new IncrementalParse(reader, input.toString(), start, guard, null, 0, 0, 0);
+    }
+
+    /**
+     * Returns the parse of the input where the {@code removed} characters at
+     * {@code offset} are replaced with {@code inserted}.
+     *
+     * @throws IndexOutOfBoundsException if the removed characters are not
+     *         within the input, or start before the start of the parse
+     */
+    public IncrementalParse edit(int offset, int removed, CharSequence inserted) {
+        String text = this.input.text;
+        if (offset < this.start || removed < 0 || offset + removed > text.length()) {
+            throw new IndexOutOfBoundsException("[" + offset + ", " + (offset + removed) + ") is not in ["
+                    + this.start + ", " + text.length() + "]");
+        }
+        String edited = new StringBuilder(text.length() - removed + inserted.length())
+                .append(text, 0, offset).append(inserted).append(text, offset + removed, text.length()).toString();
+        return new IncrementalParse(this.reader, edited, this.start, this.guard, this, offset, removed, inserted.length());
+    }
+
+    /**
+     * Returns the match of the entry rule, as
+     * {@link IReader#read(CharSequence, int)} returns it on {@link #input()}.
+     * Its token matches refer to a view of the input.
+     */
+    public IMatch match() {
+        return this.match;
+    }
+
+    /** Returns the parsed text. */
+    public String input() {
+        return this.input.text;
+    }
+
+    /**
+     * Returns the number of times a reader was evaluated instead of
+     * reusing a match, which grows with the damaged region rather than
+     * with the size of the input.
+     */
+    public int evaluated() {
+        return this.evaluated;
+    }
+
+    /** Returns the match recorded for {@code reader} at {@code position}, or {@code null}. */
+    private Entry entry(IReader reader, int position) {
+        Map<Integer, Entry> byStart = this.entries.get(reader);
+        return byStart == null ? null : byStart.get(position);
+    }
+
+    private void record(IReader reader, int position, Entry entry) {
+        this.entries.computeIfAbsent(reader, r -> new HashMap<>()).put(position, entry);
+    }
+
+    /**
+     * Returns a copy of {@code match}, shifted by {@code delta}, whose
+     * tokens refer to {@code input}; or {@code null} if it holds matches
+     * of classes that cannot be copied.
+     */
+    private static IMatch rebase(IMatch match, int delta, CharSequence input) {
+        if (match == null) return null;
+        int start = match.start() + delta;
+        int end = match.end() + delta;
+        Class<?> type = match.getClass();
+        if (type == ListMatch.class) {
+            List<?> elements = (List<?>) match.result();
+            List<IMatch> copies = null;
+            if (elements != null) {
+                copies = new ArrayList<>(elements.size());
+                for (Object element : elements) {
+                    IMatch copy = rebase((IMatch) element, delta, input);
+                    if (copy == null && element != null) return null;
+                    copies.add(copy);
+                }
+            }
+            return new ListMatch(match.reader(), start, end, match.success(), copies);
+        }
+        if (type == ObjectMatch.class) {
+            Map<?, ?> fields = (Map<?, ?>) match.result();
+            Map<String, IMatch> copies = null;
+            if (fields != null) {
+                copies = new HashMap<>();
+                for (Map.Entry<?, ?> field : fields.entrySet()) {
+                    IMatch copy = rebase((IMatch) field.getValue(), delta, input);
+                    if (copy == null && field.getValue() != null) return null;
+                    copies.put((String) field.getKey(), copy);
+                }
+            }
+            return new ObjectMatch(match.reader(), start, end, match.success(), copies);
+        }
+        if (type == SpanStringMatch.class) {
+            SpanStringMatch span = (SpanStringMatch) match;
+            return new SpanStringMatch(match.reader(), start, end, match.success(), input,
+                    span.textStart() + delta, span.textEnd() + delta);
+        }
+        if (match.result() instanceof List || match.result() instanceof Map) return null;
+        return match.copyWith(start, end, match.success());
+    }
+
+    /**
+     * A recorded match and its reach. A match carried over from an earlier
+     * parse is still positioned in its input, {@code shift} characters
+     * before its position in this one.
+     */
+    private static final class Entry {
+        final IMatch match;
+        final int shift;
+        final int reach;
+
+        Entry(IMatch match, int shift, int reach) {
+            this.match = match;
+            this.shift = shift;
+            this.reach = reach;
+        }
+    }
+
+    /**
+     * The text being parsed, that records the furthest character read, and
+     * through which the readers of this package are invoked (see
+     * {@link AbstractReader#attempt(CharSequence, int)}).
+     */
+    static final class Input implements CharSequence {
+        final String text;
+        /** The parse being built, {@code null} once it is built. */
+        private IncrementalParse parse;
+        private IncrementalParse previous;
+        private final int offset;
+        private final int removed;
+        private final int inserted;
+
+        /** The furthest index read by the current evaluation. */
+        private int reached = -1;
+        /** The number of memoized readers being evaluated. */
+        private int memoized = 0;
+
+        Input(String text, IncrementalParse parse, IncrementalParse previous, int offset, int removed, int inserted) {
+            this.text = text;
+            this.parse = parse;
+            this.previous = previous;
+            this.offset = offset;
+            this.removed = removed;
+            this.inserted = inserted;
+        }
+
+        /**
+         * Carries over the entries of the previous parse past what this
+         * parse read, then drops the references to the parses, so that
+         * matches do not keep them.
+         */
+        void parsed() {
+            IncrementalParse previous = this.previous;
+            if (previous != null && this.reached + 1 < this.text.length()) {
+                int delta = this.inserted - this.removed;
+                for (Map.Entry<IReader, Map<Integer, Entry>> byReader : previous.entries.entrySet()) {
+                    for (Map.Entry<Integer, Entry> recorded : byReader.getValue().entrySet()) {
+                        int old = recorded.getKey();
+                        if (old < this.offset + this.removed || old + delta <= this.reached) continue;
+                        Entry entry = recorded.getValue();
+                        this.parse.record(byReader.getKey(), old + delta,
+                                new Entry(entry.match, entry.shift + delta, entry.reach + delta));
+                    }
+                }
+            }
+            this.parse = null;
+            this.previous = null;
+        }
+
+        /**
+         * Returns the match of {@code reader} at {@code start}: a match
+         * recorded by this parse or reusable from the previous one, or the
+         * match read by the reader, which is then recorded.
+         */
+        IMatch attempt(AbstractReader reader, int start) {
+            IncrementalParse parse = this.parse;
+            if (parse == null) return reader.lookup(this, start);
+            if (this.memoized == 0) {
+                Entry entry = parse.entry(reader, start);
+                if (entry == null) entry = this.reuse(reader, start);
+                if (entry != null) {
+                    this.reached = Math.max(this.reached, entry.reach);
+                    return entry.match;
+                }
+            }
+
+            int outer = this.reached;
+            this.reached = -1;
+            boolean memoized = reader.isMemoized();
+            if (memoized) this.memoized++;
+            IMatch match;
+            try {
+                match = reader.lookup(this, start);
+            } finally {
+                if (memoized) this.memoized--;
+            }
+            int reach = this.reached;
+            this.reached = Math.max(outer, reach);
+            parse.evaluated++;
+            if (this.memoized == 0 && match.success()
+                    && !(reader instanceof RegexReader || reader instanceof StringReader)) {
+                parse.record(reader, start, new Entry(match, 0, reach));
+            }
+            return match;
+        }
+
+        /**
+         * Returns the entry of the previous parse for {@code reader} at
+         * {@code start}, rebased and recorded in this parse, if the edit
+         * did not damage it.
+         */
+        private Entry reuse(AbstractReader reader, int start) {
+            IncrementalParse previous = this.previous;
+            if (previous == null) return null;
+            int delta = this.inserted - this.removed;
+            int old;
+            if (start >= this.offset + this.inserted) old = start - delta;
+            else if (start < this.offset) old = start;
+            else return null;
+            Entry entry = previous.entry(reader, old);
+            if (entry == null) return null;
+            if (old < this.offset) {
+                if (entry.reach + this.parse.guard >= this.offset) return null;
+                delta = 0;
+            }
+            IMatch match = rebase(entry.match, entry.shift + delta, this);
+            if (match == null) return null;
+            Entry reused = new Entry(match, 0, entry.reach + delta);
+            this.parse.record(reader, start, reused);
+            return reused;
+        }
+
+        @Override
+        public int length() {
+            return this.text.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index > this.reached) this.reached = index;
+            return this.text.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (end - 1 > this.reached) this.reached = end - 1;
+            return this.text.substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return this.text;
+        }
+    }
+}
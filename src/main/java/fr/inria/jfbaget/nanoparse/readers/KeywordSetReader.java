@@ -0,0 +1,329 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+import fr.inria.jfbaget.nanoparse.IMatch;
+import fr.inria.jfbaget.nanoparse.IParser;
+import fr.inria.jfbaget.nanoparse.IReader;
+import fr.inria.jfbaget.nanoparse.matches.StringMatch;
+
+/**
+ * Reader that matches one of a set of literals, in a single pass.
+ * <p>
+ * A {@code KeywordSetReader} refers to several {@link StringReader} rules,
+ * typically the keywords or operators of a language, and stores their
+ * patterns in a trie: the input is scanned once, whatever the number of
+ * literals. When several literals match at the current position, the
+ * winner is:
+ * <ul>
+ *   <li>in ordered mode (the default), the first one in the list, as a
+ *       {@link ChoiceReader} over the same rules would choose;</li>
+ *   <li>in longest-match mode, the one whose match ends last, the first
+ *       one in the list in case of a tie.</li>
+ * </ul>
+ * The result is the {@link StringMatch} that the winning {@link StringReader}
+ * would have returned, built by its own {@code makeMatch} method, and each
+ * literal still applies the {@code "skip"} rule if it requires it. If no
+ * literal matches, the reader fails with an empty {@link StringMatch} for
+ * itself.
+ * <p>
+ * The {@link fr.inria.jfbaget.nanoparse.Parser} also uses a keyword set
+ * internally for every {@link ChoiceReader} whose alternatives are all
+ * literals (see {@link GrammarAnalysis#indexChoices}).
+ */
+public class KeywordSetReader extends AbstractReader {
+
+    /** Names of the literal rules, to be resolved at link time. */
+    public final List<String> readerIds;
+
+    /** Resolved literal rules, see {@link #getReaders()}. */
+    List<StringReader> readers;
+
+    /** {@code true} for longest-match mode, {@code false} for ordered mode. */
+    public final boolean longest;
+
+    private Trie trie;
+
+    /**
+     * Creates a new {@code KeywordSetReader}.
+     *
+     * @param identifier the unique name of this rule in the grammar
+     * @param readerIds  the names of the {@link StringReader} rules to match
+     * @param skip       {@code true} if the global {@code "skip"} rule should
+     *                   be applied before matching
+     * @param longest    {@code true} to prefer the longest match over the
+     *                   first one in {@code readerIds}
+     */
+    public KeywordSetReader(String identifier, List<String> readerIds, boolean skip, boolean longest) {
+        super(identifier, skip);
+        this.readerIds = readerIds;
+        this.longest = longest;
+    }
+
+    /**
+     * Creates a new {@code KeywordSetReader} in ordered mode.
+     *
+     * @param identifier the unique name of this rule in the grammar
+     * @param readerIds  the names of the {@link StringReader} rules to match
+     * @param skip       {@code true} if the global {@code "skip"} rule should
+     *                   be applied before matching
+     */
+    public KeywordSetReader(String identifier, List<String> readerIds, boolean skip) {
+        this(identifier, readerIds, skip, false);
+    }
+
+    /**
+     * Returns the resolved literal rules, in order, or {@code null} before
+     * the keyword set is linked.
+     */
+    public List<StringReader> getReaders() {
+        return this.readers == null ? null : Collections.unmodifiableList(this.readers);
+    }
+
+    /**
+     * Creates an ordered keyword set over already linked literals, on
+     * behalf of a {@link ChoiceReader}.
+     */
+    static KeywordSetReader of(ChoiceReader choice, List<StringReader> readers) {
+        List<String> ids = new ArrayList<>();
+        for (StringReader reader : readers) ids.add(reader.getName());
+        KeywordSetReader keywords = new KeywordSetReader(choice.getName(), ids, false);
+        keywords.setReaders(readers);
+        return keywords;
+    }
+
+    /**
+     * Matches the literals at {@code start}. Fails with the shared failure
+     * of this reader, an empty {@link StringMatch}, if none of them matches.
+     */
+    @Override
+    protected IMatch simpleread(CharSequence input, int start) {
+        IMatch match = this.find(input, start);
+        return match != null ? match : this.failure();
+    }
+
+    /**
+     * Failures are empty {@link StringMatch} instances.
+     */
+    @Override
+    IMatch makeFailure(int position) {
+        return new StringMatch(this, position, position, false, null);
+    }
+
+    /**
+     * Returns the match of the winning literal at {@code start}, or
+     * {@code null} if none matches.
+     */
+    IMatch find(CharSequence input, int start) {
+        int skipped = this.trie.skipping ? this.readers.get(this.trie.skipper).skip(input, start) : start;
+        int best = this.winner(input, start, skipped);
+        if (best < 0) return null;
+        StringReader reader = this.readers.get(best);
+        int from = reader.requiresSkip() ? skipped : start;
+        return reader.makeMatch(from, from + reader.pattern.length(), true, reader.pattern);
+    }
+
+    /**
+     * Returns the end of the winning literal at {@code start}, without
+     * building its match.
+     */
+    @Override
+    int simplerecognize(CharSequence input, int start) {
+        int skipped = this.trie.skipping ? this.readers.get(this.trie.skipper).skip(input, start) : start;
+        int best = this.winner(input, start, skipped);
+        if (best < 0) return -1;
+        StringReader reader = this.readers.get(best);
+        return (reader.requiresSkip() ? skipped : start) + reader.pattern.length();
+    }
+
+    /**
+     * Returns the index of the winning literal, the literals that apply
+     * skip being matched from {@code skipped}, or {@code -1}.
+     */
+    private int winner(CharSequence input, int start, int skipped) {
+        Trie trie = this.trie;
+        if (skipped == start) return trie.walk(input, start, this.longest, Trie.ANY);
+        int best = trie.walk(input, start, this.longest, Trie.PLAIN);
+        int other = trie.walk(input, skipped, this.longest, Trie.SKIPPING);
+        if (other < 0) return best;
+        if (best < 0) return other;
+        if (!this.longest) return Math.min(best, other);
+        int end = start + this.readers.get(best).pattern.length();
+        int otherEnd = skipped + this.readers.get(other).pattern.length();
+        return otherEnd > end || otherEnd == end && other < best ? other : best;
+    }
+
+    /**
+     * Resolves the literal rules by name.
+     *
+     * @throws IllegalArgumentException if one of them is not a plain
+     *         {@link StringReader}
+     */
+    @Override
+    protected void simpleLink(IParser parser) {
+        List<StringReader> readers = new ArrayList<>();
+        for (String readerId : this.readerIds) {
+            IReader reader = parser.getReader(readerId);
+            if (!isLiteral(reader)) {
+                throw new IllegalArgumentException("Rule " + readerId + " of " + this.getName() + " is not a literal");
+            }
+            readers.add((StringReader) reader);
+        }
+        this.setReaders(readers);
+    }
+
+    /**
+     * Makes the list of literals unmodifiable.
+     */
+    @Override
+    public void freeze() {
+        this.readers = List.copyOf(this.readers);
+        super.freeze();
+    }
+
+    private void setReaders(List<StringReader> readers) {
+        this.readers = readers;
+        this.trie = new Trie(readers);
+    }
+
+    /**
+     * Tells whether {@code reader} is a {@link StringReader} that can be
+     * matched by a keyword set, i.e. does not change how literals are read.
+     */
+    static boolean isLiteral(IReader reader) {
+        return GrammarAnalysis.behavesAs(reader, StringReader.class) && !GrammarAnalysis.overridesRead(reader);
+    }
+
+    /**
+     * A keyword set is nullable if one of its literals is empty.
+     */
+    @Override
+    boolean isNullable(Predicate<IReader> nullable) {
+        for (StringReader reader : this.readers) {
+            if (nullable.test(reader)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * The literals start with their own first character, after skip for
+     * those that apply it.
+     */
+    @Override
+    List<IReader> leftChildren(Predicate<IReader> nullable) {
+        return new ArrayList<>(this.readers);
+    }
+
+    /**
+     * A trie of the patterns, where each node records the first literal
+     * ending there, and the first literal ending in its subtree, both for
+     * the literals that apply skip and for those that do not.
+     */
+    private static final class Trie {
+        static final int PLAIN = 0;
+        static final int SKIPPING = 1;
+        static final int ANY = 2;
+
+        final Node root = new Node();
+        /** Whether some literal applies skip, and the first one that does. */
+        final boolean skipping;
+        final int skipper;
+
+        Trie(List<StringReader> readers) {
+            int skipper = -1;
+            for (int i = 0; i < readers.size(); i++) {
+                StringReader reader = readers.get(i);
+                int group = reader.requiresSkip() ? SKIPPING : PLAIN;
+                if (group == SKIPPING && skipper < 0) skipper = i;
+                Node node = this.root;
+                node.below(group, i);
+                for (char c : reader.pattern.toCharArray()) {
+                    node = node.child(c);
+                    node.below(group, i);
+                }
+                node.ends(group, i);
+            }
+            this.skipping = skipper >= 0;
+            this.skipper = skipper;
+        }
+
+        /**
+         * Walks the input from {@code start}, looking for the literals of
+         * {@code group}; returns the index of the winning literal, or
+         * {@code -1}.
+         */
+        int walk(CharSequence input, int start, boolean longest, int group) {
+            int best = -1;
+            Node node = this.root;
+            int position = start;
+            int limit = input.length();
+            while (true) {
+                int here = node.end(group);
+                if (here >= 0 && (longest || best < 0 || here < best)) best = here;
+                // in ordered mode, stop when no better literal lies below
+                if (!longest && best >= 0 && node.below(group) > best) break;
+                if (position == limit) break;
+                node = node.get(input.charAt(position));
+                if (node == null) break;
+                position++;
+            }
+            return best;
+        }
+    }
+
+    private static final class Node {
+        private static final char[] NO_LABELS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        private char[] labels = NO_LABELS;
+        private Node[] children = NO_CHILDREN;
+        private final int[] ends = {-1, -1};
+        private final int[] below = {Integer.MAX_VALUE, Integer.MAX_VALUE};
+
+        Node get(char c) {
+            int i = Arrays.binarySearch(this.labels, c);
+            return i >= 0 ? this.children[i] : null;
+        }
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(this.labels, c);
+            if (i >= 0) return this.children[i];
+            i = -i - 1;
+            char[] labels = new char[this.labels.length + 1];
+            Node[] children = new Node[this.children.length + 1];
+            System.arraycopy(this.labels, 0, labels, 0, i);
+            System.arraycopy(this.children, 0, children, 0, i);
+            System.arraycopy(this.labels, i, labels, i + 1, this.labels.length - i);
+            System.arraycopy(this.children, i, children, i + 1, this.children.length - i);
+            labels[i] = c;
+            children[i] = new Node();
+            this.labels = labels;
+            this.children = children;
+            return children[i];
+        }
+
+        void ends(int group, int index) {
+            if (this.ends[group] < 0) this.ends[group] = index;
+        }
+
+        void below(int group, int index) {
+            this.below[group] = Math.min(this.below[group], index);
+        }
+
+        int end(int group) {
+            if (group != Trie.ANY) return this.ends[group];
+            if (this.ends[0] < 0) return this.ends[1];
+            if (this.ends[1] < 0) return this.ends[0];
+            return Math.min(this.ends[0], this.ends[1]);
+        }
+
+        int below(int group) {
+            if (group != Trie.ANY) return this.below[group];
+            return Math.min(this.below[0], this.below[1]);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import fr.inria.jfbaget.nanoparse.IMatch;
+import fr.inria.jfbaget.nanoparse.IReader;
+
+/**
+ * Packrat memoization table for a single parse.
+ * <p>
+ * A {@code MemoTable} records, for each memoized reader and each input
+ * position, the {@link IMatch} produced by that reader at that position.
+ * Each {@link ParseSession} has its own table, cleared when the session is
+ * closed, so memoized results never outlive the parse that produced them.
+ * A reader only consults the table if it is asked to read the very
+ * {@link CharSequence} instance the session was opened for.
+ * <p>
+ * Readers are memoized individually, see {@link AbstractReader#setMemoized(boolean)}.
+ *
+ * <h3>Left recursion</h3>
+ * Memoized readers may be left-recursive, directly ({@code expr ::= expr "-" INT | INT})
+ * or through other rules. The table implements the seed-growing algorithm of
+ * Warth, Douglass and Millstein ("Packrat parsers can support left recursion",
+ * PEPM 2008):
+ * <ol>
+ *   <li>the first recursive call of a rule at a position fails, which lets
+ *       the non-recursive alternatives produce a <em>seed</em>;</li>
+ *   <li>the rule body is then re-evaluated with the seed recorded as the
+ *       rule's result, each round consuming more input, until a round no
+ *       longer extends the match.</li>
+ * </ol>
+ * Rules involved in an indirect recursion are re-evaluated on every round,
+ * other memoized rules keep their recorded results. The resulting trees are
+ * left-associative, as the grammar is written.
+ */
+public final class MemoTable {
+
+    private Map<IReader, Map<Integer, Entry>> entries;
+
+    /** Stack of memoized invocations in progress, innermost first. */
+    private Recursion invocations;
+
+    /** Heads of the left recursions currently growing, by position. */
+    private Map<Integer, Head> heads;
+
+    MemoTable() {}
+
+    /**
+     * Discards all the entries of this table, which may then be used for
+     * another parse.
+     */
+    void clear() {
+        this.entries = null;
+        this.heads = null;
+        this.invocations = null;
+    }
+
+    /**
+     * Evaluates a memoized reader at {@code start}, returning the recorded
+     * match if there is one and growing left recursions as needed.
+     */
+    IMatch apply(AbstractReader reader, CharSequence input, int start) {
+        Entry entry = this.recall(reader, input, start);
+        if (entry == null) {
+            Recursion recursion = new Recursion(reader, reader.failure(), this.invocations);
+            this.invocations = recursion;
+            entry = new Entry(recursion);
+            this.put(reader, start, entry);
+            IMatch match = reader.evaluate(input, start);
+            this.invocations = recursion.next;
+            if (recursion.head != null) {
+                recursion.seed = match;
+                return this.answer(reader, input, start, entry);
+            }
+            entry.match = match;
+            entry.recursion = null;
+            return match;
+        }
+        if (entry.recursion != null) {
+            this.setupRecursion(reader, entry.recursion);
+            return entry.recursion.seed;
+        }
+        return entry.match;
+    }
+
+    /**
+     * Returns the entry of {@code reader} at {@code start}, taking into
+     * account the left recursion growing at that position, if any.
+     */
+    private Entry recall(AbstractReader reader, CharSequence input, int start) {
+        Entry entry = this.get(reader, start);
+        Head head = this.heads == null ? null : this.heads.get(start);
+        if (head == null) return entry;
+        if (entry == null && head.reader != reader && !head.involved.contains(reader)) {
+            return new Entry(reader.failure());
+        }
+        if (entry != null && head.evaluate.remove(reader)) {
+            entry.match = reader.evaluate(input, start);
+            entry.recursion = null;
+        }
+        return entry;
+    }
+
+    /**
+     * Called when {@code reader} re-enters itself at the same position:
+     * marks every invocation between the two as involved in the recursion.
+     */
+    private void setupRecursion(AbstractReader reader, Recursion recursion) {
+        if (recursion.head == null) recursion.head = new Head(reader);
+        for (Recursion invocation = this.invocations; invocation.head != recursion.head; invocation = invocation.next) {
+            invocation.head = recursion.head;
+            recursion.head.involved.add(invocation.reader);
+        }
+    }
+
+    /**
+     * Produces the answer of a left-recursive invocation once its seed is
+     * known: the head of the recursion grows it, involved rules return it.
+     */
+    private IMatch answer(AbstractReader reader, CharSequence input, int start, Entry entry) {
+        Head head = entry.recursion.head;
+        IMatch seed = entry.recursion.seed;
+        if (head.reader != reader) return seed;
+        entry.match = seed;
+        entry.recursion = null;
+        if (!seed.success()) return seed;
+        return this.grow(reader, input, start, entry, head);
+    }
+
+    /**
+     * Re-evaluates the head of a left recursion as long as each round
+     * consumes more input than the previous one.
+     */
+    private IMatch grow(AbstractReader reader, CharSequence input, int start, Entry entry, Head head) {
+        if (this.heads == null) this.heads = new HashMap<>();
+        this.heads.put(start, head);
+        while (true) {
+            head.evaluate = new HashSet<>(head.involved);
+            IMatch match = reader.evaluate(input, start);
+            if (!match.success() || match.end() <= entry.match.end()) break;
+            entry.match = match;
+        }
+        this.heads.remove(start);
+        return entry.match;
+    }
+
+    private Entry get(IReader reader, int position) {
+        if (this.entries == null) return null;
+        Map<Integer, Entry> column = this.entries.get(reader);
+        return column == null ? null : column.get(position);
+    }
+
+    private void put(IReader reader, int position, Entry entry) {
+        if (this.entries == null) this.entries = new HashMap<>();
+        this.entries.computeIfAbsent(reader, r -> new HashMap<>()).put(position, entry);
+    }
+
+    /** A memoized result, or the recursion computing it. */
+    private static final class Entry {
+        IMatch match;
+        Recursion recursion;
+
+        Entry(IMatch match) {
+            this.match = match;
+        }
+
+        Entry(Recursion recursion) {
+            this.recursion = recursion;
+        }
+    }
+
+    /** A memoized invocation in progress, and its seed if it turns out to be left-recursive. */
+    private static final class Recursion {
+        final AbstractReader reader;
+        final Recursion next;
+        IMatch seed;
+        Head head;
+
+        Recursion(AbstractReader reader, IMatch seed, Recursion next) {
+            this.reader = reader;
+            this.seed = seed;
+            this.next = next;
+        }
+    }
+
+    /** The rule that grows a left recursion, and the rules it goes through. */
+    private static final class Head {
+        final AbstractReader reader;
+        final Set<AbstractReader> involved = new HashSet<>();
+        Set<AbstractReader> evaluate = new HashSet<>();
+
+        Head(AbstractReader reader) {
+            this.reader = reader;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import fr.inria.jfbaget.nanoparse.IMatch;
+import fr.inria.jfbaget.nanoparse.IParser;
+import fr.inria.jfbaget.nanoparse.IReader;
+
+/**
+ * A rule of a monitored grammar: it reads the rule it wraps, and reports
+ * each invocation to its {@link RuleMonitor}.
+ * <p>
+ * A monitored {@link fr.inria.jfbaget.nanoparse.Parser} links its readers to
+ * these wrappers, so that every call of a rule, from the entry point or
+ * from another rule, goes through one. The matches are the ones of the
+ * wrapped reader. For the {@link GrammarAnalysis analyses}, a wrapper is a
+ * rule that only calls the rule it wraps, at its own position: the
+ * left-recursive rules and the dispatch tables of the choices are the ones
+ * of the grammar without monitoring.
+ */
+final class MonitoredReader extends AbstractReader {
+
+    private final IReader delegate;
+    private final RuleMonitor monitor;
+    /** The index of the rule in {@link #monitor}. */
+    private final int rule;
+
+    MonitoredReader(IReader delegate, RuleMonitor monitor) {
+        super(delegate.getName(), false);
+        this.delegate = delegate;
+        this.monitor = monitor;
+        this.rule = monitor.rule(delegate.getName());
+    }
+
+    /** Returns the wrapped reader. */
+    IReader delegate() {
+        return this.delegate;
+    }
+
+    /**
+     * Reads the wrapped rule at {@code start} with {@code read}, instead of
+     * its own {@code read}, and reports it as one invocation of the rule.
+     */
+    IMatch invoke(CharSequence input, int start, Supplier<IMatch> read) {
+        RuleMonitor.Invocations invocations = this.monitor.enter(this.rule, input, start);
+        int end = -1;
+        try {
+            IMatch match = read.get();
+            end = end(match);
+            return match;
+        } finally {
+            invocations.exit(this.rule, start, end);
+        }
+    }
+
+    @Override
+    protected IMatch simpleread(CharSequence input, int start) {
+        RuleMonitor.Invocations invocations = this.monitor.enter(this.rule, input, start);
+        int end = -1;
+        try {
+            IMatch match = AbstractReader.attempt(this.delegate, input, start);
+            end = end(match);
+            return match;
+        } finally {
+            invocations.exit(this.rule, start, end);
+        }
+    }
+
+    @Override
+    int simplerecognize(CharSequence input, int start) {
+        RuleMonitor.Invocations invocations = this.monitor.enter(this.rule, input, start);
+        int end = -1;
+        try {
+            end = this.delegate.recognize(input, start);
+            return end;
+        } finally {
+            invocations.exit(this.rule, start, end);
+        }
+    }
+
+    @Override
+    int simplebuild(CharSequence input, int start, TreeBuilder tree) {
+        RuleMonitor.Invocations invocations = this.monitor.enter(this.rule, input, start);
+        int end = -1;
+        try {
+            end = AbstractReader.build(this.delegate, input, start, tree);
+            return end;
+        } finally {
+            invocations.exit(this.rule, start, end);
+        }
+    }
+
+    /**
+     * Positions the shared failures of the wrapped reader as it would, so
+     * that clients see the same failures with or without monitoring.
+     */
+    @Override
+    IMatch positioned(IMatch match, CharSequence input, int start) {
+        if (this.delegate instanceof AbstractReader) {
+            return ((AbstractReader) this.delegate).positioned(match, input, start);
+        }
+        return match;
+    }
+
+    /** Freezes this wrapper and the wrapped reader. */
+    @Override
+    public void freeze() {
+        this.delegate.freeze();
+        super.freeze();
+    }
+
+    /** Nothing to link: the wrapped reader is linked by the parser. */
+    @Override
+    protected void simpleLink(IParser parser) {}
+
+    @Override
+    boolean isNullable(Predicate<IReader> nullable) {
+        return nullable.test(this.delegate);
+    }
+
+    @Override
+    List<IReader> leftChildren(Predicate<IReader> nullable) {
+        return List.of(this.delegate);
+    }
+}
@@ -3,12 +3,14 @@ package fr.inria.jfbaget.nanoparse.readers;
 
 import fr.inria.jfbaget.nanoparse.IReader;
 import fr.inria.jfbaget.nanoparse.Parser;
+import fr.inria.jfbaget.nanoparse.matches.FlatTree;
 import fr.inria.jfbaget.nanoparse.matches.Match;
 import fr.inria.jfbaget.nanoparse.IMatch;
 import fr.inria.jfbaget.nanoparse.IParser;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Predicate;
 
 /**
  * Reader that makes another rule optional.
@@ -26,8 +28,8 @@ import java.util.List;
  */
 public class OptionalReader extends AbstractReader{
 
-    /** Resolved inner reader. */
-    public IReader reader;
+    /** Resolved inner reader, see {@link #getReader()}. */
+    IReader reader;
     /** Name of the inner rule to make optional (resolved at link time). */
     public final String readerId;
 
@@ -44,13 +46,21 @@ public class OptionalReader extends AbstractReader{
         this.readerId = readerId;
     }
 
+    /**
+     * Returns the resolved inner reader, or {@code null} before this
+     * reader is linked.
+     */
+    public IReader getReader() {
+        return this.reader;
+    }
+
     /**
      * Tries the inner reader at {@code start}. If it succeeds, returns its
      * match. If it fails, returns a successful empty match for this reader.
      */
     @Override
     protected IMatch simpleread(CharSequence input, int start) {
-    	IMatch match = this.reader.read(input, start);
+    	IMatch match = attempt(this.reader, input, start);
     	if (match.success()) {
     		return match;
     	} else {
@@ -59,6 +69,27 @@ public class OptionalReader extends AbstractReader{
     }
 
 
+    /**
+     * An optional rule always succeeds, possibly at {@code start}.
+     */
+    @Override
+    int simplerecognize(CharSequence input, int start) {
+    	int end = this.reader.recognize(input, start);
+    	return end >= 0 ? end : start;
+    }
+
+    /**
+     * Appends the node of the inner reader, or an empty node for this
+     * reader if it fails.
+     */
+    @Override
+    int simplebuild(CharSequence input, int start, TreeBuilder tree) {
+    	int end = build(this.reader, input, start, tree);
+    	if (end >= 0) return end;
+    	tree.leaf(this, FlatTree.MATCH, start, start, -1);
+    	return start;
+    }
+
     /**
      * Resolves the inner reader by name.
      */
@@ -66,5 +97,21 @@ public class OptionalReader extends AbstractReader{
     public void simpleLink(IParser parser) {
     	this.reader = parser.getReader(this.readerId);
     }
-    
+
+    /**
+     * An optional rule always succeeds, possibly on an empty span.
+     */
+    @Override
+    boolean isNullable(Predicate<IReader> nullable) {
+        return true;
+    }
+
+    /**
+     * The inner reader is tried at the start position.
+     */
+    @Override
+    List<IReader> leftChildren(Predicate<IReader> nullable) {
+        return List.of(this.reader);
+    }
+
 }
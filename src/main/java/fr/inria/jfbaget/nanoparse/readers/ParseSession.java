@@ -0,0 +1,217 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The mutable state of a single parse.
+ * <p>
+ * A session is opened by each call of
+ * {@link fr.inria.jfbaget.nanoparse.Parser#read(CharSequence, int, String)}
+ * (and of the other entry points) before the entry rule is invoked, and
+ * closed when the call returns. Everything a parse writes lives in its
+ * session rather than in the readers: the {@link MemoTable} of memoized
+ * readers, the {@link Matcher matchers} of the {@link RegexReader regular
+ * expressions}, and the values of {@link Key keys} that readers or tools
+ * declare for their own needs, such as counters, budgets or buffers. The
+ * readers of a grammar are therefore only read during a parse, and any
+ * number of parses may run on them at once, each with its own session.
+ * <p>
+ * {@link fr.inria.jfbaget.nanoparse.IReader#read(CharSequence, int)} takes no session, so that
+ * readers written against it keep working: a session is bound to the
+ * thread running the parse and to the input it was opened for, and
+ * readers find it with {@link #current()}. Sessions nest, so a reader may
+ * itself start another parse without disturbing the enclosing one.
+ * <p>
+ * A session may be reused for parse after parse, for instance from a pool,
+ * with {@link fr.inria.jfbaget.nanoparse.Parser#read(CharSequence, int, String, ParseSession)}:
+ * it then keeps its matchers (up to {@value #MAX_MATCHERS}) and its memo table. It can only
+ * be open for one parse at a time. Each thread keeps a spare session, that
+ * {@link #open(CharSequence)} reuses unless it is already open.
+ */
+public final class ParseSession {
+
+    private static final ThreadLocal<ParseSession> CURRENT = new ThreadLocal<>();
+
+    /**
+     * The number of matchers a session keeps past {@link #close()}, more
+     * than a grammar usually has regular expressions. A thread that parses
+     * with grammar after grammar keeps no more.
+     */
+    static final int MAX_MATCHERS = 256;
+
+    /** The session {@link #open(CharSequence)} reuses on each thread. */
+    private static final ThreadLocal<ParseSession> SPARE = ThreadLocal.withInitial(ParseSession::new);
+
+    /** The session that was current when this one was opened. */
+    private ParseSession enclosing;
+    /** The input of the parse in progress, {@code null} when closed. */
+    private CharSequence input;
+    private MemoTable memo;
+    /** The values of the keys, by key, created on first use. */
+    private Map<Key<?>, Object> values;
+    /** The matchers of the regular expressions, by pattern, created on first use. */
+    private Map<Pattern, Matcher> matchers;
+
+    /**
+     * Creates a closed session, to be passed to
+     * {@link fr.inria.jfbaget.nanoparse.Parser#read(CharSequence, int, String, ParseSession)}.
+     */
+    public ParseSession() {}
+
+    /**
+     * Opens a session for {@code input} on the current thread: the spare
+     * session of the thread, or a new one if it is open, for a nested
+     * parse. Every call must be paired with a call to {@link #close()}.
+     *
+     * @param input the input about to be parsed
+     * @return the opened session
+     */
+    public static ParseSession open(CharSequence input) {
+        return spare().reopen(input);
+    }
+
+    /**
+     * Returns a closed session of the current thread: its spare session,
+     * or a new one if it is open, for a nested parse.
+     *
+     * @return a closed session
+     */
+    public static ParseSession spare() {
+        ParseSession session = SPARE.get();
+        return session.input == null ? session : new ParseSession();
+    }
+
+    /**
+     * Opens this session for {@code input} on the current thread, clearing
+     * the values of the keys of its previous parse. Every call must be
+     * paired with a call to {@link #close()}.
+     *
+     * @param input the input about to be parsed
+     * @return this session
+     * @throws IllegalStateException if this session is already open
+     */
+    public ParseSession reopen(CharSequence input) {
+        if (this.input != null) throw new IllegalStateException("The session is already open");
+        if (this.values != null) this.values.clear();
+        this.enclosing = CURRENT.get();
+        this.input = input;
+        CURRENT.set(this);
+        return this;
+    }
+
+    /**
+     * Closes this session, discarding its memoized matches and restoring
+     * the session that was current when it was opened. The values of the
+     * keys stay readable until it is opened again. The matchers are kept
+     * for the next parses, unless there are more than {@value #MAX_MATCHERS}
+     * of them.
+     */
+    public void close() {
+        if (this.memo != null) this.memo.clear();
+        if (this.matchers != null && this.matchers.size() > MAX_MATCHERS) this.matchers.clear();
+        this.input = null;
+        if (this.enclosing == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(this.enclosing);
+            this.enclosing = null;
+        }
+    }
+
+    /**
+     * Returns the innermost session open on this thread, or {@code null}
+     * if no parse is in progress.
+     */
+    public static ParseSession current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Returns the session open for {@code input}, or {@code null} if no
+     * parse of that very input is in progress on this thread.
+     */
+    static ParseSession current(CharSequence input) {
+        ParseSession session = CURRENT.get();
+        if (session == null || session.input != input) return null;
+        return session;
+    }
+
+    /**
+     * Returns the input this session is open for, or {@code null} if it is
+     * closed.
+     */
+    public CharSequence input() {
+        return this.input;
+    }
+
+    /**
+     * Returns the value of {@code key} in this session, created by its
+     * initial value supplier on first use since the session was opened.
+     *
+     * @param key the key of the value
+     * @param <T> the type of the value
+     * @return the value of {@code key}
+     */
+    public <T> T get(Key<T> key) {
+        if (this.values == null) this.values = new HashMap<>();
+        Object value = this.values.get(key);
+        if (value == null) {
+            value = key.initial.get();
+            this.values.put(key, value);
+        }
+        return key.type.cast(value);
+    }
+
+    /** Returns the memo table of this session, created on first use. */
+    MemoTable memo() {
+        MemoTable memo = this.memo;
+        if (memo == null) {
+            memo = new MemoTable();
+            this.memo = memo;
+        }
+        return memo;
+    }
+
+    /**
+     * Returns the matcher of {@code pattern} in this session, which its
+     * user must reset once done, since the session keeps it for the next
+     * parses.
+     */
+    Matcher matcher(Pattern pattern) {
+        if (this.matchers == null) this.matchers = new HashMap<>();
+        Matcher matcher = this.matchers.get(pattern);
+        if (matcher == null) {
+            matcher = pattern.matcher("");
+            this.matchers.put(pattern, matcher);
+        }
+        return matcher;
+    }
+
+    /**
+     * A per-parse value of a given type. Keys are compared by identity,
+     * and are typically constants of the reader or tool using them.
+     *
+     * @param <T> the type of the value
+     */
+    public static final class Key<T> {
+        private final Class<T> type;
+        private final Supplier<? extends T> initial;
+
+        /**
+         * Creates a key whose value is built by {@code initial} in every
+         * session that uses it.
+         *
+         * @param type    the type of the value
+         * @param initial builds the initial value, which must not be
+         *                {@code null}
+         */
+        public Key(Class<T> type, Supplier<? extends T> initial) {
+            this.type = type;
+            this.initial = initial;
+        }
+    }
+}
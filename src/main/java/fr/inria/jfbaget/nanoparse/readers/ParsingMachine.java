@@ -0,0 +1,462 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.inria.jfbaget.nanoparse.IMatch;
+import fr.inria.jfbaget.nanoparse.IReader;
+import fr.inria.jfbaget.nanoparse.matches.ListMatch;
+import fr.inria.jfbaget.nanoparse.matches.Match;
+
+/**
+ * Runs a linked grammar on a parsing machine, in the style of LPeg.
+ * <p>
+ * The reader graph is lowered once into a flat array of instructions
+ * ({@code CHAR}, {@code CALL}, {@code CHOICE}, {@code COMMIT}, {@code FAIL},
+ * and capture instructions building the matches), which a single loop then
+ * executes. Rule invocations and backtrack points live on an explicit stack
+ * instead of the Java stack, so deeply nested inputs do not overflow it, and
+ * there is no virtual dispatch between rules.
+ * <p>
+ * The machine returns exactly the same {@link IMatch} trees as the
+ * interpreter: matches are built by the readers themselves (through their
+ * {@code makeMatch} methods), from the matches of their children kept on a
+ * value stack. Failures are only materialized for the entry rule, since
+ * parent readers never look at the failed matches of their children.
+ * <p>
+ * The readers of this package are lowered as long as they keep their own
+ * matching logic (see {@link GrammarAnalysis#behavesAs}) and do not override
+ * {@link IReader#read(CharSequence, int)}. Regular expressions
+ * and base types, memoized readers (including the left-recursive ones, see
+ * {@link MemoTable}), the {@code "skip"} rule, and any other reader are
+ * executed as single {@code TOKEN} instructions calling
+ * {@link IReader#read(CharSequence, int)}. The machine snapshots the linked
+ * reader graph: readers must not be re-configured after lowering.
+ * <p>
+ * A machine holds no per-parse state and can be shared between threads, as
+ * long as its readers can.
+ */
+public final class ParsingMachine implements GrammarCompiler.Rules {
+
+    /** Stops the machine, the result being on the value stack. */
+    private static final int HALT = 0;
+    /** Matches the character {@code arg}. */
+    private static final int CHAR = 1;
+    /** Reads reader {@code arg} through {@link IReader#read}, pushing its match. */
+    private static final int TOKEN = 2;
+    /** Applies skip reader {@code arg}, then starts the current rule at the new position. */
+    private static final int SKIP = 3;
+    /** Invokes the rule at address {@code arg}. */
+    private static final int CALL = 4;
+    /** Returns from the current rule. */
+    private static final int RET = 5;
+    /** Pushes a backtrack point resuming at address {@code arg}. */
+    private static final int CHOICE = 6;
+    /** Pops the last backtrack point, then jumps to address {@code arg}. */
+    private static final int COMMIT = 7;
+    /** Backtracks to the last backtrack point. */
+    private static final int FAIL = 8;
+    /** Pops the top of the value stack. */
+    private static final int DROP = 9;
+    /**
+     * Checks that repetition {@code arg} has not reached its maximum, or
+     * jumps to the target of the {@code CHOICE} that follows.
+     */
+    private static final int LIMIT = 10;
+    /** Captures the current literal, reader {@code arg}. */
+    private static final int STRING = 11;
+    /** Captures the current sequence, reader {@code arg}. */
+    private static final int SEQUENCE = 12;
+    /** Captures the empty success of an optional, reader {@code arg}. */
+    private static final int EMPTY = 13;
+    /** Captures the empty success of a repetition, reader {@code arg}. */
+    private static final int EMPTYLIST = 14;
+    /** Captures a separator and an element, for repetition {@code arg}. */
+    private static final int PAIR = 15;
+    /** Captures the current repetition, reader {@code arg}, or fails below its minimum. */
+    private static final int REPETITION = 16;
+
+    /** Stack entry kinds. */
+    private static final byte FRAME = 0;
+    private static final byte BACKTRACK = 1;
+
+    private final IReader[] readers;
+    private final Map<IReader, Integer> indices = new HashMap<>();
+
+    /** How each reader is run: {@link #TOKEN}, or the instruction characteristic of its rule. */
+    private final int[] kinds;
+
+    /** The address of each lowered rule, {@code -1} for tokens. */
+    private final int[] entries;
+
+    /** Instructions, as (opcode, argument) pairs. */
+    private int[] code = new int[64];
+    private int size = 0;
+
+    private ParsingMachine(List<IReader> readers) {
+        this.readers = readers.toArray(new IReader[0]);
+        this.kinds = new int[this.readers.length];
+        this.entries = new int[this.readers.length];
+        for (int i = 0; i < this.readers.length; i++) {
+            this.indices.put(this.readers[i], i);
+            this.kinds[i] = kind(this.readers[i]);
+        }
+    }
+
+    /**
+     * Lowers a linked grammar into a parsing machine.
+     *
+     * @param readers all the readers of the grammar; every reader they refer
+     *                to (including {@code "skip"}) must be in this list
+     * @return the machine, whose rules are indexed as {@code readers}
+     */
+    public static ParsingMachine lower(List<IReader> readers) {
+        ParsingMachine machine = new ParsingMachine(readers);
+        machine.emit(HALT, 0);
+        for (int i = 0; i < machine.readers.length; i++) {
+            machine.entries[i] = machine.kinds[i] == TOKEN ? -1 : machine.lowerRule(i);
+        }
+        for (int pc = 0; pc < machine.size; pc += 2) {
+            if (machine.code[pc] == CALL) machine.code[pc + 1] = machine.entries[machine.code[pc + 1]];
+        }
+        machine.code = Arrays.copyOf(machine.code, machine.size);
+        return machine;
+    }
+
+    // ------------------------------------------------------------------
+    // Lowering
+    // ------------------------------------------------------------------
+
+    private static int kind(IReader reader) {
+        if (reader.isMemoized() || GrammarAnalysis.overridesRead(reader)) return TOKEN;
+        if (GrammarAnalysis.behavesAs(reader, StringReader.class)) return STRING;
+        if (GrammarAnalysis.behavesAs(reader, SequenceReader.class)) return SEQUENCE;
+        if (GrammarAnalysis.behavesAs(reader, ChoiceReader.class)) return CHOICE;
+        if (GrammarAnalysis.behavesAs(reader, OptionalReader.class)) return EMPTY;
+        if (GrammarAnalysis.behavesAs(reader, RepetitionReader.class)) {
+            RepetitionReader repetition = (RepetitionReader) reader;
+            // storing a missing separator throws in the interpreter, let it do so
+            if (!repetition.storeSep || repetition.separator != null) return REPETITION;
+        }
+        return TOKEN;
+    }
+
+    private int lowerRule(int i) {
+        AbstractReader reader = (AbstractReader) this.readers[i];
+        int entry = this.size;
+        if (reader.requiresSkip()) this.emit(SKIP, this.index(reader.skipReader()));
+        switch (this.kinds[i]) {
+            case STRING:
+                for (char c : ((StringReader) reader).pattern.toCharArray()) this.emit(CHAR, c);
+                this.emit(STRING, i);
+                break;
+            case SEQUENCE:
+                for (IReader child : ((SequenceReader) reader).readers) this.emitCall(child);
+                this.emit(SEQUENCE, i);
+                break;
+            case CHOICE:
+                this.lowerChoice((ChoiceReader) reader);
+                break;
+            case EMPTY: {
+                int choice = this.emit(CHOICE, 0);
+                this.emitCall(((OptionalReader) reader).reader);
+                int commit = this.emit(COMMIT, 0);
+                this.patch(choice, this.emit(EMPTY, i));
+                this.patch(commit, this.size);
+                break;
+            }
+            default:
+                this.lowerRepetition(i, (RepetitionReader) reader);
+        }
+        this.emit(RET, 0);
+        return entry;
+    }
+
+    private void lowerChoice(ChoiceReader reader) {
+        List<IReader> alternatives = reader.readers;
+        if (alternatives.isEmpty()) {
+            this.emit(FAIL, 0);
+            return;
+        }
+        List<Integer> commits = new ArrayList<>();
+        for (int k = 0; k < alternatives.size() - 1; k++) {
+            int choice = this.emit(CHOICE, 0);
+            this.emitCall(alternatives.get(k));
+            commits.add(this.emit(COMMIT, 0));
+            this.patch(choice, this.size);
+        }
+        this.emitCall(alternatives.get(alternatives.size() - 1));
+        for (int commit : commits) this.patch(commit, this.size);
+    }
+
+    /**
+     * Lowers a repetition as {@link RepetitionReader#simpleread}: the first
+     * element, then separator/element pairs while they match and the
+     * maximum is not reached. As in the interpreter, a second element is
+     * attempted even when the maximum is one.
+     */
+    private void lowerRepetition(int i, RepetitionReader reader) {
+        if (reader.max == 0) {
+            this.emit(EMPTYLIST, i);
+            return;
+        }
+        int choice = this.emit(CHOICE, 0);
+        this.emitCall(reader.reader);
+        int commit = this.emit(COMMIT, 0);
+        this.patch(choice, this.size);
+        if (reader.min == 0) {
+            this.emit(EMPTYLIST, i);
+            this.emit(RET, 0);
+        } else {
+            this.emit(FAIL, 0);
+        }
+        this.patch(commit, this.size);
+        if (reader.max == 1 && reader.subReaderWhenOne) return;
+        int loop = this.size;
+        if (reader.max > 1) this.emit(LIMIT, i);
+        choice = this.emit(CHOICE, 0);
+        if (reader.separator != null) {
+            this.emitCall(reader.separator);
+            if (!reader.storeSep) this.emit(DROP, 0);
+        }
+        this.emitCall(reader.reader);
+        if (reader.storeSep) this.emit(PAIR, i);
+        commit = this.emit(COMMIT, reader.max > 1 ? loop : 0);
+        int done = this.emit(REPETITION, i);
+        this.patch(choice, done);
+        if (reader.max == 1) this.patch(commit, done);
+    }
+
+    private void emitCall(IReader reader) {
+        int index = this.index(reader);
+        this.emit(this.kinds[index] == TOKEN ? TOKEN : CALL, index);
+    }
+
+    private int index(IReader reader) {
+        Integer index = this.indices.get(reader);
+        if (index == null) {
+            throw new IllegalArgumentException("Reader " + reader.getName() + " is not part of the lowered grammar");
+        }
+        return index;
+    }
+
+    private int emit(int opcode, int argument) {
+        if (this.size + 2 > this.code.length) this.code = Arrays.copyOf(this.code, 2 * this.code.length);
+        this.code[this.size] = opcode;
+        this.code[this.size + 1] = argument;
+        this.size += 2;
+        return this.size - 2;
+    }
+
+    private void patch(int instruction, int address) {
+        this.code[instruction + 1] = address;
+    }
+
+    // ------------------------------------------------------------------
+    // Execution
+    // ------------------------------------------------------------------
+
+    /**
+     * Runs a rule of the grammar.
+     *
+     * @param rule  the index of the rule, in the list given to {@link #lower(List)}
+     * @param input the character sequence to parse
+     * @param start the index at which to start matching
+     * @return the same {@link IMatch} as {@code readers.get(rule).read(input, start)}
+     */
+    @Override
+    public IMatch read(int rule, CharSequence input, int start) {
+        if (this.kinds[rule] == TOKEN) return this.readers[rule].read(input, start);
+        IMatch match = new Execution(input).run(this.entries[rule], start);
+        return match != null ? match : this.failure(rule, input, start);
+    }
+
+    /** The failed match the interpreter returns for {@code rule} at {@code start}. */
+    private IMatch failure(int rule, CharSequence input, int start) {
+        AbstractReader reader = (AbstractReader) this.readers[rule];
+        return reader.makeFailure(reader.requiresSkip() ? reader.skip(input, start) : start);
+    }
+
+    /**
+     * The state of one run of the machine: registers, the stack of rule
+     * frames and backtrack points, and the value stack.
+     */
+    private final class Execution {
+        private final CharSequence input;
+        private final int length;
+
+        private byte[] types = new byte[32];
+        /** Return address of a frame, resume address of a backtrack point. */
+        private int[] addresses = new int[32];
+        /** Start of a frame (after skip), saved position of a backtrack point. */
+        private int[] positions = new int[32];
+        /** Value stack height at the entry of a frame or at a backtrack point. */
+        private int[] marks = new int[32];
+        /** Enclosing frame of a frame, current frame of a backtrack point. */
+        private int[] frames = new int[32];
+        private int top = -1;
+
+        private IMatch[] values = new IMatch[32];
+        private int height = 0;
+
+        Execution(CharSequence input) {
+            this.input = input;
+            this.length = input.length();
+        }
+
+        /** Runs the rule at {@code entry}, returning its match or {@code null} if it fails. */
+        IMatch run(int entry, int start) {
+            final int[] code = ParsingMachine.this.code;
+            final IReader[] readers = ParsingMachine.this.readers;
+            int pc = entry;
+            int pos = start;
+            int frame = this.push(FRAME, 0, pos, 0, -1);
+            while (true) {
+                int arg = code[pc + 1];
+                switch (code[pc]) {
+                    case HALT:
+                        return this.values[0];
+                    case CHAR:
+                        if (pos < this.length && this.input.charAt(pos) == arg) {
+                            pos++;
+                            pc += 2;
+                            continue;
+                        }
+                        break;
+                    case TOKEN: {
+                        IMatch match = AbstractReader.attempt(readers[arg], this.input, pos);
+                        if (match.success()) {
+                            this.value(match);
+                            pos = match.end();
+                            pc += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    case SKIP: {
+                        int end = readers[arg].recognize(this.input, pos);
+                        if (end >= 0) pos = end;
+                        this.positions[frame] = pos;
+                        pc += 2;
+                        continue;
+                    }
+                    case CALL:
+                        frame = this.push(FRAME, pc + 2, pos, this.height, frame);
+                        pc = arg;
+                        continue;
+                    case RET:
+                        pc = this.addresses[frame];
+                        frame = this.frames[frame];
+                        this.top--;
+                        continue;
+                    case CHOICE:
+                        this.push(BACKTRACK, arg, pos, this.height, frame);
+                        pc += 2;
+                        continue;
+                    case COMMIT:
+                        this.top--;
+                        pc = arg;
+                        continue;
+                    case FAIL:
+                        break;
+                    case DROP:
+                        this.values[--this.height] = null;
+                        pc += 2;
+                        continue;
+                    case LIMIT:
+                        pc = this.height - this.marks[frame] < ((RepetitionReader) readers[arg]).max ? pc + 2 : code[pc + 3];
+                        continue;
+                    case STRING: {
+                        StringReader reader = (StringReader) readers[arg];
+                        this.value(reader.makeMatch(this.positions[frame], pos, true, reader.pattern));
+                        pc += 2;
+                        continue;
+                    }
+                    case SEQUENCE: {
+                        List<IMatch> result = this.collect(this.marks[frame]);
+                        this.value(((SequenceReader) readers[arg]).makeMatch(this.positions[frame], pos, true, result));
+                        pc += 2;
+                        continue;
+                    }
+                    case EMPTY: {
+                        int s = this.positions[frame];
+                        this.value(new Match<>(readers[arg], s, s, true, null));
+                        pc += 2;
+                        continue;
+                    }
+                    case EMPTYLIST: {
+                        int s = this.positions[frame];
+                        this.value(new ListMatch(readers[arg], s, s, true, null));
+                        pc += 2;
+                        continue;
+                    }
+                    case PAIR: {
+                        IMatch match = this.values[--this.height];
+                        IMatch separator = this.values[--this.height];
+                        // the pair starts where the pending backtrack point was taken
+                        this.value(new ListMatch(readers[arg], this.positions[this.top], match.end(), true, List.of(separator, match)));
+                        pc += 2;
+                        continue;
+                    }
+                    case REPETITION: {
+                        RepetitionReader reader = (RepetitionReader) readers[arg];
+                        int count = this.height - this.marks[frame];
+                        if (count < reader.min) break;
+                        if (count > 1 || !reader.subReaderWhenOne) {
+                            List<IMatch> result = this.collect(this.marks[frame]);
+                            this.value(new ListMatch(reader, this.positions[frame], pos, true, result));
+                        }
+                        pc += 2;
+                        continue;
+                    }
+                    default:
+                        throw new IllegalStateException("Unknown instruction " + code[pc] + " at " + pc);
+                }
+                // failure: unwind to the last backtrack point
+                while (this.top >= 0 && this.types[this.top] != BACKTRACK) this.top--;
+                if (this.top < 0) return null;
+                pc = this.addresses[this.top];
+                pos = this.positions[this.top];
+                frame = this.frames[this.top];
+                while (this.height > this.marks[this.top]) this.values[--this.height] = null;
+                this.top--;
+            }
+        }
+
+        private int push(byte kind, int address, int position, int mark, int frame) {
+            if (++this.top == this.types.length) {
+                int capacity = 2 * this.types.length;
+                this.types = Arrays.copyOf(this.types, capacity);
+                this.addresses = Arrays.copyOf(this.addresses, capacity);
+                this.positions = Arrays.copyOf(this.positions, capacity);
+                this.marks = Arrays.copyOf(this.marks, capacity);
+                this.frames = Arrays.copyOf(this.frames, capacity);
+            }
+            this.types[this.top] = kind;
+            this.addresses[this.top] = address;
+            this.positions[this.top] = position;
+            this.marks[this.top] = mark;
+            this.frames[this.top] = frame;
+            return this.top;
+        }
+
+        private void value(IMatch match) {
+            if (this.height == this.values.length) this.values = Arrays.copyOf(this.values, 2 * this.height);
+            this.values[this.height++] = match;
+        }
+
+        /** Pops the values above {@code mark} into a list. */
+        private List<IMatch> collect(int mark) {
+            List<IMatch> result = new ArrayList<>(this.height - mark);
+            for (int k = mark; k < this.height; k++) {
+                result.add(this.values[k]);
+                this.values[k] = null;
+            }
+            this.height = mark;
+            return result;
+        }
+    }
+}
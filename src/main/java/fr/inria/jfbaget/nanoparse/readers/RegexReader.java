@@ -1,14 +1,18 @@
 package fr.inria.jfbaget.nanoparse.readers;
 
 
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
+import fr.inria.jfbaget.nanoparse.ByteInput;
 import fr.inria.jfbaget.nanoparse.IMatch;
 import fr.inria.jfbaget.nanoparse.IParser;
+import fr.inria.jfbaget.nanoparse.IReader;
 import fr.inria.jfbaget.nanoparse.Parser;
 import fr.inria.jfbaget.nanoparse.matches.Match;
+import fr.inria.jfbaget.nanoparse.matches.SpanStringMatch;
 import fr.inria.jfbaget.nanoparse.matches.StringMatch;
 
 /**
@@ -29,6 +33,16 @@ public class RegexReader extends AbstractReader {
     /** Compiled regular expression pattern. */
     public final Pattern pattern;
 
+    /** Whether {@link #scanEnd(CharSequence, int)} agrees with the {@link #scan(CharSequence, int)} in use. */
+    private final boolean scansEnd;
+
+    /** Whether {@link #makeMatch(int, int, boolean, String)} is the one of this class, which does not need the text. */
+    private final boolean spanMatches;
+
+    /** Whether the pattern matches the bytes of a {@link ByteInput} as the characters they encode. */
+    private final boolean readsBytes;
+
+
     /**
      * Creates a new {@code RegexReader}.
      *
@@ -41,27 +55,158 @@ public class RegexReader extends AbstractReader {
     public RegexReader(String identifier, String pattern, boolean skip) throws PatternSyntaxException {
         super(identifier, skip);
         this.pattern = Pattern.compile(pattern);
+        this.scansEnd = GrammarAnalysis.declaringClass(this.getClass(), "scan")
+                == GrammarAnalysis.declaringClass(this.getClass(), "scanEnd");
+        this.spanMatches = GrammarAnalysis.declaringClass(this.getClass(), "makeMatch",
+                int.class, int.class, boolean.class, String.class) == RegexReader.class;
+        this.readsBytes = readsBytes(this.pattern);
+    }
+
+    /**
+     * Tells whether {@code pattern} matches the UTF-8 bytes of a text as
+     * it matches its characters: the pattern must be ASCII and only match
+     * ASCII characters one at a time. Constructs that may match one
+     * non-ASCII character ({@code .}, negated classes and their shorthands,
+     * Unicode properties, escaped code points) or depend on Unicode
+     * ({@code \b}, the {@code u} and {@code U} flags) are rejected, even
+     * where they would be harmless.
+     */
+    static boolean readsBytes(Pattern pattern) {
+        if ((pattern.flags() & (Pattern.UNICODE_CASE | Pattern.UNICODE_CHARACTER_CLASS | Pattern.CANON_EQ)) != 0) {
+            return false;
+        }
+        String regex = pattern.pattern();
+        if ((pattern.flags() & Pattern.LITERAL) != 0) return regex.chars().allMatch(c -> c < CharSet.ASCII);
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c >= CharSet.ASCII || c == '.') return false;
+            if (c == '\\') {
+                if (++i < regex.length() && "WSDBbHVXRpPuxN0".indexOf(regex.charAt(i)) >= 0) return false;
+            } else if (c == '[') {
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '^') return false;
+            } else if (c == '(' && i + 1 < regex.length() && regex.charAt(i + 1) == '?') {
+                for (int j = i + 2; j < regex.length() && (Character.isLetter(regex.charAt(j)) || regex.charAt(j) == '-'); j++) {
+                    if (Character.toLowerCase(regex.charAt(j)) == 'u') return false;
+                }
+            }
+        }
+        return true;
     }
 
     /**
      * Attempts to match the compiled pattern starting at {@code start}.
      * <ul>
-     *   <li>On success, returns a {@link StringMatch} with
-     *       {@code success == true} and span {@code [start, matcher.end())},
-     *       where the result is {@code matcher.group(0)}.</li>
-     *   <li>On failure, returns a {@link StringMatch} with
-     *       {@code success == false} and {@code start == end == start}.</li>
+     *   <li>On success, returns the match built by {@link #scan(CharSequence, int)},
+     *       by default a {@link SpanStringMatch} with {@code success == true} and span
+     *       {@code [start, matcher.end())}, whose result is the matched text.</li>
+     *   <li>On failure, returns the shared failure of this reader, a
+     *       {@link StringMatch} with {@code success == false}.</li>
      * </ul>
      */
     @Override
     protected IMatch simpleread(CharSequence input, int start) {
-    	Matcher matcher = this.pattern.matcher(input).region(start, input.length());
-        if (matcher.lookingAt()) {
-            return this.makeMatch(start, matcher.end(), true, matcher.group(0));
+    	IMatch match = this.scan(input, start);
+        if (match != null) {
+            return match;
         }
         else {
-            return new StringMatch(this, start, start, false, null);
+            return this.failure();
+        }
+    }
+
+    /**
+     * Returns the end of the match with {@link #scanEnd(CharSequence, int)},
+     * or with {@link #scan(CharSequence, int)} if a subclass overrides the
+     * latter only.
+     */
+    @Override
+    int simplerecognize(CharSequence input, int start) {
+        if (!this.scansEnd) {
+            IMatch match = this.scan(input, start);
+            return match == null ? -1 : match.end();
         }
+        return this.scanEnd(input, start);
+    }
+
+    /**
+     * Failures are empty {@link StringMatch} instances.
+     */
+    @Override
+    IMatch makeFailure(int position) {
+        return new StringMatch(this, position, position, false, null);
+    }
+
+    /**
+     * Matches the pattern at {@code start}, returning the successful match,
+     * or {@code null} if the pattern does not match there.
+     * <p>
+     * This default implementation finds the end of the match with
+     * {@link #scanEnd(CharSequence, int)} and builds the match with
+     * {@link #makeMatch(CharSequence, int, int)}.
+     * Subclasses may override it with a scanner that does not go through
+     * {@code java.util.regex}, as the base types do; such a scanner must
+     * accept exactly the language of {@link #pattern}, which the grammar
+     * analyses keep relying on.
+     *
+     * @param input the character sequence to parse
+     * @param start the index at which to start matching (after skip)
+     * @return the successful match, or {@code null}
+     */
+    protected IMatch scan(CharSequence input, int start) {
+        int end = this.scanEnd(input, start);
+        return end < 0 ? null : this.makeMatch(input, start, end);
+    }
+
+    /**
+     * Returns the end of the match that {@link #scan(CharSequence, int)}
+     * would return, or {@code -1}, without building it. Used to recognize
+     * the input (see {@link IReader#recognize(CharSequence, int)}).
+     * <p>
+     * This default implementation runs {@link Matcher#lookingAt()} on a
+     * matcher kept by the current {@link ParseSession}, and so does not
+     * allocate during a parse.
+     * On a {@link ByteInput}, the matcher runs on the bytes if the pattern
+     * cannot tell them from characters, and otherwise on the decoded
+     * text, the end of the match being mapped back to a byte offset.
+     * Subclasses that override {@code scan} should override this method
+     * as well; otherwise {@code scan} is used. Scanners that override it
+     * are given the bytes of a {@code ByteInput} as they are.
+     *
+     * @param input the character sequence to parse
+     * @param start the index at which to start matching (after skip)
+     * @return the end of the match, or {@code -1}
+     */
+    protected int scanEnd(CharSequence input, int start) {
+        if (!this.readsBytes && input instanceof ByteInput) return this.scanDecoded((ByteInput) input, start);
+        Matcher matcher = this.matcher().reset(input).region(start, input.length());
+        int end = matcher.lookingAt() ? matcher.end() : -1;
+        // do not keep the input reachable from the session
+        matcher.reset("");
+        return end;
+    }
+
+    /**
+     * Runs the pattern on the decoded text of {@code input}, from the
+     * character starting at byte {@code start}. Fails if {@code start} is
+     * within the encoding of a character.
+     */
+    private int scanDecoded(ByteInput input, int start) {
+        int from = input.index(start);
+        if (input.offset(from) != start) return -1;
+        CharSequence text = input.decoded();
+        Matcher matcher = this.matcher().reset(text).region(from, text.length());
+        int end = matcher.lookingAt() ? input.offset(matcher.end()) : -1;
+        matcher.reset("");
+        return end;
+    }
+
+    /**
+     * Returns the matcher of the pattern kept by the current session, or a
+     * new one outside of a parse.
+     */
+    private Matcher matcher() {
+        ParseSession session = ParseSession.current();
+        return session == null ? this.pattern.matcher("") : session.matcher(this.pattern);
     }
 
     /**
@@ -73,6 +218,18 @@ public class RegexReader extends AbstractReader {
     	
     }
 
+    /**
+     * Builds the successful match of the text of {@code input} between
+     * {@code start} and {@code end}. Unless a subclass overrides
+     * {@link #makeMatch(int, int, boolean, String)}, to which the text is
+     * then given, the match is a {@link SpanStringMatch}, that only copies
+     * the text if it is asked for.
+     */
+    protected IMatch makeMatch(CharSequence input, int start, int end) {
+        if (this.spanMatches) return new SpanStringMatch(this, start, end, input);
+        return this.makeMatch(start, end, true, input.subSequence(start, end).toString());
+    }
+
     /**
      * Factory method for creating a successful {@link StringMatch}.
      * Must be called only in the success case.
@@ -80,5 +237,28 @@ public class RegexReader extends AbstractReader {
     protected IMatch makeMatch(int start, int end, boolean success, String result) {
     	return new StringMatch(this, start, end, success, result);
     }
-    
+
+    /**
+     * A regular expression is considered nullable if it matches the
+     * empty input.
+     */
+    @Override
+    boolean isNullable(Predicate<IReader> nullable) {
+        return this.pattern.matcher("").lookingAt();
+    }
+
+    /**
+     * An ASCII character may start a match if the pattern matches it, or
+     * needs more input to decide (see {@link Matcher#hitEnd()}). Other
+     * characters are conservatively assumed to start a match.
+     */
+    @Override
+    void addLeadingChars(CharSet chars) {
+        for (char c = 0; c < CharSet.ASCII; c++) {
+            Matcher matcher = this.pattern.matcher(String.valueOf(c));
+            if (matcher.lookingAt() || matcher.hitEnd()) chars.add(c);
+        }
+        chars.addOthers();
+    }
+
 }
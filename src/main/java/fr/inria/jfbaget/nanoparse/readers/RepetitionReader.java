@@ -3,10 +3,12 @@ package fr.inria.jfbaget.nanoparse.readers;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Predicate;
 
 import fr.inria.jfbaget.nanoparse.IMatch;
 import fr.inria.jfbaget.nanoparse.IParser;
 import fr.inria.jfbaget.nanoparse.IReader;
+import fr.inria.jfbaget.nanoparse.matches.FlatTree;
 import fr.inria.jfbaget.nanoparse.matches.ListMatch;
 
 /**
@@ -36,14 +38,14 @@ import fr.inria.jfbaget.nanoparse.matches.ListMatch;
  */
 public class RepetitionReader extends AbstractReader{
 
-	/** Resolved element reader. */
-	public IReader reader;
+	/** Resolved element reader, see {@link #getReader()}. */
+	IReader reader;
 	/** Name of the element rule, resolved at link time. */
-	public String readerId;
+	public final String readerId;
 	/** Name of the separator rule, resolved at link time (may be null). */
-	public String separatorId;
-	/** Resolved separator reader (may be null if {@link #separatorId} is null). */
-	public IReader separator;
+	public final String separatorId;
+	/** Resolved separator reader, see {@link #getSeparator()}. */
+	IReader separator;
 	/** Minimum number of repetitions required for success. */
 	public final int min;
 	/** Maximum number of repetitions allowed (0 means "always empty"). */
@@ -60,6 +62,12 @@ public class RepetitionReader extends AbstractReader{
 	 */
 	public final boolean storeSep;
 
+	/** Whether {@link #readSepAndElem} is the default one, that positions can mirror. */
+	private final boolean defaultPairs;
+
+	/** Whether the reads of this class are in use, that {@link ChunkedRepetition} mirrors. */
+	private final boolean chunkable;
+
 	/**
 	 * Creates a {@code RepetitionReader} with full control over behaviour.
 	 *
@@ -83,8 +91,28 @@ public class RepetitionReader extends AbstractReader{
         this.max = max;
 		this.subReaderWhenOne = subReaderWhenOne;
 		this.storeSep = storeSep;
+		this.defaultPairs = GrammarAnalysis.declaringClass(this.getClass(), "readSepAndElem") == RepetitionReader.class;
+		this.chunkable = this.defaultPairs
+				&& GrammarAnalysis.declaringClass(this.getClass(), "simpleread") == RepetitionReader.class
+				&& GrammarAnalysis.declaringClass(this.getClass(), "read", CharSequence.class, int.class) == AbstractReader.class;
     }
 
+	/**
+	 * Returns the resolved element reader, or {@code null} before this
+	 * repetition is linked.
+	 */
+	public IReader getReader() {
+		return this.reader;
+	}
+
+	/**
+	 * Returns the resolved separator reader, or {@code null} if there is
+	 * no separator or before this repetition is linked.
+	 */
+	public IReader getSeparator() {
+		return this.separator;
+	}
+
 	/**
 	 * Convenience constructor with default {@code subReaderWhenOne = false}
 	 * and {@code storeSep = false}.
@@ -118,12 +146,12 @@ public class RepetitionReader extends AbstractReader{
 			positionsep = start;
 			sepresult = true;
 		} else {
-			smatch = this.separator.read(input, start);
+			smatch = attempt(this.separator, input, start);
 			positionsep = smatch.end();
 			sepresult = smatch.success();
 		}
 		if (sepresult) {
-			match = this.reader.read(input, positionsep);
+			match = attempt(this.reader, input, positionsep);
 			if (match.success()) {
 				if (this.storeSep) return new ListMatch(this, start, match.end(), true, List.of(smatch, match));
 				else return match;
@@ -142,16 +170,17 @@ public class RepetitionReader extends AbstractReader{
     protected IMatch simpleread(CharSequence input, int start) {
 		if (this.max == 0) return new ListMatch(this, start, start, true, null);
 		int position = start;
-    	IMatch firstMatch = this.reader.read(input, start);
+    	IMatch firstMatch = attempt(this.reader, input, start);
     	boolean loop = firstMatch.success();
     	if (loop) position = firstMatch.end();
-		else return new ListMatch(this, start, start, this.min == 0, null);
+		else if (this.min > 0) return this.failure();
+		else return new ListMatch(this, start, start, true, null);
     
 		if (this.max == 1 && this.subReaderWhenOne) return firstMatch;
 
 		IMatch nextMatch = this.readSepAndElem(input, position);
 		if (nextMatch == null) {
-			if (this.min > 1) return new ListMatch(this, start, start, false, null);
+			if (this.min > 1) return this.failure();
 			if (this.subReaderWhenOne) return firstMatch;
 			List<IMatch> result = new ArrayList<>();
 			result.add(firstMatch);
@@ -172,8 +201,130 @@ public class RepetitionReader extends AbstractReader{
 		if (result.size() >= this.min) {
     		return new ListMatch(this, start, position, true, result);
     	} else {
-    		return new ListMatch(this, start, start, false, null);
+    		return this.failure();
+    	}
+    }
+
+    /**
+     * Counts the elements as {@link #simpleread} does, without building
+     * their matches.
+     */
+    @Override
+    int simplerecognize(CharSequence input, int start) {
+		if (!this.defaultPairs) return super.simplerecognize(input, start);
+		if (this.max == 0) return start;
+		int position = this.reader.recognize(input, start);
+		if (position < 0) return this.min == 0 ? start : -1;
+		if (this.max == 1 && this.subReaderWhenOne) return position;
+
+		// as simpleread, a second element is looked for even if max == 1
+		int next = this.recognizeSepAndElem(input, position);
+		if (next < 0) return this.min > 1 ? -1 : position;
+		int count = 2;
+		position = next;
+		while (count < this.max) {
+			next = this.recognizeSepAndElem(input, position);
+			if (next < 0) break;
+			position = next;
+			count++;
+		}
+		return count >= this.min ? position : -1;
+    }
+
+    /**
+     * Whether the repetition can be read by chunks: its reads are the ones
+     * of this class, and it reads at least two elements, each after a
+     * separator if it stores them.
+     */
+    boolean chunkable() {
+    	return this.chunkable && this.max >= 2 && !(this.storeSep && this.separatorId == null);
+    }
+
+    /** Recognizes a separator and an element, as {@link #readSepAndElem}. */
+    private int recognizeSepAndElem(CharSequence input, int start) {
+    	int position = start;
+    	if (this.separatorId != null) {
+    		position = this.separator.recognize(input, start);
+    		if (position < 0) return -1;
+    	}
+    	return this.reader.recognize(input, position);
+    }
+
+    /**
+     * Appends the node of this repetition as {@link #simpleread} builds its
+     * match: a list of the elements, or of [separator, element] pairs, or
+     * the node of a single element. Once the repetition can no longer fail
+     * nor be unwrapped, its node is {@linkplain TreeBuilder#commit committed},
+     * so that its elements are reported to a listener as they are read.
+     */
+    @Override
+    int simplebuild(CharSequence input, int start, TreeBuilder tree) {
+		if (!this.defaultPairs || this.storeSep && this.separatorId == null) return super.simplebuild(input, start, tree);
+		if (this.max == 0) {
+			tree.leaf(this, FlatTree.LIST, start, start, 0);
+			return start;
+		}
+		int node = tree.open(this, FlatTree.LIST, start, 1);
+		int position = build(this.reader, input, start, tree);
+		if (position < 0) {
+			tree.abort(node);
+			if (this.min > 0) return -1;
+			tree.leaf(this, FlatTree.LIST, start, start, 0);
+			return start;
+		}
+		if (this.max == 1 && this.subReaderWhenOne) {
+			tree.close(node, position);
+			tree.extract(node, 0);
+			return position;
+		}
+		int committing = Math.max(this.min, this.subReaderWhenOne ? 2 : 1);
+		if (committing <= 1) tree.commit(node);
+		int next = this.buildSepAndElem(input, position, tree);
+		if (next < 0) {
+			if (this.min > 1) return tree.abort(node);
+			tree.close(node, position);
+			if (this.subReaderWhenOne) tree.extract(node, 0);
+			return position;
+		}
+		int count = 2;
+		position = next;
+		if (count >= committing) tree.commit(node);
+		while (count < this.max) {
+			next = this.buildSepAndElem(input, position, tree);
+			if (next < 0) break;
+			position = next;
+			count++;
+			if (count >= committing) tree.commit(node);
+		}
+		if (count < this.min) return tree.abort(node);
+		tree.close(node, position);
+		return position;
+    }
+
+    /** Appends a separator and an element, as {@link #readSepAndElem}. */
+    private int buildSepAndElem(CharSequence input, int start, TreeBuilder tree) {
+    	if (this.storeSep) {
+    		int pair = tree.open(this, FlatTree.LIST, start, 1);
+    		int position = build(this.separator, input, start, tree);
+    		if (position >= 0) position = build(this.reader, input, position, tree);
+    		if (position < 0) return tree.abort(pair);
+    		tree.close(pair, position);
+    		return position;
+    	}
+    	int position = start;
+    	if (this.separatorId != null) {
+    		position = this.separator.recognize(input, start);
+    		if (position < 0) return -1;
     	}
+    	return build(this.reader, input, position, tree);
+    }
+
+    /**
+     * Failures are empty {@link ListMatch} instances.
+     */
+    @Override
+    IMatch makeFailure(int position) {
+    	return new ListMatch(this, position, position, false, null);
     }
 
 	/**
@@ -186,4 +337,26 @@ public class RepetitionReader extends AbstractReader{
     		this.separator = parser.getReader(this.separatorId);
     	}
     }
+
+    /**
+     * A repetition is nullable if it accepts no element at all, or if its
+     * element (and, when two elements are required, its separator) is.
+     */
+    @Override
+    boolean isNullable(Predicate<IReader> nullable) {
+        if (this.min == 0 || this.max == 0) return true;
+        if (!nullable.test(this.reader)) return false;
+        return this.min == 1 || this.separator == null || nullable.test(this.separator);
+    }
+
+    /**
+     * The element, followed by the separator if the element is nullable.
+     */
+    @Override
+    List<IReader> leftChildren(Predicate<IReader> nullable) {
+        if (this.max == 0) return List.of();
+        if (this.separator != null && nullable.test(this.reader)) return List.of(this.reader, this.separator);
+        return List.of(this.reader);
+    }
+
 }
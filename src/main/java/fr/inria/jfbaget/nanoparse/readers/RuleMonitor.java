@@ -0,0 +1,106 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.inria.jfbaget.nanoparse.IReader;
+
+/**
+ * Observes every rule invocation of a grammar, for instance to profile it
+ * ({@link RuleProfiler}) or to find where it backtracks
+ * ({@link BacktrackTracker}).
+ * <p>
+ * Monitoring is opt-in: a grammar is monitored when its
+ * {@link fr.inria.jfbaget.nanoparse.Parser#Parser(List, RuleMonitor) parser}
+ * is given a monitor, which wraps each of its readers when they are linked
+ * (see {@link #wrap(IReader)}). A parser built without one has no wrapper,
+ * and so pays nothing. A monitored parser reads as the interpreter does,
+ * and returns the same matches.
+ * <p>
+ * The wrappers are called before the {@link MemoTable} is looked up: the
+ * invocations of memoized rules include the ones answered from the table.
+ */
+public abstract class RuleMonitor {
+
+    /** The indices of the rules, by name. */
+    private final Map<String, Integer> rules = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    /** Only the monitors of this package can be wrapped around rules. */
+    RuleMonitor() {}
+
+    /**
+     * Returns a reader that reads {@code reader} and reports its
+     * invocations to this monitor. Called by
+     * {@link fr.inria.jfbaget.nanoparse.Parser} for each of its readers,
+     * before linking them: the readers then call each other through their
+     * wrappers.
+     *
+     * @param reader the reader to monitor
+     * @return a reader of the same name and matches
+     */
+    public final IReader wrap(IReader reader) {
+        return new MonitoredReader(reader, this);
+    }
+
+    /**
+     * Returns the reader {@code reader} wraps, if it was returned by
+     * {@link #wrap(IReader)}, and {@code reader} otherwise.
+     */
+    public static IReader unwrap(IReader reader) {
+        return reader instanceof MonitoredReader ? ((MonitoredReader) reader).delegate() : reader;
+    }
+
+    /**
+     * Returns the index of the rule called {@code name}, registering it on
+     * first use. Rules of the same name in several parsers share their
+     * index.
+     */
+    final synchronized int rule(String name) {
+        Integer rule = this.rules.get(name);
+        if (rule == null) {
+            rule = this.names.size();
+            this.rules.put(name, rule);
+            this.names.add(name);
+        }
+        return rule;
+    }
+
+    /**
+     * Returns the index of the rule called {@code name}, or {@code -1} if
+     * no such rule is monitored.
+     */
+    final synchronized int indexOf(String name) {
+        Integer rule = this.rules.get(name);
+        return rule == null ? -1 : rule;
+    }
+
+    /** Returns the name of the rule of index {@code rule}. */
+    final synchronized String name(int rule) {
+        return this.names.get(rule);
+    }
+
+    /** Returns the names of the rules, by index. */
+    final synchronized List<String> names() {
+        return new ArrayList<>(this.names);
+    }
+
+    /**
+     * Starts an invocation of {@code rule} at {@code start} in
+     * {@code input}, and returns what must be given its end.
+     */
+    abstract Invocations enter(int rule, CharSequence input, int start);
+
+    /**
+     * The invocations in progress, on the thread that started them.
+     */
+    interface Invocations {
+        /**
+         * Ends the innermost invocation, of {@code rule} at {@code start},
+         * which ended at {@code end}, or failed if {@code end} is negative.
+         */
+        void exit(int rule, int start, int end);
+    }
+}
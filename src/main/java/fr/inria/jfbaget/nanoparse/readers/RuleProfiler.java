@@ -0,0 +1,345 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Records, for each rule of a grammar, how often it is invoked, how often
+ * it succeeds, how many characters it consumes, the time spent in it and
+ * how deeply it recurses.
+ * <p>
+ * A grammar is profiled when its
+ * {@link fr.inria.jfbaget.nanoparse.Parser#Parser(List, RuleMonitor) parser}
+ * is given a profiler (see {@link RuleMonitor}); each rule invocation then
+ * costs two calls of {@link System#nanoTime()}. For each rule, the profiler
+ * records:
+ * <ul>
+ *   <li>its invocations, its successes and its failures,</li>
+ *   <li>the characters consumed by its successes, skipped blanks
+ *       included,</li>
+ *   <li>its inclusive time, spent in the rule and in the rules it calls,
+ *       counted once for recursive invocations,</li>
+ *   <li>its exclusive time, spent in the rule itself,</li>
+ *   <li>its maximum recursion depth, the number of its invocations in
+ *       progress at once on a thread.</li>
+ * </ul>
+ * The invocations of memoized rules include the ones answered from the
+ * {@link MemoTable}, whose time is that of the lookup. The counters
+ * accumulate over the parses, on every thread, until {@link #reset()};
+ * {@link #snapshot()} returns them, and {@link #report()} formats them as a
+ * table sorted by exclusive time. Both are exact once the parses have
+ * returned: each thread counts its invocations on its own, and adds them
+ * to the totals of the profiler when its outermost invocation returns.
+ */
+public final class RuleProfiler extends RuleMonitor {
+
+    /** The counters of the invocations that returned, guarded by this profiler. */
+    private final Counts totals = new Counts();
+    /** The counters of the invocations in progress on each thread. */
+    private final ThreadLocal<Counters> counters = ThreadLocal.withInitial(Counters::new);
+
+    /**
+     * Creates a profiler with no rule, to be given to a
+     * {@link fr.inria.jfbaget.nanoparse.Parser#Parser(List, RuleMonitor) parser}.
+     */
+    public RuleProfiler() {}
+
+    @Override
+    Counters enter(int rule, CharSequence input, int start) {
+        Counters counters = this.counters.get();
+        counters.enter(rule);
+        return counters;
+    }
+
+    /**
+     * Sets every counter to zero. Must not be called while profiled parses
+     * are running.
+     */
+    public void reset() {
+        synchronized (this.totals) {
+            this.totals.grow(0);
+        }
+    }
+
+    /**
+     * Returns the counters of every rule, summed over the threads.
+     */
+    public Snapshot snapshot() {
+        List<String> names = this.names();
+        int size = names.size();
+        Counts counts = new Counts();
+        counts.grow(size);
+        synchronized (this.totals) {
+            for (int rule = 0; rule < Math.min(size, this.totals.invocations.length); rule++) {
+                counts.add(this.totals, rule);
+            }
+        }
+        List<RuleStats> stats = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            stats.add(new RuleStats(names.get(i), counts.invocations[i], counts.successes[i], counts.consumed[i],
+                    counts.inclusive[i], counts.exclusive[i], counts.maxDepth[i]));
+        }
+        stats.sort(Comparator.comparingLong((RuleStats rule) -> rule.exclusive).reversed()
+                .thenComparing(Comparator.comparingLong((RuleStats rule) -> rule.invocations).reversed())
+                .thenComparing(rule -> rule.name));
+        return new Snapshot(stats);
+    }
+
+    /**
+     * Returns the report of the current {@link #snapshot()}.
+     */
+    public String report() {
+        return this.snapshot().report();
+    }
+
+    /**
+     * Adds the counters of the rules {@code counters} counted to the
+     * totals, and sets them to zero.
+     */
+    private void merge(Counters counters) {
+        synchronized (this.totals) {
+            if (this.totals.invocations.length < counters.invocations.length) {
+                this.totals.grow(counters.invocations.length);
+            }
+            for (int i = 0; i < counters.touched; i++) {
+                this.totals.add(counters, counters.rules[i]);
+            }
+        }
+        for (int i = 0; i < counters.touched; i++) {
+            counters.clear(counters.rules[i]);
+        }
+        counters.touched = 0;
+    }
+
+    /**
+     * Counters indexed by rule.
+     */
+    private static class Counts {
+        long[] invocations = new long[0];
+        long[] successes = new long[0];
+        long[] consumed = new long[0];
+        long[] inclusive = new long[0];
+        long[] exclusive = new long[0];
+        int[] maxDepth = new int[0];
+
+        /** Resizes the counters to {@code size} rules, the new ones at zero. */
+        void grow(int size) {
+            this.invocations = Arrays.copyOf(this.invocations, size);
+            this.successes = Arrays.copyOf(this.successes, size);
+            this.consumed = Arrays.copyOf(this.consumed, size);
+            this.inclusive = Arrays.copyOf(this.inclusive, size);
+            this.exclusive = Arrays.copyOf(this.exclusive, size);
+            this.maxDepth = Arrays.copyOf(this.maxDepth, size);
+        }
+
+        /** Adds the counters of {@code rule} in {@code other} to these. */
+        void add(Counts other, int rule) {
+            this.invocations[rule] += other.invocations[rule];
+            this.successes[rule] += other.successes[rule];
+            this.consumed[rule] += other.consumed[rule];
+            this.inclusive[rule] += other.inclusive[rule];
+            this.exclusive[rule] += other.exclusive[rule];
+            this.maxDepth[rule] = Math.max(this.maxDepth[rule], other.maxDepth[rule]);
+        }
+
+        /** Sets the counters of {@code rule} to zero. */
+        void clear(int rule) {
+            this.invocations[rule] = 0;
+            this.successes[rule] = 0;
+            this.consumed[rule] = 0;
+            this.inclusive[rule] = 0;
+            this.exclusive[rule] = 0;
+            this.maxDepth[rule] = 0;
+        }
+    }
+
+    /**
+     * The counters of the invocations in progress on a thread, and their
+     * stack, added to the totals when the outermost one returns.
+     */
+    final class Counters extends Counts implements Invocations {
+        private int[] depth = new int[0];
+        /** The rules invoked since the last merge, in {@code rules[0..touched[}. */
+        private int[] rules = new int[16];
+        private int touched;
+        /** The start time of each invocation in progress, innermost last. */
+        private long[] started = new long[64];
+        /** The time spent in the rules called by each invocation in progress. */
+        private long[] children = new long[64];
+        private int top;
+
+        void enter(int rule) {
+            if (rule >= this.invocations.length) this.grow(rule + 1);
+            if (this.invocations[rule]++ == 0) {
+                if (this.touched == this.rules.length) this.rules = Arrays.copyOf(this.rules, 2 * this.touched);
+                this.rules[this.touched++] = rule;
+            }
+            if (++this.depth[rule] > this.maxDepth[rule]) this.maxDepth[rule] = this.depth[rule];
+            if (this.top == this.started.length) {
+                this.started = Arrays.copyOf(this.started, 2 * this.top);
+                this.children = Arrays.copyOf(this.children, 2 * this.top);
+            }
+            this.children[this.top] = 0;
+            this.started[this.top++] = System.nanoTime();
+        }
+
+        @Override
+        public void exit(int rule, int start, int end) {
+            long elapsed = System.nanoTime() - this.started[--this.top];
+            this.exclusive[rule] += elapsed - this.children[this.top];
+            if (this.top > 0) this.children[this.top - 1] += elapsed;
+            // the time of recursive invocations is already in the outermost one
+            if (--this.depth[rule] == 0) this.inclusive[rule] += elapsed;
+            if (end >= 0) {
+                this.successes[rule]++;
+                this.consumed[rule] += end - start;
+            }
+            if (this.top == 0) RuleProfiler.this.merge(this);
+        }
+
+        @Override
+        void grow(int size) {
+            super.grow(size);
+            this.depth = Arrays.copyOf(this.depth, size);
+        }
+    }
+
+    /**
+     * The counters of every rule of a {@link RuleProfiler} at some point.
+     */
+    public static final class Snapshot {
+        private final List<RuleStats> rules;
+
+        private Snapshot(List<RuleStats> rules) {
+            this.rules = Collections.unmodifiableList(rules);
+        }
+
+        /**
+         * Returns the counters of every rule, by decreasing exclusive time.
+         */
+        public List<RuleStats> rules() {
+            return this.rules;
+        }
+
+        /**
+         * Returns the counters of the rule called {@code name}, or
+         * {@code null} if no such rule was profiled.
+         */
+        public RuleStats rule(String name) {
+            for (RuleStats rule : this.rules) {
+                if (rule.name.equals(name)) return rule;
+            }
+            return null;
+        }
+
+        /**
+         * Returns the counters of the rules that were invoked, as a table
+         * sorted by decreasing exclusive time, whose last column is the
+         * share of the exclusive time of all rules.
+         */
+        public String report() {
+            long total = 0;
+            int width = "rule".length();
+            for (RuleStats rule : this.rules) {
+                total += rule.exclusive;
+                width = Math.max(width, rule.name.length());
+            }
+            String format = "%-" + width + "s %12s %12s %12s %14s %12s %12s %6s %7s%n";
+            StringBuilder report = new StringBuilder(String.format(Locale.ROOT, format,
+                    "rule", "invocations", "successes", "failures", "consumed", "incl. ms", "excl. ms", "depth", "excl. %"));
+            for (RuleStats rule : this.rules) {
+                if (rule.invocations == 0) continue;
+                report.append(String.format(Locale.ROOT, format, rule.name, rule.invocations, rule.successes,
+                        rule.failures(), rule.consumed, millis(rule.inclusive), millis(rule.exclusive), rule.maxDepth,
+                        String.format(Locale.ROOT, "%.1f", total == 0 ? 0.0 : 100.0 * rule.exclusive / total)));
+            }
+            return report.toString();
+        }
+
+        private static String millis(long nanos) {
+            return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+        }
+
+        /** Returns the {@link #report()}. */
+        @Override
+        public String toString() {
+            return this.report();
+        }
+    }
+
+    /**
+     * The counters of a rule in a {@link Snapshot}.
+     */
+    public static final class RuleStats {
+        private final String name;
+        private final long invocations;
+        private final long successes;
+        private final long consumed;
+        private final long inclusive;
+        private final long exclusive;
+        private final int maxDepth;
+
+        private RuleStats(String name, long invocations, long successes, long consumed, long inclusive,
+                          long exclusive, int maxDepth) {
+            this.name = name;
+            this.invocations = invocations;
+            this.successes = successes;
+            this.consumed = consumed;
+            this.inclusive = inclusive;
+            this.exclusive = exclusive;
+            this.maxDepth = maxDepth;
+        }
+
+        /** Returns the name of the rule. */
+        public String name() {
+            return this.name;
+        }
+
+        /** Returns the number of invocations of the rule. */
+        public long invocations() {
+            return this.invocations;
+        }
+
+        /** Returns the number of invocations that succeeded. */
+        public long successes() {
+            return this.successes;
+        }
+
+        /** Returns the number of invocations that failed. */
+        public long failures() {
+            return this.invocations - this.successes;
+        }
+
+        /** Returns the number of characters consumed by the successes. */
+        public long consumed() {
+            return this.consumed;
+        }
+
+        /** Returns the time spent in the rule and in the rules it called. */
+        public Duration inclusiveTime() {
+            return Duration.ofNanos(this.inclusive);
+        }
+
+        /** Returns the time spent in the rule itself. */
+        public Duration exclusiveTime() {
+            return Duration.ofNanos(this.exclusive);
+        }
+
+        /** Returns the largest number of invocations of the rule in progress at once on a thread. */
+        public int maxDepth() {
+            return this.maxDepth;
+        }
+
+        @Override
+        public String toString() {
+            return this.name + ": " + this.invocations + " invocations, " + this.successes + " successes, "
+                    + this.consumed + " characters, " + this.inclusiveTime().toNanos() + "ns inclusive, "
+                    + this.exclusiveTime().toNanos() + "ns exclusive, depth " + this.maxDepth;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package fr.inria.jfbaget.nanoparse.readers;
 
 import fr.inria.jfbaget.nanoparse.IReader;
 import fr.inria.jfbaget.nanoparse.Parser;
+import fr.inria.jfbaget.nanoparse.matches.FlatTree;
 import fr.inria.jfbaget.nanoparse.matches.ListMatch;
 import fr.inria.jfbaget.nanoparse.matches.ObjectMatch;
 import fr.inria.jfbaget.nanoparse.matches.StringMatch;
@@ -11,9 +12,13 @@ import fr.inria.jfbaget.nanoparse.IParser;
 
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import org.json.JSONArray;
@@ -27,7 +32,7 @@ import org.json.JSONTokener;
  * into the next. If any inner reader fails, the whole sequence fails with an
  * empty match (span {@code [start, start)} and {@code result == null}).
  * <p>
- * The {@link #patternType} controls how the list of sub-matches is turned into
+ * The constructor used controls how the list of sub-matches is turned into
  * the final {@link IMatch}:
  * <ul>
  *   <li>{@link #RETURN_ALL}: return all sub-matches as a {@link ListMatch}.</li>
@@ -46,29 +51,42 @@ import org.json.JSONTokener;
  */
 public class SequenceReader extends AbstractReader{
 
-    public List<IReader> readers;
-    public List<String> readerIds;
+    /** Resolved inner readers, see {@link #getReaders()}. */
+    List<IReader> readers;
+    /** Names of the inner readers, see {@link #getReaderIds()}. */
+    List<String> readerIds;
 
 	/** How to build the result from the list of sub-matches. */
-    public int patternType = RETURN_ALL;
+    int patternType = RETURN_ALL;
 
 	/** Index of the single sub-match to return when {@link #patternType} is EXTRACT_ONE. */
-    public int singleReturn = -1;
+    int singleReturn = -1;
 
 	/** Indices of the sub-matches to keep when {@link #patternType} is EXTRACT_SOME. */
-    public List<Integer> manyReturns;
+    List<Integer> manyReturns;
 
 	/**
 	 * Map from sub-match index to field name when {@link #patternType} is MAKE_OBJECT.
 	 * Keys are indices into {@link #readers}, values are field names.
 	 */
-    public Map<Integer, String> objectReturns;
+    Map<Integer, String> objectReturns;
     
     private static final int EXTRACT_ONE = 0;
     private static final int RETURN_ALL = 1;
     private static final int EXTRACT_SOME = 2;
     private static final int MAKE_OBJECT = 3;
 
+    /** Whether {@link #makeMatch} is the one of this class, which {@link #simplebuild} follows. */
+    private final boolean defaultMatches = GrammarAnalysis.declaringClass(this.getClass(), "makeMatch",
+            int.class, int.class, boolean.class, List.class) == SequenceReader.class;
+
+    /**
+     * The indices of the kept sub-matches, and the field names of an object
+     * in the same order, computed at link time for {@link #simplebuild}.
+     */
+    private int[] selection;
+    private String[] keys;
+
 
 	/**
 	 * Creates a sequence that returns all its sub-matches.
@@ -126,11 +144,50 @@ public class SequenceReader extends AbstractReader{
 		this.objectReturns = extracted;
     }
 
+	/**
+	 * Returns the resolved inner readers, in order, or {@code null} before
+	 * the sequence is linked.
+	 */
+    public List<IReader> getReaders() {
+    	return this.readers == null ? null : Collections.unmodifiableList(this.readers);
+    }
+
+	/**
+	 * Returns the names of the inner readers, in order.
+	 */
+    public List<String> getReaderIds() {
+    	return Collections.unmodifiableList(this.readerIds);
+    }
+
+	/**
+	 * Returns the index of the sub-match this sequence returns, or
+	 * {@code -1} if it does not return a single sub-match.
+	 */
+    public int getSingleReturn() {
+    	return this.singleReturn;
+    }
+
+	/**
+	 * Returns the indices of the sub-matches this sequence returns as a
+	 * list, or {@code null} if it does not return such a list.
+	 */
+    public List<Integer> getManyReturns() {
+    	return this.manyReturns == null ? null : Collections.unmodifiableList(this.manyReturns);
+    }
+
+	/**
+	 * Returns the field names of the sub-matches this sequence returns as
+	 * an object, by index, or {@code null} if it does not return an object.
+	 */
+    public Map<Integer, String> getObjectReturns() {
+    	return this.objectReturns == null ? null : Collections.unmodifiableMap(this.objectReturns);
+    }
+
 	/**
 	 * Applies each inner reader in order, threading the position.
 	 * <ul>
-	 *   <li>On the first failure, returns a failed {@link ListMatch} with
-	 *       {@code start == end == start}.</li>
+	 *   <li>On the first failure, returns the shared failure of this
+	 *       reader, a failed {@link ListMatch}.</li>
 	 *   <li>If all readers succeed, delegates to {@link #makeMatch(int, int, boolean, List)}
 	 *       to build the final result according to {@link #patternType}.</li>
 	 * </ul>
@@ -142,18 +199,65 @@ public class SequenceReader extends AbstractReader{
     	int position = start;
     	for (IReader reader : this.readers) {
     		//System.out.println("reading " + reader.getName());
-    		IMatch match = reader.read(input, position);
+    		IMatch match = attempt(reader, input, position);
     		if (match.success()) {
     			result.add(match);
     			position = match.end();
     		}
     		else {
-    			return new ListMatch(this, start, start, false, null);
+    			return this.failure();
     		}
     	}
         return this.makeMatch(start, position, true, result);
     }
 
+    /**
+     * Failures are empty {@link ListMatch} instances, whatever
+     * {@link #patternType}.
+     */
+    @Override
+    IMatch makeFailure(int position) {
+    	return new ListMatch(this, position, position, false, null);
+    }
+
+	/**
+	 * Threads the position through the inner readers, without building
+	 * their matches.
+	 */
+	@Override
+	int simplerecognize(CharSequence input, int start) {
+		int position = start;
+		for (int i = 0; i < this.readers.size(); i++) {
+			position = this.readers.get(i).recognize(input, position);
+			if (position < 0) return -1;
+		}
+		return position;
+	}
+
+	/**
+	 * Appends the node of this sequence to {@code tree}, its children being
+	 * the nodes of the inner readers, then keeps the ones selected by
+	 * {@link #patternType}, as {@link #makeMatch} does.
+	 */
+	@Override
+	int simplebuild(CharSequence input, int start, TreeBuilder tree) {
+		if (!this.defaultMatches || this.patternType == MAKE_OBJECT && this.keys == null) {
+			return super.simplebuild(input, start, tree);
+		}
+		int node = this.patternType == MAKE_OBJECT
+				? tree.open(this, FlatTree.OBJECT, start, tree.constant(this.keys))
+				: tree.open(this, FlatTree.LIST, start, 1);
+		int position = start;
+		for (int i = 0; i < this.readers.size(); i++) {
+			position = build(this.readers.get(i), input, position, tree);
+			if (position < 0) return tree.abort(node);
+		}
+		tree.close(node, position);
+		if (this.patternType == EXTRACT_ONE) tree.extract(node, this.singleReturn);
+		else if (this.selection != null) tree.select(node, this.selection);
+		return position;
+	}
+
 	/**
 	 * Builds the final match for this sequence, based on {@link #patternType}.
 	 * <ul>
@@ -163,7 +267,7 @@ public class SequenceReader extends AbstractReader{
 	 *   <li>{@link #EXTRACT_SOME}: return a {@link ListMatch} over selected
 	 *       sub-matches.</li>
 	 *   <li>{@link #MAKE_OBJECT}: return an {@link ObjectMatch} mapping field
-	 *       names to selected sub-matches.</li>
+	 *       names to selected sub-matches, in the order of the sequence.</li>
 	 * </ul>
 	 */
     protected IMatch makeMatch(int start, int end, boolean success, List<IMatch> result) {
@@ -181,9 +285,14 @@ public class SequenceReader extends AbstractReader{
     		return new ListMatch(this, start, end, success, newResult);
     	}
     	case MAKE_OBJECT: {
-    		Map<String, IMatch> newResult = new HashMap<>();
-    		for (Map.Entry<Integer, String> entry : this.objectReturns.entrySet()) {
-    			newResult.put(entry.getValue(), result.get(entry.getKey()));
+    		// fields in the order of the sequence, as parse reports them
+    		Map<String, IMatch> newResult = new LinkedHashMap<>();
+    		if (this.keys != null) {
+    			for (int i = 0; i < this.keys.length; i++) newResult.put(this.keys[i], result.get(this.selection[i]));
+    		} else {
+    			for (Map.Entry<Integer, String> entry : new TreeMap<>(this.objectReturns).entrySet()) {
+    				newResult.put(entry.getValue(), result.get(entry.getKey()));
+    			}
     		}
     		return new ObjectMatch(this, start, end, success, newResult);
     	}
@@ -191,6 +300,18 @@ public class SequenceReader extends AbstractReader{
     		return new ListMatch(this, start, end, success, result);
     	}
    
+    }
+
+	/**
+	 * Makes the lists and the map of this sequence unmodifiable copies.
+	 */
+    @Override
+    public void freeze() {
+    	this.readers = List.copyOf(this.readers);
+    	this.readerIds = List.copyOf(this.readerIds);
+    	if (this.manyReturns != null) this.manyReturns = List.copyOf(this.manyReturns);
+    	if (this.objectReturns != null) this.objectReturns = Collections.unmodifiableMap(new LinkedHashMap<>(this.objectReturns));
+    	super.freeze();
     }
 
 	/**
@@ -202,5 +323,41 @@ public class SequenceReader extends AbstractReader{
     	for (String readerId : this.readerIds) {
     		this.readers.add(parser.getReader(readerId));
     	}
+    	this.selection = null;
+    	this.keys = null;
+    	if (this.patternType == EXTRACT_SOME) {
+    		this.selection = this.manyReturns.stream().mapToInt(Integer::intValue).toArray();
+    	} else if (this.patternType == MAKE_OBJECT
+    			&& new HashSet<>(this.objectReturns.values()).size() == this.objectReturns.size()) {
+    		// fields in the order of the sequence; a name given twice keeps the read path
+    		this.selection = this.objectReturns.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+    		this.keys = new String[this.selection.length];
+    		for (int i = 0; i < this.selection.length; i++) this.keys[i] = this.objectReturns.get(this.selection[i]);
+    	}
     }
+
+    /**
+     * A sequence is nullable if all its inner readers are.
+     */
+    @Override
+    boolean isNullable(Predicate<IReader> nullable) {
+        for (IReader reader : this.readers) {
+            if (!nullable.test(reader)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The inner readers up to, and including, the first non-nullable one.
+     */
+    @Override
+    List<IReader> leftChildren(Predicate<IReader> nullable) {
+        List<IReader> children = new ArrayList<>();
+        for (IReader reader : this.readers) {
+            children.add(reader);
+            if (!nullable.test(reader)) break;
+        }
+        return children;
+    }
+
 }
@@ -1,7 +1,10 @@
 package fr.inria.jfbaget.nanoparse.readers;
 
 
+import java.util.function.Predicate;
+
 import fr.inria.jfbaget.nanoparse.IParser;
+import fr.inria.jfbaget.nanoparse.IReader;
 import fr.inria.jfbaget.nanoparse.Parser;
 import fr.inria.jfbaget.nanoparse.matches.Match;
 import fr.inria.jfbaget.nanoparse.matches.StringMatch;
@@ -42,9 +45,9 @@ public class StringReader extends AbstractReader {
      * <ul>
      *   <li>On success, returns a {@link StringMatch} with
      *       {@code success == true} and span {@code [start, start + pattern.length())}.</li>
-     *   <li>On failure (input too short or mismatch), returns a
-     *       {@link StringMatch} with {@code success == false} and
-     *       {@code start == end == start}.</li>
+     *   <li>On failure (input too short or mismatch), returns the shared
+     *       failure of this reader, a {@link StringMatch} built by
+     *       {@link #makeMatch} with {@code success == false}.</li>
      * </ul>
      */
     @Override
@@ -52,13 +55,11 @@ public class StringReader extends AbstractReader {
     	int length = this.pattern.length();
         int end = start + length;
         if (input.length() < end) {
-        	return this.makeMatch(start, start, false, null);
-        			//new StringMatch(this, start, start, false, null);
+        	return (StringMatch) this.failure();
         }
         for (int i = 0; i < length; i++) {
         	if(input.charAt(start + i) != this.pattern.charAt(i)) {
-        		return this.makeMatch(start, start, false, null);
-        				//new StringMatch(this, start, start, false, null);
+        		return (StringMatch) this.failure();
         	}	
         }
         return this.makeMatch(start, end, true, this.pattern);
@@ -72,6 +73,28 @@ public class StringReader extends AbstractReader {
     @Override
     protected void simpleLink(IParser parser) {}
 
+    /**
+     * Compares the pattern without building the match.
+     */
+    @Override
+    int simplerecognize(CharSequence input, int start) {
+    	int length = this.pattern.length();
+        int end = start + length;
+        if (input.length() < end) return -1;
+        for (int i = 0; i < length; i++) {
+        	if (input.charAt(start + i) != this.pattern.charAt(i)) return -1;
+        }
+        return end;
+    }
+
+    /**
+     * Failures are built by {@link #makeMatch}, as successes.
+     */
+    @Override
+    StringMatch makeFailure(int position) {
+    	return this.makeMatch(position, position, false, null);
+    }
+
     /**
      * Factory method for creating the corresponding {@link StringMatch}.
      * Subclasses could override this if they want to specialise the match type.
@@ -80,5 +103,20 @@ public class StringReader extends AbstractReader {
     	return new StringMatch(this, start, end, success, result);
     }
 
-}
+    /**
+     * A literal is nullable only if it is the empty string.
+     */
+    @Override
+    boolean isNullable(Predicate<IReader> nullable) {
+        return this.pattern.isEmpty();
+    }
 
+    /**
+     * A literal starts with its first character.
+     */
+    @Override
+    void addLeadingChars(CharSet chars) {
+        if (!this.pattern.isEmpty()) chars.add(this.pattern.charAt(0));
+    }
+
+}
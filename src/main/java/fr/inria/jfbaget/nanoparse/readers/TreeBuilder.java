@@ -0,0 +1,581 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.inria.jfbaget.nanoparse.IMatch;
+import fr.inria.jfbaget.nanoparse.IParseListener;
+import fr.inria.jfbaget.nanoparse.IReader;
+import fr.inria.jfbaget.nanoparse.matches.BoolMatch;
+import fr.inria.jfbaget.nanoparse.matches.FlatTree;
+import fr.inria.jfbaget.nanoparse.matches.FloatMatch;
+import fr.inria.jfbaget.nanoparse.matches.IntMatch;
+import fr.inria.jfbaget.nanoparse.matches.ListMatch;
+import fr.inria.jfbaget.nanoparse.matches.Match;
+import fr.inria.jfbaget.nanoparse.matches.ObjectMatch;
+import fr.inria.jfbaget.nanoparse.matches.SpanStringMatch;
+import fr.inria.jfbaget.nanoparse.matches.StringMatch;
+
+/**
+ * Builds a {@link FlatTree} while the readers parse.
+ * <p>
+ * The readers of this package append their nodes directly (see
+ * {@link AbstractReader#simplebuild}): a composite reader {@linkplain #open opens}
+ * its node, builds its children, which are appended as children of the
+ * innermost open node, then {@linkplain #close closes} it, or
+ * {@linkplain #abort aborts} it if a child fails, which removes the node and
+ * everything appended since. A reader that fails therefore leaves the
+ * builder as it found it. Other readers are read, and their matches are
+ * {@linkplain #add added} node by node.
+ * <p>
+ * Nodes removed from their parent's children by {@link #extract} or
+ * {@link #select} stay in the arrays until {@link #finish()}, which copies
+ * the reachable nodes in preorder.
+ * <h3>Events</h3>
+ * A builder may instead report the nodes to an {@link IParseListener}, and
+ * drop them, as soon as they can no longer be removed. A reader
+ * {@linkplain #commit commits} its open node once it cannot fail nor be
+ * replaced by a child anymore, as a repetition that reached its minimum;
+ * a committed node whose ancestors are all committed is entered, and its
+ * children are reported as they complete. Other nodes are reported when
+ * the parse succeeds.
+ */
+public final class TreeBuilder {
+
+    private final CharSequence input;
+
+    /** Rule identifiers. */
+    private final Map<IReader, Integer> ids = new IdentityHashMap<>();
+    private final List<IReader> rules = new ArrayList<>();
+
+    private int size = 0;
+    private int[] rule = new int[64];
+    private byte[] kind = new byte[64];
+    private int[] start = new int[64];
+    private int[] end = new int[64];
+    private int[] first = new int[64];
+    private int[] next = new int[64];
+    private int[] value = new int[64];
+    /** Last child of a node, previous sibling of a node: only used while building. */
+    private int[] last = new int[64];
+    private int[] previous = new int[64];
+
+    private Object[] objects = new Object[16];
+    private int objectCount = 0;
+    private final Map<Object, Integer> constants = new IdentityHashMap<>();
+
+    /** The open nodes, innermost last. */
+    private int[] open = new int[16];
+    private int depth = 0;
+
+    /** The listener to report nodes to, or {@code null} to build a tree. */
+    private final IParseListener listener;
+    /** The number of outermost open nodes that are committed, and were entered. */
+    private int committed = 0;
+
+    private TreeBuilder(CharSequence input, IParseListener listener) {
+        this.input = input;
+        this.listener = listener;
+    }
+
+    /**
+     * Parses {@code input} with {@code reader} into a {@link FlatTree}.
+     * Memoized readers use the {@link MemoTable} of the session currently
+     * open for {@code input}, if any.
+     *
+     * @param reader the entry rule
+     * @param input  the character sequence to parse
+     * @param start  the index at which to start matching
+     * @return the tree of the match, or a failed tree holding the failed
+     *         match {@code reader.read(input, start)} returns
+     */
+    public static FlatTree read(IReader reader, CharSequence input, int start) {
+        TreeBuilder tree = new TreeBuilder(input, null);
+        if (AbstractReader.build(reader, input, start, tree) < 0) {
+            // failures are rare at the root: read again to get the exact failed match
+            return FlatTree.failed(input, reader.read(input, start));
+        }
+        return tree.finish();
+    }
+
+    /**
+     * Parses {@code input} with {@code reader}, reporting the nodes of the
+     * match to {@code listener} instead of building a tree. Memoized readers
+     * use the {@link MemoTable} of the session currently open for
+     * {@code input}, if any.
+     *
+     * @param reader   the entry rule
+     * @param input    the character sequence to parse
+     * @param start    the index at which to start matching
+     * @param listener the listener to notify
+     * @return the end of the successful match, or {@code -1}
+     */
+    public static int parse(IReader reader, CharSequence input, int start, IParseListener listener) {
+        TreeBuilder tree = new TreeBuilder(input, listener);
+        int end = AbstractReader.build(reader, input, start, tree);
+        // a committed root was reported when it was closed
+        if (end >= 0 && tree.size > 0) tree.emit(0);
+        return end;
+    }
+
+    // ------------------------------------------------------------------
+    // Building
+    // ------------------------------------------------------------------
+
+    /**
+     * Appends a node without children, as a child of the innermost open
+     * node.
+     *
+     * @return the node
+     */
+    int leaf(IReader reader, byte kind, int start, int end, int value) {
+        int node = this.node(reader, kind, start, end, value);
+        if (this.depth > 0) {
+            int parent = this.open[this.depth - 1];
+            int last = this.last[parent];
+            if (last < 0) this.first[parent] = node;
+            else this.next[last] = node;
+            this.previous[node] = last;
+            this.last[parent] = node;
+        }
+        return node;
+    }
+
+    /**
+     * Appends a node, to which the next nodes are appended until it is
+     * closed or aborted.
+     *
+     * @return the node
+     */
+    int open(IReader reader, byte kind, int start, int value) {
+        int node = this.leaf(reader, kind, start, start, value);
+        if (this.depth == this.open.length) this.open = Arrays.copyOf(this.open, 2 * this.depth);
+        this.open[this.depth++] = node;
+        return node;
+    }
+
+    /** Closes the innermost open node, {@code node}, at {@code end}. */
+    void close(int node, int end) {
+        this.end[node] = end;
+        if (this.committed == this.depth) {
+            this.flush(node);
+            this.listener.exitRule(this.rules.get(this.rule[node]).getName(), this.start[node], end);
+            this.committed--;
+            this.depth--;
+            this.truncate(node);
+            return;
+        }
+        this.depth--;
+    }
+
+    /**
+     * Tells that the innermost open node, {@code node}, will be closed with
+     * the children it has, and the ones still to be appended, which the
+     * caller must guarantee. If its ancestors are committed as well, the
+     * node is entered, and its children are reported and dropped, which
+     * {@link #close} then keeps doing.
+     */
+    void commit(int node) {
+        if (this.listener == null) return;
+        if (this.committed == this.depth - 1) {
+            this.committed++;
+            this.listener.enterRule(this.rules.get(this.rule[node]).getName(), this.start[node]);
+        }
+        if (this.committed == this.depth) this.flush(node);
+    }
+
+    /** Reports and drops the children of {@code node}, a committed open node. */
+    private void flush(int node) {
+        int first = this.first[node];
+        if (first < 0) return;
+        for (int child = first; child >= 0; child = this.next[child]) this.emit(child);
+        this.truncate(first);
+        if (this.size == this.depth) {
+            // only the committed nodes remain, which refer to no object
+            this.objectCount = 0;
+            this.constants.clear();
+        }
+    }
+
+    /**
+     * Removes the innermost open node, {@code node}, and its children.
+     *
+     * @return {@code -1}, the position of a failed build
+     */
+    int abort(int node) {
+        this.depth--;
+        this.truncate(node);
+        return -1;
+    }
+
+    /** Returns the current number of nodes, to be given to {@link #truncate(int)}. */
+    int mark() {
+        return this.size;
+    }
+
+    /** Removes the nodes appended since {@code mark}. */
+    void truncate(int mark) {
+        if (this.depth > 0) {
+            int parent = this.open[this.depth - 1];
+            int last = this.last[parent];
+            while (last >= mark) last = this.previous[last];
+            this.last[parent] = last;
+            if (last < 0) this.first[parent] = -1;
+            else this.next[last] = -1;
+        }
+        this.size = mark;
+    }
+
+    /**
+     * Replaces {@code node}, a closed node, by its child at {@code index},
+     * whose end becomes the end of {@code node}: the flat counterpart of
+     * {@code child.copyWith(child.start(), end, true)}.
+     */
+    void extract(int node, int index) {
+        int child = this.child(node, index);
+        this.rule[node] = this.rule[child];
+        this.kind[node] = this.kind[child];
+        this.start[node] = this.start[child];
+        this.first[node] = this.first[child];
+        this.value[node] = this.value[child];
+        if (this.kind[child] == FlatTree.STRING && this.value[child] == FlatTree.SPAN
+                && this.end[child] != this.end[node]) {
+            // the text stays the span of the child
+            this.kind[node] = FlatTree.OTHER;
+            this.value[node] = this.object(new SpanStringMatch(this.rules.get(this.rule[child]), this.start[child],
+                    this.end[node], true, this.input, this.start[child], this.end[child]));
+        } else if (this.kind[child] == FlatTree.OTHER) {
+            IMatch match = (IMatch) this.objects[this.value[child]];
+            this.value[node] = this.object(match.copyWith(match.start(), this.end[node], match.success()));
+        }
+    }
+
+    /**
+     * Replaces the children of {@code node}, a closed node, by its children
+     * at {@code indices}, in that order.
+     */
+    void select(int node, int[] indices) {
+        int[] children = new int[indices.length == 0 ? 0 : 1 + Arrays.stream(indices).max().getAsInt()];
+        int child = this.first[node];
+        for (int i = 0; i < children.length; i++, child = this.next[child]) children[i] = child;
+        int last = -1;
+        for (int i = 0; i < indices.length; i++) {
+            int selected = children[indices[i]];
+            for (int j = 0; j < i; j++) {
+                // a child selected twice is copied, its own children are shared
+                if (indices[j] == indices[i]) {
+                    selected = this.node(this.rules.get(this.rule[selected]), this.kind[selected],
+                            this.start[selected], this.end[selected], this.value[selected]);
+                    this.first[selected] = this.first[children[indices[i]]];
+                    break;
+                }
+            }
+            if (last < 0) this.first[node] = selected;
+            else this.next[last] = selected;
+            last = selected;
+        }
+        if (last < 0) this.first[node] = -1;
+        else this.next[last] = -1;
+    }
+
+    /**
+     * Appends the nodes of {@code match}, if it succeeded, as a child of
+     * the innermost open node.
+     *
+     * @return the end of {@code match}, or {@code -1} if it failed
+     */
+    int add(IMatch match) {
+        if (!match.success()) return -1;
+        this.append(match);
+        return match.end();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void append(IMatch match) {
+        Class<?> type = match.getClass();
+        IReader reader = match.reader();
+        int start = match.start();
+        int end = match.end();
+        if (type == SpanStringMatch.class) {
+            // the text of a span of the tree input is never copied
+            SpanStringMatch span = (SpanStringMatch) match;
+            if (span.input() == this.input && span.textStart() == start && span.textEnd() == end) {
+                this.leaf(reader, FlatTree.STRING, start, end, FlatTree.SPAN);
+            } else {
+                this.leaf(reader, FlatTree.OTHER, start, end, this.object(match));
+            }
+            return;
+        }
+        Object result = match.result();
+        if (type == StringMatch.class) {
+            this.leaf(reader, FlatTree.STRING, start, end, this.object(result));
+        } else if (type == IntMatch.class) {
+            this.leaf(reader, FlatTree.INT, start, end, (Integer) result);
+        } else if (type == FloatMatch.class) {
+            this.leaf(reader, FlatTree.FLOAT, start, end, Float.floatToRawIntBits((Float) result));
+        } else if (type == BoolMatch.class) {
+            this.leaf(reader, FlatTree.BOOL, start, end, (Boolean) result ? 1 : 0);
+        } else if (type == ListMatch.class) {
+            if (result == null) {
+                this.leaf(reader, FlatTree.LIST, start, end, 0);
+                return;
+            }
+            int node = this.open(reader, FlatTree.LIST, start, 1);
+            for (IMatch element : (List<IMatch>) result) this.append(element);
+            this.close(node, end);
+        } else if (type == ObjectMatch.class) {
+            Map<String, IMatch> fields = (Map<String, IMatch>) result;
+            String[] keys = new String[fields.size()];
+            int node = this.open(reader, FlatTree.OBJECT, start, this.object(keys));
+            int index = 0;
+            for (Map.Entry<String, IMatch> field : fields.entrySet()) {
+                keys[index++] = field.getKey();
+                this.append(field.getValue());
+            }
+            this.close(node, end);
+        } else if (type == Match.class) {
+            this.leaf(reader, FlatTree.MATCH, start, end, result == null ? -1 : this.object(result));
+        } else {
+            this.leaf(reader, FlatTree.OTHER, start, end, this.object(match));
+        }
+    }
+
+    /**
+     * Returns the index of {@code object}, shared by all the nodes that
+     * refer to it, such as the field names of an object.
+     */
+    int constant(Object object) {
+        Integer index = this.constants.get(object);
+        if (index == null) {
+            index = this.object(object);
+            this.constants.put(object, index);
+        }
+        return index;
+    }
+
+    private int object(Object object) {
+        if (this.objectCount == this.objects.length) this.objects = Arrays.copyOf(this.objects, 2 * this.objectCount);
+        this.objects[this.objectCount] = object;
+        return this.objectCount++;
+    }
+
+    private int child(int node, int index) {
+        int child = this.first[node];
+        for (int i = 0; i < index; i++) child = this.next[child];
+        return child;
+    }
+
+    /** Allocates a node, not linked to any other. */
+    private int node(IReader reader, byte kind, int start, int end, int value) {
+        if (this.size == this.rule.length) this.grow();
+        int node = this.size++;
+        Integer id = this.ids.get(reader);
+        if (id == null) {
+            id = this.rules.size();
+            this.ids.put(reader, id);
+            this.rules.add(reader);
+        }
+        this.rule[node] = id;
+        this.kind[node] = kind;
+        this.start[node] = start;
+        this.end[node] = end;
+        this.value[node] = value;
+        this.first[node] = -1;
+        this.next[node] = -1;
+        this.last[node] = -1;
+        this.previous[node] = -1;
+        return node;
+    }
+
+    private void grow() {
+        int capacity = 2 * this.rule.length;
+        this.rule = Arrays.copyOf(this.rule, capacity);
+        this.kind = Arrays.copyOf(this.kind, capacity);
+        this.start = Arrays.copyOf(this.start, capacity);
+        this.end = Arrays.copyOf(this.end, capacity);
+        this.first = Arrays.copyOf(this.first, capacity);
+        this.next = Arrays.copyOf(this.next, capacity);
+        this.value = Arrays.copyOf(this.value, capacity);
+        this.last = Arrays.copyOf(this.last, capacity);
+        this.previous = Arrays.copyOf(this.previous, capacity);
+    }
+
+    /**
+     * Reports {@code root} and its descendants to the listener, in preorder.
+     */
+    private void emit(int root) {
+        int[] stack = new int[16];
+        int[] fields = new int[16];
+        int top = 0;
+        int node = root;
+        while (true) {
+            byte kind = this.kind[node];
+            String rule = this.rules.get(this.rule[node]).getName();
+            if (kind == FlatTree.LIST || kind == FlatTree.OBJECT) {
+                this.listener.enterRule(rule, this.start[node]);
+                if (this.first[node] >= 0) {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, 2 * top);
+                        fields = Arrays.copyOf(fields, 2 * top);
+                    }
+                    stack[top] = node;
+                    fields[top] = 0;
+                    top++;
+                    if (kind == FlatTree.OBJECT) this.listener.field(((String[]) this.objects[this.value[node]])[0]);
+                    node = this.first[node];
+                    continue;
+                }
+                this.listener.exitRule(rule, this.start[node], this.end[node]);
+            } else if (kind == FlatTree.OTHER) {
+                IParseListener.replay((IMatch) this.objects[this.value[node]], this.listener);
+            } else {
+                this.listener.token(rule, this.start[node], this.end[node], this.result(node));
+            }
+            while (top > 0) {
+                int parent = stack[top - 1];
+                if (this.next[node] >= 0) {
+                    node = this.next[node];
+                    int field = ++fields[top - 1];
+                    if (this.kind[parent] == FlatTree.OBJECT) {
+                        this.listener.field(((String[]) this.objects[this.value[parent]])[field]);
+                    }
+                    break;
+                }
+                top--;
+                this.listener.exitRule(this.rules.get(this.rule[parent]).getName(), this.start[parent], this.end[parent]);
+                node = parent;
+            }
+            if (top == 0) return;
+        }
+    }
+
+    /** Returns the result of the leaf {@code node}, as {@link FlatTree#result(int)}. */
+    private Object result(int node) {
+        int value = this.value[node];
+        switch (this.kind[node]) {
+            case FlatTree.STRING:
+                return value == FlatTree.SPAN ? this.input.subSequence(this.start[node], this.end[node]).toString() : this.objects[value];
+            case FlatTree.INT:
+                return value;
+            case FlatTree.FLOAT:
+                return Float.intBitsToFloat(value);
+            case FlatTree.BOOL:
+                return value != 0;
+            default:
+                return value < 0 ? null : this.objects[value];
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Compaction
+    // ------------------------------------------------------------------
+
+    /**
+     * Copies the nodes reachable from the root, node 0, in preorder, into
+     * arrays of the exact size.
+     */
+    FlatTree finish() {
+        int count = this.preorder(null);
+        Compacted tree = new Compacted(count, this.objectCount);
+        this.preorder(tree);
+        return new FlatTree(this.input, this.rules.toArray(new IReader[0]), count, tree.rule, tree.kind, tree.start,
+                tree.end, tree.first, tree.next, tree.value, tree.objects.toArray());
+    }
+
+    /**
+     * Walks the tree in preorder, copying the nodes into {@code tree} if it
+     * is not {@code null}, and returns the number of nodes. A node shared by
+     * two parents (see {@link #select}) is visited twice.
+     */
+    private int preorder(Compacted tree) {
+        int[] stack = new int[16];
+        int[] copies = new int[16];
+        int top = 0;
+        int node = 0;
+        int count = 0;
+        int copy = count++;
+        if (tree != null) tree.copy(this, node, copy);
+        while (true) {
+            if (this.first[node] >= 0) {
+                if (top == stack.length) {
+                    stack = Arrays.copyOf(stack, 2 * top);
+                    copies = Arrays.copyOf(copies, 2 * top);
+                }
+                stack[top] = node;
+                copies[top] = copy;
+                top++;
+                node = this.first[node];
+                int child = count++;
+                if (tree != null) {
+                    tree.copy(this, node, child);
+                    tree.first[copy] = child;
+                }
+                copy = child;
+                continue;
+            }
+            while (this.next[node] < 0) {
+                if (top == 0) return count;
+                top--;
+                node = stack[top];
+                copy = copies[top];
+            }
+            node = this.next[node];
+            int sibling = count++;
+            if (tree != null) {
+                tree.copy(this, node, sibling);
+                tree.next[copy] = sibling;
+            }
+            copy = sibling;
+        }
+    }
+
+    /** The arrays of the compacted tree. */
+    private static final class Compacted {
+        final int[] rule;
+        final byte[] kind;
+        final int[] start;
+        final int[] end;
+        final int[] first;
+        final int[] next;
+        final int[] value;
+        final List<Object> objects = new ArrayList<>();
+        /** New index of each object, or {@code -1}. */
+        final int[] objectIndex;
+
+        Compacted(int size, int objects) {
+            this.rule = new int[size];
+            this.kind = new byte[size];
+            this.start = new int[size];
+            this.end = new int[size];
+            this.first = new int[size];
+            this.next = new int[size];
+            this.value = new int[size];
+            this.objectIndex = new int[objects];
+            Arrays.fill(this.objectIndex, -1);
+        }
+
+        void copy(TreeBuilder builder, int node, int copy) {
+            this.rule[copy] = builder.rule[node];
+            this.kind[copy] = builder.kind[node];
+            this.start[copy] = builder.start[node];
+            this.end[copy] = builder.end[node];
+            this.first[copy] = -1;
+            this.next[copy] = -1;
+            int value = builder.value[node];
+            byte kind = builder.kind[node];
+            boolean object = kind == FlatTree.OBJECT || kind == FlatTree.OTHER
+                    || (kind == FlatTree.STRING || kind == FlatTree.MATCH) && value >= 0;
+            if (object) {
+                if (this.objectIndex[value] < 0) {
+                    this.objectIndex[value] = this.objects.size();
+                    this.objects.add(builder.objects[value]);
+                }
+                value = this.objectIndex[value];
+            }
+            this.value[copy] = value;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package fr.inria.jfbaget.nanoparse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import fr.inria.jfbaget.nanoparse.examples.BasicRulesParser;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+class BatchParseTest {
+
+    /** Returns {@code count} small snippets, some of which do not parse to their end or at all. */
+    private static List<String> snippets(int count) {
+        Random random = new Random(11);
+        List<String> snippets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String snippet = "p" + i + " :- q" + random.nextInt(100) + ", r. s" + i + ".";
+            if (random.nextInt(10) == 0) snippet = snippet.replace(",", ",,");
+            if (random.nextInt(20) == 0) snippet = ":- " + snippet;
+            snippets.add(snippet);
+        }
+        return snippets;
+    }
+
+    private static void assertSameMatches(IParser parser, List<String> inputs, BatchResult batch) {
+        assertEquals(inputs.size(), batch.size());
+        int failures = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            IMatch expected = parser.read(inputs.get(i), 0);
+            ParseAssertions.assertSameTree(expected, batch.get(i));
+            if (!expected.success()) failures++;
+        }
+        assertEquals(failures, batch.failures());
+        assertFalse(batch.elapsed().isNegative());
+        assertFalse(batch.parseTime().isNegative());
+    }
+
+    @Test
+    void matchesComeBackInInputOrder() throws Exception {
+        FrozenParser parser = new BasicRulesParser().freeze();
+        List<String> inputs = snippets(3_000);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            assertSameMatches(parser, inputs, parser.readAll(inputs, executor));
+            BatchResult batch = parser.readAllAsync(inputs, executor).toCompletableFuture().get(60, TimeUnit.SECONDS);
+            assertSameMatches(parser, inputs, batch);
+        } finally {
+            executor.shutdown();
+        }
+        assertSameMatches(parser, inputs, parser.readAll(inputs));
+        assertSameMatches(parser, inputs.subList(0, 3), parser.readAll(inputs.subList(0, 3), Runnable::run));
+        assertEquals(0, parser.readAll(List.of()).size());
+    }
+
+    @Test
+    void everyParserCanReadBatches() {
+        Parser parser = new BasicRulesParser();
+        List<String> inputs = snippets(200);
+        assertSameMatches(parser, inputs, parser.readAll(inputs));
+        IParser machine = parser.toMachine();
+        assertSameMatches(machine, inputs, machine.readAll(inputs));
+    }
+
+    @Test
+    void exceptionsOfParsesAreThrown() {
+        FrozenParser parser = new BasicRulesParser().freeze();
+        List<CharSequence> inputs = new ArrayList<>(snippets(100));
+        // an input that cannot be read
+        inputs.add(50, new CharSequence() {
+            public int length() { return 10; }
+            public char charAt(int index) { throw new IllegalStateException("closed"); }
+            public CharSequence subSequence(int start, int end) { throw new IllegalStateException("closed"); }
+        });
+        IllegalStateException thrown = assertThrows(IllegalStateException.class, () -> parser.readAll(inputs));
+        assertEquals("closed", thrown.getMessage());
+        CompletionException failed = assertThrows(CompletionException.class,
+                () -> parser.readAllAsync(inputs, Runnable::run).toCompletableFuture().join());
+        assertTrue(failed.getCause() instanceof IllegalStateException);
+    }
+}
@@ -0,0 +1,133 @@
+package fr.inria.jfbaget.nanoparse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import fr.inria.jfbaget.nanoparse.examples.BasicRulesParser;
+import fr.inria.jfbaget.nanoparse.matches.FlatTree;
+import fr.inria.jfbaget.nanoparse.readers.ChoiceReader;
+import fr.inria.jfbaget.nanoparse.readers.RegexReader;
+import fr.inria.jfbaget.nanoparse.readers.RepetitionReader;
+import fr.inria.jfbaget.nanoparse.readers.StringReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+class ByteInputTest {
+
+    @TempDir
+    Path directory;
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Returns the byte offset of char {@code index} of {@code text}. */
+    private static int offset(String text, int index) {
+        return utf8(text.substring(0, index)).length;
+    }
+
+    /** Checks that {@code actual}, read on the bytes of {@code text}, is {@code expected} with byte offsets. */
+    private static void assertSameMatch(String text, IMatch expected, IMatch actual) {
+        assertSame(expected.reader(), actual.reader());
+        assertEquals(expected.success(), actual.success());
+        assertEquals(offset(text, expected.start()), actual.start());
+        assertEquals(offset(text, expected.end()), actual.end());
+        if (expected.result() instanceof Map) {
+            Map<?, ?> e = (Map<?, ?>) expected.result();
+            Map<?, ?> a = (Map<?, ?>) actual.result();
+            assertEquals(e.keySet(), a.keySet());
+            for (Object key : e.keySet()) assertSameMatch(text, (IMatch) e.get(key), (IMatch) a.get(key));
+        } else if (expected.result() instanceof List) {
+            List<?> e = (List<?>) expected.result();
+            List<?> a = (List<?>) actual.result();
+            assertEquals(e.size(), a.size());
+            for (int i = 0; i < e.size(); i++) assertSameMatch(text, (IMatch) e.get(i), (IMatch) a.get(i));
+        } else {
+            assertEquals(expected.result(), actual.result());
+        }
+    }
+
+    @Test
+    void bytesAreParsedAsTheirText() {
+        Parser parser = new Parser(List.of(
+                new RepetitionReader("main", "item", null, 0, Integer.MAX_VALUE, false),
+                new ChoiceReader("item", List.of("STRING", "NUMBER", "arrow", "word", "char"), false),
+                new StringReader("arrow", "->", true),
+                // runs on the decoded text
+                new RegexReader("word", "\\p{L}+", true),
+                new RegexReader("char", "'.'", true)
+        ));
+        String text = " \"été\" 42 -> ça \"\\é x😀\" '€' 1.5e3 où 'a'\n漢字";
+        IMatch expected = parser.read(text, 0);
+        assertTrue(expected.success());
+        assertEquals(text.length(), expected.end());
+
+        ByteInput input = ByteInput.of(utf8(text));
+        assertEquals(utf8(text).length, input.length());
+        IMatch actual = parser.read(input, 0);
+        assertSameMatch(text, expected, actual);
+        assertEquals(actual.end(), parser.recognize(input, 0, "main"));
+
+        FlatTree tree = parser.readTree(input, 0, "main");
+        for (int node = 0; node < tree.size(); node++) {
+            if (tree.kind(node) == FlatTree.STRING) assertEquals(tree.result(node), tree.text(node).toString());
+        }
+        assertEquals(actual.toJSON().toString(), tree.match().toJSON().toString());
+
+        // a direct buffer, from its position
+        ByteBuffer buffer = ByteBuffer.allocateDirect(utf8(text).length + 3);
+        buffer.put(utf8("ab ")).put(utf8(text)).position(3);
+        assertSameMatch(text, expected, parser.read(ByteInput.of(buffer), 0));
+        assertEquals(3, buffer.position());
+    }
+
+    @Test
+    void offsetsMapToDecodedIndices() {
+        Random random = new Random(5);
+        String alphabet = "ab :-,.\néàç€漢𝄞😀";
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 3 * MappedInput.STRIDE) {
+            builder.appendCodePoint(alphabet.codePointAt(alphabet.offsetByCodePoints(0, random.nextInt(alphabet.codePointCount(0, alphabet.length())))));
+        }
+        String text = builder.toString();
+        ByteInput input = ByteInput.of(utf8(text));
+        assertEquals(text, input.toString());
+        assertEquals(text, input.decoded().toString());
+        for (int i = 0; i < 5_000; i++) {
+            int index = random.nextInt(text.length() + 1);
+            if (index < text.length() && Character.isLowSurrogate(text.charAt(index))) index--;
+            int offset = offset(text, index);
+            assertEquals(offset, input.offset(index), "at " + index);
+            assertEquals(index, input.index(offset), "at " + offset);
+            if (index < text.length()) {
+                int next = index + Character.charCount(text.codePointAt(index));
+                // any byte of a character maps to that character
+                assertEquals(index, input.index(offset(text, next) - 1));
+                assertEquals(text.substring(index, next), input.subSequence(offset, offset(text, next)).toString());
+            }
+        }
+        assertEquals((char) 0xC3, ByteInput.of(utf8("é")).charAt(0));
+    }
+
+    @Test
+    void filesAreMapped() throws IOException {
+        Parser parser = new BasicRulesParser();
+        String text = "a :- b, c. d. \"ignored é\"";
+        Path file = Files.createTempFile(this.directory, "input", ".txt");
+        Files.write(file, utf8(text));
+        ByteInput input = ByteInput.map(file);
+        IMatch expected = parser.read(text, 0);
+        IMatch actual = parser.read(input, 0);
+        assertSameMatch(text, expected, actual);
+        assertEquals(text.indexOf('"') - 1, actual.end());
+        assertEquals(" \"ignored é\"", input.subSequence(actual.end(), input.length()).toString());
+    }
+}
@@ -0,0 +1,127 @@
+package fr.inria.jfbaget.nanoparse;
+
+import static fr.inria.jfbaget.nanoparse.ParseAssertions.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import fr.inria.jfbaget.nanoparse.examples.BasicRulesParser;
+import fr.inria.jfbaget.nanoparse.readers.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+class CompiledParserTest {
+
+    /** A literal that ignores case, by reading a lower-case copy of the input. */
+    static class LowerCaseReader extends StringReader {
+        LowerCaseReader(String identifier, String pattern) {
+            super(identifier, pattern, false);
+        }
+
+        @Override
+        public IMatch read(CharSequence input, int start) {
+            return super.read(input.toString().toLowerCase(Locale.ROOT), start);
+        }
+    }
+
+    @Test
+    void basicRules() {
+        Parser parser = new BasicRulesParser();
+        IParser compiled = parser.compile();
+
+        assertSameParse(parser, compiled, "main",
+                "a :- b, c, d, e.",
+                "a. b :- c. d :- .",
+                "a :- b c.",
+                "",
+                "  ");
+        assertEquals(parser.getDefaultReaderName(), compiled.getDefaultReaderName());
+    }
+
+    @Test
+    void sequencePatterns() {
+        Parser parser = new Parser(List.of(
+                new StringReader("lit_foo", "foo", false),
+                new StringReader("lit_bar", "bar", true),
+                new SequenceReader("seq_all", List.of("lit_foo", "lit_bar"), false),
+                new SequenceReader("seq_one", List.of("lit_foo", "lit_bar"), true, 1),
+                new SequenceReader("seq_some", List.of("lit_foo", "lit_bar"), false, List.of(1, 0)),
+                new SequenceReader("seq_obj", List.of("lit_foo", "lit_bar"), false, Map.of(0, "first", 1, "second"))
+        ));
+        IParser compiled = parser.compile();
+
+        for (String rule : List.of("seq_all", "seq_one", "seq_some", "seq_obj")) {
+            assertSameParse(parser, compiled, rule, "foobar", "foo bar", " foo  bar", "foXbar", "foo", "");
+        }
+    }
+
+    @Test
+    void repetitionsAndOptions() {
+        Parser parser = new Parser(List.of(
+                new StringReader("foo", "foo", true),
+                new StringReader("comma", ",", true),
+                new RepetitionReader("star", "foo", null, 0, Integer.MAX_VALUE, false),
+                new RepetitionReader("plus", "foo", "comma", 1, 10, false),
+                new RepetitionReader("pairs", "foo", "comma", 2, 3, true, false, true),
+                new RepetitionReader("one", "foo", null, 1, 1, false, true, false),
+                new RepetitionReader("unwrap", "foo", "comma", 1, 5, false, true, false),
+                new RepetitionReader("none", "foo", null, 0, 0, false),
+                new OptionalReader("opt", "plus", true)
+        ));
+        IParser compiled = parser.compile();
+
+        for (String rule : List.of("star", "plus", "pairs", "one", "unwrap", "none", "opt")) {
+            assertSameParse(parser, compiled, rule, "foo", "foo, foo", "foo,foo,foo,foo", "", "bar", "foo,");
+        }
+    }
+
+    @Test
+    void baseTypes() {
+        Parser parser = new Parser(List.of(
+                new RepetitionReader("main", "BASETYPE", "comma", 0, Integer.MAX_VALUE, false),
+                new StringReader("comma", ",", true)
+        ));
+        IParser compiled = parser.compile();
+
+        assertSameParse(parser, compiled, "main",
+                "true, foo, \"a \\\"b\\\"\", 12, -3.5e2, .5, x1",
+                "1, 2, false");
+        for (String rule : List.of("INT", "FLOAT", "STRICTFLOAT", "NUMBER", "ID", "BOOL", "STRING")) {
+            assertSameParse(parser, compiled, rule, " 42", "1.5", "abc", "true", "\"s\"", "?");
+        }
+    }
+
+    @Test
+    void leftRecursionAndMemoization() {
+        Parser parser = new Parser(List.of(
+                new ChoiceReader("expr", List.of("sub", "INT"), false),
+                new SequenceReader("sub", List.of("expr", "minus", "INT"), false),
+                new StringReader("minus", "-", true)
+        ));
+        parser.getReader("ID").setMemoized(true);
+        IParser compiled = parser.compile();
+
+        assertSameParse(parser, compiled, "expr", "1 - 2 - 3", "4", "-");
+    }
+
+    @Test
+    void readersOverridingReadAreCalled() {
+        Parser parser = new Parser(List.of(
+                new LowerCaseReader("kw", "foo"),
+                new SequenceReader("main", List.of("kw"), false)
+        ));
+        IParser compiled = parser.compile();
+
+        assertTrue(parser.read("FOO", 0).success());
+        assertSameParse(parser, compiled, "main", "FOO", "foo", "bar");
+        assertSameParse(parser, compiled, "kw", "FOO");
+    }
+
+    @Test
+    void unknownRule() {
+        IParser compiled = new BasicRulesParser().compile();
+        assertThrows(fr.inria.jfbaget.nanoparse.exceptions.InvalidIdentifierException.class,
+                () -> compiled.read("a.", 0, "nope"));
+    }
+}
@@ -0,0 +1,147 @@
+package fr.inria.jfbaget.nanoparse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import fr.inria.jfbaget.nanoparse.examples.BasicRulesParser;
+import fr.inria.jfbaget.nanoparse.matches.FlatTree;
+import fr.inria.jfbaget.nanoparse.matches.StringMatch;
+import fr.inria.jfbaget.nanoparse.readers.ChoiceReader;
+import fr.inria.jfbaget.nanoparse.readers.KeywordSetReader;
+import fr.inria.jfbaget.nanoparse.readers.OptionalReader;
+import fr.inria.jfbaget.nanoparse.readers.RepetitionReader;
+import fr.inria.jfbaget.nanoparse.readers.SequenceReader;
+import fr.inria.jfbaget.nanoparse.readers.StringReader;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+class FlatTreeTest {
+
+    /** Checks that the tree of {@code rule} on each input holds the matches {@code read} returns. */
+    private static void assertSameParse(Parser parser, String rule, String... inputs) {
+        for (String input : inputs) {
+            IMatch expected = parser.read(input, 0, rule);
+            FlatTree tree = parser.readTree(input, 0, rule);
+            assertEquals(expected.success(), tree.success(), rule + " on \"" + input + "\"");
+            if (!tree.success()) {
+                ParseAssertions.assertSameTree(expected, tree.match());
+                continue;
+            }
+            ParseAssertions.assertSameTree(expected, tree.toMatch(tree.root()));
+            assertSameView(expected, tree.match());
+            assertPreorder(tree);
+        }
+    }
+
+    /** Checks that a view has the spans and results of {@code expected}, whatever the classes. */
+    private static void assertSameView(IMatch expected, IMatch view) {
+        assertSame(expected.reader(), view.reader());
+        assertEquals(expected.start(), view.start());
+        assertEquals(expected.end(), view.end());
+        Object e = expected.result();
+        Object v = view.result();
+        if (e instanceof List) {
+            List<?> el = (List<?>) e;
+            List<?> vl = (List<?>) v;
+            assertEquals(el.size(), vl.size());
+            for (int i = 0; i < el.size(); i++) assertSameView((IMatch) el.get(i), (IMatch) vl.get(i));
+        } else if (e instanceof Map) {
+            Map<?, ?> em = (Map<?, ?>) e;
+            Map<?, ?> vm = (Map<?, ?>) v;
+            assertEquals(em.keySet(), vm.keySet());
+            for (Object key : em.keySet()) assertSameView((IMatch) em.get(key), (IMatch) vm.get(key));
+        } else {
+            assertEquals(e, v);
+        }
+    }
+
+    /** Checks that nodes are stored in preorder, each node followed by its descendants. */
+    private static void assertPreorder(FlatTree tree) {
+        int[] next = {0};
+        visit(tree, tree.root(), next);
+        assertEquals(tree.size(), next[0]);
+    }
+
+    private static void visit(FlatTree tree, int node, int[] next) {
+        assertEquals(next[0]++, node);
+        for (int child = tree.firstChild(node); child >= 0; child = tree.nextSibling(child)) {
+            assertTrue(tree.start(node) <= tree.start(child) && tree.end(child) <= tree.end(node));
+            visit(tree, child, next);
+        }
+    }
+
+    @Test
+    void treesHoldTheMatchesOfRead() {
+        assertSameParse(new BasicRulesParser(), "main",
+                "a :- b, c, d, e.", "a. b :- c. d :- .", "a :- b c.", "", "  ");
+
+        Parser parser = new Parser(List.of(
+                new StringReader("foo", "foo", true),
+                new StringReader("comma", ",", true),
+                new RepetitionReader("star", "foo", null, 0, Integer.MAX_VALUE, false),
+                new RepetitionReader("plus", "foo", "comma", 1, 10, false),
+                new RepetitionReader("pairs", "foo", "comma", 2, 3, true, false, true),
+                new RepetitionReader("one", "foo", null, 1, 1, false, true, false),
+                new RepetitionReader("unwrap", "foo", "comma", 1, 5, false, true, false),
+                new RepetitionReader("none", "foo", null, 0, 0, false),
+                new OptionalReader("opt", "plus", true),
+                new SequenceReader("all", List.of("foo", "comma", "BASETYPE"), false),
+                new SequenceReader("one_of", List.of("foo", "comma", "BASETYPE"), false, 2),
+                new SequenceReader("some", List.of("foo", "comma", "BASETYPE"), false, List.of(2, 0)),
+                new SequenceReader("twice", List.of("foo", "comma", "BASETYPE"), false, List.of(0, 0, 2)),
+                new SequenceReader("obj", List.of("foo", "comma", "NUMBER"), false, Map.of(0, "first", 2, "second")),
+                new SequenceReader("nested", List.of("one_of", "opt"), false, List.of(1, 0)),
+                new ChoiceReader("choice", List.of("obj", "BASETYPE", "comma"), false),
+                new KeywordSetReader("keywords", List.of("foo", "comma"), false, true)
+        ));
+        for (String rule : List.of("star", "plus", "pairs", "one", "unwrap", "none", "opt", "all", "one_of", "some",
+                "twice", "obj", "nested", "choice", "keywords")) {
+            assertSameParse(parser, rule, "", "foo", " foo foo", "foo,foo , foo,", "foo, 1.5e3", "foo, true foo",
+                    "foo,\"str\"", ",foo", "\"str\" x", "true", "x");
+        }
+    }
+
+    @Test
+    void treesHoldMemoizedAndCustomMatches() {
+        StringReader any = new StringReader("any", "", false) {
+            @Override
+            protected StringMatch simpleread(CharSequence input, int start) {
+                if (start >= input.length()) return this.makeMatch(start, start, false, null);
+                // a match of another class is kept as is in the tree
+                return new StringMatch(this, start, start + 1, true, input.subSequence(start, start + 1).toString()) {};
+            }
+        };
+        Parser parser = new Parser(List.of(
+                any,
+                new ChoiceReader("expr", List.of("sub", "INT"), false),
+                new SequenceReader("sub", List.of("expr", "minus", "INT"), false),
+                new StringReader("minus", "-", true),
+                new SequenceReader("main", List.of("expr", "any"), false),
+                new SequenceReader("last", List.of("expr", "any"), false, 1)
+        ));
+        assertSameParse(parser, "main", "1 - 2 - 3!", "1-2", "7", "", "x");
+        assertSameParse(parser, "last", "1 - 2 - 3!", "7x");
+        assertSameParse(parser, "expr", "1 - 2 - 3!", "1-2", "x");
+    }
+
+    @Test
+    void nodesAreReadFromTheArrays() {
+        Parser parser = new BasicRulesParser();
+        String input = "a :- b, c, d, e. f. ".repeat(100);
+        FlatTree tree = parser.readTree(input, 0, "main");
+        assertTrue(tree.success());
+        assertSame(input, tree.input());
+
+        int tokens = 0;
+        for (int node = 0; node < tree.size(); node++) {
+            if (tree.kind(node) == FlatTree.STRING) {
+                assertEquals(tree.result(node), tree.text(node).toString());
+            }
+            if (tree.match(node).result() instanceof String) tokens++;
+            assertSame(tree.reader(node), parser.getReader(tree.reader(node).getName()));
+        }
+        assertEquals(600, tokens);
+        assertEquals(parser.read(input, 0).toJSON().toString(), tree.match().toJSON().toString());
+    }
+}
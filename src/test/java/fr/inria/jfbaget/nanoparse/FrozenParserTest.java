@@ -0,0 +1,191 @@
+package fr.inria.jfbaget.nanoparse;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import fr.inria.jfbaget.nanoparse.examples.BasicRulesParser;
+import fr.inria.jfbaget.nanoparse.matches.FlatTree;
+import fr.inria.jfbaget.nanoparse.readers.ChoiceReader;
+import fr.inria.jfbaget.nanoparse.readers.KeywordSetReader;
+import fr.inria.jfbaget.nanoparse.readers.OptionalReader;
+import fr.inria.jfbaget.nanoparse.readers.RegexReader;
+import fr.inria.jfbaget.nanoparse.readers.RepetitionReader;
+import fr.inria.jfbaget.nanoparse.readers.SequenceReader;
+import fr.inria.jfbaget.nanoparse.readers.StringReader;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+class FrozenParserTest {
+
+    private static final int THREADS = 8;
+
+    /**
+     * Reads random inputs of {@code inputs} from many threads at once, all
+     * started together, checking each match against a single-threaded one.
+     */
+    private static void assertSameConcurrentParses(Parser parser, String rule, List<String> inputs) throws Exception {
+        assertSameConcurrentParses(parser, rule, inputs, Executors.newFixedThreadPool(THREADS));
+    }
+
+    /** Same as above, on the threads of {@code executor}, which is then shut down. */
+    private static void assertSameConcurrentParses(Parser parser, String rule, List<String> inputs,
+                                                   ExecutorService executor) throws Exception {
+        List<IMatch> expected = new ArrayList<>();
+        for (String input : inputs) expected.add(parser.read(input, 0, rule));
+        FrozenParser frozen = parser.freeze();
+
+        try {
+            CountDownLatch ready = new CountDownLatch(THREADS);
+            List<Future<Integer>> tasks = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                long seed = t;
+                tasks.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    ready.countDown();
+                    ready.await();
+                    int checked = 0;
+                    for (int i = 0; i < 300; i++) {
+                        int k = random.nextInt(inputs.size());
+                        String input = inputs.get(k);
+                        switch (random.nextInt(3)) {
+                            case 0:
+                                ParseAssertions.assertSameTree(expected.get(k), frozen.read(input, 0, rule));
+                                break;
+                            case 1:
+                                ParseAssertions.assertSameEnd(expected.get(k), frozen.recognize(input, 0, rule));
+                                break;
+                            default:
+                                FlatTree tree = frozen.readTree(input, 0, rule);
+                                ParseAssertions.assertSameTree(expected.get(k),
+                                        tree.success() ? tree.toMatch(tree.root()) : tree.match());
+                        }
+                        checked++;
+                    }
+                    return checked;
+                }));
+            }
+            for (Future<Integer> task : tasks) assertEquals(300, task.get(60, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<String> inputs(String alphabet, String valid, long seed) {
+        Random random = new Random(seed);
+        List<String> inputs = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            StringBuilder builder = new StringBuilder(valid.repeat(1 + random.nextInt(30)));
+            // some inputs stop parsing in the middle
+            for (int j = random.nextInt(3); j > 0; j--) {
+                builder.insert(random.nextInt(builder.length() + 1), alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            inputs.add(builder.toString());
+        }
+        return inputs;
+    }
+
+    @Test
+    void concurrentReadsMatchSequentialOnes() throws Exception {
+        assertSameConcurrentParses(new BasicRulesParser(), "main",
+                inputs("ab :-,.", "a :- b, c. d. e :- f, g, h. ", 1));
+
+        Parser parser = new BasicRulesParser();
+        parser.setMemoized(true);
+        assertSameConcurrentParses(parser, "main", inputs("ab :-,.", "a :- b, c. d. ", 2));
+
+        // left recursion, literals matched as keywords, regular expressions
+        parser = new Parser(List.of(
+                new RepetitionReader("main", "stmt", null, 0, Integer.MAX_VALUE, false),
+                new SequenceReader("stmt", List.of("expr", "end"), false, 0),
+                new ChoiceReader("expr", List.of("sub", "INT"), false),
+                new SequenceReader("sub", List.of("expr", "op", "INT"), false, List.of(0, 2)),
+                new ChoiceReader("op", List.of("minus", "arrow"), false),
+                new StringReader("minus", "-", true),
+                new StringReader("arrow", "->", true),
+                new KeywordSetReader("end", List.of("semicolon", "stop"), true, true),
+                new StringReader("semicolon", ";", true),
+                new StringReader("stop", ";;", true)
+        ));
+        assertSameConcurrentParses(parser, "main", inputs("12-;> ", "1 - 2 -> 3; 4;; 5 - 6; ", 3));
+    }
+
+    @Test
+    void concurrentReadsOnVirtualThreads() throws Exception {
+        ExecutorService executor;
+        try {
+            // through reflection, as long as the build targets Java 17
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            executor = null;
+        }
+        assumeTrue(executor != null, "virtual threads need Java 21");
+
+        Parser parser = new BasicRulesParser();
+        parser.setMemoized(true);
+        assertSameConcurrentParses(parser, "main", inputs("ab :-,.", "a :- b, c. d. e :- f, g, h. ", 4), executor);
+    }
+
+    @Test
+    void publicFieldsOfReadersAreFinal() {
+        for (Class<?> type : List.of(StringReader.class, RegexReader.class, SequenceReader.class, ChoiceReader.class,
+                OptionalReader.class, RepetitionReader.class, KeywordSetReader.class)) {
+            for (Field field : type.getFields()) {
+                assertTrue(Modifier.isFinal(field.getModifiers()), type.getSimpleName() + "." + field.getName());
+            }
+        }
+    }
+
+    @Test
+    void frozenReadersCannotChange() {
+        Parser parser = new BasicRulesParser();
+        FrozenParser frozen = parser.freeze();
+        assertEquals("main", frozen.getDefaultReaderName());
+        assertEquals(parser.getReaderNames(), frozen.getReaderNames());
+        for (String name : frozen.getReaderNames()) assertTrue(frozen.getReader(name).isFrozen(), name);
+
+        SequenceReader rule = (SequenceReader) frozen.getReader("rule");
+        assertThrows(UnsupportedOperationException.class, () -> rule.getReaders().clear());
+        assertThrows(UnsupportedOperationException.class, () -> rule.getObjectReturns().put(1, "sep"));
+        ChoiceReader item = (ChoiceReader) frozen.getReader("item");
+        assertThrows(UnsupportedOperationException.class, () -> item.getReaders().add(rule));
+        assertSame(frozen.getReader("fact"), item.getReaders().get(0));
+        assertThrows(IllegalStateException.class, () -> rule.setMemoized(true));
+        assertThrows(IllegalStateException.class, () -> rule.link(parser));
+        assertThrows(IllegalStateException.class, () -> parser.setMemoized(true));
+        assertThrows(UnsupportedOperationException.class, () -> frozen.setDefaultReaderName("rule"));
+
+        // the parser that was frozen can still read, and choose its entry rule
+        parser.setDefaultReaderName("rule");
+        assertEquals("main", frozen.getDefaultReaderName());
+        assertTrue(parser.read("a :- b.", 0).result() instanceof Map);
+        ParseAssertions.assertSameTree(parser.read("a :- b. c.", 0, "main"), frozen.read("a :- b. c.", 0));
+    }
+
+    @Test
+    void freezingKeepsTheMatches() {
+        Parser parser = new BasicRulesParser();
+        String input = "a :- b, c. d. e :- f, g, h. ".repeat(50);
+        IMatch expected = parser.read(input, 0);
+        FrozenParser frozen = parser.freeze();
+        ParseAssertions.assertSameTree(expected, frozen.read(input, 0));
+        assertEquals(expected.end(), frozen.recognize(input, 0, "main"));
+        FlatTree tree = frozen.readTree(input, 0, "main");
+        ParseAssertions.assertSameTree(expected, tree.toMatch(tree.root()));
+        ParseAssertions.assertSameTree(expected,
+                frozen.readParallel(input, 0, "main", frozen.getReader("dot"), 4, Runnable::run));
+        ParseAssertions.assertSameTree(expected, frozen.readIncremental(input, 0, "main").match());
+        // freezing twice is harmless
+        ParseAssertions.assertSameTree(expected, parser.freeze().read(input, 0));
+    }
+}
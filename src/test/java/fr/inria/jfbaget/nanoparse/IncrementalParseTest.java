@@ -0,0 +1,85 @@
+package fr.inria.jfbaget.nanoparse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import fr.inria.jfbaget.nanoparse.examples.BasicRulesParser;
+import fr.inria.jfbaget.nanoparse.readers.ChoiceReader;
+import fr.inria.jfbaget.nanoparse.readers.IncrementalParse;
+import fr.inria.jfbaget.nanoparse.readers.RepetitionReader;
+import fr.inria.jfbaget.nanoparse.readers.SequenceReader;
+import fr.inria.jfbaget.nanoparse.readers.StringReader;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+class IncrementalParseTest {
+
+    /** Applies random edits to {@code text}, checking each parse against a parse from scratch. */
+    private static void assertSameParses(Parser parser, String rule, String text, String alphabet, long seed) {
+        Random random = new Random(seed);
+        IncrementalParse parse = parser.readIncremental(text, 0, rule);
+        ParseAssertions.assertSameTree(parser.read(text, 0, rule), parse.match());
+        for (int i = 0; i < 300; i++) {
+            int offset = random.nextInt(text.length() + 1);
+            int removed = random.nextInt(Math.min(4, text.length() - offset) + 1);
+            StringBuilder inserted = new StringBuilder();
+            for (int j = random.nextInt(4); j > 0; j--) inserted.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            text = text.substring(0, offset) + inserted + text.substring(offset + removed);
+            parse = parse.edit(offset, removed, inserted);
+            assertEquals(text, parse.input());
+            ParseAssertions.assertSameTree(parser.read(text, 0, rule), parse.match());
+        }
+    }
+
+    @Test
+    void editsGiveTheParseFromScratch() {
+        Parser parser = new BasicRulesParser();
+        assertSameParses(parser, "main", "a :- b, c. d. e :- f, g, h. ".repeat(20), "abc :-,. ", 1);
+        assertSameParses(parser, "main", "", "ab :-,.", 2);
+
+        // literals and identifiers that edits at their end extend
+        parser = new Parser(List.of(
+                new RepetitionReader("main", "item", null, 0, Integer.MAX_VALUE, true),
+                new ChoiceReader("item", List.of("long", "short", "ID", "NUMBER", "STRING"), false),
+                new StringReader("long", "foobar", true),
+                new StringReader("short", "foo", true)
+        ));
+        assertSameParses(parser, "main", "foo foobar 12 x \"s\" fo", "fobar1.\" ", 3);
+    }
+
+    @Test
+    void leftRecursionIsReadAgain() {
+        Parser parser = new Parser(List.of(
+                new RepetitionReader("main", "stmt", null, 0, Integer.MAX_VALUE, false),
+                new SequenceReader("stmt", List.of("expr", "semicolon"), false),
+                new ChoiceReader("expr", List.of("sub", "INT"), false),
+                new SequenceReader("sub", List.of("expr", "minus", "INT"), false),
+                new StringReader("minus", "-", true),
+                new StringReader("semicolon", ";", true)
+        ));
+        assertSameParses(parser, "main", "1 - 2 - 3; 4; 5 - 6;", "12-; ", 4);
+    }
+
+    @Test
+    void onlyTheDamagedRegionIsRead() {
+        Parser parser = new BasicRulesParser();
+        String text = "a :- b, c. d. e :- f, g, h. ".repeat(2_000);
+        IncrementalParse parse = parser.readIncremental(text, 0, "main");
+        int initial = parse.evaluated();
+
+        int offset = text.length() / 2 + 1;
+        IncrementalParse edited = parse.edit(offset, 1, "xyz");
+        String expected = text.substring(0, offset) + "xyz" + text.substring(offset + 1);
+        ParseAssertions.assertSameTree(parser.read(expected, 0), edited.match());
+        assertTrue(edited.evaluated() < 100, edited.evaluated() + " evaluations");
+
+        // the new item breaks the parse, which then stops there
+        IncrementalParse broken = edited.edit(offset, 0, " :- ");
+        ParseAssertions.assertSameTree(parser.read(broken.input(), 0), broken.match());
+        assertTrue(broken.match().end() < offset + 4);
+        IncrementalParse fixed = broken.edit(offset, 4, "");
+        ParseAssertions.assertSameTree(edited.match(), fixed.match());
+        assertTrue(fixed.evaluated() < initial / 2, fixed.evaluated() + " evaluations");
+    }
+}
@@ -0,0 +1,96 @@
+package fr.inria.jfbaget.nanoparse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import fr.inria.jfbaget.nanoparse.examples.BasicRulesParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+class MappedInputTest {
+
+    @TempDir
+    Path directory;
+
+    private MappedInput map(String content) throws IOException {
+        Path file = Files.createTempFile(this.directory, "input", ".txt");
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        return MappedInput.open(file);
+    }
+
+    @Test
+    void charactersAreTheDecodedOnes() throws IOException {
+        Random random = new Random(3);
+        String alphabet = "ab :-,.\néàç€漢𝄞😀";
+        for (String content : List.of("", "a", "plain ascii text", "é", "😀", "a😀b")) {
+            MappedInput input = this.map(content);
+            assertEquals(content.length(), input.length());
+            assertEquals(content, input.toString());
+        }
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 5 * MappedInput.STRIDE) {
+            text.appendCodePoint(alphabet.codePointAt(alphabet.offsetByCodePoints(0, random.nextInt(alphabet.codePointCount(0, alphabet.length())))));
+        }
+        String content = text.toString();
+        MappedInput input = this.map(content);
+        assertFalse(input.isAscii());
+        assertEquals(content.length(), input.length());
+        for (int i = 0; i < 20_000; i++) {
+            int index = random.nextInt(content.length());
+            assertEquals(content.charAt(index), input.charAt(index), "at " + index);
+        }
+        assertEquals(content, input.toString());
+        assertEquals(content.substring(100, 9000), input.subSequence(100, 9000));
+    }
+
+    @Test
+    void malformedBytesAreReplaced() throws IOException {
+        Path file = Files.createTempFile(this.directory, "input", ".txt");
+        Files.write(file, new byte[] {'a', (byte) 0xC3, 'b', (byte) 0x80, (byte) 0xE2, (byte) 0x82});
+        MappedInput input = MappedInput.open(file);
+        assertEquals("a�b���", input.toString());
+
+        // overlong forms, surrogates and code points over U+10FFFF, then their valid neighbours,
+        // decoded as by String
+        int[][] sequences = {
+                {0xE0, 0x80, 0x80}, {0xE0, 0x9F, 0xBF}, {0xED, 0xA0, 0x80}, {0xED, 0xBF, 0xBF},
+                {0xF0, 0x80, 0x80, 0x80}, {0xF0, 0x8F, 0xBF, 0xBF}, {0xF4, 0x90, 0x80, 0x80},
+                {0xE0, 0xA0, 0x80}, {0xED, 0x9F, 0xBF}, {0xEE, 0x80, 0x80}, {0xF0, 0x90, 0x80, 0x80},
+                {0xF4, 0x8F, 0xBF, 0xBF}, {0xE0, 0x80}, {0xF0, 0x8F, 0xBF}};
+        for (int[] sequence : sequences) {
+            byte[] bytes = new byte[sequence.length + 2];
+            bytes[0] = 'a';
+            for (int i = 0; i < sequence.length; i++) bytes[i + 1] = (byte) sequence[i];
+            bytes[bytes.length - 1] = 'b';
+            Files.write(file, bytes);
+            String expected = new String(bytes, StandardCharsets.UTF_8);
+            input = MappedInput.open(file);
+            assertEquals(expected, input.toString(), Arrays.toString(sequence));
+            assertEquals(expected.length(), input.length());
+            // byte inputs decode their tokens with the JDK, and map offsets with MappedInput
+            ByteInput byteInput = ByteInput.of(bytes);
+            assertEquals(expected, byteInput.subSequence(0, bytes.length).toString());
+            assertEquals(expected, byteInput.decoded().toString());
+            assertEquals(expected.length(), byteInput.index(bytes.length));
+        }
+    }
+
+    @Test
+    void parsersReadMappedFiles() throws IOException {
+        Parser parser = new BasicRulesParser();
+        for (String content : List.of("a :- b, c, d, e. f. ".repeat(1_000), "a :- b, c, d, e. f. ".repeat(1_000) + "été :- ça.")) {
+            MappedInput input = this.map(content);
+            IMatch expected = parser.read(content, 0);
+            ParseAssertions.assertSameTree(expected, parser.read(input, 0));
+            assertEquals(20_000 - 1, expected.end());
+            assertEquals(expected.end(), parser.recognize(input, 0, "main"));
+        }
+    }
+}
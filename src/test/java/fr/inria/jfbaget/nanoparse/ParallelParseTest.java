@@ -0,0 +1,142 @@
+package fr.inria.jfbaget.nanoparse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import fr.inria.jfbaget.nanoparse.examples.BasicRulesParser;
+import fr.inria.jfbaget.nanoparse.readers.ChoiceReader;
+import fr.inria.jfbaget.nanoparse.readers.RepetitionReader;
+import fr.inria.jfbaget.nanoparse.readers.RuleProfiler;
+import fr.inria.jfbaget.nanoparse.readers.SequenceReader;
+import fr.inria.jfbaget.nanoparse.readers.StringReader;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+class ParallelParseTest {
+
+    /** Checks that reading {@code input} by chunks returns the match of {@code read}. */
+    private static void assertSameParse(Parser parser, String rule, String input, String boundary) {
+        for (int chunks : List.of(1, 2, 3, 8, 50)) {
+            ParseAssertions.assertAgrees(parser, rule, (text, start) -> parser.readParallel(text, start, rule,
+                    new StringReader("boundary", boundary, false), chunks, ForkJoinPool.commonPool()),
+                    ParseAssertions::assertSameTree, input);
+        }
+    }
+
+    @Test
+    void chunksAreStitchedIntoTheSequentialMatch() {
+        Parser parser = new BasicRulesParser();
+        String input = " a :- b, c, d. e. f :- g.".repeat(2_000);
+        assertSameParse(parser, "main", input, ".");
+        assertSameParse(parser, "main", "", ".");
+        assertSameParse(parser, "main", "a.", ".");
+        // the parse stops at the error, in the middle of the input
+        assertSameParse(parser, "main", input.substring(0, input.length() / 2) + " a :- b c. " + input, ".");
+
+        // the element does not end with the boundary
+        assertSameParse(parser, "main", input, ",");
+        assertSameParse(parser, "main", input, ":-");
+
+        IMatch expected = parser.read(input.repeat(4), 0);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ParseAssertions.assertSameTree(expected,
+                    parser.readParallel(input.repeat(4), 0, "main", parser.getReader("dot"), 16, executor));
+        } finally {
+            executor.shutdown();
+        }
+        ParseAssertions.assertSameTree(expected, parser.readParallel(input.repeat(4), 0, "main", "."));
+    }
+
+    @Test
+    void boundariesWithinElementsAreSkipped() {
+        // "." also occurs in strings and numbers, where chunks must not start
+        Parser parser = new Parser(List.of(
+                new RepetitionReader("main", "fact", null, 0, Integer.MAX_VALUE, true),
+                new SequenceReader("fact", List.of("ID", "open", "args", "close", "dot"), false),
+                new RepetitionReader("args", "BASETYPE", "comma", 0, Integer.MAX_VALUE, false),
+                new StringReader("open", "(", true),
+                new StringReader("close", ")", true),
+                new StringReader("comma", ",", true),
+                new StringReader("dot", ".", true)
+        ));
+        Random random = new Random(7);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 3_000; i++) {
+            builder.append("p(");
+            for (int j = random.nextInt(4); j > 0; j--) {
+                builder.append(random.nextBoolean() ? "\"a. b.\"" : random.nextInt(100) + ".5").append(j > 1 ? ", " : "");
+            }
+            builder.append(random.nextInt(5) == 0 ? ") . " : ").");
+        }
+        assertSameParse(parser, "main", builder.toString(), ".");
+    }
+
+    @Test
+    void boundsAndSeparatorsAreKept() {
+        Parser parser = new Parser(List.of(
+                new StringReader("item", "(x)", true),
+                new StringReader("semicolon", ";", true),
+                new RepetitionReader("pairs", "item", "semicolon", 0, Integer.MAX_VALUE, true, false, true),
+                new RepetitionReader("bounded", "item", "semicolon", 3, 1000, true),
+                new RepetitionReader("many", "item", "semicolon", 5000, Integer.MAX_VALUE, true),
+                new RepetitionReader("one", "item", null, 0, 5, true, true, false)
+        ));
+        String input = "(x) ;(x);".repeat(1_500) + "(x)";
+        for (String rule : List.of("pairs", "bounded", "many", "one")) {
+            assertSameParse(parser, rule, input, ")");
+            assertSameParse(parser, rule, "(x)", ")");
+            assertSameParse(parser, rule, "(x);(x);(x)(x)", ")");
+        }
+        assertSameParse(parser, "one", "(x)(x)(x)(x)(x)(x)(x)", ")");
+        assertThrows(IllegalArgumentException.class, () -> parser.readParallel(input, 0, "item", ")"));
+    }
+
+    /** Statements ending with ";" of left-recursive differences, {@code expr ::= expr "-" INT | INT}. */
+    private static List<IReader> statements() {
+        return List.of(
+                new RepetitionReader("main", "statement", null, 0, Integer.MAX_VALUE, true),
+                // a single element is not read by chunks
+                new RepetitionReader("first", "statement", null, 0, 1, true),
+                new SequenceReader("statement", List.of("expr", "semicolon"), false, 0),
+                new ChoiceReader("expr", List.of("difference", "INT"), false),
+                new SequenceReader("difference", List.of("expr", "minus", "INT"), false),
+                new StringReader("minus", "-", true),
+                new StringReader("semicolon", ";", true));
+    }
+
+    @Test
+    void sequentialReadsAreInASession() {
+        // left-recursive rules are memoized, and overflow the stack out of a session
+        Parser parser = new Parser(statements());
+        String input = "1;2 - 3;4-5-6;".repeat(500);
+        for (String rule : List.of("main", "first")) {
+            ParseAssertions.assertSameTree(parser.read("1;2;", 0, rule),
+                    parser.readParallel("1;2;", 0, rule, new StringReader("boundary", ";", false), 1,
+                            ForkJoinPool.commonPool()));
+            assertSameParse(parser, rule, input, ";");
+            assertSameParse(parser, rule, "", ";");
+        }
+    }
+
+    @Test
+    void monitoredReadsReportTheRepetition() {
+        RuleProfiler profiler = new RuleProfiler();
+        Parser parser = new Parser(statements(), profiler);
+        String input = "1;2 - 3;4-5-6;".repeat(500);
+        for (int chunks : List.of(1, 8)) {
+            profiler.reset();
+            IMatch match = parser.readParallel(input, 0, "main", new StringReader("boundary", ";", false), chunks,
+                    ForkJoinPool.commonPool());
+            RuleProfiler.RuleStats main = profiler.snapshot().rule("main");
+            assertEquals(1, main.invocations(), "chunks: " + chunks);
+            assertEquals(1, main.successes(), "chunks: " + chunks);
+            assertEquals(match.end(), main.consumed(), "chunks: " + chunks);
+            assertTrue(profiler.snapshot().rule("statement").successes() >= 1_500, "chunks: " + chunks);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package fr.inria.jfbaget.nanoparse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Checks that the other ways of running a grammar (compiled, on the
+ * parsing machine, recognizing, reporting events, by chunks, from other
+ * threads...) agree with the interpreter, {@link Parser#read}.
+ */
+final class ParseAssertions {
+
+    private ParseAssertions() {}
+
+    /** Runs a rule of a grammar at {@code start} in {@code input}, in some way. */
+    @FunctionalInterface
+    interface Engine<T> {
+        T run(String input, int start);
+    }
+
+    /** Asserts that two match trees have the same shape, readers, spans and values. */
+    static void assertSameTree(IMatch expected, IMatch actual) {
+        assertEquals(expected.getClass(), actual.getClass());
+        assertSame(expected.reader(), actual.reader());
+        assertEquals(expected.success(), actual.success());
+        assertEquals(expected.start(), actual.start());
+        assertEquals(expected.end(), actual.end());
+        Object e = expected.result();
+        Object a = actual.result();
+        if (e instanceof IMatch) {
+            assertSameTree((IMatch) e, (IMatch) a);
+        } else if (e instanceof List) {
+            List<?> el = (List<?>) e;
+            List<?> al = (List<?>) a;
+            assertEquals(el.size(), al.size());
+            for (int i = 0; i < el.size(); i++) {
+                assertSameTree((IMatch) el.get(i), (IMatch) al.get(i));
+            }
+        } else if (e instanceof Map) {
+            Map<?, ?> em = (Map<?, ?>) e;
+            Map<?, ?> am = (Map<?, ?>) a;
+            assertEquals(em.keySet(), am.keySet());
+            for (Object key : em.keySet()) {
+                assertSameTree((IMatch) em.get(key), (IMatch) am.get(key));
+            }
+        } else {
+            assertEquals(e, a);
+        }
+    }
+
+    /** Asserts that {@code end} is the end of {@code match}, or {@code -1} if it failed. */
+    static void assertSameEnd(IMatch match, int end) {
+        assertEquals(match.success() ? match.end() : -1, end);
+    }
+
+    /**
+     * Runs {@code engine} on each of {@code inputs}, from their start and
+     * from their second character, and checks its result against the
+     * match {@code parser} reads there with {@code check}.
+     */
+    static <T> void assertAgrees(IParser parser, String rule, Engine<T> engine, BiConsumer<IMatch, T> check,
+                                 String... inputs) {
+        for (String input : inputs) {
+            for (int start = 0; start <= Math.min(1, input.length()); start++) {
+                IMatch expected = parser.read(input, start, rule);
+                T actual = engine.run(input, start);
+                try {
+                    check.accept(expected, actual);
+                } catch (AssertionError e) {
+                    throw new AssertionError(rule + " on \"" + input + "\" at " + start + ": " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /** Asserts that {@code engine} reads the matches {@code parser} reads. */
+    static void assertSameParse(IParser parser, IParser engine, String rule, String... inputs) {
+        assertAgrees(parser, rule, (input, start) -> engine.read(input, start, rule),
+                ParseAssertions::assertSameTree, inputs);
+    }
+
+    /** Asserts that {@code parser} recognizes the ends of the matches it reads. */
+    static void assertSameEnd(IParser parser, String rule, String... inputs) {
+        assertAgrees(parser, rule, (input, start) -> parser.recognize(input, start, rule),
+                ParseAssertions::assertSameEnd, inputs);
+    }
+}
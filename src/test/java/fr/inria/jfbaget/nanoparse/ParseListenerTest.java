@@ -0,0 +1,155 @@
+package fr.inria.jfbaget.nanoparse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import fr.inria.jfbaget.nanoparse.examples.BasicRulesParser;
+import fr.inria.jfbaget.nanoparse.readers.ChoiceReader;
+import fr.inria.jfbaget.nanoparse.readers.OptionalReader;
+import fr.inria.jfbaget.nanoparse.readers.RepetitionReader;
+import fr.inria.jfbaget.nanoparse.readers.SequenceReader;
+import fr.inria.jfbaget.nanoparse.readers.StringReader;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+class ParseListenerTest {
+
+    /** Records the events it receives. */
+    private static class Recorder implements IParseListener {
+        final List<String> events = new ArrayList<>();
+        /** The end {@link Parser#parse} returned. */
+        int end;
+
+        @Override
+        public void enterRule(String rule, int start) {
+            this.events.add("enter " + rule + " " + start);
+        }
+
+        @Override
+        public void field(String name) {
+            this.events.add("field " + name);
+        }
+
+        @Override
+        public void token(String rule, int start, int end, Object value) {
+            this.events.add("token " + rule + " " + start + " " + end + " " + value
+                    + (value == null ? "" : " " + value.getClass().getSimpleName()));
+        }
+
+        @Override
+        public void exitRule(String rule, int start, int end) {
+            this.events.add("exit " + rule + " " + start + " " + end);
+        }
+    }
+
+    /** Checks that parsing reports the events of the match {@code read} returns. */
+    private static void assertSameEvents(Parser parser, String rule, String... inputs) {
+        ParseAssertions.assertAgrees(parser, rule, (input, start) -> {
+            Recorder actual = new Recorder();
+            actual.end = parser.parse(input, start, rule, actual);
+            return actual;
+        }, (match, actual) -> {
+            Recorder expected = new Recorder();
+            if (match.success()) IParseListener.replay(match, expected);
+            ParseAssertions.assertSameEnd(match, actual.end);
+            assertEquals(expected.events, actual.events);
+        }, inputs);
+    }
+
+    @Test
+    void eventsFollowTheMatchesOfRead() {
+        assertSameEvents(new BasicRulesParser(), "main",
+                "a :- b, c, d, e.", "a. b :- c. d :- .", "a :- b c.", "", "  ");
+
+        Parser parser = new Parser(List.of(
+                new StringReader("foo", "foo", true),
+                new StringReader("comma", ",", true),
+                new RepetitionReader("star", "foo", null, 0, Integer.MAX_VALUE, false),
+                new RepetitionReader("plus", "foo", "comma", 1, 10, false),
+                new RepetitionReader("pairs", "foo", "comma", 2, 3, true, false, true),
+                new RepetitionReader("unwrap", "foo", "comma", 1, 5, false, true, false),
+                new RepetitionReader("lists", "plus", null, 1, 5, false),
+                new RepetitionReader("three", "obj", null, 3, 5, false),
+                new OptionalReader("opt", "plus", true),
+                new SequenceReader("some", List.of("foo", "comma", "BASETYPE"), false, List.of(2, 0)),
+                new SequenceReader("obj", List.of("foo", "comma", "NUMBER"), false, Map.of(0, "first", 2, "second")),
+                new SequenceReader("nested", List.of("star", "comma"), false),
+                new ChoiceReader("choice", List.of("nested", "lists", "comma"), false)
+        ));
+        for (String rule : List.of("star", "plus", "pairs", "unwrap", "lists", "three", "opt", "some", "obj", "nested",
+                "choice")) {
+            assertSameEvents(parser, rule, "", "foo", " foo foo", "foo,foo , foo,", "foo, 1.5e3", "foo, true foo",
+                    "foo,1 foo,2 foo,3", "foo,1 foo,2 foo,3 foo", "foo foo,", ",foo", "x");
+        }
+    }
+
+    @Test
+    void fieldsFollowTheSequence() {
+        Parser parser = new Parser(List.of(
+                new StringReader("foo", "foo", true),
+                new SequenceReader("obj", List.of("foo", "INT", "foo", "INT", "foo", "INT"), false,
+                        Map.of(0, "zeta", 1, "alpha", 2, "mid", 3, "beta", 4, "omega", 5, "a")),
+                new SequenceReader("twice", List.of("foo", "INT", "foo", "INT"), false,
+                        Map.of(3, "omega", 0, "zeta", 1, "alpha", 2, "zeta"))
+        ));
+        IMatch match = parser.read("foo 1 foo 2 foo 3", 0, "obj");
+        assertEquals(List.of("zeta", "alpha", "mid", "beta", "omega", "a"),
+                List.copyOf(((Map<?, ?>) match.result()).keySet()));
+        assertEquals(List.of("zeta", "alpha", "omega"),
+                List.copyOf(((Map<?, ?>) parser.read("foo 1 foo 2", 0, "twice").result()).keySet()));
+        assertSameEvents(parser, "obj", "foo 1 foo 2 foo 3", "foo 1 foo");
+        assertSameEvents(parser, "twice", "foo 1 foo 2", "foo");
+    }
+
+    @Test
+    void memoizedRulesAreReplayed() {
+        Parser parser = new Parser(List.of(
+                new ChoiceReader("expr", List.of("sub", "INT"), false),
+                new SequenceReader("sub", List.of("expr", "minus", "INT"), false),
+                new StringReader("minus", "-", true),
+                new RepetitionReader("main", "expr", null, 0, Integer.MAX_VALUE, false)
+        ));
+        assertSameEvents(parser, "main", "1 - 2 - 3 4-5", "1-2", "", "x");
+    }
+
+    @Test
+    void topLevelRepetitionsAreReportedWhileParsing() {
+        String text = "a :- b, c, d, e. f. ".repeat(1_000);
+        int[] read = {0};
+        CharSequence input = new CharSequence() {
+            @Override
+            public int length() {
+                return text.length();
+            }
+
+            @Override
+            public char charAt(int index) {
+                read[0] = Math.max(read[0], index);
+                return text.charAt(index);
+            }
+
+            @Override
+            public CharSequence subSequence(int start, int end) {
+                return text.subSequence(start, end);
+            }
+
+            @Override
+            public String toString() {
+                return text;
+            }
+        };
+        List<Integer> seen = new ArrayList<>();
+        IParseListener listener = new IParseListener() {
+            @Override
+            public void token(String rule, int start, int end, Object value) {
+                // how far the input was read when the first token is reported
+                if (seen.isEmpty()) seen.add(read[0]);
+            }
+        };
+        Parser parser = new BasicRulesParser();
+        assertEquals(text.length() - 1, parser.parse(input, 0, "main", listener));
+        assertTrue(seen.get(0) < 100, "first token reported after reading " + seen.get(0) + " chars");
+    }
+}
@@ -0,0 +1,122 @@
+package fr.inria.jfbaget.nanoparse;
+
+import static fr.inria.jfbaget.nanoparse.ParseAssertions.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import fr.inria.jfbaget.nanoparse.examples.BasicRulesParser;
+import fr.inria.jfbaget.nanoparse.readers.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+class ParsingMachineTest {
+
+    @Test
+    void basicRules() {
+        Parser parser = new BasicRulesParser();
+        IParser machine = parser.toMachine();
+
+        assertSameParse(parser, machine, "main",
+                "a :- b, c, d, e.",
+                "a. b :- c. d :- .",
+                "a :- b c.",
+                "",
+                "  ");
+    }
+
+    @Test
+    void sequencesChoicesAndOptions() {
+        Parser parser = new Parser(List.of(
+                new StringReader("lit_foo", "foo", false),
+                new StringReader("lit_bar", "bar", true),
+                new StringReader("empty", "", true),
+                new SequenceReader("seq_all", List.of("lit_foo", "empty", "lit_bar"), false),
+                new SequenceReader("seq_one", List.of("lit_foo", "lit_bar"), true, 1),
+                new SequenceReader("seq_some", List.of("lit_foo", "lit_bar"), false, List.of(1, 0)),
+                new SequenceReader("seq_obj", List.of("lit_foo", "lit_bar"), false, Map.of(0, "first", 1, "second")),
+                new ChoiceReader("alt", List.of("seq_all", "lit_foo", "INT"), true),
+                new ChoiceReader("nothing", List.of(), true),
+                new OptionalReader("opt", "seq_one", true)
+        ));
+        IParser machine = parser.toMachine();
+
+        for (String rule : List.of("seq_all", "seq_one", "seq_some", "seq_obj", "alt", "nothing", "opt")) {
+            assertSameParse(parser, machine, rule, "foobar", "foo bar", " foo  bar", "foXbar", "foo", " 12", "");
+        }
+    }
+
+    @Test
+    void repetitions() {
+        Parser parser = new Parser(List.of(
+                new StringReader("foo", "foo", true),
+                new StringReader("comma", ",", true),
+                new RepetitionReader("star", "foo", null, 0, Integer.MAX_VALUE, false),
+                new RepetitionReader("plus", "foo", "comma", 1, 10, true),
+                new RepetitionReader("pairs", "foo", "comma", 2, 3, true, false, true),
+                new RepetitionReader("one", "foo", null, 1, 1, false, true, false),
+                new RepetitionReader("atMostOne", "foo", "comma", 0, 1, false),
+                new RepetitionReader("unwrap", "foo", "comma", 1, 5, false, true, false),
+                new RepetitionReader("three", "foo", "comma", 3, 3, false),
+                new RepetitionReader("none", "foo", null, 0, 0, false)
+        ));
+        IParser machine = parser.toMachine();
+
+        for (String rule : List.of("star", "plus", "pairs", "one", "atMostOne", "unwrap", "three", "none")) {
+            assertSameParse(parser, machine, rule,
+                    "foo", "foo, foo", "foo,foo,foo,foo", "foo,foo,foo", "", "bar", "foo,", "foofoofoo");
+        }
+    }
+
+    @Test
+    void baseTypesAndMemoizedRules() {
+        Parser parser = new Parser(List.of(
+                new RepetitionReader("main", "item", "comma", 0, Integer.MAX_VALUE, false),
+                new ChoiceReader("item", List.of("expr", "BASETYPE"), false),
+                new ChoiceReader("expr", List.of("sub", "INT"), false),
+                new SequenceReader("sub", List.of("expr", "minus", "INT"), false),
+                new StringReader("minus", "-", true),
+                new StringReader("comma", ",", true)
+        ));
+        parser.getReader("comma").setMemoized(true);
+        IParser machine = parser.toMachine();
+
+        assertSameParse(parser, machine, "main",
+                "true, foo, \"a \\\"b\\\"\", 12 - 3 - 4, -3.5e2, .5, x1",
+                "1 - 2, false", "-");
+        assertSameParse(parser, machine, "expr", "1 - 2 - 3", "4", "-");
+    }
+
+    @Test
+    void readersOverridingReadAreCalled() {
+        Parser parser = new Parser(List.of(
+                new CompiledParserTest.LowerCaseReader("kw", "foo"),
+                new SequenceReader("main", List.of("kw"), false)
+        ));
+        IParser machine = parser.toMachine();
+
+        assertTrue(parser.read("FOO", 0).success());
+        assertSameParse(parser, machine, "main", "FOO", "foo", "bar");
+        assertSameParse(parser, machine, "kw", "FOO");
+    }
+
+    @Test
+    void deepNestingDoesNotUseTheJavaStack() {
+        // e ::= "(" e ")" | INT
+        Parser parser = new Parser(List.of(
+                new ChoiceReader("e", List.of("paren", "INT"), false),
+                new SequenceReader("paren", List.of("open", "e", "close"), false, 1),
+                new StringReader("open", "(", true),
+                new StringReader("close", ")", true)
+        ));
+        IParser machine = parser.toMachine();
+        int depth = 200_000;
+        String input = "(".repeat(depth) + "42" + ")".repeat(depth);
+
+        IMatch match = machine.read(input, 0);
+        assertTrue(match.success());
+        assertEquals(input.length(), match.end());
+        assertEquals(42, match.result());
+        assertFalse(machine.read(input.substring(0, input.length() - 1), 0).success());
+    }
+}
@@ -0,0 +1,87 @@
+package fr.inria.jfbaget.nanoparse;
+
+import static fr.inria.jfbaget.nanoparse.ParseAssertions.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import fr.inria.jfbaget.nanoparse.examples.BasicRulesParser;
+import fr.inria.jfbaget.nanoparse.matches.StringMatch;
+import fr.inria.jfbaget.nanoparse.readers.ChoiceReader;
+import fr.inria.jfbaget.nanoparse.readers.KeywordSetReader;
+import fr.inria.jfbaget.nanoparse.readers.OptionalReader;
+import fr.inria.jfbaget.nanoparse.readers.RepetitionReader;
+import fr.inria.jfbaget.nanoparse.readers.SequenceReader;
+import fr.inria.jfbaget.nanoparse.readers.StringReader;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+
+class RecognizeTest {
+
+    @Test
+    void recognizeAgreesWithRead() {
+        Parser parser = new BasicRulesParser();
+        assertSameEnd(parser, "main", "a :- b, c, d, e.", "a. b :- c. d :- .", "a :- b c.", "", "  ", "a :- ");
+
+        parser = new Parser(List.of(
+                new StringReader("foo", "foo", true),
+                new StringReader("comma", ",", true),
+                new RepetitionReader("star", "foo", null, 0, Integer.MAX_VALUE, false),
+                new RepetitionReader("plus", "foo", "comma", 1, 10, false),
+                new RepetitionReader("pairs", "foo", "comma", 2, 3, true, false, true),
+                new RepetitionReader("one", "foo", null, 1, 1, false, true, false),
+                new RepetitionReader("single", "foo", null, 1, 1, false),
+                new RepetitionReader("none", "foo", null, 0, 0, false),
+                new OptionalReader("opt", "plus", true),
+                new SequenceReader("obj", List.of("foo", "comma", "NUMBER"), false, Map.of(0, "first", 2, "second")),
+                new ChoiceReader("choice", List.of("obj", "BASETYPE", "comma"), false),
+                new KeywordSetReader("keywords", List.of("foo", "comma"), false, true)
+        ));
+        for (String rule : List.of("star", "plus", "pairs", "one", "single", "none", "opt", "obj", "choice", "keywords")) {
+            assertSameEnd(parser, rule, "", "foo", " foo foo", "foo,foo , foo,", "foo, 1.5e3", ",foo", "\"str\" x", "true", "x");
+        }
+    }
+
+    @Test
+    void recognizeHandlesMemoizedAndCustomReaders() {
+        StringReader any = new StringReader("any", "", false) {
+            @Override
+            protected StringMatch simpleread(CharSequence input, int start) {
+                if (start >= input.length()) return this.makeMatch(start, start, false, null);
+                return this.makeMatch(start, start + 1, true, input.subSequence(start, start + 1).toString());
+            }
+        };
+        Parser parser = new Parser(List.of(
+                any,
+                new ChoiceReader("expr", List.of("sub", "INT"), false),
+                new SequenceReader("sub", List.of("expr", "minus", "INT"), false),
+                new StringReader("minus", "-", true),
+                new SequenceReader("main", List.of("expr", "any"), false)
+        ));
+        assertSameEnd(parser, "main", "1 - 2 - 3!", "1-2", "7", "", "x");
+        assertSameEnd(parser, "expr", "1 - 2 - 3!", "1-2", "x");
+        assertSameEnd(parser.toMachine(), "main", "1 - 2 - 3!", "1-2");
+    }
+
+    @Test
+    void recognizeDoesNotAllocatePerToken() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Parser parser = new BasicRulesParser();
+        String input = "a :- b, c, d, e. f. ".repeat(2_000);
+        for (int i = 0; i < 5; i++) {
+            parser.read(input, 0);
+            parser.recognize(input, 0, "main");
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        IMatch match = parser.read(input, 0);
+        long read = threads.getCurrentThreadAllocatedBytes() - before;
+        before = threads.getCurrentThreadAllocatedBytes();
+        int end = parser.recognize(input, 0, "main");
+        long recognize = threads.getCurrentThreadAllocatedBytes() - before;
+
+        assertEquals(match.end(), end);
+        // only the parse-wide state, nothing per token
+        assertTrue(recognize < 1_000, "recognize allocated " + recognize + " bytes, read " + read);
+    }
+}
@@ -0,0 +1,94 @@
+package fr.inria.jfbaget.nanoparse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import fr.inria.jfbaget.nanoparse.examples.BasicRulesParser;
+import fr.inria.jfbaget.nanoparse.readers.RepetitionReader;
+import fr.inria.jfbaget.nanoparse.readers.StringReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+class StreamInputTest {
+
+    /** Checks that streaming {@code input} hands over the elements {@code read} returns. */
+    private static void assertSameItems(Parser parser, String rule, String input, int lookahead) {
+        IMatch expected = parser.read(input, 0, rule);
+        List<IMatch> items = new ArrayList<>();
+        int end = parser.stream(new StreamInput(new java.io.StringReader(input), lookahead), rule, items::add);
+        assertEquals(expected.success() ? expected.end() : -1, end, rule + " on \"" + input + "\"");
+        if (!expected.success()) return;
+        List<?> elements = expected.result() == null ? List.of() : (List<?>) expected.result();
+        assertEquals(elements.size(), items.size());
+        for (int i = 0; i < items.size(); i++) {
+            ParseAssertions.assertSameTree((IMatch) elements.get(i), items.get(i));
+        }
+    }
+
+    @Test
+    void itemsAreTheElementsOfTheRepetition() {
+        Parser parser = new BasicRulesParser();
+        for (int lookahead : List.of(1, 3, 8, 1000)) {
+            assertSameItems(parser, "main", "a :- b, c, d, e. f. g :- h.", lookahead);
+            assertSameItems(parser, "main", "  a. bb :- cc,   dd. ", lookahead);
+            assertSameItems(parser, "main", "", lookahead);
+            assertSameItems(parser, "main", "a :- b c.", lookahead);
+        }
+
+        parser = new Parser(List.of(
+                new StringReader("foo", "foobar", true),
+                new StringReader("comma", ",", true),
+                new RepetitionReader("plus", "foo", "comma", 2, 4, true)
+        ));
+        for (int lookahead : List.of(1, 5, 100)) {
+            for (String input : List.of("foobar, foobar,foobar", "foobar", "foobar,foobar,foobar,foobar,foobar", " foobar ,foob")) {
+                assertSameItems(parser, "plus", input, lookahead);
+            }
+        }
+    }
+
+    @Test
+    void bufferStaysProportionalToTheLargestItem() {
+        String item = "head :- " + "body, ".repeat(20) + "last. ";
+        int count = 20_000;
+        Reader source = new Reader() {
+            private int produced = 0;
+
+            @Override
+            public int read(char[] buffer, int offset, int length) {
+                if (this.produced == count * item.length()) return -1;
+                int n = Math.min(length, count * item.length() - this.produced);
+                for (int i = 0; i < n; i++) buffer[offset + i] = item.charAt((this.produced + i) % item.length());
+                this.produced += n;
+                return n;
+            }
+
+            @Override
+            public void close() {}
+        };
+        StreamInput input = new StreamInput(source, 64);
+        int[] items = {0};
+        int end = new BasicRulesParser().stream(input, "main", match -> items[0]++);
+        assertEquals(count, items[0]);
+        assertEquals(count * item.length() - 1, end);
+        assertTrue(input.capacity() <= 8 * item.length(), input.toString());
+    }
+
+    @Test
+    void channelsAreDecoded() {
+        byte[] bytes = "été :- ça. où.".getBytes(StandardCharsets.UTF_8);
+        Parser parser = new Parser(List.of(
+                new RepetitionReader("main", "word", null, 0, Integer.MAX_VALUE, false),
+                new fr.inria.jfbaget.nanoparse.readers.RegexReader("word", "[^\\s]+", true)
+        ));
+        List<Object> words = new ArrayList<>();
+        StreamInput input = new StreamInput(Channels.newChannel(new ByteArrayInputStream(bytes)), StandardCharsets.UTF_8, 4);
+        assertEquals(14, parser.stream(input, "main", match -> words.add(match.result())));
+        assertEquals(List.of("été", ":-", "ça.", "où."), words);
+    }
+}
@@ -0,0 +1,135 @@
+package fr.inria.jfbaget.nanoparse.basetypes;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import fr.inria.jfbaget.nanoparse.ByteInput;
+import fr.inria.jfbaget.nanoparse.IMatch;
+import fr.inria.jfbaget.nanoparse.Parser;
+import fr.inria.jfbaget.nanoparse.readers.RegexReader;
+import fr.inria.jfbaget.nanoparse.readers.StringReader;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+class BaseTypeScannerTest {
+
+    private static final Pattern SKIP = Pattern.compile("[\\s\\r\\n]*");
+
+    private static final List<String> SCANNED = List.of("INT", "FLOAT", "STRICTFLOAT", "ID", "BOOL", "STRING");
+
+    private static final String ALPHABET = "0123456789+-.eE\"\\ \ntrufalsxyz_$é ";
+
+    private final Parser parser = new Parser(List.of(new StringReader("main", "main", false)));
+
+    /** Checks that the scanner of {@code type} behaves as its regular expression on {@code input}. */
+    private void assertSameAsRegex(String type, String input) {
+        RegexReader reader = (RegexReader) this.parser.getReader(type);
+        Matcher skip = SKIP.matcher(input);
+        skip.lookingAt();
+        int start = skip.end();
+        Matcher matcher = reader.pattern.matcher(input).region(start, input.length());
+        String message = type + " on \"" + input + "\"";
+
+        if (!matcher.lookingAt()) {
+            IMatch match = this.parser.read(input, 0, type);
+            assertFalse(match.success(), message);
+            assertEquals(start, match.start(), message);
+            assertEquals(start, match.end(), message);
+            return;
+        }
+        String text = matcher.group();
+        Object expected;
+        switch (type) {
+            case "INT":
+                try {
+                    expected = Integer.parseInt(text);
+                } catch (NumberFormatException e) {
+                    assertThrows(NumberFormatException.class, () -> this.parser.read(input, 0, type), message);
+                    return;
+                }
+                break;
+            case "FLOAT":
+            case "STRICTFLOAT":
+                expected = Float.parseFloat(text);
+                break;
+            case "BOOL":
+                expected = Boolean.parseBoolean(text);
+                break;
+            default:
+                expected = text;
+        }
+        IMatch match = this.parser.read(input, 0, type);
+        assertTrue(match.success(), message);
+        assertEquals(start, match.start(), message);
+        assertEquals(matcher.end(), match.end(), message);
+        assertEquals(expected, match.result(), message);
+    }
+
+    @Test
+    void scannersAgreeWithRegexesOnEdgeCases() {
+        List<String> inputs = new ArrayList<>(List.of(
+                "", " ", "0", "-0", "+0", "-", "+", "42", " -7x", "+12345",
+                "2147483647", "-2147483648", "2147483648", "-2147483649", "99999999999999999999",
+                "1.", "1.5", ".5", ".", "-.5", "+1e5", "1e", "1e+", "1e+x", "1E-3", "12e5.3", "1.5e3",
+                "-1.5", "-1.5e3", ".5e", ".5e-2", "1.e2", "0.000001", "3.4028235e38", "3.5e38", "1e-46",
+                "123456789.123456789", "16777217", "0.1", "7e-10", "1.17549435E-38", "00012.5000",
+                "true", "false", "trueish", "fals", "tru", "True",
+                "x", "_x1", "$", "1x", "aé",
+                "\"\"", "\"abc\"", "\"a\\\"b\"", "\"a\\\\\"", "\"unterminated", "\"a\\", "\"a\\\nb\"",
+                "\"a\nb\"", "\"a\\ \"", "\"\\\"\"rest"));
+        for (String type : SCANNED) {
+            for (String input : inputs) {
+                this.assertSameAsRegex(type, input);
+            }
+        }
+    }
+
+    @Test
+    void stringScannerAgreesWithRegexOnBytes() {
+        Pattern string = ((RegexReader) this.parser.getReader("STRING")).pattern;
+        for (String input : List.of("\"a\\\u0085b\"", "\"a\\\u2028b\"", "\"a\\\u2029b\"", "\"a\\\u0084b\"",
+                "\"a\\\u2027b\"", "\"a\\éb\"", "\"a\\€\"", "\"\u2028\"", "\"a\\\n\"")) {
+            byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+            Matcher matcher = string.matcher(input);
+            IMatch match = this.parser.read(ByteInput.of(bytes), 0, "STRING");
+            assertEquals(matcher.lookingAt(), match.success(), input);
+            if (match.success()) {
+                assertEquals(bytes.length, match.end(), input);
+                assertEquals(input, match.result(), input);
+            }
+        }
+    }
+
+    @Test
+    void scannersAgreeWithRegexesOnRandomInputs() {
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            StringBuilder input = new StringBuilder();
+            int length = random.nextInt(10);
+            for (int k = 0; k < length; k++) {
+                input.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+            for (String type : SCANNED) {
+                this.assertSameAsRegex(type, input.toString());
+            }
+        }
+    }
+
+    @Test
+    void floatValuesAreCorrectlyRounded() {
+        Random random = new Random(7);
+        for (int i = 0; i < 50_000; i++) {
+            String digits = Integer.toString(random.nextInt(100_000_000));
+            int point = random.nextInt(digits.length() + 1);
+            String input = digits.substring(0, point) + "." + digits.substring(point) + "e" + (random.nextInt(25) - 12);
+            if (input.startsWith(".e") || input.equals(".")) continue;
+            this.assertSameAsRegex("FLOAT", input);
+            this.assertSameAsRegex("STRICTFLOAT", input);
+        }
+    }
+}
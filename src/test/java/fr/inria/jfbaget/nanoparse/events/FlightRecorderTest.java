@@ -0,0 +1,134 @@
+package fr.inria.jfbaget.nanoparse.events;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import fr.inria.jfbaget.nanoparse.IMatch;
+import fr.inria.jfbaget.nanoparse.IReader;
+import fr.inria.jfbaget.nanoparse.Parser;
+import fr.inria.jfbaget.nanoparse.examples.BasicRulesParser;
+import fr.inria.jfbaget.nanoparse.readers.ChoiceReader;
+import fr.inria.jfbaget.nanoparse.readers.FlightRecorderMonitor;
+import fr.inria.jfbaget.nanoparse.readers.RepetitionReader;
+import fr.inria.jfbaget.nanoparse.readers.SequenceReader;
+import fr.inria.jfbaget.nanoparse.readers.StringReader;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+class FlightRecorderTest {
+
+    /** The grammar of BasicRulesParser. */
+    private static List<IReader> rules() {
+        return List.of(
+                new RepetitionReader("main", "item", null, 0, Integer.MAX_VALUE, false),
+                new ChoiceReader("item", List.of("fact", "rule"), false),
+                new SequenceReader("fact", List.of("ID", "dot"), true, 0),
+                new StringReader("dot", ".", true),
+                new SequenceReader("rule", List.of("ID", "rulesep", "list", "dot"), true, Map.of(0, "head", 2, "body")),
+                new StringReader("rulesep", ":-", true),
+                new RepetitionReader("list", "ID", "comma", 0, Integer.MAX_VALUE, false),
+                new StringReader("comma", ",", true));
+    }
+
+    /** Returns the events of {@code recording}, once stopped. */
+    private static List<RecordedEvent> events(Recording recording, String name) throws IOException {
+        Path file = Files.createTempFile("nanoparse", ".jfr");
+        try {
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> event.getEventType().getName().equals(name))
+                    .collect(Collectors.toList());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void eachReadRecordsAParseEvent() throws IOException {
+        Parser parser = new BasicRulesParser();
+        IMatch match;
+        IMatch failure;
+        try (Recording recording = new Recording()) {
+            recording.enable(ParseEvent.class);
+            recording.start();
+            match = parser.read("a :- b, c. d.", 0);
+            failure = parser.read(":- b.", 0, "rule");
+            recording.stop();
+
+            List<RecordedEvent> events = events(recording, "fr.inria.jfbaget.nanoparse.Parse");
+            assertEquals(2, events.size());
+            RecordedEvent parse = events.get(0);
+            assertEquals("main", parse.getString("rule"));
+            assertEquals(13, parse.getInt("inputLength"));
+            // a number of characters, not of bytes
+            assertNull(parse.getEventType().getField("inputLength").getContentType());
+            assertEquals(0, parse.getInt("position"));
+            assertTrue(parse.getBoolean("success"));
+            assertEquals(match.end(), parse.getInt("endPosition"));
+            // main, rule, a, list, b, c, d
+            assertEquals(7, parse.getInt("nodes"));
+            assertFalse(parse.getDuration().isNegative());
+
+            RecordedEvent failed = events.get(1);
+            assertEquals("rule", failed.getString("rule"));
+            assertFalse(failed.getBoolean("success"));
+            assertEquals(failure.end(), failed.getInt("endPosition"));
+            assertEquals(1, failed.getInt("nodes"));
+        }
+    }
+
+    @Test
+    void slowRulesRecordRuleEvents() throws IOException {
+        Parser parser = new Parser(rules(), new FlightRecorderMonitor());
+        Parser plain = new Parser(rules());
+        String input = "a :- b, c. d.";
+        try (Recording recording = new Recording()) {
+            recording.enable(RuleEvent.class).withThreshold(Duration.ZERO);
+            recording.start();
+            assertEquals(plain.read(input, 0).toJSON().toString(), parser.read(input, 0).toJSON().toString());
+            plain.read(input, 0);
+            recording.stop();
+
+            List<RecordedEvent> events = events(recording, "fr.inria.jfbaget.nanoparse.Rule");
+            // with no threshold, every invocation of the monitored parser
+            RecordedEvent main = events.stream()
+                    .filter(event -> event.getString("rule").equals("main")).findFirst().get();
+            assertEquals(1, events.stream().filter(event -> event.getString("rule").equals("main")).count());
+            assertEquals(0, main.getInt("position"));
+            assertEquals(input.length(), main.getInt("endPosition"));
+            assertTrue(main.getBoolean("success"));
+            assertTrue(events.stream().anyMatch(event -> event.getString("rule").equals("fact")
+                    && !event.getBoolean("success") && event.getInt("endPosition") == -1));
+        }
+    }
+
+    @Test
+    void fastRulesRecordNothing() throws IOException {
+        Parser parser = new Parser(rules(), new FlightRecorderMonitor());
+        // without recording, the events are disabled, and not even created
+        assertFalse(ParseEvent.enabled());
+        assertFalse(RuleEvent.enabled());
+        assertTrue(parser.read("a :- b, c. d.", 0).success());
+        try (Recording recording = new Recording()) {
+            recording.enable(RuleEvent.class).withThreshold(Duration.ofHours(1));
+            recording.enable(ParseEvent.class).withThreshold(Duration.ofHours(1));
+            recording.start();
+            assertTrue(ParseEvent.enabled());
+            assertTrue(RuleEvent.enabled());
+            assertTrue(parser.read("a :- b, c. d.", 0).success());
+            recording.stop();
+
+            assertTrue(events(recording, "fr.inria.jfbaget.nanoparse.Rule").isEmpty());
+            assertTrue(events(recording, "fr.inria.jfbaget.nanoparse.Parse").isEmpty());
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import fr.inria.jfbaget.nanoparse.IReader;
+import fr.inria.jfbaget.nanoparse.Parser;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+class BacktrackTrackerTest {
+
+    /** The grammar of BasicRulesParser, which tries facts before rules. */
+    private static List<IReader> rules() {
+        return List.of(
+                new RepetitionReader("main", "item", null, 0, Integer.MAX_VALUE, false),
+                new ChoiceReader("item", List.of("fact", "rule"), false),
+                new SequenceReader("fact", List.of("ID", "dot"), true, 0),
+                new StringReader("dot", ".", true),
+                new SequenceReader("rule", List.of("ID", "rulesep", "list", "dot"), true, Map.of(0, "head", 2, "body")),
+                new StringReader("rulesep", ":-", true),
+                new RepetitionReader("list", "ID", "comma", 0, Integer.MAX_VALUE, false),
+                new StringReader("comma", ",", true));
+    }
+
+    @Test
+    void failingAlternativesAreRanked() {
+        BacktrackTracker tracker = new BacktrackTracker();
+        Parser parser = new Parser(rules(), tracker);
+        String input = "head :- b, c. d.";
+        assertEquals(new Parser(rules()).read(input, 0).toJSON().toString(),
+                parser.read(input, 0).toJSON().toString());
+        assertSame(input, tracker.input());
+
+        // fact reads "head", fails on ":-", and rule reads "head" again
+        assertEquals(1, tracker.visits("fact", 0));
+        assertEquals(2, tracker.visits("ID", 0));
+        assertEquals(0, tracker.visits("rule", 14));
+        assertEquals(0, tracker.visits("nothing", 0));
+        assertTrue(tracker.visits(0) >= 5, "main, item, fact, ID, rule, ID and skips");
+
+        List<BacktrackTracker.RuleWaste> ranking = tracker.ranking();
+        BacktrackTracker.RuleWaste fact = ranking.get(0);
+        assertEquals("fact", fact.name());
+        assertTrue(fact.discarded() >= "head".length(), fact.toString());
+        assertTrue(fact.failures() >= 1);
+        BacktrackTracker.RuleWaste id = ranking.stream().filter(rule -> rule.name().equals("ID")).findFirst().get();
+        assertTrue(id.revisits() >= 1, id.toString());
+        assertTrue(ranking.stream().noneMatch(rule -> rule.name().equals("STRING")));
+        assertTrue(tracker.report().startsWith("rule "), tracker.report());
+    }
+
+    @Test
+    void heatmapHasARowPerLine() {
+        BacktrackTracker tracker = new BacktrackTracker();
+        Parser parser = new Parser(rules(), tracker);
+        String input = "a.\nb.\nlonger :- x, y, z.\nc.";
+        assertTrue(parser.read(input, 0).success());
+
+        String[] rows = tracker.heatmap().split("\\R");
+        assertEquals(5, rows.length);
+        assertTrue(rows[0].trim().startsWith("line"), rows[0]);
+        assertTrue(rows[3].contains("longer :- x, y, z."), rows[3]);
+        // the visits of the lines add up to the visits of the input
+        int total = 0;
+        for (int i = 0; i <= input.length(); i++) total += tracker.visits(i);
+        int rowsTotal = 0;
+        for (int i = 1; i < rows.length; i++) rowsTotal += Integer.parseInt(rows[i].trim().split("\\s+")[1]);
+        assertEquals(total, rowsTotal);
+        // the line of the rule backtracks: its fact reads the head first
+        assertTrue(tracker.report().contains("longer :- x, y, z."), tracker.report());
+    }
+
+    @Test
+    void eachInputStartsOver() {
+        BacktrackTracker tracker = new BacktrackTracker();
+        Parser parser = new Parser(rules(), tracker);
+        String first = "a :- b. c.";
+        parser.read(first, 0);
+        parser.read(first, 0);
+        assertEquals(2, tracker.visits("main", 0));
+        assertEquals(1, tracker.ranking().stream().filter(rule -> rule.name().equals("main")).count());
+
+        String second = "d.";
+        parser.recognize(second, 0, "main");
+        assertSame(second, tracker.input());
+        assertEquals(1, tracker.visits("main", 0));
+        assertEquals(0, tracker.visits(5));
+
+        tracker.reset();
+        assertNull(tracker.input());
+        assertTrue(tracker.ranking().isEmpty());
+        assertEquals(0, tracker.visits("main", 0));
+    }
+}
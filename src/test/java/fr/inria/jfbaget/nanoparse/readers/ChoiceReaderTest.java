@@ -8,6 +8,7 @@ import fr.inria.jfbaget.nanoparse.matches.StringMatch;
 import org.junit.jupiter.api.Test;
 
 import java.util.List;
+import java.util.Locale;
 
 class ChoiceReaderTest {
 
@@ -74,4 +75,109 @@ class ChoiceReaderTest {
         assertEquals(3, match.start());
         assertEquals(6, match.end());
     }
-}
\ No newline at end of file
+
+    /** A literal counting how many times it is invoked. */
+    static class CountingReader extends StringReader {
+        int calls = 0;
+
+        CountingReader(String identifier, String pattern, boolean skip) {
+            super(identifier, pattern, skip);
+        }
+
+        @Override
+        public IMatch read(CharSequence input, int start) {
+            this.calls++;
+            return super.read(input, start);
+        }
+    }
+
+    @Test
+    void onlyAlternativesStartingWithNextCharacterAreTried() {
+        // the profiler counts the invocations of each rule
+        RuleProfiler profiler = new RuleProfiler();
+        Parser parser = new Parser(List.of(
+                new StringReader("lit_foo", "foo", false),
+                new StringReader("lit_bar", "bar", false),
+                new StringReader("lit_baz", "baz", true),
+                new ChoiceReader("choice", List.of("lit_foo", "lit_bar", "lit_baz"), false)
+        ), profiler);
+
+        StringMatch match = (StringMatch) parser.read("baz", 0, "choice");
+        assertEquals("baz", match.result());
+        assertEquals(0, profiler.snapshot().rule("lit_foo").invocations());
+        assertEquals(1, profiler.snapshot().rule("lit_bar").invocations());
+        assertEquals(1, profiler.snapshot().rule("lit_baz").invocations());
+
+        // "lit_baz" skips, so it is also tried on blanks
+        match = (StringMatch) parser.read(" baz", 0, "choice");
+        assertEquals("baz", match.result());
+        assertEquals(0, profiler.snapshot().rule("lit_foo").invocations());
+        assertEquals(1, profiler.snapshot().rule("lit_bar").invocations());
+        assertEquals(2, profiler.snapshot().rule("lit_baz").invocations());
+
+        assertFalse(parser.read("", 0, "choice").success());
+        assertEquals(2, profiler.snapshot().rule("lit_baz").invocations());
+    }
+
+    @Test
+    void alternativesOverridingReadAreAlwaysTried() {
+        CountingReader foo = new CountingReader("lit_foo", "foo", false);
+        StringReader kw = new StringReader("kw", "foo", false) {
+            @Override
+            public IMatch read(CharSequence input, int start) {
+                return super.read(input.toString().toLowerCase(Locale.ROOT), start);
+            }
+        };
+        Parser parser = new Parser(List.of(
+                foo, kw,
+                new StringReader("lit_bar", "bar", false),
+                new ChoiceReader("choice", List.of("lit_foo", "lit_bar"), false),
+                new ChoiceReader("main", List.of("lit_bar", "kw"), false)
+        ));
+
+        assertEquals("bar", parser.read("bar", 0, "choice").result());
+        assertEquals(1, foo.calls);
+        assertTrue(parser.read("FOO", 0, "main").success());
+        assertEquals(3, parser.recognize("FOO", 0, "main"));
+    }
+
+    @Test
+    void nullableAndNestedAlternativesAreDispatched() {
+        Parser parser = new Parser(List.of(
+                new StringReader("lit_foo", "foo", false),
+                new StringReader("lit_bar", "bar", false),
+                new SequenceReader("seq", List.of("opt_foo", "lit_bar"), false),
+                new OptionalReader("opt_foo", "lit_foo", false),
+                new ChoiceReader("choice", List.of("seq", "NUMBER", "opt_foo"), false)
+        ));
+
+        assertEquals(6, parser.read("foobar", 0, "choice").end());
+        assertEquals(3, parser.read("bar", 0, "choice").end());
+        assertEquals(3.5f, parser.read("3.5", 0, "choice").result());
+        assertEquals(3, parser.read("foo", 0, "choice").end());
+        IMatch empty = parser.read("x", 0, "choice");
+        assertTrue(empty.success());
+        assertEquals("opt_foo", empty.reader().getName());
+        assertTrue(parser.read("", 0, "choice").success());
+    }
+
+    @Test
+    void customAlternativesAreAlwaysTried() {
+        StringReader any = new StringReader("any", "", false) {
+            @Override
+            protected StringMatch simpleread(CharSequence input, int start) {
+                if (start >= input.length()) return this.makeMatch(start, start, false, null);
+                return this.makeMatch(start, start + 1, true, input.subSequence(start, start + 1).toString());
+            }
+        };
+        Parser parser = new Parser(List.of(
+                any,
+                new StringReader("lit_foo", "foo", false),
+                new ChoiceReader("choice", List.of("lit_foo", "any"), false)
+        ));
+
+        assertEquals("foo", parser.read("foo", 0, "choice").result());
+        assertEquals("x", parser.read("x", 0, "choice").result());
+        assertEquals("\u00e9", parser.read("\u00e9", 0, "choice").result());
+    }
+}
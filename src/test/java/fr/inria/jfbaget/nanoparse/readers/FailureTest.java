@@ -0,0 +1,68 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import fr.inria.jfbaget.nanoparse.IMatch;
+import fr.inria.jfbaget.nanoparse.Parser;
+import fr.inria.jfbaget.nanoparse.matches.ListMatch;
+import fr.inria.jfbaget.nanoparse.matches.Match;
+import fr.inria.jfbaget.nanoparse.matches.StringMatch;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+class FailureTest {
+
+    private final Parser parser = new Parser(List.of(
+            new StringReader("lit_foo", "foo", true),
+            new StringReader("lit_bar", "bar", false),
+            new SequenceReader("seq", List.of("lit_foo", "lit_bar"), true),
+            new ChoiceReader("choice", List.of("seq", "INT"), false),
+            new RepetitionReader("rep", "lit_foo", "lit_bar", 2, 3, false),
+            new RegexReader("regex", "[a-z]+", true)
+    ));
+
+    @Test
+    void failuresAreSharedInsideTheEngine() {
+        for (String rule : List.of("lit_foo", "seq", "choice", "rep", "regex", "INT")) {
+            AbstractReader reader = (AbstractReader) this.parser.getReader(rule);
+            IMatch first = AbstractReader.attempt(reader, "  ?", 0);
+            IMatch second = AbstractReader.attempt(reader, "x ?", 2);
+            assertFalse(first.success(), rule);
+            assertSame(first, second, rule);
+            assertSame(reader, first.reader(), rule);
+        }
+    }
+
+    @Test
+    void failuresArePositionedWhenReturned() {
+        IMatch failure = this.parser.read("  ?", 0, "lit_foo");
+        assertEquals(StringMatch.class, failure.getClass());
+        assertEquals(2, failure.start());
+        assertEquals(2, failure.end());
+
+        failure = this.parser.read(" foo baz", 0, "seq");
+        assertEquals(ListMatch.class, failure.getClass());
+        assertEquals(1, failure.start());
+        assertEquals(1, failure.end());
+
+        failure = this.parser.read(" x", 1, "choice");
+        assertEquals(Match.class, failure.getClass());
+        assertEquals(1, failure.start());
+
+        failure = this.parser.read("foo", 0, "rep");
+        assertEquals(ListMatch.class, failure.getClass());
+        assertEquals(0, failure.end());
+
+        for (String input : List.of("  ?", " foo baz", "foobarfoo", "")) {
+            for (String rule : List.of("lit_foo", "seq", "choice", "rep", "regex")) {
+                IMatch expected = this.parser.read(input, 0, rule);
+                IMatch actual = this.parser.toMachine().read(input, 0, rule);
+                assertEquals(expected.getClass(), actual.getClass());
+                assertEquals(expected.success(), actual.success());
+                assertEquals(expected.start(), actual.start());
+                assertEquals(expected.end(), actual.end());
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import fr.inria.jfbaget.nanoparse.IMatch;
+import fr.inria.jfbaget.nanoparse.IParser;
+import fr.inria.jfbaget.nanoparse.IReader;
+import fr.inria.jfbaget.nanoparse.Parser;
+import fr.inria.jfbaget.nanoparse.matches.Match;
+import fr.inria.jfbaget.nanoparse.matches.StringMatch;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class KeywordSetReaderTest {
+
+    private static final List<String> OPERATORS = List.of("=", "==", "=>", "<", "<=", "<<", "<<=", "!", "!=", "in", "int", "");
+
+    /** One literal rule per operator, the odd ones applying skip. */
+    private static List<IReader> operatorRules() {
+        List<IReader> readers = new ArrayList<>();
+        for (int i = 0; i < OPERATORS.size(); i++) {
+            readers.add(new StringReader("op" + i, OPERATORS.get(i), i % 2 == 1));
+        }
+        return readers;
+    }
+
+    private static List<String> operatorNames() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < OPERATORS.size(); i++) names.add("op" + i);
+        return names;
+    }
+
+    @Test
+    void orderedModeChoosesTheFirstLiteral() {
+        List<IReader> readers = operatorRules();
+        readers.add(new KeywordSetReader("ops", List.of("op0", "op1", "op3", "op9"), false));
+        Parser parser = new Parser(readers);
+
+        StringMatch match = (StringMatch) parser.read("==", 0, "ops");
+        assertEquals("=", match.result());
+        assertEquals("op0", match.reader().getName());
+        match = (StringMatch) parser.read("  <", 0, "ops");
+        assertEquals("<", match.result());
+        assertEquals(2, match.start());
+        assertEquals(3, match.end());
+        match = (StringMatch) parser.read("int", 0, "ops");
+        assertEquals("in", match.result());
+
+        IMatch failure = parser.read("?", 0, "ops");
+        assertFalse(failure.success());
+        assertSame(parser.getReader("ops"), failure.reader());
+        assertEquals(0, failure.end());
+    }
+
+    @Test
+    void longestModeChoosesTheLongestLiteral() {
+        List<IReader> readers = operatorRules();
+        readers.add(new KeywordSetReader("ops", operatorNames(), true, true));
+        Parser parser = new Parser(readers);
+
+        assertEquals("==", parser.read("==", 0, "ops").result());
+        assertEquals("<<=", parser.read(" <<=x", 0, "ops").result());
+        assertEquals(4, parser.read(" <<=x", 0, "ops").end());
+        assertEquals("int", parser.read("int", 0, "ops").result());
+        IMatch empty = parser.read("?", 0, "ops");
+        assertTrue(empty.success());
+        assertEquals("op11", empty.reader().getName());
+    }
+
+    @Test
+    void choicesOverLiteralsKeepTheirResults() {
+        List<IReader> readers = operatorRules();
+        readers.add(new ChoiceReader("ops", operatorNames(), false));
+        readers.add(new ChoiceReader("someOps", List.of("op4", "op2", "op6", "op9"), true));
+        Parser parser = new Parser(readers);
+        // the parsing machine unrolls choices, whatever their alternatives
+        IParser machine = parser.toMachine();
+
+        for (String rule : List.of("ops", "someOps")) {
+            for (String input : List.of("=", "==", "=>", "<", " <=", "<<", "<<= ", " !", "!=", " in", "int", "", " ", "?", " x")) {
+                IMatch expected = machine.read(input, 0, rule);
+                IMatch actual = parser.read(input, 0, rule);
+                assertEquals(expected.getClass(), actual.getClass());
+                assertSame(expected.reader(), actual.reader());
+                assertEquals(expected.success(), actual.success());
+                assertEquals(expected.start(), actual.start());
+                assertEquals(expected.end(), actual.end());
+                assertEquals(expected.result(), actual.result());
+            }
+        }
+        IMatch failure = parser.read("?", 0, "someOps");
+        assertEquals(Match.class, failure.getClass());
+    }
+
+    @Test
+    void onlyLiteralsCanBeMerged() {
+        List<IReader> readers = operatorRules();
+        readers.add(new KeywordSetReader("ops", List.of("op0", "INT"), false));
+
+        assertThrows(IllegalArgumentException.class, () -> new Parser(readers));
+    }
+}
@@ -0,0 +1,100 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import fr.inria.jfbaget.nanoparse.IMatch;
+import fr.inria.jfbaget.nanoparse.IReader;
+import fr.inria.jfbaget.nanoparse.Parser;
+import fr.inria.jfbaget.nanoparse.matches.IntMatch;
+import fr.inria.jfbaget.nanoparse.matches.ListMatch;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+class LeftRecursionTest {
+
+    // expr ::= expr "-" INT | INT
+    private Parser buildSubtractionParser() {
+        return new Parser(List.of(
+                new ChoiceReader("expr", List.of("sub", "INT"), false),
+                new SequenceReader("sub", List.of("expr", "minus", "INT"), false),
+                new StringReader("minus", "-", true)
+        ));
+    }
+
+    @Test
+    void leftRecursiveRulesAreDetected() {
+        Parser parser = buildSubtractionParser();
+        Set<String> names = GrammarAnalysis.leftRecursiveReaders(
+                        parser.getReaderNames().stream().map(parser::getReader).collect(Collectors.toList()))
+                .stream().map(IReader::getName).collect(Collectors.toSet());
+
+        assertEquals(Set.of("expr", "sub"), names);
+        assertTrue(parser.getReader("expr").isMemoized());
+        assertFalse(parser.getReader("minus").isMemoized());
+    }
+
+    @Test
+    void directLeftRecursionIsLeftAssociative() {
+        Parser parser = buildSubtractionParser();
+        ListMatch match = (ListMatch) parser.read("1 - 2 - 3", 0, "expr");
+
+        assertTrue(match.success());
+        assertEquals(0, match.start());
+        assertEquals(9, match.end());
+        // ((1 - 2) - 3)
+        ListMatch left = (ListMatch) match.result().get(0);
+        assertEquals(5, left.end());
+        assertEquals(1, ((IntMatch) left.result().get(0)).result());
+        assertEquals(2, ((IntMatch) left.result().get(2)).result());
+        assertEquals(3, ((IntMatch) match.result().get(2)).result());
+    }
+
+    @Test
+    void seedOnlyWhenNothingToGrow() {
+        Parser parser = buildSubtractionParser();
+        IMatch match = parser.read("7 -", 0, "expr");
+
+        assertTrue(match instanceof IntMatch);
+        assertEquals(1, match.end());
+    }
+
+    @Test
+    void nestedLeftRecursions() {
+        // expr ::= expr "+" term | term ; term ::= term "*" INT | INT
+        Parser parser = new Parser(List.of(
+                new ChoiceReader("expr", List.of("sum", "term"), false),
+                new SequenceReader("sum", List.of("expr", "plus", "term"), false),
+                new ChoiceReader("term", List.of("product", "INT"), false),
+                new SequenceReader("product", List.of("term", "times", "INT"), false),
+                new StringReader("plus", "+", true),
+                new StringReader("times", "*", true)
+        ));
+        ListMatch match = (ListMatch) parser.read("1+2*3+4", 0, "expr");
+
+        assertTrue(match.success());
+        assertEquals(7, match.end());
+        assertEquals("sum", match.reader().getName());
+        ListMatch left = (ListMatch) match.result().get(0);
+        assertEquals("sum", left.reader().getName());
+        assertEquals("product", left.result().get(2).reader().getName());
+    }
+
+    @Test
+    void indirectLeftRecursion() {
+        // a ::= b "x" | "y" ; b ::= a
+        Parser parser = new Parser(List.of(
+                new ChoiceReader("a", List.of("bx", "y"), false),
+                new SequenceReader("bx", List.of("b", "x"), false),
+                new ChoiceReader("b", List.of("a"), false),
+                new StringReader("x", "x", false),
+                new StringReader("y", "y", false)
+        ));
+        IMatch match = parser.read("yxxx", 0, "a");
+
+        assertTrue(match.success());
+        assertEquals(4, match.end());
+    }
+}
@@ -0,0 +1,100 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import fr.inria.jfbaget.nanoparse.IMatch;
+import fr.inria.jfbaget.nanoparse.Parser;
+import fr.inria.jfbaget.nanoparse.matches.StringMatch;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+class MemoTableTest {
+
+    /** A literal reader that counts how many times it is actually evaluated. */
+    static class CountingReader extends StringReader {
+        int calls = 0;
+
+        CountingReader(String identifier, String pattern) {
+            super(identifier, pattern, false);
+        }
+
+        @Override
+        protected StringMatch simpleread(CharSequence input, int start) {
+            this.calls++;
+            return super.simpleread(input, start);
+        }
+    }
+
+    private static Parser buildParser(CountingReader head) {
+        // item ::= head "!" | head "?"   (both alternatives start with head)
+        return new Parser(List.of(
+                new ChoiceReader("item", List.of("bang", "question"), false),
+                new SequenceReader("bang", List.of("head", "lit_bang"), false),
+                new SequenceReader("question", List.of("head", "lit_question"), false),
+                head,
+                new StringReader("lit_bang", "!", false),
+                new StringReader("lit_question", "?", false)
+        ));
+    }
+
+    @Test
+    void backtrackingReevaluatesWithoutMemo() {
+        CountingReader head = new CountingReader("head", "foo");
+        Parser parser = buildParser(head);
+
+        assertTrue(parser.read("foo?", 0).success());
+        assertEquals(2, head.calls);
+    }
+
+    @Test
+    void memoizedRuleIsEvaluatedOncePerPosition() {
+        CountingReader head = new CountingReader("head", "foo");
+        Parser parser = buildParser(head);
+        head.setMemoized(true);
+
+        IMatch match = parser.read("foo?", 0);
+        assertTrue(match.success());
+        assertEquals(4, match.end());
+        assertEquals(1, head.calls);
+    }
+
+    @Test
+    void memoIsDiscardedBetweenParses() {
+        CountingReader head = new CountingReader("head", "foo");
+        Parser parser = buildParser(head);
+        parser.setMemoized(true);
+
+        StringBuilder input = new StringBuilder("foo?");
+        assertTrue(parser.read(input, 0).success());
+        input.setCharAt(1, 'x');
+        assertFalse(parser.read(input, 0).success());
+        assertEquals(2, head.calls);
+    }
+
+    @Test
+    void memoizedParserBuildsSameTree() {
+        Parser plain = new Parser(List.of(
+                new SequenceReader("main", List.of("ID", "sep", "ID"), true, Map.of(0, "left", 2, "right")),
+                new StringReader("sep", ":-", true)));
+        Parser memoized = new Parser(List.of(
+                new SequenceReader("main", List.of("ID", "sep", "ID"), true, Map.of(0, "left", 2, "right")),
+                new StringReader("sep", ":-", true)));
+        memoized.setMemoized(true);
+
+        String input = " a :- b";
+        assertEquals(plain.read(input, 0).toJSON().toString(), memoized.read(input, 0).toJSON().toString());
+    }
+
+    @Test
+    void directReadsAreNotMemoized() {
+        CountingReader head = new CountingReader("head", "foo");
+        buildParser(head);
+        head.setMemoized(true);
+
+        head.read("foo", 0);
+        head.read("foo", 0);
+        assertEquals(2, head.calls);
+    }
+}
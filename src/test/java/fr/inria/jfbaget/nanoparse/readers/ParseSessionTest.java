@@ -0,0 +1,151 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import fr.inria.jfbaget.nanoparse.IMatch;
+import fr.inria.jfbaget.nanoparse.Parser;
+import fr.inria.jfbaget.nanoparse.matches.StringMatch;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+class ParseSessionTest {
+
+    /** The number of evaluations of the counting readers in a parse. */
+    static final ParseSession.Key<int[]> CALLS = new ParseSession.Key<>(int[].class, () -> new int[1]);
+
+    /** A literal reader that counts its evaluations in the session, rather than in a field. */
+    static class CountingReader extends StringReader {
+        CountingReader(String identifier, String pattern) {
+            super(identifier, pattern, true);
+        }
+
+        @Override
+        protected StringMatch simpleread(CharSequence input, int start) {
+            ParseSession.current().get(CALLS)[0]++;
+            return super.simpleread(input, start);
+        }
+    }
+
+    /** expr ::= expr "-" INT | INT, with a counted "-". */
+    private static Parser expressions() {
+        return new Parser(List.of(
+                new RepetitionReader("main", "stmt", null, 0, Integer.MAX_VALUE, false),
+                new SequenceReader("stmt", List.of("expr", "semicolon"), false, 0),
+                new ChoiceReader("expr", List.of("sub", "INT"), false),
+                new SequenceReader("sub", List.of("expr", "minus", "INT"), false),
+                new CountingReader("minus", "-"),
+                new RegexReader("semicolon", ";+", true)
+        ));
+    }
+
+    @Test
+    void keysHoldTheStateOfEachParse() {
+        Parser parser = expressions();
+        ParseSession session = new ParseSession();
+        IMatch match = parser.read("1 - 2 - 3; 4;", 0, "main", session);
+        assertTrue(match.success());
+        assertNull(session.input());
+        // still readable once the parse returned
+        int calls = session.get(CALLS)[0];
+        assertTrue(calls >= 2, calls + " calls");
+
+        // a new parse starts from fresh values
+        parser.read("1 - 2 - 3; 4;", 0, "main", session);
+        assertEquals(calls, session.get(CALLS)[0]);
+        parser.read("5;", 0, "main", session);
+        assertTrue(session.get(CALLS)[0] < calls);
+    }
+
+    @Test
+    void reusedSessionsGiveTheSameMatches() {
+        Parser parser = expressions();
+        ParseSession session = new ParseSession();
+        for (String input : List.of("1 - 2 - 3; 4;", "7;;", "1 - ;", "", "10 - 20 - 30 - 40;")) {
+            String expected = parser.read(input, 0).toJSON().toString();
+            assertEquals(expected, parser.read(input, 0, "main", session).toJSON().toString());
+            assertEquals(expected, parser.read(input, 0, "main", session).toJSON().toString());
+        }
+        assertNull(ParseSession.current());
+
+        session.reopen("x");
+        try {
+            assertSame(session, ParseSession.current());
+            assertThrows(IllegalStateException.class, () -> parser.read("1;", 0, "main", session));
+            assertThrows(IllegalStateException.class, () -> session.reopen("y"));
+        } finally {
+            session.close();
+        }
+        assertNull(ParseSession.current());
+    }
+
+    @Test
+    void spareSessionsAreClosed() {
+        ParseSession spare = ParseSession.spare();
+        assertNull(spare.input());
+        assertSame(spare, ParseSession.spare());
+        ParseSession session = ParseSession.open("abc");
+        try {
+            assertSame(spare, session);
+            // a nested parse is given another session
+            ParseSession nested = ParseSession.spare();
+            assertNotSame(session, nested);
+            assertNull(nested.input());
+            assertTrue(expressions().read("1 - 2;", 0).success());
+            assertSame(session, ParseSession.current());
+        } finally {
+            session.close();
+        }
+        assertSame(spare, ParseSession.spare());
+    }
+
+    @Test
+    void sessionsKeepABoundedNumberOfMatchers() {
+        ParseSession session = new ParseSession();
+        Pattern word = Pattern.compile("[a-z]+");
+        session.reopen("abc");
+        Matcher matcher = session.matcher(word);
+        session.close();
+        session.reopen("abc");
+        assertSame(matcher, session.matcher(word));
+        session.close();
+
+        // a grammar built for each parse leaves a matcher in the session
+        for (int i = 0; i < ParseSession.MAX_MATCHERS; i++) {
+            Parser parser = new Parser(List.of(new RegexReader("main", "w[a-z]*", false)));
+            assertTrue(parser.read("word", 0, "main", session).success());
+        }
+        session.reopen("abc");
+        assertNotSame(matcher, session.matcher(word));
+        session.close();
+    }
+
+    @Test
+    void sessionsNest() {
+        Parser inner = expressions();
+        // a reader that parses the text of its match with another parser
+        Parser outer = new Parser(List.of(
+                new RepetitionReader("main", "quoted", null, 0, Integer.MAX_VALUE, false),
+                new RegexReader("quoted", "'[^']*'", true) {
+                    @Override
+                    protected IMatch makeMatch(CharSequence input, int start, int end) {
+                        ParseSession session = ParseSession.current();
+                        String text = input.subSequence(start + 1, end - 1).toString();
+                        assertTrue(inner.read(text, 0).success());
+                        assertSame(session, ParseSession.current());
+                        assertSame(input, session.input());
+                        session.get(CALLS)[0]++;
+                        return super.makeMatch(input, start, end);
+                    }
+                }
+        ));
+        ParseSession session = new ParseSession();
+        IMatch match = outer.read("'1 - 2;' '3 - 4 - 5;' '6;'", 0, "main", session);
+        assertTrue(match.success());
+        assertEquals(3, ((List<?>) match.result()).size());
+        // the nested parses counted in their own sessions
+        assertEquals(3, session.get(CALLS)[0]);
+    }
+}
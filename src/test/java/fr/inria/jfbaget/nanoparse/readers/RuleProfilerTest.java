@@ -0,0 +1,164 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import fr.inria.jfbaget.nanoparse.FrozenParser;
+import fr.inria.jfbaget.nanoparse.IReader;
+import fr.inria.jfbaget.nanoparse.Parser;
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+class RuleProfilerTest {
+
+    /** The grammar of BasicRulesParser. */
+    private static List<IReader> rules() {
+        return List.of(
+                new RepetitionReader("main", "item", null, 0, Integer.MAX_VALUE, false),
+                new ChoiceReader("item", List.of("fact", "rule"), false),
+                new SequenceReader("fact", List.of("ID", "dot"), true, 0),
+                new StringReader("dot", ".", true),
+                new SequenceReader("rule", List.of("ID", "rulesep", "list", "dot"), true, Map.of(0, "head", 2, "body")),
+                new StringReader("rulesep", ":-", true),
+                new RepetitionReader("list", "ID", "comma", 0, Integer.MAX_VALUE, false),
+                new StringReader("comma", ",", true));
+    }
+
+    /** expr ::= expr "-" INT | INT */
+    private static List<IReader> expressions() {
+        return List.of(
+                new RepetitionReader("main", "stmt", null, 0, Integer.MAX_VALUE, false),
+                new SequenceReader("stmt", List.of("expr", "semicolon"), false, 0),
+                new ChoiceReader("expr", List.of("sub", "INT"), false),
+                new SequenceReader("sub", List.of("expr", "minus", "INT"), false),
+                new StringReader("minus", "-", true),
+                new StringReader("semicolon", ";", true));
+    }
+
+    @Test
+    void countsEachRule() {
+        RuleProfiler profiler = new RuleProfiler();
+        Parser parser = new Parser(rules(), profiler);
+        String input = "a :- b, c. d.";
+        assertEquals(new Parser(rules()).read(input, 0).toJSON().toString(),
+                parser.read(input, 0).toJSON().toString());
+
+        RuleProfiler.Snapshot snapshot = profiler.snapshot();
+        RuleProfiler.RuleStats main = snapshot.rule("main");
+        assertEquals(1, main.invocations());
+        assertEquals(1, main.successes());
+        assertEquals(input.length(), main.consumed());
+        assertEquals(1, snapshot.rule("rule").successes());
+        assertEquals(1, snapshot.rule("fact").successes());
+        assertTrue(snapshot.rule("fact").failures() >= 1);
+        assertEquals(2, snapshot.rule("dot").successes());
+        // " b, c", after ":-"
+        assertEquals(5, snapshot.rule("list").consumed());
+        assertEquals(3, snapshot.rule("item").invocations());
+        assertEquals(1, snapshot.rule("item").failures());
+        assertFalse(main.inclusiveTime().isNegative());
+        assertTrue(main.inclusiveTime().compareTo(main.exclusiveTime()) >= 0);
+        assertEquals(0, snapshot.rule("STRING").invocations());
+
+        // sorted by exclusive time, the rules never invoked are not reported
+        List<RuleProfiler.RuleStats> rules = snapshot.rules();
+        for (int i = 1; i < rules.size(); i++) {
+            assertTrue(rules.get(i - 1).exclusiveTime().compareTo(rules.get(i).exclusiveTime()) >= 0);
+        }
+        String report = snapshot.report();
+        assertTrue(report.startsWith("rule "), report);
+        assertTrue(report.contains("\nmain "), report);
+        assertFalse(report.contains("\nSTRING "), report);
+
+        // without a profiler, nothing is wrapped
+        Parser plain = new Parser(rules());
+        assertFalse(plain.getReader("main") instanceof MonitoredReader);
+        assertTrue(parser.getReader("main") instanceof MonitoredReader);
+        assertTrue(RuleProfiler.unwrap(parser.getReader("main")) instanceof RepetitionReader);
+    }
+
+    @Test
+    void profiledParsersGiveTheSameMatches() {
+        RuleProfiler profiler = new RuleProfiler();
+        Parser parser = new Parser(expressions(), profiler);
+        Parser plain = new Parser(expressions());
+        // the left recursion is still found through the wrappers
+        assertTrue(RuleProfiler.unwrap(parser.getReader("expr")).isMemoized());
+        assertFalse(parser.getReader("expr").isMemoized());
+
+        String input = "1 - 2 - 3; 4; 5 - ;";
+        String expected = plain.read(input, 0).toJSON().toString();
+        assertEquals(expected, parser.read(input, 0).toJSON().toString());
+        assertEquals(plain.recognize(input, 0, "main"), parser.recognize(input, 0, "main"));
+        assertEquals(plain.readTree(input, 0, "main").match().toJSON().toString(),
+                parser.readTree(input, 0, "main").match().toJSON().toString());
+        assertEquals(expected, parser.toMachine().read(input, 0).toJSON().toString());
+        assertEquals(plain.read(input, 0, "sub").toJSON().toString(),
+                parser.read(input, 0, "sub").toJSON().toString());
+
+        RuleProfiler.RuleStats expr = profiler.snapshot().rule("expr");
+        assertTrue(expr.invocations() > 0);
+        // expr is invoked again by sub while growing its seed
+        assertTrue(expr.maxDepth() >= 2, expr.toString());
+    }
+
+    @Test
+    void countsAddUpOverThreads() throws Exception {
+        RuleProfiler profiler = new RuleProfiler();
+        FrozenParser parser = new Parser(rules(), profiler).freeze();
+        String input = "a :- b, c. d. e :- f.";
+        parser.read(input, 0);
+        RuleProfiler.Snapshot once = profiler.snapshot();
+        profiler.reset();
+        assertEquals(0, profiler.snapshot().rule("main").invocations());
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 100; i++) assertTrue(parser.read(input, 0).success());
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        RuleProfiler.Snapshot snapshot = profiler.snapshot();
+        for (RuleProfiler.RuleStats rule : once.rules()) {
+            RuleProfiler.RuleStats total = snapshot.rule(rule.name());
+            assertEquals(400 * rule.invocations(), total.invocations(), rule.name());
+            assertEquals(400 * rule.successes(), total.successes(), rule.name());
+            assertEquals(400 * rule.consumed(), total.consumed(), rule.name());
+            assertEquals(rule.maxDepth(), total.maxDepth(), rule.name());
+        }
+    }
+
+    @Test
+    void countersOfFinishedThreadsAreDropped() throws Exception {
+        RuleProfiler profiler = new RuleProfiler();
+        Parser parser = new Parser(rules(), profiler);
+        int probe = profiler.rule("probe");
+        List<WeakReference<RuleMonitor.Invocations>> counters = new ArrayList<>();
+        for (int t = 0; t < 10; t++) {
+            Thread thread = new Thread(() -> {
+                assertTrue(parser.read("a :- b, c. d.", 0).success());
+                // the counters of the thread, through an invocation of its own
+                RuleMonitor.Invocations invocations = profiler.enter(probe, "", 0);
+                invocations.exit(probe, 0, -1);
+                counters.add(new WeakReference<>(invocations));
+            });
+            thread.start();
+            thread.join();
+        }
+        // counted once the outermost invocations returned
+        assertEquals(10, profiler.snapshot().rule("main").invocations());
+        assertEquals(10, profiler.snapshot().rule("probe").failures());
+
+        for (int i = 0; i < 100 && counters.stream().anyMatch(counter -> counter.get() != null); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertTrue(counters.stream().allMatch(counter -> counter.get() == null));
+    }
+}
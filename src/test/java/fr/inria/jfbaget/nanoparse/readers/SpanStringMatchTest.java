@@ -0,0 +1,62 @@
+package fr.inria.jfbaget.nanoparse.readers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import fr.inria.jfbaget.nanoparse.IMatch;
+import fr.inria.jfbaget.nanoparse.Parser;
+import fr.inria.jfbaget.nanoparse.matches.IntMatch;
+import fr.inria.jfbaget.nanoparse.matches.SpanStringMatch;
+import fr.inria.jfbaget.nanoparse.matches.StringMatch;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+class SpanStringMatchTest {
+
+    private final Parser parser = new Parser(List.of(
+            new RegexReader("word", "[a-z]+", true),
+            new StringReader("dot", ".", true),
+            new SequenceReader("sentence", List.of("word", "dot"), false, 0),
+            new RegexReader("length", "[0-9]+", true) {
+                @Override
+                protected IMatch makeMatch(int start, int end, boolean success, String result) {
+                    return new IntMatch(this, start, end, success, result.length());
+                }
+            }
+    ));
+
+    @Test
+    void tokensAreOnlyCopiedWhenRead() {
+        for (String rule : List.of("word", "ID", "STRING")) {
+            String input = " \"some\" text";
+            int start = rule.equals("STRING") ? 0 : 8;
+            IMatch match = this.parser.read(input, start, rule);
+            assertEquals(SpanStringMatch.class, match.getClass(), rule);
+            CharSequence text = ((StringMatch) match).text();
+            assertFalse(text instanceof String, rule);
+            assertEquals(input.substring(match.start(), match.end()), text.toString(), rule);
+
+            String result = ((StringMatch) match).result();
+            assertEquals(input.substring(match.start(), match.end()), result, rule);
+            assertSame(result, match.result(), rule);
+            assertSame(result, ((StringMatch) match).text(), rule);
+        }
+    }
+
+    @Test
+    void copiesKeepTheirText() {
+        IMatch match = this.parser.read("  hello . ", 0, "sentence");
+        assertEquals(SpanStringMatch.class, match.getClass());
+        assertEquals(2, match.start());
+        assertEquals(9, match.end());
+        assertEquals("hello", match.result());
+        assertEquals("hello", match.toJSON().get("result"));
+    }
+
+    @Test
+    void overriddenMatchesStillReceiveTheText() {
+        IMatch match = this.parser.read(" 12345", 0, "length");
+        assertEquals(IntMatch.class, match.getClass());
+        assertEquals(5, match.result());
+    }
+}